@@ -0,0 +1,106 @@
+package Client;
+
+/**
+ * Everything the window shows at one moment: the board, whose turn it is, the message and the title.  Immutable, so
+ * the reader thread can hand one to the Event Dispatch Thread (see BoardView.publish()) and carry on with the next.
+ * The with...() functions make a copy with one thing changed.
+ */
+public final class BoardSnapshot {
+
+    public static final BoardSnapshot WAITING = new BoardSnapshot(new int[]{4, 4, 4, 4, 4, 4, 0, 4, 4, 4, 4, 4, 4, 0},
+            1, 0, false, "Waiting for other player...", "Mancala");
+
+    private final int[] pits; // All 14, numbered like the server does
+    private final int seat; // The side the board is seen from, 1 or 2
+    private final int toMove; // 0 if nobody is to move (not started, or over)
+    private final boolean watching;
+    private final String message;
+    private final String title;
+
+    private BoardSnapshot(int[] pits, int seat, int toMove, boolean watching, String message, String title) {
+        this.pits = pits;
+        this.seat = seat;
+        this.toMove = toMove;
+        this.watching = watching;
+        this.message = message;
+        this.title = title;
+    }
+
+    /**
+     * @param pits all 14 pits, numbered like the server does, copied
+     * @param toMove the player to move, 0 if nobody is
+     * @param message
+     * @return this, with the board changed
+     */
+    public BoardSnapshot withBoard(int[] pits, int toMove, String message) {
+        return new BoardSnapshot(pits.clone(), seat, toMove, watching, message, title);
+    }
+
+    /**
+     * @param seat 1 or 2, the side to see the board from
+     * @param watching true if only watching, so there are no moves to make
+     * @return this, seen from that side
+     */
+    public BoardSnapshot withSeat(int seat, boolean watching) {
+        return new BoardSnapshot(pits, seat, toMove, watching, message, title);
+    }
+
+    public BoardSnapshot withMessage(String message) {
+        return new BoardSnapshot(pits, seat, toMove, watching, message, title);
+    }
+
+    public BoardSnapshot withTitle(String title) {
+        return new BoardSnapshot(pits, seat, toMove, watching, message, title);
+    }
+
+    /**
+     * @param pit 0-13, numbered like the server does
+     * @return the seeds in it
+     */
+    public int getPit(int pit) {
+        return pits[pit];
+    }
+
+    /**
+     * @param pit 0-5, from left to right on the side the board is seen from
+     * @return the seeds in it
+     */
+    public int getOurPit(int pit) {
+        return pits[(seat == 1 ? 0 : 7) + pit];
+    }
+
+    /**
+     * @param pit 0-5, from left to right as the opponent's pits are shown (the top row, which runs right to left)
+     * @return the seeds in it
+     */
+    public int getTheirPit(int pit) {
+        return pits[(seat == 1 ? 7 : 0) + 5 - pit];
+    }
+
+    public int getOurStore() {
+        return pits[seat == 1 ? 6 : 13];
+    }
+
+    public int getTheirStore() {
+        return pits[seat == 1 ? 13 : 6];
+    }
+
+    public int getSeat() {
+        return seat;
+    }
+
+    /**
+     * @return true if it's our turn to click a pit
+     */
+    public boolean isOurTurn() {
+        return !watching && toMove == seat;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+}
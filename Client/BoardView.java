@@ -0,0 +1,207 @@
+package Client;
+
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+import javax.swing.*;
+import javax.swing.border.Border;
+import javax.swing.border.LineBorder;
+
+/**
+ * The board, as a panel: the message along the top, the opponent's pits above ours, and a store either side.  Shows
+ * BoardSnapshots.
+ * <p>
+ * Like every Swing component it's only touched on the Event Dispatch Thread, except publish(), which any thread can
+ * call as often as it likes.  Snapshots published faster than the screen can show them are coalesced: only the latest
+ * one is shown, at most once every FRAME_MILLIS, so a burst of updates (a spectator catching up, a chain of extra
+ * turns) costs one repaint rather than one each, and never shows a board older than the last one published.
+ * <p>
+ * render() only changes what differs from the snapshot on screen, and every colour, font and border is made once.
+ */
+public class BoardView extends JPanel {
+
+    public static final long FRAME_MILLIS = 16; // About 60 frames a second
+
+    private static final Color THEIRS = new Color(252, 217, 217);
+    private static final Color OURS = new Color(225, 255, 224);
+    private static final Color HOVER = new Color(188, 253, 138);
+    private static final Color EMPTY = new Color(196, 204, 196); // Our pits that can't be played
+    private static final Font MESSAGE_FONT = new Font("", Font.BOLD, 30);
+    private static final Font PIT_FONT = new Font("Arial", Font.BOLD, 30);
+    private static final Font STORE_FONT = new Font("Arial", Font.BOLD, 72);
+    private static final Border PIT_BORDER = new LineBorder(Color.GRAY);
+    private static final String[] NUMBERS = new String[49]; // Seeds to text, there are only 48 seeds
+
+    static {
+        for (int i = 0; i < NUMBERS.length; i++) {
+            NUMBERS[i] = String.valueOf(i);
+        }
+    }
+
+    private final JLabel messageLabel = new JLabel(); // Tells the player about the game
+    private final JButton[] board = new JButton[14]; // Their pits (top row), ours, then their store and ours
+    private final JPanel left = new JPanel(new GridLayout(1, 1));
+    private final JPanel right = new JPanel(new GridLayout(1, 1));
+    private final AtomicReference<BoardSnapshot> pending = new AtomicReference<>(); // Published, not shown yet
+    private final Timer frameTimer = new Timer(0, e -> showPending());
+    private long lastFrame; // System.nanoTime() of the last render(), EDT only
+    private BoardSnapshot shown; // On screen, EDT only
+
+    /**
+     * @param onMove called on the Event Dispatch Thread with our pit, 0-5 from left to right, when it's our turn and we
+     *               click one
+     */
+    public BoardView(IntConsumer onMove) {
+        super(new BorderLayout(5, 5));
+        setBorder(BorderFactory.createTitledBorder("Mancala")); // Make fancy border
+        frameTimer.setRepeats(false);
+
+        messageLabel.setHorizontalAlignment(0);
+        messageLabel.setFont(MESSAGE_FONT);
+        add(messageLabel, BorderLayout.NORTH);
+
+        // Create the center grid of buttons
+        JPanel center = new JPanel(new GridLayout(2, 6, 5, 5));
+        for (int i = 0; i < 12; i++) {
+            JButton btn = pit(i <= 5 ? THEIRS : OURS, PIT_FONT);
+            if (i <= 5) { // Opponents buttons
+                btn.setRolloverEnabled(false);
+            } else { // Our buttons
+                int pit = i - 6;
+                // Change button color when hovered over
+                btn.getModel().addChangeListener(e -> btn.setBackground(ourColour(pit)));
+                // Ignore clicks when it's not our turn
+                btn.addActionListener(e -> {
+                    if (shown != null && shown.isOurTurn() && shown.getOurPit(pit) != 0) {
+                        onMove.accept(pit);
+                    }
+                });
+            }
+            board[i] = btn;
+            center.add(btn);
+        }
+        add(center, BorderLayout.CENTER);
+
+        board[12] = pit(THEIRS, STORE_FONT); // Opponent's store on the left
+        board[12].setRolloverEnabled(false);
+        left.add(board[12]);
+        left.setPreferredSize(new Dimension(95, 100));
+        add(left, BorderLayout.WEST);
+        board[13] = pit(OURS, STORE_FONT); // Our store on the right
+        board[13].setRolloverEnabled(false);
+        right.add(board[13]);
+        right.setPreferredSize(new Dimension(95, 100));
+        add(right, BorderLayout.EAST);
+
+        // Stores as wide as a pit, whatever the window's size
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent evt) {
+                int width = (getWidth() - 5 * 9) / 8; // Padding off, then split between 6 pits and 2 stores
+                left.setPreferredSize(new Dimension(width, 100));
+                right.setPreferredSize(new Dimension(width, 100));
+            }
+        });
+
+        render(BoardSnapshot.WAITING);
+    }
+
+    private static JButton pit(Color background, Font font) {
+        JButton btn = new JButton(NUMBERS[0]);
+        btn.setBackground(background);
+        btn.setBorder(PIT_BORDER);
+        btn.setFont(font);
+        return btn;
+    }
+
+    /**
+     * Function that shows a snapshot as soon as the next frame is due.  Safe to call from any thread, the reader's
+     * thread in particular: it never waits for the Event Dispatch Thread.
+     *
+     * @param snapshot
+     */
+    public void publish(BoardSnapshot snapshot) {
+        if (pending.getAndSet(snapshot) == null) { // Otherwise a frame is already coming, and will show this instead
+            SwingUtilities.invokeLater(this::scheduleFrame);
+        }
+    }
+
+    private void scheduleFrame() {
+        long wait = lastFrame + TimeUnit.MILLISECONDS.toNanos(FRAME_MILLIS) - System.nanoTime();
+        if (wait <= 0) {
+            showPending();
+        } else if (!frameTimer.isRunning()) {
+            frameTimer.setInitialDelay((int) TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+            frameTimer.start();
+        }
+    }
+
+    private void showPending() {
+        BoardSnapshot snapshot = pending.getAndSet(null);
+        if (snapshot != null) {
+            render(snapshot);
+        }
+    }
+
+    /**
+     * Function that puts a snapshot on screen straight away.  Event Dispatch Thread only (or before the view is
+     * shown anywhere).
+     *
+     * @param snapshot
+     */
+    public void render(BoardSnapshot snapshot) {
+        lastFrame = System.nanoTime();
+        BoardSnapshot previous = shown;
+        shown = snapshot;
+        for (int i = 0; i < 6; i++) {
+            setSeeds(board[i], snapshot.getTheirPit(i), previous == null ? -1 : previous.getTheirPit(i));
+            int seeds = snapshot.getOurPit(i);
+            if (setSeeds(board[6 + i], seeds, previous == null ? -1 : previous.getOurPit(i))) {
+                board[6 + i].setBackground(ourColour(i));
+            }
+        }
+        setSeeds(board[12], snapshot.getTheirStore(), previous == null ? -1 : previous.getTheirStore());
+        setSeeds(board[13], snapshot.getOurStore(), previous == null ? -1 : previous.getOurStore());
+        if (previous == null || !snapshot.getMessage().equals(previous.getMessage())) {
+            messageLabel.setText(snapshot.getMessage());
+        }
+        if (previous == null || !snapshot.getTitle().equals(previous.getTitle())) {
+            Window window = SwingUtilities.getWindowAncestor(this);
+            if (window instanceof Frame) {
+                ((Frame) window).setTitle(snapshot.getTitle());
+            }
+        }
+    }
+
+    /**
+     * @return true if the number changed
+     */
+    private static boolean setSeeds(JButton btn, int seeds, int previous) {
+        if (seeds == previous) {
+            return false;
+        }
+        btn.setText(NUMBERS[seeds]);
+        return true;
+    }
+
+    /**
+     * @param pit 0-5 of ours
+     * @return its colour: greyed out if empty, lighter while hovered over
+     */
+    private Color ourColour(int pit) {
+        if (shown == null || shown.getOurPit(pit) == 0) { // Button disabled
+            return EMPTY;
+        }
+        return board[6 + pit].getModel().isRollover() ? HOVER : OURS;
+    }
+
+    /**
+     * @return the snapshot on screen
+     */
+    public BoardSnapshot getShown() {
+        return shown;
+    }
+}
@@ -3,230 +3,379 @@ package Client;
 // IMPORTANT: You must run GameServer.java before you run this program.  This program connects to the server started by
 //            GameServer.java, and will not run without it.
 
+import Server.BinaryProtocol;
+
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
 import java.net.*;
+import java.util.Arrays;
 import javax.swing.*;
-import javax.swing.border.LineBorder;
 import java.awt.*;
 import java.awt.event.*;
 
+/**
+ * The Swing client.  A reader thread of its own connects, reads what the server sends and turns it into immutable
+ * BoardSnapshots, which it publishes to the BoardView; only the Event Dispatch Thread touches the window.  The reader
+ * never waits for the window, and the window never waits for the network.
+ */
 public class Client extends JFrame {
-    private JLabel messageLabel; //The JLabel that displays information to the player about the game.
-    private JButton[] board = new JButton[14];
+    private BoardView view; // Made on the Event Dispatch Thread once we first connect
+    private BoardSnapshot current = BoardSnapshot.WAITING; // The last snapshot published, reader thread only
 
     JFrame frame = new JFrame("Mancala");
-    private JPanel left = new JPanel(new GridLayout(1,1));
-    private JPanel right = new JPanel(new GridLayout(1,1));
     int playerNum = 0;
+    private volatile PrintWriter socketOut; // Text protocol, the reader thread connects, the EDT sends moves
+    private volatile OutputStream binaryOut; // Binary protocol
+    private boolean computer; // Play the computer instead of waiting for a second player
+    private long sessionToken; // From the welcome, gets our seat back if the connection drops (0 until then)
+    private int watchGame; // The game we are only watching, 0 if we are playing
+    private static final int RECONNECT_ATTEMPTS = 30;
+    private static final long RECONNECT_MILLIS = 2000;
 
-    public Client() {
-        try (
-                Socket socket = new Socket("localhost", 1024);
-                PrintWriter socketOut = new PrintWriter(socket.getOutputStream(), true);
-                BufferedReader socketIn = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                ) {
-            createGUI(socketOut);
-            while (true) {
-                String line = socketIn.readLine();
-                // Determine if the user is player 1 or player 2
-                // Used to know what inputs to send back
-                if (playerNum == 0) {
-                    if (line.endsWith("1.")) { // "Welcome Player 1."
-                        playerNum = 1;
-                    } else if (line.endsWith("2.")) { // "Welcome Player 2."
-                        playerNum = 2;
-                    }
-                }
-                if (line.startsWith("╔")) { // Board display
-                    if (updateBoard(socketIn)) {
-                        break;
-                    }
-                }
-                if (line.contains("Wins") || line.contains("Tie")) { // "Player x Wins!" or "Tie!"
-                    messageLabel.setText(line);
-                    break;
+    /**
+     * @param binary true to talk to the server with the compact binary protocol, false for the text protocol
+     * @param computer true to play the computer
+     */
+    public Client(boolean binary, boolean computer) {
+        this(binary, computer, 0);
+    }
+
+    /**
+     * @param binary true to talk to the server with the compact binary protocol, false for the text protocol
+     * @param computer true to play the computer
+     * @param watchGame number of a game to watch instead of playing (always uses the binary protocol), 0 to play
+     */
+    public Client(boolean binary, boolean computer, int watchGame) {
+        this.computer = computer;
+        this.watchGame = watchGame;
+        boolean useBinary = binary || watchGame != 0;
+        Thread.ofPlatform().name("client-reader").start(() -> run(useBinary));
+    }
+
+    /**
+     * Function that plays until the game is over, reconnecting if the connection drops, then closes the window.  Runs
+     * on the reader thread.
+     *
+     * @param binary
+     */
+    private void run(boolean binary) {
+        try {
+            int attempts = 0;
+            while (!play(binary)) { // Lost the connection mid-game, keep trying to get our seat back
+                if (++attempts > RECONNECT_ATTEMPTS) {
+                    throw new EOFException("Lost the connection to the server");
                 }
+                publish(current.withMessage("Reconnecting..."));
+                Thread.sleep(RECONNECT_MILLIS);
             }
             // Wait 10 seconds then close
             Thread.sleep(10000);
-            frame.dispatchEvent(new WindowEvent(frame, WindowEvent.WINDOW_CLOSING));
+            SwingUtilities.invokeLater(() -> frame.dispatchEvent(new WindowEvent(frame, WindowEvent.WINDOW_CLOSING)));
         } catch (ConnectException e) {
             System.out.println("ERROR: ../Server/GameServer.java must be running for this program to start.");
         } catch (Exception e) {
             System.out.println("something broke: " + e);
         }
     }
-    
+
     /**
-     * Initialize the GUI elements.
+     * Function that connects to the server and plays, picking up our session again if we already have one.
      *
-     * @param socketOut used for button click handler
+     * @param binary
+     * @return true once the game is over, false if the connection dropped before then
+     * @throws IOException if we couldn't connect the first time
      */
-    private void createGUI(PrintWriter socketOut) {
-        // Create window
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.setMinimumSize(new Dimension(800,300));
-        BorderLayout borderLayout = new BorderLayout(5,5);
-        JPanel panel = new JPanel(borderLayout);
-        panel.setBorder(BorderFactory.createTitledBorder("Mancala")); // Make fancy border
-        frame.add(panel);
-
-        // Initialize messageLabel (created as a class variable)
-        messageLabel = new JLabel("Waiting for other player...");
-        messageLabel.setHorizontalAlignment(0);
-        messageLabel.setFont(new Font("", Font.BOLD, 30));
-        panel.add(messageLabel, BorderLayout.NORTH);
-
-        // Create the center grid of buttons
-        JPanel center = new JPanel(new GridLayout(2,6,5,5));
-        // Create 12 buttons
-        for (int i = 0; i < 12; i++) {
-            JButton btn = new JButton("4");
-            // Opponents buttons
-            if (i <= 5) {
-                btn.setBackground(new Color(252, 217, 217));
-                btn.setRolloverEnabled(false);
-                btn.setBorder(new LineBorder(Color.GRAY));
-                btn.setFont(new Font("Arial", Font.BOLD, 30));
-            } else { // Our buttons
-                btn.setBackground(new Color(225, 255, 224));
-                btn.setBorder(new LineBorder(Color.GRAY));
-                btn.setFont(new Font("Arial", Font.BOLD, 30));
-                // Change button color when hovered over
-                btn.getModel().addChangeListener(e -> {
-                    final ButtonModel model = (ButtonModel) e.getSource();
-                    if (model.isRollover() && Integer.parseInt(btn.getText()) != 0) { // Hovered over
-                        btn.setBackground(new Color(188,253,138));
-                    } else if (Integer.parseInt(btn.getText()) == 0 ) { // Button disabled
-                        btn.setBackground(new Color(196, 204, 196));
-                    } else { // Default
-                        btn.setBackground(new Color(225, 255, 224));
-                    }
-                });
-                
+    private boolean play(boolean binary) throws IOException {
+        try (Socket socket = new Socket("localhost", 1024)) {
+            if (view == null) {
+                createGUI();
             }
-            int finalI = i;
-            // Click handler
-            btn.addActionListener(e -> {
-                if (messageLabel.getText().contains("Your")) { // Ignore input if it is not the users turn
-                    // Offset output based on player, because index 0 in the GUI is top left, whereas index 0 in the
-                    // terminal version is bottom left.
-                    if (playerNum == 1) {
-                        socketOut.println((finalI - 6) + "");
-                    } else if (playerNum == 2) {
-                        socketOut.println((finalI - 6) + "");
-                    }
+            if (binary) {
+                playBinary(socket);
+            } else {
+                playText(socket);
+            }
+            return true;
+        } catch (IOException e) {
+            if (sessionToken == 0) { // Never got into a game
+                throw e;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Play a game using the text protocol (the same one netcat users see).
+     *
+     * @param socket
+     * @throws IOException
+     */
+    private void playText(Socket socket) throws IOException {
+        socketOut = new PrintWriter(socket.getOutputStream(), true);
+        BufferedReader socketIn = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        if (sessionToken != 0) {
+            socketOut.printf("resume %016x%n", sessionToken);
+        }
+        while (true) {
+            String line = socketIn.readLine();
+            if (line == null) {
+                throw new EOFException("Server closed the connection");
+            }
+            // Determine if the user is player 1 or player 2
+            // Used to know what inputs to send back
+            if (line.startsWith("Welcome")) { // "Welcome Player 1.", or "Welcome back Player 1." after resuming
+                playerNum = line.endsWith("1.") ? 1 : 2;
+                publish(current.withSeat(playerNum, false));
+                if (computer && line.equals("Welcome Player 1.")) {
+                    socketOut.println("c");
                 }
-            });
-            
-            board[i] = btn; // Save button to array
-            center.add(board[i]); // Add button to center panel
+            } else if (line.startsWith("Session ")) { // "Session 0123456789abcdef. If you get disconnected..."
+                sessionToken = Long.parseUnsignedLong(line.substring(8, 24), 16);
+            } else if (line.contains("disconnected, waiting")) { // Our opponent's connection dropped
+                publish(current.withMessage("Opponent disconnected, waiting for them."));
+            } else if (line.startsWith("Time left: ")) { // "Time left: Player 1 4:57, Player 2 5:00."
+                publish(current.withTitle("Mancala - " + line));
+            }
+            if (line.startsWith("╔")) { // Board display
+                if (updateBoard(socketIn)) {
+                    break;
+                }
+            }
+            if (line.contains("Wins") || line.contains("Tie")) { // "Player x Wins!" or "Tie!"
+                publish(current.withMessage(line));
+                break;
+            }
         }
-        panel.add(center, BorderLayout.CENTER); // Add center panel to main panel
-
-        // Create left button (opponents store)
-        JButton leftButton = new JButton("0");
-        leftButton.setBackground(new Color(252, 217, 217));
-        leftButton.setRolloverEnabled(false);
-        leftButton.setBorder(new LineBorder(Color.GRAY));
-        leftButton.setFont(new Font("Arial", Font.BOLD, 72));
-        board[12] = leftButton;
-        left.add(board[12]);
-        left.setPreferredSize(new Dimension(95,100));
-        panel.add(left, BorderLayout.WEST);
-
-        // Create right button (our store)
-        JButton rightButton = new JButton("0");
-        rightButton.setBackground(new Color(225, 255, 224));
-        rightButton.setRolloverEnabled(false);
-        rightButton.setBorder(new LineBorder(Color.GRAY));
-        rightButton.setFont(new Font("Arial", Font.BOLD, 72));
-        board[13] = rightButton;
-        right.add(board[13]);
-        right.setPreferredSize(new Dimension(95,100));
-        panel.add(right, BorderLayout.EAST);
-
-        // Resize handler (change left and right sizes based on window size)
-        frame.addComponentListener(new ComponentAdapter() {
-            @Override
-            public void componentResized(ComponentEvent evt) {
-                JFrame frame = (JFrame) evt.getSource(); // Get the JFrame
-                Dimension size = frame.getSize(); // Get dimensions
-                int width = size.width;
-                int correctedWidth = width - (5*9); // Remove padding
-                int newButtonWidth = correctedWidth / 8; // Get size of each button
-                left.setPreferredSize(new Dimension(newButtonWidth, 100)); // Change size of left panel
-                right.setPreferredSize(new Dimension(newButtonWidth, 100)); // Change size of right panel
+    }
+
+    /**
+     * Play a game using the binary protocol (see Server.BinaryProtocol).
+     *
+     * @param socket
+     * @throws IOException
+     */
+    private void playBinary(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        binaryOut = socket.getOutputStream();
+        DataInputStream socketIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        binaryOut.write(BinaryProtocol.HANDSHAKE);
+        if (sessionToken != 0) {
+            binaryOut.write(BinaryProtocol.RESUME);
+            for (int i = 0; i < BinaryProtocol.TOKEN_SIZE; i++) {
+                binaryOut.write((int) (sessionToken >>> (56 - 8 * i)));
             }
-        });
+        } else if (watchGame != 0) {
+            binaryOut.write(BinaryProtocol.WATCH);
+            new DataOutputStream(binaryOut).writeInt(watchGame);
+        }
+        binaryOut.flush();
 
-        frame.setSize(800, 300);
-        frame.setVisible(true);
+        int[] pits = new int[BinaryProtocol.PITS];
+        int outOfTime = 0; // The player who ran out of time, if one did
+        while (true) {
+            int type = socketIn.read();
+            if (type < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+            if (type == BinaryProtocol.WELCOME) {
+                playerNum = socketIn.readUnsignedByte();
+                publish(current.withSeat(playerNum, false));
+                if (computer && playerNum == 1 && sessionToken == 0) { // Not when we are resuming
+                    binaryOut.write(BinaryProtocol.PLAY_COMPUTER);
+                    binaryOut.flush();
+                }
+            } else if (type == BinaryProtocol.SPECTATING) {
+                playerNum = 1; // Spectators see the board from player 1's side
+                publish(current.withSeat(1, true).withTitle("Mancala - watching game " + watchGame));
+            } else if (type == BinaryProtocol.SESSION) {
+                sessionToken = socketIn.readLong();
+            } else if (type == BinaryProtocol.CLOCK) {
+                publish(current.withTitle("Mancala - Time left: Player 1 " + formatTime(socketIn.readUnsignedShort())
+                        + ", Player 2 " + formatTime(socketIn.readUnsignedShort()) + "."));
+            } else if (type == BinaryProtocol.TIME_UP) {
+                outOfTime = socketIn.readUnsignedByte();
+            } else if (type == BinaryProtocol.OPPONENT_LEFT) {
+                publish(current.withMessage("Opponent disconnected, waiting " + socketIn.readUnsignedByte()
+                        + "s for them."));
+            } else if (type == BinaryProtocol.BOARD || type == BinaryProtocol.DELTA) {
+                int toMove = socketIn.readUnsignedByte();
+                socketIn.readUnsignedByte(); // Legal moves, we just grey out empty pits instead
+                if (type == BinaryProtocol.BOARD) {
+                    for (int i = 0; i < BinaryProtocol.PITS; i++) {
+                        pits[i] = socketIn.readUnsignedByte();
+                    }
+                } else {
+                    int count = socketIn.readUnsignedByte();
+                    for (int i = 0; i < count; i++) {
+                        int pit = socketIn.readUnsignedByte();
+                        pits[pit] = socketIn.readUnsignedByte();
+                    }
+                }
+                showBoard(pits, toMove);
+            } else if (type == BinaryProtocol.GAME_OVER) {
+                int winner = socketIn.readUnsignedByte();
+                socketIn.readUnsignedByte(); // Final scores are already on the board
+                socketIn.readUnsignedByte();
+                String message;
+                if (outOfTime != 0 && (watchGame != 0 || outOfTime != playerNum)) {
+                    message = "Player " + outOfTime + " ran out of time.  Player " + winner + " wins!";
+                } else if (outOfTime != 0) {
+                    message = "You ran out of time.";
+                } else if (winner == 0) {
+                    message = "It's a tie.";
+                } else if (watchGame != 0) {
+                    message = "Player " + winner + " wins!";
+                } else if (winner == playerNum) {
+                    message = "You win!";
+                } else {
+                    message = "You lost.";
+                }
+                publish(current.withBoard(pits, 0, message));
+                break;
+            }
+            // OPPONENT_JOINED, OPPONENT_BACK, GAME_STARTED and INVALID_MOVE don't change anything on screen
+        }
+    }
+
+    /**
+     * @return seconds as "m:ss"
+     */
+    private static String formatTime(int seconds) {
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    /**
+     * Function that shows a board sent with the binary protocol, from this player's side.
+     *
+     * @param pits all 14 pits, numbered like the server does
+     * @param toMove the player whose turn it is, or 0 if the game is over
+     */
+    private void showBoard(int[] pits, int toMove) {
+        String message = current.getMessage();
+        if (watchGame != 0 && toMove != 0) {
+            message = "Player " + toMove + " to move.";
+        } else if (toMove == playerNum) {
+            message = "Your turn! Click a pit.";
+        } else if (toMove != 0) {
+            message = "Opponents turn!  Waiting for Player " + toMove + ".";
+        }
+        publish(current.withBoard(pits, toMove, message));
+    }
+
+    /**
+     * Function that puts a snapshot on screen, as soon as the window gets to it.  Reader thread only.
+     *
+     * @param snapshot
+     */
+    private void publish(BoardSnapshot snapshot) {
+        current = snapshot;
+        view.publish(snapshot);
+    }
+
+    /**
+     * Function that sends a move to the server.
+     *
+     * @param pit 0-5, from left to right on our side
+     */
+    private void sendMove(int pit) {
+        if (binaryOut != null) {
+            try {
+                binaryOut.write(pit);
+                binaryOut.flush();
+            } catch (IOException e) {
+                System.out.println("something broke: " + e);
+            }
+        } else {
+            socketOut.println(pit + "");
+        }
     }
     
     /**
-     * Function that updates the number in each button, and returns if the game is completed or not.
+     * Initialize the GUI elements, on the Event Dispatch Thread.
+     */
+    private void createGUI() throws IOException {
+        try {
+            SwingUtilities.invokeAndWait(() -> {
+                // Create window
+                frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                frame.setMinimumSize(new Dimension(800,300));
+                view = new BoardView(this::sendMove);
+                frame.add(view);
+                frame.setSize(800, 300);
+                frame.setVisible(true);
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted opening the window");
+        } catch (InvocationTargetException e) {
+            throw new IOException("Couldn't open the window", e.getCause());
+        }
+    }
+
+    /**
+     * Function that reads the rest of a board sent with the text protocol, from this player's side, and shows it.
      *
      * @param socketIn used to get each incoming line
-     * @return true/false
+     * @return true if the game is over
      * @throws IOException required for socketIn
      */
     private boolean updateBoard(BufferedReader socketIn) throws IOException {
+        int ours = (playerNum == 1) ? 0 : 7; // First of our pits
+        int theirs = (playerNum == 1) ? 7 : 0; // First of the opponent's pits
+        int[] pits = new int[BinaryProtocol.PITS];
         int currentLine = 0;
         while (true) {
             String line = socketIn.readLine();
+            if (line == null) {
+                throw new EOFException("Server closed the connection");
+            }
             currentLine++;
 
-            if (currentLine == 1) {
-                board[12].setText(line.substring(1,3).trim());
-                board[0].setText(line.substring(4,6).trim());
-                board[1].setText(line.substring(7,9).trim());
-                board[2].setText(line.substring(10,12).trim());
-                board[3].setText(line.substring(13,15).trim());
-                board[4].setText(line.substring(16,18).trim());
-                board[5].setText(line.substring(19,21).trim());
-            } else if (currentLine == 3) {
-                board[6].setText(line.substring(4,6).trim());
-                board[7].setText(line.substring(7,9).trim());
-                board[8].setText(line.substring(10,12).trim());
-                board[9].setText(line.substring(13,15).trim());
-                board[10].setText(line.substring(16,18).trim());
-                board[11].setText(line.substring(19,21).trim());
-                board[13].setText(line.substring(22,24).trim());
-            } else if (currentLine == 5 && !line.contains("[ 0")) {
-                if (line.startsWith("Opponents")) {
-                    messageLabel.setText(line);
+            if (currentLine == 1) { // Opponent's store, then their pits, which run right to left
+                pits[theirs + 6] = Integer.parseInt(line.substring(1,3).trim());
+                for (int i = 0; i < 6; i++) {
+                    pits[theirs + 5 - i] = Integer.parseInt(line.substring(4 + 3 * i, 6 + 3 * i).trim());
+                }
+            } else if (currentLine == 3) { // Our pits, then our store
+                for (int i = 0; i < 6; i++) {
+                    pits[ours + i] = Integer.parseInt(line.substring(4 + 3 * i, 6 + 3 * i).trim());
                 }
+                pits[ours + 6] = Integer.parseInt(line.substring(22,24).trim());
+            } else if (currentLine == 5 && !line.contains("[ 0")) {
+                boolean theirTurn = line.startsWith("Opponents");
+                publish(current.withBoard(pits, theirTurn ? 3 - playerNum : 0,
+                        theirTurn ? line : current.getMessage()));
                 break;
             } else if (currentLine == 6 && line.startsWith("Your")) {
-                messageLabel.setText("Your turn! Click a pit.");
+                publish(current.withBoard(pits, playerNum, "Your turn! Click a pit."));
                 break;
             }
 
             if (line.contains("Wins") || line.contains("Tie")) {
+                String message;
                 if ((line.contains("1") && playerNum == 1) || (line.contains("2") && playerNum == 2)) {
-                    messageLabel.setText("You win!");
+                    message = "You win!";
                 } else if ((line.contains("1") && playerNum == 2) || (line.contains("2") && playerNum == 1)) {
-                    messageLabel.setText("You lost.");
+                    message = "You lost.";
                 } else {
-                    messageLabel.setText("It's a tie.");
+                    message = "It's a tie.";
                 }
+                publish(current.withBoard(pits, 0, message));
                 return true;
             }
         }
-
-        for (int i = 6; i < 12; i++) {
-            if (Integer.parseInt(board[i].getText()) == 0) {
-                board[i].setBackground(new Color(196, 204, 196));
-            } else {
-                board[i].setBackground(new Color(225, 255, 224));
-            }
-        }
-
         return false;
     }
 
+    /**
+     * Start the client.  Uses the binary protocol unless run with "text", plays the computer if run with "computer",
+     * and only watches if run with "watch" and a game number.
+     *
+     * @param args
+     */
     public static void main(String[] args) {
-        new Client();
+        int watch = Arrays.asList(args).indexOf("watch");
+        new Client(!Arrays.asList(args).contains("text"), Arrays.asList(args).contains("computer"),
+                watch >= 0 && watch + 1 < args.length ? Integer.parseInt(args[watch + 1]) : 0);
     }
 }
@@ -0,0 +1,318 @@
+package Server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Answers questions about every game in one or more GameArchive directories:
+ * <ul>
+ *     <li>summary: how often each player wins, how long games last and the average final stores</li>
+ *     <li>first-move: for each pit player 1 can open with, how often it's played and how often player 1 then wins</li>
+ *     <li>openings[:moves]: the most played openings (4 moves by default) and how player 1 does after them</li>
+ *     <li>captures: how often moves capture, and how many seeds a capture takes on average</li>
+ * </ul>
+ * Filters narrow the games down: length=min..max, store1=min..max, store2=min..max (a single number means exactly
+ * that) and winner=0|1|2.
+ * <p>
+ * Chunks are memory-mapped and scanned on a fork-join pool of every core, one chunk per task, each reading only the
+ * columns the question needs.  A chunk whose header says none of its games can pass the filters isn't read at all.
+ * <p>
+ * Usage: java Server.ArchiveQuery [summary|first-move|openings[:moves]|captures] [filter ...] [directory ...]
+ */
+public class ArchiveQuery {
+
+    private static final int TOP_OPENINGS = 20;
+
+    // Decoded columns, reused by every chunk a thread scans: {length, winner, store1, store2, captures, captured}
+    private static final ThreadLocal<int[][]> COLUMNS = ThreadLocal.withInitial(
+            () -> new int[6][GameArchive.CHUNK_GAMES]);
+
+    private final String question;
+    private final int openingMoves;
+    private final int[][] ranges = new int[GameArchive.COLUMNS][]; // {min, max} by column, null if not filtered
+
+    /**
+     * @param question summary, first-move, openings[:moves] or captures
+     * @param filters e.g. "length=20..40", "winner=2"
+     */
+    public ArchiveQuery(String question, List<String> filters) {
+        this.question = question.startsWith("openings") ? "openings" : question;
+        this.openingMoves = question.startsWith("openings:") ? Integer.parseInt(question.substring(9)) : 4;
+        if (!List.of("summary", "first-move", "openings", "captures").contains(this.question)
+                || openingMoves < 1 || openingMoves > 15) {
+            throw new IllegalArgumentException("Unknown question: " + question);
+        }
+        for (String filter : filters) {
+            String name = filter.substring(0, filter.indexOf('='));
+            String value = filter.substring(filter.indexOf('=') + 1);
+            int column = name.equals("length") ? GameArchive.LENGTH : name.equals("winner") ? GameArchive.WINNER
+                    : name.equals("store1") ? GameArchive.STORE1 : name.equals("store2") ? GameArchive.STORE2 : -1;
+            if (column < 0) {
+                throw new IllegalArgumentException("Unknown filter: " + filter);
+            }
+            int dots = value.indexOf("..");
+            String min = dots < 0 ? value : value.substring(0, dots);
+            String max = dots < 0 ? value : value.substring(dots + 2);
+            ranges[column] = new int[]{Integer.parseInt(min), Integer.parseInt(max)};
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String question = args.length > 0 ? args[0] : "summary";
+        List<String> filters = new ArrayList<>();
+        List<Path> directories = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].contains("=")) {
+                filters.add(args[i]);
+            } else {
+                directories.add(Paths.get(args[i]));
+            }
+        }
+        if (directories.isEmpty()) {
+            directories.add(Paths.get(GameArchive.DIRECTORY));
+        }
+        List<Path> chunks = new ArrayList<>();
+        for (Path directory : directories) {
+            chunks.addAll(GameArchive.chunks(directory));
+        }
+        ArchiveQuery query = new ArchiveQuery(question, filters);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        Tally tally = pool.invoke(query.new Scan(chunks, 0, chunks.size()));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        query.print(tally);
+        System.out.printf("Scanned %,d chunks (%,d skipped by their statistics) of %,d games in %.2f s on %d threads: "
+                        + "%,.0f games/s%n", chunks.size(), tally.skipped, tally.scanned, seconds, threads,
+                tally.scanned / seconds);
+    }
+
+    /**
+     * Scans chunks [from, to), splitting in half down to single chunks.
+     */
+    private class Scan extends RecursiveTask<Tally> {
+        private final List<Path> chunks;
+        private final int from;
+        private final int to;
+
+        Scan(List<Path> chunks, int from, int to) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Tally compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                Scan left = new Scan(chunks, from, middle);
+                left.fork();
+                Tally tally = new Scan(chunks, middle, to).compute();
+                tally.add(left.join());
+                return tally;
+            }
+            Tally tally = new Tally();
+            if (from < to) {
+                try {
+                    scan(GameArchive.Chunk.map(chunks.get(from)), tally);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return tally;
+        }
+    }
+
+    /**
+     * @return whether a game with these values can pass the filter on a column
+     */
+    private boolean passes(int column, int min, int max) {
+        return ranges[column] == null || (max >= ranges[column][0] && min <= ranges[column][1]);
+    }
+
+    private void scan(GameArchive.Chunk chunk, Tally tally) {
+        int games = chunk.getGames();
+        tally.scanned += games;
+        if (!passes(GameArchive.LENGTH, chunk.getMinLength(), chunk.getMaxLength())
+                || !passes(GameArchive.WINNER, chunk.getMinWinner(), chunk.getMaxWinner())
+                || !passes(GameArchive.STORE1, chunk.getMinStore(1), chunk.getMaxStore(1))
+                || !passes(GameArchive.STORE2, chunk.getMinStore(2), chunk.getMaxStore(2))) {
+            tally.skipped++;
+            return;
+        }
+
+        int[][] columns = COLUMNS.get();
+        int[] lengths = columns[0];
+        int[] winners = columns[1];
+        int[] stores1 = columns[2];
+        int[] stores2 = columns[3];
+        chunk.readVarints(GameArchive.LENGTH, lengths);
+        chunk.readBytes(GameArchive.WINNER, winners);
+        chunk.readBytes(GameArchive.STORE1, stores1);
+        chunk.readBytes(GameArchive.STORE2, stores2);
+        int[] captures = null;
+        int[] captured = null;
+        if (question.equals("captures")) {
+            captures = columns[4];
+            captured = columns[5];
+            chunk.readVarints(GameArchive.CAPTURES, captures);
+            chunk.readVarints(GameArchive.CAPTURED, captured);
+        }
+        boolean readMoves = question.equals("first-move") || question.equals("openings");
+        ByteBuffer buffer = chunk.getBuffer();
+        int moves = chunk.getOffset(GameArchive.MOVES);
+
+        for (int game = 0; game < games; game++) {
+            int movesAt = moves;
+            moves += (lengths[game] + 1) / 2; // Each game's moves start on a new byte
+            if (!passes(GameArchive.LENGTH, lengths[game], lengths[game])
+                    || !passes(GameArchive.WINNER, winners[game], winners[game])
+                    || !passes(GameArchive.STORE1, stores1[game], stores1[game])
+                    || !passes(GameArchive.STORE2, stores2[game], stores2[game])) {
+                continue;
+            }
+            int winner = winners[game];
+            tally.games++;
+            tally.wins[winner]++;
+            tally.moves += lengths[game];
+            tally.stores[0] += stores1[game];
+            tally.stores[1] += stores2[game];
+            if (captures != null) {
+                tally.captures += captures[game];
+                tally.capturedSeeds += captured[game];
+            }
+            if (readMoves && lengths[game] > 0) {
+                tally.firstMoves[buffer.get(movesAt) & 0xF][winner]++;
+                if (question.equals("openings") && lengths[game] >= openingMoves) {
+                    long opening = 0; // 4 bits a move, first move lowest
+                    for (int move = 0; move < openingMoves; move++) {
+                        opening |= (long) ((buffer.get(movesAt + move / 2) >> (4 * (move & 1))) & 0xF) << (4 * move);
+                    }
+                    tally.openings.computeIfAbsent(opening, key -> new long[3])[winner]++;
+                }
+            }
+        }
+    }
+
+    private void print(Tally tally) {
+        if (tally.games == 0) {
+            System.out.println("No games match.");
+            return;
+        }
+        switch (question) {
+            case "summary" -> {
+                System.out.printf("%,d games: Player 1 wins %.2f%%, Player 2 wins %.2f%%, ties %.2f%%%n", tally.games,
+                        percent(tally.wins[1], tally.games), percent(tally.wins[2], tally.games),
+                        percent(tally.wins[0], tally.games));
+                System.out.printf("Average length %.1f moves, average stores %.2f to %.2f%n",
+                        (double) tally.moves / tally.games, (double) tally.stores[0] / tally.games,
+                        (double) tally.stores[1] / tally.games);
+            }
+            case "first-move" -> {
+                System.out.printf("%-10s %12s %8s %14s %8s%n", "First pit", "games", "played", "Player 1 wins",
+                        "ties");
+                for (int pit = 0; pit < 6; pit++) {
+                    long[] results = tally.firstMoves[pit];
+                    long games = results[0] + results[1] + results[2];
+                    System.out.printf("%-10d %,12d %7.2f%% %13.2f%% %7.2f%%%n", pit, games,
+                            percent(games, tally.games), percent(results[1], games), percent(results[0], games));
+                }
+            }
+            case "openings" -> {
+                List<Map.Entry<Long, long[]>> openings = new ArrayList<>(tally.openings.entrySet());
+                openings.sort((a, b) -> Long.compare(sum(b.getValue()), sum(a.getValue())));
+                System.out.printf("%,d different %d move openings.  Moves are player:pit.%n", openings.size(),
+                        openingMoves);
+                System.out.printf("%-32s %12s %8s %14s %8s%n", "Opening", "games", "played", "Player 1 wins",
+                        "ties");
+                for (Map.Entry<Long, long[]> opening : openings.subList(0, Math.min(TOP_OPENINGS, openings.size()))) {
+                    long[] results = opening.getValue();
+                    long games = sum(results);
+                    System.out.printf("%-32s %,12d %7.2f%% %13.2f%% %7.2f%%%n", describe(opening.getKey()), games,
+                            percent(games, tally.games), percent(results[1], games), percent(results[0], games));
+                }
+            }
+            case "captures" -> System.out.printf("%,d games, %,d moves: %.2f%% of moves capture, %.2f captures a game,"
+                            + " %.2f seeds a capture%n", tally.games, tally.moves,
+                    percent(tally.captures, tally.moves), (double) tally.captures / tally.games,
+                    tally.captures == 0 ? 0.0 : (double) tally.capturedSeeds / tally.captures);
+            default -> throw new IllegalStateException(question);
+        }
+    }
+
+    /**
+     * Function that replays an opening to say who made each move, e.g. "1:2 1:5 2:3 2:0".
+     */
+    private String describe(long opening) {
+        Board board = new Board(); // Initial board state
+        boolean player1Turn = true;
+        StringBuilder text = new StringBuilder();
+        for (int move = 0; move < openingMoves; move++) {
+            int player = player1Turn ? 1 : 2;
+            int pit = (int) (opening >>> (4 * move)) & 0xF;
+            text.append(move == 0 ? "" : " ").append(player).append(':').append(pit);
+            player1Turn = board.makeMove(pit + (player == 2 ? 7 : 0), player);
+        }
+        return text.toString();
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+
+    private static long sum(long[] values) {
+        return values[0] + values[1] + values[2];
+    }
+
+    /**
+     * What the games in some chunks add up to.  Chunks are added together as the fork-join tasks finish.
+     */
+    private static class Tally {
+        long scanned; // Games in the chunks, before filtering
+        long skipped; // Chunks
+        long games; // Games that passed the filters
+        final long[] wins = new long[3]; // [ties, player 1, player 2]
+        long moves;
+        final long[] stores = new long[2];
+        long captures;
+        long capturedSeeds;
+        final long[][] firstMoves = new long[6][3]; // [pit][winner]
+        final Map<Long, long[]> openings = new HashMap<>(); // Wins by opening
+
+        void add(Tally other) {
+            scanned += other.scanned;
+            skipped += other.skipped;
+            games += other.games;
+            for (int i = 0; i < 3; i++) {
+                wins[i] += other.wins[i];
+            }
+            moves += other.moves;
+            stores[0] += other.stores[0];
+            stores[1] += other.stores[1];
+            captures += other.captures;
+            capturedSeeds += other.capturedSeeds;
+            for (int pit = 0; pit < 6; pit++) {
+                for (int i = 0; i < 3; i++) {
+                    firstMoves[pit][i] += other.firstMoves[pit][i];
+                }
+            }
+            other.openings.forEach((opening, results) -> {
+                long[] mine = openings.computeIfAbsent(opening, key -> new long[3]);
+                for (int i = 0; i < 3; i++) {
+                    mine[i] += results[i];
+                }
+            });
+        }
+    }
+}
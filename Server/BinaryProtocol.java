@@ -0,0 +1,125 @@
+package Server;
+
+/**
+ * The compact binary protocol, an alternative to the text protocol for clients that don't need to be human readable
+ * (Client.Client uses it).  A client picks it by sending HANDSHAKE as the very first byte after connecting; anything
+ * else (or nothing) means text, so netcat keeps working.
+ * <p>
+ * Server to client, every frame starts with its type byte:
+ * <pre>
+ * WELCOME          [type, seat]
+ * SESSION          [type, token (8 bytes, big endian)]
+ * OPPONENT_JOINED  [type]
+ * OPPONENT_LEFT    [type, seconds]
+ * OPPONENT_BACK    [type]
+ * SPECTATING       [type]
+ * GAME_STARTED     [type]
+ * CLOCK            [type, player 1 seconds left (2 bytes, big endian), player 2 seconds left (2 bytes)]
+ * HINT_VALUES      [type, best, certain, value of pit 0, pit 1, ... pit 5]
+ * BOARD            [type, toMove, legalMoves, pit 0, pit 1, ... pit 13]
+ * DELTA            [type, toMove, legalMoves, count, (pit, seeds) * count]
+ * INVALID_MOVE     [type]
+ * TIME_UP          [type, player]
+ * GAME_OVER        [type, winner, player 1 store, player 2 store]
+ * </pre>
+ * Pits use the server's numbering (0-5 player 1, 6 their store, 7-12 player 2, 13 their store), toMove is 1 or 2 (0
+ * once the game is over), legalMoves has bit i set if the player to move can play their pit i, and winner is 0 for a
+ * tie.  DELTA only carries the pits that changed since the last BOARD or DELTA sent to that client.
+ * <p>
+ * Players get a CLOCK before every board during the game (see GameClock).  A player who runs out of time loses: TIME_UP
+ * says who, before the final BOARD and GAME_OVER.
+ * <p>
+ * Client to server, a move is a single byte holding the pit number (0-5) the player would type in the text protocol.
+ * Player 1 can send PLAY_COMPUTER while waiting for an opponent to play the computer instead (like typing c).
+ * <p>
+ * Instead of a move, the player to move can send HINT (like typing hint) for what each of their moves is worth (see
+ * HintService).  A HINT_VALUES frame comes back before their board again: the best pit, bit i of certain set if pit
+ * i's result is certain, and each pit's value as a signed byte, the store difference the player can expect after
+ * playing it (or will end the game with, if certain), HINT_ILLEGAL for an empty pit.  If the server is too busy to
+ * analyse, only the board comes back.  Hints count towards the same limit as invalid moves.
+ * <p>
+ * SESSION follows every WELCOME.  A client that loses its connection mid-game can connect again, send HANDSHAKE then
+ * RESUME [type, token (8 bytes, big endian)], and get its seat back (see Session): WELCOME and SESSION again, then the
+ * full BOARD.  Its opponent gets OPPONENT_LEFT, with how many seconds it has to come back, and OPPONENT_BACK.
+ * <p>
+ * A client that only wants to watch sends HANDSHAKE then WATCH [type, game number (4 bytes, big endian)].  It gets
+ * SPECTATING, then a BOARD (never a DELTA, a slow spectator may skip boards) for every move, and BOARD and GAME_OVER
+ * at the end.  A game that doesn't exist gets the connection closed.
+ */
+public final class BinaryProtocol {
+
+    public static final int HANDSHAKE = 0xFE; // Not something anyone types into netcat
+
+    public static final int WELCOME = 0x01;
+    public static final int OPPONENT_JOINED = 0x02;
+    public static final int GAME_STARTED = 0x03;
+    public static final int SESSION = 0x04;
+    public static final int OPPONENT_LEFT = 0x05;
+    public static final int OPPONENT_BACK = 0x06;
+    public static final int SPECTATING = 0x07;
+    public static final int BOARD = 0x10;
+    public static final int DELTA = 0x11;
+    public static final int CLOCK = 0x12;
+    public static final int HINT_VALUES = 0x13;
+    public static final int INVALID_MOVE = 0x20;
+    public static final int GAME_OVER = 0x30;
+    public static final int TIME_UP = 0x31;
+
+    public static final int PLAY_COMPUTER = 0xC0; // Client to server
+    public static final int RESUME = 0xC1; // Client to server
+    public static final int WATCH = 0xC2; // Client to server
+    public static final int HINT = 0xC3; // Client to server
+    public static final int HINT_ILLEGAL = -128;
+    public static final int TOKEN_SIZE = 8;
+
+    public static final int PITS = 14;
+    public static final int BOARD_FRAME_SIZE = 3 + PITS;
+    public static final int MAX_FRAME_SIZE = 4 + 2 * PITS; // A DELTA where every pit changed
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Function that writes a BOARD frame, or a DELTA frame if that is smaller, and remembers what was sent.
+     *
+     * @param buffer at least MAX_FRAME_SIZE bytes
+     * @param pits the board to send
+     * @param lastSent the board last sent to this client, updated to `pits`
+     * @param full true if the client has no board yet, so a BOARD frame is needed
+     * @param toMove
+     * @param legalMoves
+     * @return length of the frame
+     */
+    public static int encodeBoard(byte[] buffer, int[] pits, int[] lastSent, boolean full, int toMove, int legalMoves) {
+        int changed = 0;
+        for (int i = 0; i < PITS; i++) {
+            if (pits[i] != lastSent[i]) {
+                changed++;
+            }
+        }
+
+        buffer[1] = (byte) toMove;
+        buffer[2] = (byte) legalMoves;
+        int length;
+        if (!full && 4 + 2 * changed < BOARD_FRAME_SIZE) {
+            buffer[0] = (byte) DELTA;
+            buffer[3] = (byte) changed;
+            length = 4;
+            for (int i = 0; i < PITS; i++) {
+                if (pits[i] != lastSent[i]) {
+                    buffer[length++] = (byte) i;
+                    buffer[length++] = (byte) pits[i];
+                }
+            }
+        } else {
+            buffer[0] = (byte) BOARD;
+            for (int i = 0; i < PITS; i++) {
+                buffer[3 + i] = (byte) pits[i];
+            }
+            length = BOARD_FRAME_SIZE;
+        }
+
+        System.arraycopy(pits, 0, lastSent, 0, PITS);
+        return length;
+    }
+}
@@ -0,0 +1,218 @@
+package Server;
+
+/**
+ * The state of a single Mancala game.  Shared by the threaded server (GameThread) and the NIO server (NioGame) so both
+ * play exactly the same game; the rules themselves are in MancalaEngine.
+ * <p>
+ * Pits 0-5 belong to player 1 and 6 is their store, pits 7-12 belong to player 2 and 13 is their store.
+ */
+public class Board {
+
+    // Mancala board representation, packed the way MancalaEngine wants it
+    private long lo = MancalaEngine.START_LO;
+    private long hi = MancalaEngine.START_HI;
+    private final long[] next = new long[2]; // Where MancalaEngine writes the position after a move
+    private int lastResult; // What MancalaEngine.move() said about the last move
+
+    public Board() {
+    }
+
+    /**
+     * Create a board in the given position.
+     *
+     * @param lo pits 0-6, packed
+     * @param hi pits 7-13, packed
+     */
+    public Board(long lo, long hi) {
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    public long getLo() {
+        return lo;
+    }
+
+    public long getHi() {
+        return hi;
+    }
+
+    /**
+     * Function that returns the number of seeds in a pit (or store)
+     *
+     * @param index
+     * @return number of seeds
+     */
+    public int get(int index) {
+        return MancalaEngine.seeds(lo, hi, index);
+    }
+
+    /**
+     * Function that copies every pit and store into an array
+     *
+     * @param pits array of 14 to copy into
+     */
+    public void copyTo(int[] pits) {
+        for (int i = 0; i < MancalaEngine.PITS; i++) {
+            pits[i] = MancalaEngine.seeds(lo, hi, i);
+        }
+    }
+
+    /**
+     * Function that returns the moves a player can make as a bitmask
+     *
+     * @param player
+     * @return bit i is set if the player can play their pit i (the number they would type)
+     */
+    public int getLegalMoves(int player) {
+        return MancalaEngine.legalMoves(lo, hi, player);
+    }
+
+    /**
+     * Function that converts the `board` array to a visual version
+     *
+     * @param player
+     * @param showInputs
+     * @return String containing a nice visual of the board (eg.
+     * ╔══╦══╦══╦══╦══╦══╦══╦══╗
+     * ║ 0║ 4║ 4║ 4║ 4║ 4║ 4║←┐║
+     * ║  ╠══╬══╬══╬══╬══╬══╣  ║
+     * ║└→║ 4║ 4║ 4║ 4║ 4║ 4║ 0║
+     * ╚══╩══╩══╩══╩══╩══╩══╩══╝
+     * )
+     */
+    public String boardToString(int player, boolean showInputs) {
+        // Convert board state to a string for sending
+        int[] board = new int[MancalaEngine.PITS];
+        copyTo(board);
+        String result = "";
+        if (player == 1) {
+            result = result + "╔══╦══╦══╦══╦══╦══╦══╦══╗";
+            result = result + String.format("\n║%2d║%2d║%2d║%2d║%2d║%2d║%2d║←┐║", board[13], board[12], board[11], board[10], board[9], board[8], board[7]);
+            result = result + "\n║  ╠══╬══╬══╬══╬══╬══╣  ║";
+            result = result + String.format("\n║└→║%2d║%2d║%2d║%2d║%2d║%2d║%2d║", board[0], board[1], board[2], board[3], board[4], board[5], board[6]);
+            result = result + "\n╚══╩══╩══╩══╩══╩══╩══╩══╝";
+            if (showInputs) {
+                result = result + "\n   [ 0| 1| 2| 3| 4| 5]";
+            }
+        } else if (player == 2) { // Flip the board so that it's from the perspective of player 2
+            result = result + "╔══╦══╦══╦══╦══╦══╦══╦══╗";
+            result = result + String.format("\n║%2d║%2d║%2d║%2d║%2d║%2d║%2d║←┐║", board[6], board[5], board[4], board[3], board[2], board[1], board[0]);
+            result = result + "\n║  ╠══╬══╬══╬══╬══╬══╣  ║";
+            result = result + String.format("\n║└→║%2d║%2d║%2d║%2d║%2d║%2d║%2d║", board[7], board[8], board[9], board[10], board[11], board[12], board[13]);
+            result = result + "\n╚══╩══╩══╩══╩══╩══╩══╩══╝";
+            if (showInputs) {
+                result = result + "\n   [ 0| 1| 2| 3| 4| 5]";
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Function that returns a string containing all the possible inputs
+     *
+     * @param player
+     * @return String containing all possible options (eg. "0, 2, 3, 5")
+     */
+    public String getPossibleMoves(int player) {
+        int[] board = new int[MancalaEngine.PITS];
+        copyTo(board);
+        String result = "";
+
+        if (player == 1) {
+            for (int i = 0; i < 6; i++) {
+                if (board[i] > 0) {
+                    result = result + i + ", ";
+                }
+            }
+            result = result.substring(0, result.length() - 2);
+        } else if (player == 2) {
+            for (int i = 7; i < 13; i++) {
+                if (board[i] > 0) {
+                    result = result + (i - 7) + ", ";
+                }
+            }
+            result = result.substring(0, result.length() - 2);
+        }
+
+        return result;
+    }
+
+    /**
+     * Function that returns if a function is a valid move
+     *
+     * @param pitIndex
+     * @param player
+     * @return true/false
+     */
+    public boolean isValidMove(int pitIndex, int player) {
+        // Check if the move is valid according to Mancala rules
+        return MancalaEngine.isLegal(lo, hi, player, pitIndex); // Only a non-empty pit on the player's own side
+    }
+
+    /**
+     * Function that will make the given move and return if the player gets another turn (after that move was made).
+     *
+     * @param pitIndex
+     * @param player
+     * @return true/false
+     */
+    public boolean makeMove(int pitIndex, int player) {
+        int result = MancalaEngine.move(lo, hi, player, pitIndex, next);
+        lo = next[0];
+        hi = next[1];
+        lastResult = result;
+
+        // Logic to get another turn
+        boolean extraTurn = (result & MancalaEngine.EXTRA_TURN) != 0;
+        return (player == 1) == extraTurn; // true if it is player 1's turn next
+    }
+
+    /**
+     * @return seeds the last move captured (both pits, so at least 2), or 0 if it didn't capture
+     */
+    public int getLastCaptured() {
+        return lastResult >>> MancalaEngine.CAPTURE_SHIFT;
+    }
+
+    /**
+     * Function that checks the win conditions, and sweeps the remaining seeds into the right store if the game is
+     * over.
+     *
+     * @return true if the game is over
+     */
+    public boolean checkGameOver() {
+        if (!MancalaEngine.isGameOver(lo, hi)) {
+            return false;
+        }
+        MancalaEngine.finish(lo, hi, next);
+        lo = next[0];
+        hi = next[1];
+        return true;
+    }
+
+    /**
+     * Function that determines who wins the game.
+     *
+     * @return 0(tie)/1/2
+     */
+    public int determineWinner() {
+        return MancalaEngine.winner(lo, hi);
+    }
+
+    /**
+     * Function that builds the message announcing the result of the game.
+     *
+     * @return String such as "\nPlayer 1 Wins!\nPlayer 1: 30\nPlayer 2: 18"
+     */
+    public String resultMessage() {
+        int winner = determineWinner();
+        String scores = "\nPlayer 1: " + get(6) + "\nPlayer 2: " + get(13);
+        if (winner == 0) {
+            return "\nTie!" + scores;
+        } else if (winner == 1) {
+            return "\nPlayer 1 Wins!" + scores;
+        } else {
+            return "\nPlayer 2 Wins!" + scores;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package Server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Renders the text protocol's messages straight into a reusable byte buffer, so sending a board doesn't build any
+ * Strings.  Every connection has its own renderer.
+ * <p>
+ * The output is byte for byte what the PrintWriter would send for Board.boardToString() and friends: the box rows
+ * never change so they are encoded once, and every seed count a pit can hold (0-48) is encoded once in both the "%2d"
+ * form used on the board and the plain form used for scores.
+ */
+public class BoardRenderer {
+
+    private static final int MAX_SEEDS = 48;
+
+    private static final byte[] LINE_END = System.lineSeparator().getBytes(StandardCharsets.UTF_8); // What println() adds
+    private static final byte[] TOP = utf8("╔══╦══╦══╦══╦══╦══╦══╦══╗");
+    private static final byte[] ROW_1_START = utf8("\n║");
+    private static final byte[] ROW_1_END = utf8("←┐║");
+    private static final byte[] MIDDLE = utf8("\n║  ╠══╬══╬══╬══╬══╬══╣  ║");
+    private static final byte[] ROW_2_START = utf8("\n║└→║");
+    private static final byte[] BOTTOM = utf8("\n╚══╩══╩══╩══╩══╩══╩══╩══╝");
+    private static final byte[] INPUTS = utf8("\n   [ 0| 1| 2| 3| 4| 5]");
+    private static final byte[] PIT_END = utf8("║");
+    private static final byte[] YOUR_TURN = utf8("\nYour turn! Type a number.");
+    private static final byte[] POSSIBLE_MOVES = utf8("Possible Moves: ");
+    private static final byte[] MOVE_SEPARATOR = utf8(", ");
+    private static final byte[] OPPONENTS_TURN = utf8("\nOpponents turn!  Waiting for Player ");
+    private static final byte[] PLAYER = utf8("\nPlayer ");
+    private static final byte[] TO_MOVE = utf8(" to move.");
+    private static final byte[] INVALID_MOVE = utf8("\nError: Invalid move!  Please try again.");
+    private static final byte[] TIE = utf8("\nTie!");
+    private static final byte[] PLAYER_1_WINS = utf8("\nPlayer 1 Wins!");
+    private static final byte[] PLAYER_2_WINS = utf8("\nPlayer 2 Wins!");
+    private static final byte[] PLAYER_1_SCORE = utf8("\nPlayer 1: ");
+    private static final byte[] PLAYER_2_SCORE = utf8("\nPlayer 2: ");
+    private static final byte[] TIME_LEFT = utf8("Time left: Player 1 ");
+    private static final byte[] TIME_LEFT_2 = utf8(", Player 2 ");
+    private static final byte[] OUT_OF_TIME = utf8(" ran out of time.");
+    private static final byte[][] PADDED = new byte[MAX_SEEDS + 1][]; // "%2d" of every seed count
+    private static final byte[][] PLAIN = new byte[MAX_SEEDS + 1][]; // Every seed count as a plain number
+
+    static {
+        for (int i = 0; i <= MAX_SEEDS; i++) {
+            PADDED[i] = utf8(String.format("%2d", i));
+            PLAIN[i] = utf8(Integer.toString(i));
+        }
+    }
+
+    private byte[] buffer = new byte[512]; // Big enough for any message, grows if it ever isn't
+    private int length = 0;
+
+    /**
+     * @return the buffer holding the last rendered message (valid up to getLength())
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Render what a player sees while their opponent moves, the same as
+     * println("\n" + boardToString(seat, false) + "\nOpponents turn!  Waiting for Player " + mover + ".")
+     *
+     * @param board
+     * @param seat the player it is for
+     * @param mover the player whose turn it is
+     * @return this
+     */
+    public BoardRenderer opponentsTurn(Board board, int seat, int mover) {
+        length = 0;
+        append((byte) '\n');
+        appendBoard(board, seat, false);
+        append(OPPONENTS_TURN);
+        append(PLAIN[mover]);
+        append((byte) '.');
+        append(LINE_END);
+        return this;
+    }
+
+    /**
+     * Render a player's prompt to move, the same as
+     * println("\n" + boardToString(seat, true) + "\nYour turn! Type a number.") followed by
+     * println("Possible Moves: " + getPossibleMoves(seat) + ".")
+     *
+     * @param board
+     * @param seat
+     * @return this
+     */
+    public BoardRenderer yourTurn(Board board, int seat) {
+        length = 0;
+        append((byte) '\n');
+        appendBoard(board, seat, true);
+        append(YOUR_TURN);
+        append(LINE_END);
+        append(POSSIBLE_MOVES);
+        int offset = (seat == 1) ? 0 : 7;
+        boolean first = true;
+        for (int i = 0; i < 6; i++) {
+            if (board.get(offset + i) > 0) {
+                if (!first) {
+                    append(MOVE_SEPARATOR);
+                }
+                append(PLAIN[i]);
+                first = false;
+            }
+        }
+        append((byte) '.');
+        append(LINE_END);
+        return this;
+    }
+
+    /**
+     * Render what a spectator sees during a game: the board from player 1's side, the same as
+     * println("\n" + boardToString(1, false) + "\nPlayer " + mover + " to move.")
+     *
+     * @param board
+     * @param mover the player whose turn it is
+     * @return this
+     */
+    public BoardRenderer spectating(Board board, int mover) {
+        length = 0;
+        append((byte) '\n');
+        appendBoard(board, 1, false);
+        append(PLAYER);
+        append(PLAIN[mover]);
+        append(TO_MOVE);
+        append(LINE_END);
+        return this;
+    }
+
+    /**
+     * Render the invalid move error, the same as println("\nError: Invalid move!  Please try again.")
+     *
+     * @return this
+     */
+    public BoardRenderer invalidMove() {
+        length = 0;
+        append(INVALID_MOVE);
+        append(LINE_END);
+        return this;
+    }
+
+    /**
+     * Render the final board and result, the same as println(boardToString(seat, showInputs)) followed by
+     * println(resultMessage())
+     *
+     * @param board
+     * @param seat
+     * @param showInputs
+     * @return this
+     */
+    public BoardRenderer gameOver(Board board, int seat, boolean showInputs) {
+        return gameOver(board, seat, showInputs, 0);
+    }
+
+    /**
+     * Render the final board and result, where a player may have lost on time: gameOver(board, seat, showInputs) with
+     * "\nPlayer N ran out of time." before the result, which the other player wins.
+     *
+     * @param board
+     * @param seat
+     * @param showInputs
+     * @param outOfTime the player who ran out of time, 0 if the game was played to the end
+     * @return this
+     */
+    public BoardRenderer gameOver(Board board, int seat, boolean showInputs, int outOfTime) {
+        length = 0;
+        appendBoard(board, seat, showInputs);
+        append(LINE_END);
+        if (outOfTime != 0) {
+            append(PLAYER);
+            append(PLAIN[outOfTime]);
+            append(OUT_OF_TIME);
+        }
+        int winner = outOfTime != 0 ? 3 - outOfTime : board.determineWinner();
+        append(winner == 0 ? TIE : (winner == 1 ? PLAYER_1_WINS : PLAYER_2_WINS));
+        append(PLAYER_1_SCORE);
+        appendNumber(board.get(6), PLAIN);
+        append(PLAYER_2_SCORE);
+        appendNumber(board.get(13), PLAIN);
+        append(LINE_END);
+        return this;
+    }
+
+    /**
+     * Add a line to the message just rendered, e.g. a hint under "Possible Moves:".
+     *
+     * @param line already encoded, with its line end
+     * @return this
+     */
+    public BoardRenderer appendLine(byte[] line) {
+        append(line);
+        return this;
+    }
+
+    /**
+     * Add both players' clocks to the message just rendered, as another line: "Time left: Player 1 4:57, Player 2
+     * 5:00."
+     *
+     * @param player1Millis
+     * @param player2Millis
+     * @return this
+     */
+    public BoardRenderer appendClock(long player1Millis, long player2Millis) {
+        append(TIME_LEFT);
+        appendTime(player1Millis);
+        append(TIME_LEFT_2);
+        appendTime(player2Millis);
+        append((byte) '.');
+        append(LINE_END);
+        return this;
+    }
+
+    /**
+     * Function that appends a time as minutes and seconds, "m:ss".
+     */
+    private void appendTime(long millis) {
+        long seconds = (millis + 999) / 1000; // Rounded up, like a chess clock
+        appendDigits(seconds / 60);
+        append((byte) ':');
+        append((byte) ('0' + seconds % 60 / 10));
+        append((byte) ('0' + seconds % 10));
+    }
+
+    private void appendDigits(long value) {
+        if (value >= 10) {
+            appendDigits(value / 10);
+        }
+        append((byte) ('0' + value % 10));
+    }
+
+    /**
+     * Same layout as Board.boardToString().
+     */
+    private void appendBoard(Board board, int seat, boolean showInputs) {
+        int top = (seat == 1) ? 13 : 6; // Opponent's store, then their pits right to left
+        int bottom = (seat == 1) ? 0 : 7; // Our pits left to right, then our store
+        append(TOP);
+        append(ROW_1_START);
+        for (int i = 0; i < 7; i++) {
+            appendNumber(board.get(top - i), PADDED);
+            append(PIT_END);
+        }
+        append(ROW_1_END);
+        append(MIDDLE);
+        append(ROW_2_START);
+        for (int i = 0; i < 7; i++) {
+            appendNumber(board.get(bottom + i), PADDED);
+            append(PIT_END);
+        }
+        append(BOTTOM);
+        if (showInputs) {
+            append(INPUTS);
+        }
+    }
+
+    private void appendNumber(int seeds, byte[][] encoded) {
+        if (seeds >= 0 && seeds <= MAX_SEEDS) {
+            append(encoded[seeds]);
+        } else { // Can't happen with 48 seeds in play, but never send a wrong number
+            append(utf8(encoded == PADDED ? String.format("%2d", seeds) : Integer.toString(seeds)));
+        }
+    }
+
+    private void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void append(byte b) {
+        ensureCapacity(1);
+        buffer[length++] = b;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            byte[] bigger = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, bigger, 0, length);
+            buffer = bigger;
+        }
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,75 @@
+package Server;
+
+import java.io.IOException;
+
+/**
+ * The computer, sitting in player 2's seat.  It ignores everything the game tells it except the board it is asked
+ * to move on, and answers readMove() with a search on the shared SearchPool.
+ */
+public class ComputerPlayer implements Player {
+
+    private final SearchPool searchPool;
+    private final long moveMillis;
+    private final int seat;
+    private Board board;
+
+    /**
+     * @param searchPool where to search
+     * @param moveMillis time budget for each move
+     * @param seat 1 or 2
+     */
+    public ComputerPlayer(SearchPool searchPool, long moveMillis, int seat) {
+        this.searchPool = searchPool;
+        this.moveMillis = moveMillis;
+        this.seat = seat;
+    }
+
+    public void sendGameStarted() {
+    }
+
+    public void sendOpponentsTurn(Board board, int mover) {
+    }
+
+    public void sendYourTurn(Board board) {
+        this.board = board;
+    }
+
+    public void sendInvalidMove() {
+        // Can't happen, the search only plays legal moves
+        Log.error("computer player made an invalid move", "seat", seat);
+    }
+
+    public void sendHint(HintService.Analysis analysis) {
+        // Never asks for one
+    }
+
+    public void sendClock(long player1Millis, long player2Millis) {
+    }
+
+    public void sendGameOver(Board board, int outOfTime) {
+    }
+
+    public void sendOpponentLeft(int seconds) {
+    }
+
+    public void sendOpponentBack() {
+    }
+
+    public void sendStopping(boolean now) {
+    }
+
+    public void flush() {
+    }
+
+    public void interruptRead() {
+        // The search finishes within moveMillis anyway, and the game checks the clock after it
+    }
+
+    public Integer readMove() throws IOException {
+        return searchPool.bestMove(board, seat, moveMillis);
+    }
+
+    public boolean close() {
+        return false;
+    }
+}
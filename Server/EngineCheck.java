@@ -0,0 +1,209 @@
+package Server;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Differential check of MancalaEngine against the original int[] rules from GameThread (copied below unchanged, minus
+ * the debug printing).  Plays random games with both side by side and stops at the first move where they disagree
+ * about the board, who moves next, the end of the game or the winner.
+ * <p>
+ * Every other game starts from a random position with the seeds piled into a few pits, because games from the normal
+ * start hardly ever get 13 or more seeds into one pit (the case where sowing goes all the way round).
+ * <p>
+ * Usage: java Server.EngineCheck [games] [seed]
+ */
+public class EngineCheck {
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        SplittableRandom random = new SplittableRandom(seed);
+
+        long moves = 0;
+        long start = System.nanoTime();
+        long[] position = new long[2];
+        for (int game = 0; game < games; game++) {
+            int[] board = {4, 4, 4, 4, 4, 4, 0, 4, 4, 4, 4, 4, 4, 0};
+            if (game % 2 == 1) {
+                randomPosition(random, board);
+            }
+            position[0] = MancalaEngine.pack(Arrays.copyOfRange(board, 0, 7));
+            position[1] = MancalaEngine.pack(Arrays.copyOfRange(board, 7, 14));
+            boolean player1Turn = random.nextBoolean() || game % 2 == 0;
+            while (true) {
+                int player = player1Turn ? 1 : 2;
+                int legal = MancalaEngine.legalMoves(position[0], position[1], player);
+                for (int i = 0; i < 6; i++) {
+                    int pit = i + (player == 2 ? 7 : 0);
+                    if ((((legal >> i) & 1) == 1) != isValidMove(board, pit, player)) {
+                        fail(seed, game, moves, "legal moves differ for pit " + pit, board, position);
+                    }
+                }
+
+                // Pick a random legal move
+                int pick = random.nextInt(Integer.bitCount(legal));
+                int i = 0;
+                while (pick > 0 || ((legal >> i) & 1) == 0) {
+                    if (((legal >> i) & 1) == 1) {
+                        pick--;
+                    }
+                    i++;
+                }
+                int pit = i + (player == 2 ? 7 : 0);
+
+                boolean expectedTurn = makeMove(board, pit, player);
+                int result = MancalaEngine.move(position[0], position[1], player, pit, position);
+                boolean extraTurn = (result & MancalaEngine.EXTRA_TURN) != 0;
+                player1Turn = (player == 1) == extraTurn;
+                moves++;
+                if (player1Turn != expectedTurn) {
+                    fail(seed, game, moves, "next player differs", board, position);
+                }
+                compare(seed, game, moves, board, position);
+
+                boolean expectedOver = checkGameOver(board);
+                if (expectedOver != MancalaEngine.isGameOver(position[0], position[1])) {
+                    fail(seed, game, moves, "game over differs", board, position);
+                }
+                if (expectedOver) {
+                    MancalaEngine.finish(position[0], position[1], position);
+                    compare(seed, game, moves, board, position);
+                    if (determineWinner(board) != MancalaEngine.winner(position[0], position[1])) {
+                        fail(seed, game, moves, "winner differs", board, position);
+                    }
+                    break;
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("OK: %,d games, %,d moves identical (seed %d, %.1f s)%n", games, moves, seed, seconds);
+    }
+
+    /**
+     * Function that fills the board with all 48 seeds, mostly piled into 3 pits, leaving both sides something to play.
+     */
+    private static void randomPosition(SplittableRandom random, int[] board) {
+        do {
+            Arrays.fill(board, 0);
+            int[] piles = {random.nextInt(14), random.nextInt(14), random.nextInt(14)};
+            for (int seed = 0; seed < MancalaEngine.TOTAL_SEEDS; seed++) {
+                board[random.nextInt(10) < 7 ? piles[random.nextInt(3)] : random.nextInt(14)]++;
+            }
+        } while (MancalaEngine.isGameOver(MancalaEngine.pack(Arrays.copyOfRange(board, 0, 7)),
+                MancalaEngine.pack(Arrays.copyOfRange(board, 7, 14))));
+    }
+
+    private static void compare(long seed, int game, long moves, int[] board, long[] position) {
+        for (int pit = 0; pit < 14; pit++) {
+            if (board[pit] != MancalaEngine.seeds(position[0], position[1], pit)) {
+                fail(seed, game, moves, "pit " + pit + " differs", board, position);
+            }
+        }
+    }
+
+    private static void fail(long seed, int game, long moves, String message, int[] board, long[] position) {
+        StringBuilder engine = new StringBuilder();
+        for (int pit = 0; pit < 14; pit++) {
+            engine.append(MancalaEngine.seeds(position[0], position[1], pit)).append(pit < 13 ? ", " : "");
+        }
+        throw new AssertionError(message + " in game " + game + " after " + moves + " moves (seed " + seed + ")"
+                + "\noriginal: " + Arrays.toString(board) + "\nengine:   [" + engine + "]");
+    }
+
+    // The original rules, as they were in GameThread
+
+    private static boolean isValidMove(int[] board, int pitIndex, int player) {
+        if (pitIndex < 0 || pitIndex > 13) return false; // Out of bounds
+        if (board[pitIndex] == 0) return false; // Empty pit
+        if (player == 1 && (pitIndex >= 7 && pitIndex <= 12)) return false; // Player 1 cannot play on Player 2's side
+        return player != 2 || (pitIndex < 1 || pitIndex > 5); // Player 2 cannot play on Player 1's side
+    }
+
+    private static boolean makeMove(int[] board, int pitIndex, int player) {
+        int index = pitIndex;
+
+        for (int i = 0; i < board[pitIndex]; i++) {
+            index++;
+            if (index == 6 && player == 2) {
+                index++; // Skip store
+            } else if (index == 13 && player == 1) {
+                index = 0; // Skip store
+            }
+            if (index == 14) {
+                index = 0;
+            }
+            board[index] = board[index] + 1;
+        }
+        board[pitIndex] = 0;
+
+        int[] corresponding = new int[]{12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0}; // Corresponding opposite index
+        if (player == 1 && index <= 5 && board[index] == 1 && board[corresponding[index]] > 0) {
+            board[6] = board[6] + board[index] + board[corresponding[index]];
+            board[index] = 0;
+            board[corresponding[index]] = 0;
+        } else if (player == 2 && index >= 7 && index <= 12 && board[index] == 1 && board[corresponding[index]] > 0) {
+            board[13] = board[13] + board[index] + board[corresponding[index]];
+            board[index] = 0;
+            board[corresponding[index]] = 0;
+        }
+
+        if (player == 1 && index == 6) {
+            return true;
+        } else if (player == 2 && index == 13) {
+            return false;
+        } else {
+            return player != 1;
+        }
+    }
+
+    private static boolean checkGameOver(int[] board) {
+        boolean gameOver = true;
+        for (int i = 0; i < 6; i++) {
+            if (board[i] > 0) {
+                gameOver = false;
+                break;
+            }
+        }
+        if (gameOver) {
+            handleGameOver(board, 2);
+            return true;
+        }
+        gameOver = true;
+        for (int i = 7; i < 13; i++) {
+            if (board[i] > 0) {
+                gameOver = false;
+                break;
+            }
+        }
+        if (gameOver) {
+            handleGameOver(board, 1);
+            return true;
+        }
+        return false;
+    }
+
+    private static void handleGameOver(int[] board, int player) {
+        if (player == 1) {
+            for (int i = 0; i < 6; i++) {
+                board[6] = board[6] + board[i];
+                board[i] = 0;
+            }
+        } else if (player == 2) {
+            for (int i = 7; i < 13; i++) {
+                board[13] = board[13] + board[i];
+                board[i] = 0;
+            }
+        }
+    }
+
+    private static int determineWinner(int[] board) {
+        if (board[6] > board[13]) {
+            return 1;
+        } else if (board[6] < board[13]) {
+            return 2;
+        } else {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single NIO event loop thread.  Owns a Selector and every connection registered with it, so connection and game
+ * state is only ever touched from this thread.  Other threads hand work over with execute().
+ */
+public class EventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final String name;
+    private long timerSequence = 0;
+
+    public EventLoop(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Start the loop on its own thread.
+     */
+    public void start() {
+        Thread thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Run a task on the loop thread.  Safe to call from any thread.
+     *
+     * @param task
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Run a task on the loop thread after a delay.  Must be called from the loop thread.
+     *
+     * @param delayMillis
+     * @param task
+     */
+    public void schedule(long delayMillis, Runnable task) {
+        timers.add(new Timer(System.currentTimeMillis() + delayMillis, timerSequence++, task));
+    }
+
+    /**
+     * Register a channel with this loop's selector.  Must be called from the loop thread.
+     *
+     * @param channel
+     * @param connection attached to the key, and called back when the channel is ready
+     * @return the selection key
+     * @throws IOException
+     */
+    SelectionKey register(SocketChannel channel, NioConnection connection) throws IOException {
+        channel.configureBlocking(false);
+        return channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                long timeout = 0; // 0 means block until woken up
+                Timer next = timers.peek();
+                if (next != null) {
+                    timeout = Math.max(1, next.deadline - System.currentTimeMillis());
+                }
+                selector.select(timeout);
+
+                // Handle ready connections
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (!key.isValid()) {
+                        connection.close();
+                        continue;
+                    }
+                    if (key.isWritable()) {
+                        connection.onWritable();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                }
+
+                // Handle work handed over from other threads
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                // Handle timers that are due
+                long now = System.currentTimeMillis();
+                while (!timers.isEmpty() && timers.peek().deadline <= now) {
+                    timers.poll().task.run();
+                }
+            } catch (Exception e) {
+                // Never let one bad connection kill the loop (and every game on it)
+                Log.error("error in event loop", "loop", name, "error", e);
+            }
+        }
+    }
+
+    private static class Timer implements Comparable<Timer> {
+        final long deadline;
+        final long sequence; // Keeps timers with the same deadline in the order they were scheduled
+        final Runnable task;
+
+        Timer(long deadline, long sequence, Runnable task) {
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        public int compareTo(Timer other) {
+            if (deadline != other.deadline) {
+                return Long.compare(deadline, other.deadline);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package Server;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares how much memory and how many threads the server needs to hold a number of idle games (both players
+ * connected, player 1 thinking) in each execution mode.
+ * <p>
+ * Usage: java Server.ExecutionModeComparison [games] [port]
+ * <p>
+ * Every mode runs in a fresh JVM so they don't affect each other's numbers.
+ */
+public class ExecutionModeComparison {
+
+    private static final String[] MODES = {"thread", "virtual", "nio"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--child")) {
+            runChild(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 10240;
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classPath = System.getProperty("java.class.path");
+
+        System.out.printf("%-8s %8s %16s %14s %10s%n", "mode", "games", "platform threads", "heap used MB", "RSS MB");
+        for (String mode : MODES) {
+            Process child = new ProcessBuilder(java, "-cp", classPath, ExecutionModeComparison.class.getName(),
+                    "--child", mode, String.valueOf(games), String.valueOf(port))
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            BufferedReader in = new BufferedReader(new InputStreamReader(child.getInputStream()));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    String[] parts = line.split(" ");
+                    System.out.printf("%-8s %8s %16s %14s %10s%n", parts[1], parts[2], parts[3], parts[4], parts[5]);
+                }
+            }
+            child.waitFor();
+        }
+    }
+
+    /**
+     * Start a server in the given mode, connect 2 * games players to it, wait until every game is waiting on player
+     * 1, then measure.
+     */
+    private static void runChild(String mode, int games, int port) throws Exception {
+        PrintStream result = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // The server's logging isn't part of the test
+
+        Thread server = new Thread(() -> {
+            try {
+                if (mode.equals("nio")) {
+                    new NioGameServer(port, Runtime.getRuntime().availableProcessors()).start();
+                } else {
+                    new GameServer(new GameServer.Options().port(port)
+                            .gameExecutor(GameServer.createExecutor(mode, 0))).start();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(500);
+
+        List<Socket> players = new ArrayList<>();
+        for (int i = 0; i < games; i++) {
+            Socket player1 = connect(port);
+            Socket player2 = connect(port);
+            players.add(player1);
+            players.add(player2);
+        }
+        // Once player 1 has been asked for a move, the game is running and blocked waiting for input
+        for (int i = 0; i < players.size(); i += 2) {
+            waitFor(players.get(i).getInputStream(), "Possible Moves:");
+        }
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        result.println("RESULT " + mode + " " + games + " " + threads + " " + heapUsed / (1024 * 1024) + " "
+                + residentMegabytes());
+        result.flush();
+        System.exit(0);
+    }
+
+    private static Socket connect(int port) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setReceiveBufferSize(4096);
+        return socket;
+    }
+
+    private static void waitFor(InputStream in, String text) throws IOException {
+        byte[] wanted = text.getBytes(StandardCharsets.UTF_8);
+        int matched = 0;
+        while (matched < wanted.length) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed before \"" + text + "\"");
+            }
+            matched = (b == wanted[matched]) ? matched + 1 : (b == wanted[0] ? 1 : 0);
+        }
+    }
+
+    /**
+     * @return resident set size of this process in MB (Linux only, -1 elsewhere)
+     */
+    private static long residentMegabytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024;
+                }
+            }
+        } catch (IOException e) {
+            // Not Linux
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,470 @@
+package Server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Archive of finished games, stored by column so questions about millions of them can be answered quickly (see
+ * ArchiveQuery): which openings get played, how often each first move wins, how big captures are.
+ * <p>
+ * add() copies a finished game's moves into an in-memory batch, under a lock but with no I/O.  A batch is written out
+ * as one chunk file once it holds CHUNK_GAMES games, or once its first game is FLUSH_MILLIS old when another one
+ * finishes, and by close().  Chunks are written on the archive's own thread, unless WRITE_QUEUE of them are already
+ * waiting for it, in which case the thread that filled the batch writes it, so a burst of games can't use up memory.
+ * Writing replays each game through Board, exactly like GameThread played it, to work out the final stores and the
+ * captures, then writes a temporary file and moves it into place, so a chunk file is always whole.
+ * <p>
+ * A chunk, chunk-[archive start millis]-[sequence].col, is a header followed by one column per field, each column
+ * holding every game in the chunk in the same order.  Little endian:
+ * <pre>
+ *  0 int   MAGIC
+ *  4 int   games
+ *  8 short shortest and longest game, in moves
+ * 12 byte  smallest and largest final store of player 1, then of player 2
+ * 16 byte  smallest and largest winner, then 2 spare bytes
+ * 20 int   offset and size of each column, in the order below
+ * </pre>
+ * The columns:
+ * <pre>
+ * LENGTH   varint  moves in the game
+ * WINNER   byte    1 or 2, 0 for a tie
+ * FLAGS    byte    COMPUTER (player 2 was the computer), TIMED_OUT (the loser ran out of time)
+ * STORE1   byte    player 1's store at the end
+ * STORE2   byte    player 2's store at the end
+ * CAPTURES varint  moves that captured
+ * CAPTURED varint  seeds captured, by all of them
+ * STARTED  varint  when the game started in epoch seconds, as the zigzag encoded difference from the game before
+ * MOVES    nibbles each move's pit, 0-5 from the mover's point of view, two to a byte (low nibble first), each game
+ *                  starting on a new byte
+ * </pre>
+ * A query only reads the columns it needs, and the header lets it skip a chunk without reading any of them if none
+ * of its games can match.  Whose move each one was isn't stored: replaying from the start, where player 1 moves
+ * first, says.
+ */
+public class GameArchive implements Closeable {
+
+    public static final String DIRECTORY = "archive";
+    public static final int CHUNK_GAMES = 1 << 16;
+    public static final int MAGIC = 0x4D434131; // "MCA1"
+    private static final long FLUSH_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final int WRITE_QUEUE = 4;
+
+    public static final int LENGTH = 0;
+    public static final int WINNER = 1;
+    public static final int FLAGS = 2;
+    public static final int STORE1 = 3;
+    public static final int STORE2 = 4;
+    public static final int CAPTURES = 5;
+    public static final int CAPTURED = 6;
+    public static final int STARTED = 7;
+    public static final int MOVES = 8;
+    public static final int COLUMNS = 9;
+    public static final int HEADER_SIZE = 20 + COLUMNS * 8;
+
+    public static final int COMPUTER = 1;
+    public static final int TIMED_OUT = 2;
+
+    private final Path directory;
+    private final long id = System.currentTimeMillis(); // Keeps this archive's chunks apart from a previous server's
+    private final ThreadPoolExecutor writer;
+
+    // Guarded by `this`
+    private Batch batch = new Batch();
+    private long sequence;
+    private boolean closed;
+
+    private GameArchive(Path directory) {
+        this.directory = directory;
+        this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(WRITE_QUEUE),
+                Thread.ofPlatform().name("archive-writer").daemon().factory(),
+                (write, executor) -> write.run()); // Too far behind, or closed: the caller writes it
+    }
+
+    /**
+     * Function that opens an archive to add games to, making the directory if there isn't one.  Chunks already
+     * there are left alone.
+     *
+     * @param directory
+     * @return the archive
+     */
+    public static GameArchive open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new GameArchive(directory);
+    }
+
+    /**
+     * Function that archives a finished game.
+     *
+     * @param pits the moves, each pit 0-13 as Board.makeMove() takes it, from the start position
+     * @param moves how many of pits were played
+     * @param winner 1 or 2, 0 for a tie
+     * @param flags COMPUTER, TIMED_OUT
+     * @param startedSeconds when the game started, epoch seconds
+     */
+    public void add(byte[] pits, int moves, int winner, int flags, long startedSeconds) {
+        Batch full = null;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            batch.add(pits, moves, winner, flags, startedSeconds);
+            if (batch.games == CHUNK_GAMES || System.nanoTime() - batch.firstAdded > FLUSH_NANOS) {
+                full = batch;
+                batch = new Batch();
+            }
+        }
+        if (full != null) {
+            Batch written = full;
+            writer.execute(() -> write(written));
+        }
+    }
+
+    /**
+     * Function that writes the games added so far, and waits for every chunk to be written.  Games added after this
+     * are dropped.
+     */
+    public void close() {
+        Batch last;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            last = batch;
+        }
+        if (last.games > 0) {
+            writer.execute(() -> write(last));
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Batch batch) {
+        long chunk;
+        synchronized (this) {
+            chunk = sequence++;
+        }
+        Path file = directory.resolve(String.format("chunk-%d-%06d.col", id, chunk));
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            ByteBuffer encoded = batch.encode();
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (encoded.hasRemaining()) {
+                    channel.write(encoded);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            Metrics.GAMES_ARCHIVED.add(batch.games);
+        } catch (IOException e) {
+            Log.error("error archiving games", "games", batch.games, "error", e);
+        }
+    }
+
+    /**
+     * Function that lists the chunks in an archive directory, oldest first.
+     *
+     * @param directory
+     * @return the chunk files
+     */
+    public static List<Path> chunks(Path directory) throws IOException {
+        List<Path> chunks = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "chunk-*.col")) {
+            for (Path file : files) {
+                chunks.add(file);
+            }
+        }
+        chunks.sort(null);
+        return chunks;
+    }
+
+    /**
+     * Games waiting to be written, as they were added.
+     */
+    private static class Batch {
+        int games;
+        long firstAdded;
+        int[] lengths = new int[256];
+        byte[] winners = new byte[256];
+        byte[] flags = new byte[256];
+        long[] started = new long[256];
+        byte[] pits = new byte[8192]; // Every game's moves, one after the other
+        int pitCount;
+
+        void add(byte[] moves, int count, int winner, int gameFlags, long startedSeconds) {
+            if (games == 0) {
+                firstAdded = System.nanoTime();
+            }
+            if (games == lengths.length) {
+                lengths = Arrays.copyOf(lengths, games * 2);
+                winners = Arrays.copyOf(winners, games * 2);
+                flags = Arrays.copyOf(flags, games * 2);
+                started = Arrays.copyOf(started, games * 2);
+            }
+            if (pitCount + count > pits.length) {
+                pits = Arrays.copyOf(pits, Math.max(pits.length * 2, pitCount + count));
+            }
+            System.arraycopy(moves, 0, pits, pitCount, count);
+            pitCount += count;
+            lengths[games] = count;
+            winners[games] = (byte) winner;
+            flags[games] = (byte) gameFlags;
+            started[games] = startedSeconds;
+            games++;
+        }
+
+        /**
+         * Function that replays every game and lays the chunk out, header and columns.  A game with a move that isn't
+         * legal is left out (and logged), it would make every question about it wrong.
+         */
+        ByteBuffer encode() {
+            Column[] columns = new Column[COLUMNS];
+            for (int i = 0; i < COLUMNS; i++) {
+                columns[i] = new Column(i == MOVES ? pitCount / 2 + games : games * 2);
+            }
+            int encoded = 0;
+            int minLength = Integer.MAX_VALUE;
+            int maxLength = 0;
+            int[] minStore = {Integer.MAX_VALUE, Integer.MAX_VALUE};
+            int[] maxStore = {0, 0};
+            int minWinner = Integer.MAX_VALUE;
+            int maxWinner = 0;
+            long lastStarted = 0;
+            int from = 0;
+            game:
+            for (int game = 0; game < games; from += lengths[game], game++) {
+                Board board = new Board(); // Initial board state
+                boolean player1Turn = true;
+                int captures = 0;
+                int captured = 0;
+                int nibbles = 0;
+                int packed = 0;
+                int movesAt = columns[MOVES].size;
+                for (int move = from; move < from + lengths[game]; move++) {
+                    int player = player1Turn ? 1 : 2;
+                    if (!board.isValidMove(pits[move], player)) {
+                        Log.error("game not archived, illegal move", "move", move - from + 1, "pit", pits[move]);
+                        columns[MOVES].size = movesAt;
+                        continue game;
+                    }
+                    player1Turn = board.makeMove(pits[move], player); // Make move & see if player gets another turn
+                    captures += board.getLastCaptured() > 0 ? 1 : 0;
+                    captured += board.getLastCaptured();
+                    packed |= (pits[move] % 7) << (4 * nibbles++);
+                    if (nibbles == 2) {
+                        columns[MOVES].put(packed);
+                        nibbles = 0;
+                        packed = 0;
+                    }
+                }
+                if (nibbles > 0) {
+                    columns[MOVES].put(packed);
+                }
+                board.checkGameOver(); // Sweeps the seeds left into the stores, unless a clock ended the game early
+                int[] stores = {board.get(6), board.get(13)};
+                columns[LENGTH].putVarint(lengths[game]);
+                columns[WINNER].put(winners[game]);
+                columns[FLAGS].put(flags[game]);
+                columns[STORE1].put(stores[0]);
+                columns[STORE2].put(stores[1]);
+                columns[CAPTURES].putVarint(captures);
+                columns[CAPTURED].putVarint(captured);
+                long difference = started[game] - lastStarted;
+                columns[STARTED].putVarint((difference << 1) ^ (difference >> 63)); // Zigzag, small either way
+                lastStarted = started[game];
+
+                encoded++;
+                minLength = Math.min(minLength, lengths[game]);
+                maxLength = Math.max(maxLength, lengths[game]);
+                for (int player = 0; player < 2; player++) {
+                    minStore[player] = Math.min(minStore[player], stores[player]);
+                    maxStore[player] = Math.max(maxStore[player], stores[player]);
+                }
+                minWinner = Math.min(minWinner, winners[game]);
+                maxWinner = Math.max(maxWinner, winners[game]);
+            }
+
+            int size = HEADER_SIZE;
+            for (Column column : columns) {
+                size += column.size;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(encoded);
+            buffer.putShort((short) (encoded == 0 ? 0 : minLength)).putShort((short) maxLength);
+            buffer.put((byte) (encoded == 0 ? 0 : minStore[0])).put((byte) maxStore[0]);
+            buffer.put((byte) (encoded == 0 ? 0 : minStore[1])).put((byte) maxStore[1]);
+            buffer.put((byte) (encoded == 0 ? 0 : minWinner)).put((byte) maxWinner).putShort((short) 0);
+            int offset = HEADER_SIZE;
+            for (Column column : columns) {
+                buffer.putInt(offset).putInt(column.size);
+                offset += column.size;
+            }
+            for (Column column : columns) {
+                buffer.put(column.bytes, 0, column.size);
+            }
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * One column of a chunk being written.
+     */
+    private static class Column {
+        byte[] bytes;
+        int size;
+
+        Column(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void put(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void putVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                put((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            put((int) value);
+        }
+    }
+
+    /**
+     * A chunk, mapped for reading.
+     */
+    public static final class Chunk {
+        private final ByteBuffer buffer;
+        private final int games;
+
+        private Chunk(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.games = buffer.getInt(4);
+        }
+
+        /**
+         * Function that maps a chunk file, and checks its header makes sense.
+         *
+         * @param file
+         * @return the chunk
+         * @throws IOException if it can't be read, or isn't a chunk
+         */
+        public static Chunk map(Path file) throws IOException {
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not an archive chunk");
+            }
+            for (int column = 0; column < COLUMNS; column++) {
+                int offset = buffer.getInt(20 + column * 8);
+                int size = buffer.getInt(24 + column * 8);
+                if (offset < HEADER_SIZE || size < 0 || (long) offset + size > buffer.capacity()) {
+                    throw new IOException(file + " is truncated");
+                }
+            }
+            return new Chunk(buffer);
+        }
+
+        public int getGames() {
+            return games;
+        }
+
+        public int getMinLength() {
+            return buffer.getShort(8);
+        }
+
+        public int getMaxLength() {
+            return buffer.getShort(10);
+        }
+
+        /**
+         * @param player 1 or 2
+         */
+        public int getMinStore(int player) {
+            return buffer.get(10 + player * 2);
+        }
+
+        /**
+         * @param player 1 or 2
+         */
+        public int getMaxStore(int player) {
+            return buffer.get(11 + player * 2);
+        }
+
+        public int getMinWinner() {
+            return buffer.get(16);
+        }
+
+        public int getMaxWinner() {
+            return buffer.get(17);
+        }
+
+        /**
+         * @param column LENGTH, WINNER...
+         * @return where the column starts in getBuffer()
+         */
+        public int getOffset(int column) {
+            return buffer.getInt(20 + column * 8);
+        }
+
+        /**
+         * @return the whole chunk, little endian, for reading columns in place
+         */
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Function that decodes a byte column (WINNER, FLAGS, STORE1, STORE2).
+         *
+         * @param column
+         * @param values receives one value per game
+         */
+        public void readBytes(int column, int[] values) {
+            int offset = getOffset(column);
+            for (int game = 0; game < games; game++) {
+                values[game] = buffer.get(offset + game);
+            }
+        }
+
+        /**
+         * Function that decodes a varint column (LENGTH, CAPTURES, CAPTURED).
+         *
+         * @param column
+         * @param values receives one value per game
+         */
+        public void readVarints(int column, int[] values) {
+            int offset = getOffset(column);
+            for (int game = 0; game < games; game++) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = buffer.get(offset++);
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                values[game] = value;
+            }
+        }
+    }
+}
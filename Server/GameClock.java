@@ -0,0 +1,114 @@
+package Server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * A game's chess clock: each player has BASE_MILLIS for the whole game and gets INCREMENT_MILLIS back after every
+ * move, and no single turn can take longer than TURN_MILLIS however much time is left.
+ * <p>
+ * Only the player to move has a timeout pending, on the shared TimerWheel.  If it fires, the clock remembers who ran
+ * out and tells the game, which forfeits them.  Only the game's thread starts and stops the clock.
+ */
+public class GameClock {
+
+    public static final long BASE_MILLIS = 5 * 60 * 1000;
+    public static final long INCREMENT_MILLIS = 5000;
+    public static final long TURN_MILLIS = 60 * 1000;
+
+    private final TimerWheel timers;
+    private final IntConsumer timeUp; // Called on the wheel's thread with the player who ran out
+    private final long[] remainingNanos = new long[3]; // By player, 1 and 2
+    private final long incrementNanos;
+    private final long turnNanos;
+    private volatile int running = 0; // The player whose time is running, 0 if neither
+    private volatile long turnStarted;
+    private volatile int flagged = 0; // The player who ran out of time, 0 if neither has
+    private volatile TimerWheel.Timeout timeout;
+
+    /**
+     * @param timers where the turn timeouts go
+     * @param timeUp called on the wheel's thread with the player who ran out of time, must be quick
+     */
+    public GameClock(TimerWheel timers, IntConsumer timeUp) {
+        this(timers, timeUp, BASE_MILLIS, INCREMENT_MILLIS, TURN_MILLIS);
+    }
+
+    /**
+     * @param timers where the turn timeouts go
+     * @param timeUp called on the wheel's thread with the player who ran out of time, must be quick
+     * @param baseMillis each player's time for the whole game
+     * @param incrementMillis added after every move
+     * @param turnMillis longest one turn can take
+     */
+    public GameClock(TimerWheel timers, IntConsumer timeUp, long baseMillis, long incrementMillis, long turnMillis) {
+        this.timers = timers;
+        this.timeUp = timeUp;
+        remainingNanos[1] = TimeUnit.MILLISECONDS.toNanos(baseMillis);
+        remainingNanos[2] = remainingNanos[1];
+        this.incrementNanos = TimeUnit.MILLISECONDS.toNanos(incrementMillis);
+        this.turnNanos = TimeUnit.MILLISECONDS.toNanos(turnMillis);
+    }
+
+    /**
+     * Function that starts a player's time, at the start of their turn.
+     *
+     * @param player 1 or 2
+     */
+    public void start(int player) {
+        turnStarted = System.nanoTime();
+        running = player;
+        long limit = Math.min(remainingNanos[player], turnNanos);
+        timeout = timers.schedule(() -> flag(player), TimeUnit.NANOSECONDS.toMillis(limit));
+    }
+
+    /**
+     * Function that stops a player's time once they have moved, and adds the increment.
+     *
+     * @param player 1 or 2
+     * @return false if they ran out of time first
+     */
+    public boolean stop(int player) {
+        if (!timeout.cancel()) {
+            return false;
+        }
+        running = 0;
+        long used = System.nanoTime() - turnStarted;
+        remainingNanos[player] = Math.max(0, remainingNanos[player] - used) + incrementNanos;
+        return true;
+    }
+
+    /**
+     * Function that stops the clock for good, at the end of the game.
+     */
+    public void cancel() {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        running = 0;
+    }
+
+    /**
+     * @param player 1 or 2
+     * @return how long the player has left right now, counting down if it is their turn
+     */
+    public long getRemainingMillis(int player) {
+        long remaining = remainingNanos[player];
+        if (running == player) {
+            remaining -= System.nanoTime() - turnStarted;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, remaining));
+    }
+
+    /**
+     * @return the player who ran out of time, 0 if neither has
+     */
+    public int getFlagged() {
+        return flagged;
+    }
+
+    private void flag(int player) {
+        flagged = player;
+        timeUp.accept(player);
+    }
+}
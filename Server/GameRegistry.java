@@ -0,0 +1,140 @@
+package Server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every game GameServer is running, by game number.  Games add themselves when they start and remove themselves when
+ * they close, so the registry only ever holds live games however long the server runs.
+ * <p>
+ * It also owns one scheduler thread shared by all games, which
+ * <ul>
+ *     <li>closes finished games after they have shown the result for POST_GAME_MILLIS, so a finished game doesn't hold
+ *     a thread just to sleep</li>
+ *     <li>reaps games where the player to move has done nothing for IDLE_MILLIS (which also catches a player whose
+ *     connection died without closing), by closing both players</li>
+ * </ul>
+ * Move clocks don't use the scheduler: with one timeout per game pending all the time, they go on a TimerWheel.
+ * snapshot() gives a consistent-enough copy of every game for admin tools, it never blocks the games.
+ */
+public class GameRegistry {
+
+    public static final long POST_GAME_MILLIS = 10000; // How long the result stays up before the game closes
+    public static final long IDLE_MILLIS = 5 * 60 * 1000; // How long a player can take over a move
+    private static final long REAP_INTERVAL_MILLIS = 10000;
+
+    private final ConcurrentHashMap<Integer, GameThread> games = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final TimerWheel timers = new TimerWheel("game-clocks"); // Every game's clock
+
+    public GameRegistry() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "game-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reapIdleGames, REAP_INTERVAL_MILLIS, REAP_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Function that adds a game that is about to start.
+     *
+     * @param game
+     */
+    public void add(GameThread game) {
+        games.put(game.getGameNumber(), game);
+    }
+
+    /**
+     * Function that removes a game that has closed.  Called by the game itself.
+     *
+     * @param game
+     */
+    public void remove(GameThread game) {
+        games.remove(game.getGameNumber(), game);
+    }
+
+    /**
+     * @return the game, or null if there is no such game running
+     */
+    public GameThread get(int gameNumber) {
+        return games.get(gameNumber);
+    }
+
+    public int size() {
+        return games.size();
+    }
+
+    /**
+     * Function that closes a finished game once its result has been up for POST_GAME_MILLIS.
+     *
+     * @param game
+     */
+    public void closeLater(GameThread game) {
+        schedule(game::close, POST_GAME_MILLIS);
+    }
+
+    /**
+     * Function that runs something on the registry's scheduler thread.  It must be quick, every game shares it.
+     *
+     * @param task
+     * @param delayMillis
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the timer wheel every game's clock runs on
+     */
+    public TimerWheel getTimers() {
+        return timers;
+    }
+
+    /**
+     * @return a copy of every running game's state, by game number
+     */
+    public List<GameThread.Info> snapshot() {
+        List<GameThread.Info> snapshot = new ArrayList<>(games.size());
+        for (GameThread game : games.values()) {
+            snapshot.add(game.getInfo());
+        }
+        snapshot.sort(Comparator.comparingInt(GameThread.Info::getGameNumber));
+        return snapshot;
+    }
+
+    /**
+     * @return snapshot() as text, one game per line
+     */
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        for (GameThread.Info info : snapshot()) {
+            text.append(info).append('\n');
+        }
+        return text.toString();
+    }
+
+    private void reapIdleGames() {
+        try {
+            long now = System.nanoTime();
+            for (GameThread game : games.values()) {
+                long idleNanos = now - game.getLastActivity();
+                if (game.isPlaying() && idleNanos > TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS)) {
+                    Log.info("game reaped", "game", game.getGameNumber(), "idleSeconds",
+                            TimeUnit.NANOSECONDS.toSeconds(idleNanos));
+                    Metrics.GAMES_REAPED.increment();
+                    game.close(); // Its thread's readMove() fails, and it finishes up like any disconnect
+                }
+            }
+        } catch (Exception e) {
+            // Never let one bad game stop the reaping (scheduleWithFixedDelay would)
+            Log.error("error reaping games", "error", e);
+        }
+    }
+}
@@ -2,52 +2,685 @@ package Server;
 
 import java.io.*;
 import java.net.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 // Basically taken from "Socket Programming" in content.
 
-public class GameServer {
+/**
+ * The threaded game server: an accept loop feeding the Lobby, which starts every game as a GameThread.
+ * <p>
+ * For a restart the server can drain (drain(), or POST http://localhost:9124/drain): no new games start, the ones
+ * running play to the end, then start() returns.  For a restart without downtime a new server takes over
+ * (takeOver()): it binds the same port (every server sets SO_REUSEPORT), asks the old one to hand over, and the old one
+ * stops listening, so every new connection goes to the new server while the old one drains.
+ */
+public class GameServer implements Lobby.GameStarter {
 
-    private static final int PORT = 1024;
-    private List<GameThread> activeGames;
-    private int gameCounter = 1;
+    public static final int PORT = 1024;
+    public static final long COMPUTER_MILLIS = 1000; // Default time the computer thinks about each move
+    private static final int SEARCH_QUEUE_SIZE = 1024;
+    private static final int HINT_QUEUE_SIZE = 256; // Moves waiting to be analysed, 6 at most per hint
+    public static final String JOURNAL_DIRECTORY = "journal";
+    public static final long HANDOVER_DEADLINE_MILLIS = 10 * 60 * 1000; // Longest the old server drains in a handover
+    private static final long DRAIN_CHECK_MILLIS = 1000;
+    private static final long JOURNAL_RETRY_MILLIS = 250;
+    private final int port;
+    private final ExecutorService gameExecutor; // Runs every GameThread
+    private final SearchPool searchPool; // Every computer player searches here, never on gameExecutor
+    private final HintService hints; // Every hint is analysed here, never on searchPool
+    private final GameArchive archive; // null if not archiving
+    private final long computerMillis;
+    private final long writeTimeoutMillis;
+    private final GameRegistry games = new GameRegistry(); // Every game until it closes
+    private final SessionCache sessions = new SessionCache(); // Every seat a player could come back to
+    private volatile Journal journal; // null if not journaling (yet, when taking over)
+    // Games the journal recovered from the last run, by game number, until they expire
+    private final Map<Integer, Journal.RecoveredGame> recovered = new ConcurrentHashMap<>();
+    private final Lobby lobby = new Lobby(this);
+
+    // Draining, guarded by `this`
+    private ServerSocketChannel serverChannel; // null until start() binds it
+    private boolean draining = false;
+    private boolean handedOver = false; // Another server has the port, stop listening
+    private long drainDeadline; // System.nanoTime(), 0 for none
+    private final CountDownLatch drained = new CountDownLatch(1);
 
     public GameServer() {
-        activeGames = new ArrayList<>();
+        this(new Options());
+    }
+
+    /**
+     * @param options what to listen on, where games run, and what the server keeps; the defaults for anything unset
+     */
+    public GameServer(Options options) {
+        this.port = options.port;
+        this.archive = options.archive;
+        this.gameExecutor = options.gameExecutor != null ? options.gameExecutor : createExecutor("thread", 0);
+        this.computerMillis = options.computerMillis;
+        this.writeTimeoutMillis = options.writeTimeoutMillis;
+        // Half the cores at most, so however many computer games there are, human games keep the rest, and a quarter
+        // for hints.  The tablebase is only mapped once the computer first searches.
+        Tablebase tablebase = Tablebase.open(Paths.get(Tablebase.FILE));
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.searchPool = new SearchPool(Math.max(1, cores / 2), SEARCH_QUEUE_SIZE, tablebase);
+        this.hints = new HintService(Math.max(1, cores / 4), HINT_QUEUE_SIZE, tablebase);
+        if (options.journal != null) {
+            useJournal(options.journal);
+        }
+    }
+
+    /**
+     * How to set up a GameServer.  Everything has a default, so set only what differs:
+     * new GameServer(new GameServer.Options().port(port).journal(journal)).
+     */
+    public static class Options {
+        private int port = PORT;
+        private ExecutorService gameExecutor; // null for a platform thread per game
+        private long computerMillis = COMPUTER_MILLIS;
+        private Journal journal;
+        private long writeTimeoutMillis = WriteQueue.WRITE_TIMEOUT_MILLIS;
+        private GameArchive archive;
+
+        /**
+         * @param port port to listen on
+         */
+        public Options port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * @param gameExecutor runs each game's GameThread
+         */
+        public Options gameExecutor(ExecutorService gameExecutor) {
+            this.gameExecutor = gameExecutor;
+            return this;
+        }
+
+        /**
+         * @param computerMillis how long the computer thinks about each move
+         */
+        public Options computerMillis(long computerMillis) {
+            this.computerMillis = computerMillis;
+            return this;
+        }
+
+        /**
+         * @param journal records every game, or null.  Games it recovered are kept for GameRegistry.IDLE_MILLIS.
+         */
+        public Options journal(Journal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * @param writeTimeoutMillis longest a write to a player can take before they are disconnected
+         */
+        public Options writeTimeoutMillis(long writeTimeoutMillis) {
+            this.writeTimeoutMillis = writeTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param archive keeps every finished game, or null
+         */
+        public Options archive(GameArchive archive) {
+            this.archive = archive;
+            return this;
+        }
+    }
+
+    /**
+     * Function that starts journaling every new game, and offers the games the journal recovered to their players.
+     *
+     * @param journal
+     */
+    private void useJournal(Journal journal) {
+        lobby.skipTo(journal.getLastGameNumber() + 1);
+        for (Journal.RecoveredGame game : journal.getRecovered()) {
+            recovered.put(game.getGameNumber(), game);
+            Log.info("game recovered", "game", game.getGameNumber(), "moves", game.getMoves(), "toMove",
+                    game.isPlayer1Turn() ? 1 : 2, "computer", game.isComputer());
+        }
+        games.schedule(this::expireRecoveredGames, GameRegistry.IDLE_MILLIS);
+        this.journal = journal;
+    }
+
+    /**
+     * @return the games running right now, for admin tools (see GameRegistry.snapshot())
+     */
+    public GameRegistry getGames() {
+        return games;
     }
-    
+
+    /**
+     * @return the sessions players could resume
+     */
+    public SessionCache getSessions() {
+        return sessions;
+    }
+
+    /**
+     * @return every running game, then every recovered game nobody has come back to, one per line
+     */
+    public String describeGames() {
+        StringBuilder text = new StringBuilder(games.describe());
+        for (Journal.RecoveredGame game : recovered.values()) {
+            text.append("game=").append(game.getGameNumber()).append(" state=recovered moves=")
+                    .append(game.getMoves()).append(" toMove=").append(game.isPlayer1Turn() ? 1 : 2)
+                    .append(" computer=").append(game.isComputer()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Function that analyses a game's position, for moderators: what every move of the player to move is worth.
+     *
+     * @param query "game=number"
+     * @return the analysis as text
+     */
+    public String describeAnalysis(String query) {
+        int gameNumber = 0;
+        if (query != null && query.startsWith("game=")) {
+            try {
+                gameNumber = Integer.parseInt(query.substring("game=".length()));
+            } catch (NumberFormatException e) {
+                // No such game
+            }
+        }
+        GameThread game = games.get(gameNumber);
+        GameThread.Position position = game != null && game.isPlaying() ? game.getPosition() : null;
+        if (position == null) {
+            return "Game " + gameNumber + " isn't being played.\n";
+        }
+        HintService.Analysis analysis = hints.await(position.getLo(), position.getHi(), position.getToMove());
+        if (analysis == null) {
+            return "Too busy to analyse, try again.\n";
+        }
+        return "game=" + gameNumber + " toMove=" + position.getToMove() + " depth=" + analysis.getDepth() + "\n"
+                + analysis.describe() + "\n";
+    }
+
+    /**
+     * Function that ends the recovered games that are still waiting for their players, so the journal can compact
+     * them away.
+     */
+    private void expireRecoveredGames() {
+        for (Journal.RecoveredGame game : recovered.values()) {
+            if (recovered.remove(game.getGameNumber(), game)) {
+                Board board = game.getBoard();
+                journal.gameEnded(game.getGameNumber(), 0, board.getLo(), board.getHi(), true);
+                Log.info("recovered game expired", "game", game.getGameNumber());
+            }
+        }
+    }
+
+    /**
+     * Function that creates the executor games run on.
+     *
+     * @param mode "thread" (a new platform thread per game), "virtual" (a new virtual thread per game) or "pool" (a
+     *             fixed pool of platform threads, games wait for a free thread)
+     * @param threads size of the pool for "pool" mode
+     * @return ExecutorService to run games on
+     */
+    public static ExecutorService createExecutor(String mode, int threads) {
+        switch (mode) {
+            case "thread":
+                return Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("game-", 1).factory());
+            case "virtual":
+                // An idle game (a player thinking) then costs a few KB of heap instead of a platform thread and its
+                // stack.  Blocking in readLine() or Thread.sleep() unmounts the game from its carrier thread.
+                return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("game-", 1).factory());
+            case "pool":
+                return Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("game-", 1).factory());
+            default:
+                throw new IllegalArgumentException("Unknown execution mode: " + mode);
+        }
+    }
+
+    /**
+     * Function that runs the server until it has drained (see drain()).
+     */
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Game server started on port " + PORT);
+        serve(null);
+    }
 
-            while (true) {
-                Socket player1Socket = serverSocket.accept();
-                PrintWriter player1Out = new PrintWriter(player1Socket.getOutputStream(), true);
-                System.out.println("Game " + gameCounter + ": Player 1 connected.");
-                player1Out.println("Welcome Player 1.");
-                player1Out.println("Waiting for Player 2...");
+    /**
+     * Function that runs the server in place of the one already running on this host, until it has drained in turn.
+     * Once this server is listening, the old one is asked to hand over (POST /handover on its metrics port) and gives
+     * it up to HANDOVER_DEADLINE_MILLIS to finish its games.  New games are numbered after the old server's.
+     * <p>
+     * The journal stays the old server's until it exits, so games that start in the meantime aren't journaled.  Once
+     * it has exited, its games that were still running are recovered from the journal, for their players to resume.
+     * Players who lose their connection to the old server while it drains can't resume: their reconnection comes here.
+     *
+     * @param journalDirectory the old server's journal, or null to not journal
+     */
+    public void takeOver(Path journalDirectory) {
+        serve(journalDirectory);
+    }
 
-                Socket player2Socket = serverSocket.accept();
-                PrintWriter player2Out = new PrintWriter(player2Socket.getOutputStream(), true);
-                System.out.println("Game " + gameCounter + ": Player 2 connected.");
-                player1Out.println("Player 2 joined."); // Alert player 1 when player 2 joins
-                player2Out.println("Welcome Player 2.");
+    /**
+     * @param takeOverJournal null to start as usual, otherwise take over from the server already running and then
+     *                        journal here (see takeOver())
+     */
+    private void serve(Path takeOverJournal) {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            if (takeOverJournal == null) {
+                try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+                    probe.bind(new InetSocketAddress(port)); // Fails if a server is running, only takeOver() shares
+                }
+            }
+            if (serverChannel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true); // So a new server can take over
+            }
+            serverChannel.bind(new InetSocketAddress(port));
+            Log.info("game server started", "port", port);
+            if (takeOverJournal != null) {
+                lobby.skipTo(requestHandover());
+                openJournal(takeOverJournal, 0);
+            }
+            synchronized (this) {
+                this.serverChannel = serverChannel;
+                if (handedOver) {
+                    this.serverChannel.close(); // Handed over while we were starting, the loop below ends at once
+                }
+            }
 
-                GameThread gameThread = new GameThread(player1Socket, player2Socket, gameCounter);
-                activeGames.add(gameThread);
-                gameThread.start();
+            // The accept loop only hands players to the lobby, pairing and starting games happens on its workers
+            lobby.start(Math.min(4, Runtime.getRuntime().availableProcessors()));
 
-                System.out.println("Game " + gameCounter + ": started.");
-                gameCounter++;
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (ClosedChannelException e) {
+                    if (isDraining()) {
+                        break; // Drained, or handed over
+                    }
+                    throw e;
+                }
+                Metrics.CONNECTIONS.increment();
+                try {
+                    lobby.offer(new PlayerConnection(channel, writeTimeoutMillis));
+                } catch (IOException e) {
+                    Log.error("error accepting player", "error", e);
+                    channel.close();
+                }
+            }
+            drained.await();
+            Journal journal = this.journal;
+            if (journal != null) {
+                journal.flush(); // Games still running stay in progress, for the next server to recover
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Function that starts draining the server: no new games start (players are told to connect again), the games
+     * running play to the end, then start() returns.  Until then players can still resume and spectators can still
+     * watch, unless the server has handed over.  Can be called again, e.g. to bring the deadline forward.
+     *
+     * @param deadlineMillis how long to wait for games to finish, 0 for as long as they take.  Games still running at
+     *                       the deadline are left in the journal, for the next server to recover.
+     * @param handover stop listening now, a new server has bound the port and takes every new connection
+     * @return the number the next game would have had, so a new server can carry on from it
+     */
+    public synchronized int drain(long deadlineMillis, boolean handover) {
+        if (deadlineMillis > 0) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+            drainDeadline = drainDeadline == 0 ? deadline : Math.min(drainDeadline, deadline);
+        }
+        if (handover && !handedOver) {
+            handedOver = true;
+            closeListener();
+            Log.info("server handed over", "games", games.size());
+        }
+        if (!draining) {
+            draining = true;
+            Log.info("server draining", "games", games.size(), "deadlineSeconds", deadlineMillis / 1000);
+            games.schedule(this::checkDrained, DRAIN_CHECK_MILLIS);
         }
+        return lobby.drain();
     }
 
-    public static void main(String[] args) {
-        GameServer server = new GameServer();
-        server.start();
+    public synchronized boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Function that stops the server once every game has finished, or the deadline has passed.  Runs on the
+     * registry's scheduler.
+     */
+    private synchronized void checkDrained() {
+        boolean expired = drainDeadline != 0 && System.nanoTime() - drainDeadline > 0;
+        if (games.size() > 0 && !expired) {
+            games.schedule(this::checkDrained, DRAIN_CHECK_MILLIS);
+            return;
+        }
+        Log.info("server drained", "gamesLeft", games.size());
+        drained.countDown();
+        closeListener();
+    }
+
+    private void closeListener() {
+        if (serverChannel == null) {
+            return; // start() closes it
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            Log.error("error closing server socket", "error", e);
+        }
+    }
+
+    /**
+     * Function that asks the server already running on this host to hand over, see takeOver().
+     *
+     * @return the number of its next game, 0 if there is no server to take over from
+     */
+    private int requestHandover() {
+        try {
+            URL url = URI.create("http://localhost:" + Metrics.PORT + "/handover?deadline="
+                    + HANDOVER_DEADLINE_MILLIS / 1000).toURL();
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(5000);
+            try (InputStream in = connection.getInputStream()) {
+                int nextGame = Integer.parseInt(new String(in.readAllBytes(), StandardCharsets.US_ASCII).trim());
+                Log.info("took over", "nextGame", nextGame);
+                return nextGame;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.error("no server to take over from", "error", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Function that opens the journal once the server it belonged to has exited, trying again every
+     * JOURNAL_RETRY_MILLIS until it has.
+     *
+     * @param directory
+     * @param attempts tries so far
+     */
+    private void openJournal(Path directory, int attempts) {
+        try {
+            useJournal(Journal.open(directory));
+            Log.info("journal opened", "directory", directory, "recovered", recovered.size());
+        } catch (IOException e) {
+            if (attempts == 0) {
+                Log.info("waiting for journal", "directory", directory, "reason", e.getMessage());
+            }
+            games.schedule(() -> openJournal(directory, attempts + 1), JOURNAL_RETRY_MILLIS);
+        }
+    }
+
+    /**
+     * Function that starts a game between two paired players.  Called by the lobby.
+     *
+     * @param player1
+     * @param player2
+     * @param gameNumber
+     */
+    public void startGame(PlayerConnection player1, PlayerConnection player2, int gameNumber) {
+        Session session1 = new Session(player1, gameNumber, sessions);
+        Session session2 = new Session(player2, gameNumber, sessions);
+        session1.setOpponent(session2);
+        session2.setOpponent(session1);
+        start(new GameThread(session1, session2, gameNumber, games, journal, hints, archive));
+    }
+
+    /**
+     * Function that starts a game between a player and the computer.  Called by the lobby.
+     *
+     * @param player1
+     * @param gameNumber
+     */
+    public void startComputerGame(PlayerConnection player1, int gameNumber) {
+        Metrics.COMPUTER_GAMES.increment();
+        start(new GameThread(new Session(player1, gameNumber, sessions),
+                new ComputerPlayer(searchPool, computerMillis, 2), gameNumber, games, journal, hints, archive));
+    }
+
+    /**
+     * Function that puts a player who reconnected back in their game: a running game whose seat is waiting for them,
+     * or a game the journal recovered, which starts again with the other seat waiting for its player.  Called by the
+     * lobby.
+     *
+     * @param player
+     * @param token the token the player sent
+     * @return false if there is no such game to go back to
+     */
+    public boolean resume(PlayerConnection player, long token) {
+        if (token == 0) {
+            return false;
+        }
+        Session session = sessions.find(token);
+        if (session != null) {
+            return session.resume(player);
+        }
+        for (Journal.RecoveredGame game : recovered.values()) {
+            int seat = game.getToken(1) == token ? 1 : (game.getToken(2) == token ? 2 : 0);
+            if (seat != 0 && recovered.remove(game.getGameNumber(), game)) {
+                resumeRecovered(player, game, seat);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param token
+     * @return true if resume() would find a game for the token
+     */
+    public boolean canResume(long token) {
+        if (token == 0) {
+            return false;
+        }
+        if (sessions.find(token) != null) {
+            return true;
+        }
+        for (Journal.RecoveredGame game : recovered.values()) {
+            if (game.getToken(1) == token || game.getToken(2) == token) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Function that adds a spectator to a running game.  Called by the lobby.
+     *
+     * @param spectator
+     * @param gameNumber
+     * @return false if the game isn't running, or can't take any more spectators
+     */
+    public boolean watch(PlayerConnection spectator, int gameNumber) {
+        GameThread game = games.get(gameNumber);
+        return game != null && game.getSpectators().add(spectator);
+    }
+
+    /**
+     * Function that restarts a recovered game now one of its players is back.
+     *
+     * @param player
+     * @param game
+     * @param seat the seat the player is back in
+     */
+    private void resumeRecovered(PlayerConnection player, Journal.RecoveredGame game, int seat) {
+        int gameNumber = game.getGameNumber();
+        Session back = new Session(game.getToken(seat), seat, gameNumber, sessions); // Parked until resume()
+        Player other;
+        if (game.isComputer()) {
+            Metrics.COMPUTER_GAMES.increment();
+            other = new ComputerPlayer(searchPool, computerMillis, 2);
+        } else {
+            other = new Session(game.getToken(3 - seat), 3 - seat, gameNumber, sessions);
+            ((Session) other).setOpponent(back);
+        }
+        back.setOpponent(other);
+        back.resume(player);
+        if (!game.isComputer()) {
+            back.sendOpponentLeft((int) (Session.GRACE_MILLIS / 1000)); // Their opponent hasn't come back yet
+            back.flush();
+        }
+        Log.info("recovered game resumed", "game", gameNumber, "player", seat);
+        start(seat == 1 ? new GameThread(back, other, game, games, journal, hints, archive)
+                : new GameThread(other, back, game, games, journal, hints, archive));
+    }
+
+    private void start(GameThread gameThread) {
+        games.add(gameThread);
+        gameExecutor.execute(gameThread);
+
+        Log.info("game started", "game", gameThread.getGameNumber());
+    }
+
+    /**
+     * Start the server.  Usage: java Server.GameServer [handover | shard [address:]port] [mode] [threads]
+     * [computer millis] [write timeout millis]
+     * <ul>
+     *     <li>thread - every game gets its own platform thread (the default)</li>
+     *     <li>virtual - every game gets its own virtual thread</li>
+     *     <li>pool [threads] - games share a fixed pool of platform threads (one per core by default)</li>
+     *     <li>nio [loops] - non-blocking server, a few event loop threads (one per core by default) share every game</li>
+     * </ul>
+     * computer millis is how long the computer thinks about each move (1000 by default), for players who ask to play
+     * the computer.  The nio server doesn't have a computer player.
+     * <p>
+     * write timeout millis is how long one write to a player can take (10000 by default) before they are disconnected
+     * for not reading what they are sent (see WriteQueue).
+     * <p>
+     * Either way, metrics are served at http://localhost:9124/metrics and over JMX (see Metrics), and the threaded
+     * modes list every running game at http://localhost:9124/games.
+     * <p>
+     * The threaded modes journal every move to ./journal (see Journal), and recover the games that were in progress
+     * when the server last stopped.
+     * <p>
+     * POST http://localhost:9124/drain[?deadline=seconds] drains a threaded server, which then exits.  handover starts
+     * a server that takes over from the one already running (see takeOver()), which drains and exits.
+     * <p>
+     * shard runs a threaded server as a shard behind a Router (see Shard), listening for the router on the port given,
+     * on loopback unless an address is given too (which needs ShardProtocol.SECRET_VARIABLE set).  Its metrics are on
+     * 9124 + (port - 1024) and its journal is ./journal-port, so shards can share a host.
+     *
+     * @param args
+     */
+    public static void main(String[] args) throws IOException {
+        boolean handover = args.length > 0 && args[0].equals("handover");
+        if (handover) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        int shardPort = 0; // 0 if not a shard
+        InetAddress shardAddress = InetAddress.getLoopbackAddress();
+        if (args.length > 1 && args[0].equals("shard")) {
+            int colon = args[1].lastIndexOf(':');
+            if (colon >= 0) {
+                shardAddress = InetAddress.getByName(args[1].substring(0, colon));
+            }
+            shardPort = Integer.parseInt(args[1].substring(colon + 1));
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (!shardAddress.isLoopbackAddress() && !ShardProtocol.hasSecret()) { // Anyone could send it players
+            System.err.println("Set " + ShardProtocol.SECRET_VARIABLE + " (the router's too) to listen on "
+                    + shardAddress.getHostAddress());
+            System.exit(1);
+        }
+        Metrics.expose(shardPort == 0 ? Metrics.PORT : Metrics.PORT + shardPort - PORT);
+        String mode = args.length > 0 ? args[0] : "thread";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        if (mode.equals("nio")) {
+            if (shardPort != 0) {
+                throw new IllegalArgumentException("The nio server can't be a shard");
+            }
+            new NioGameServer(PORT, threads).start();
+            return;
+        }
+        long computerMillis = args.length > 2 ? Long.parseLong(args[2]) : COMPUTER_MILLIS;
+        long writeTimeoutMillis = args.length > 3 ? Long.parseLong(args[3]) : WriteQueue.WRITE_TIMEOUT_MILLIS;
+        Path journalDirectory = Paths.get(shardPort == 0 ? JOURNAL_DIRECTORY : JOURNAL_DIRECTORY + "-" + shardPort);
+        Journal journal = null;
+        if (!handover) { // Taking over, the journal is the old server's until it exits
+            try {
+                journal = Journal.open(journalDirectory);
+            } catch (IOException e) {
+                Log.error("error opening journal, games will not survive a restart", "error", e);
+            }
+        }
+        GameArchive archive = null;
+        try {
+            archive = GameArchive.open(Paths.get(shardPort == 0 ? GameArchive.DIRECTORY
+                    : GameArchive.DIRECTORY + "-" + shardPort));
+            // Written on exit or when killed, games finished since the last chunk would be lost otherwise
+            Runtime.getRuntime().addShutdownHook(new Thread(archive::close, "archive-close"));
+        } catch (IOException e) {
+            Log.error("error opening archive, finished games will not be kept", "error", e);
+        }
+        GameServer server = new GameServer(new Options().gameExecutor(createExecutor(mode, threads))
+                .computerMillis(computerMillis).journal(journal).writeTimeoutMillis(writeTimeoutMillis)
+                .archive(archive));
+        Metrics.page("/games", server::describeGames);
+        Metrics.queryPage("/analysis", server::describeAnalysis);
+        if (shardPort == 0) { // A shard has no listener of its own to drain
+            Metrics.action("/drain", query -> "Draining, next game " + server.drain(deadlineMillis(query), false)
+                    + "\n");
+            Metrics.action("/handover", query -> server.drain(deadlineMillis(query), true) + "\n");
+        }
+        Metrics.gauge("mancala_sessions", "Seats players could resume", "gauge", server.getSessions()::size);
+        Metrics.gauge("mancala_hint_cache_size", "Positions in the hint analysis cache", "gauge",
+                server.hints::getCacheSize);
+        Metrics.gauge("mancala_clock_timeouts", "Move clock timeouts pending on the timer wheel", "gauge",
+                server.getGames().getTimers()::size);
+        Metrics.gauge("mancala_draining", "1 once the server is draining for a restart", "gauge",
+                () -> server.isDraining() ? 1 : 0);
+        if (shardPort != 0) {
+            new Shard(server, shardAddress, shardPort, journal == null ? 0 : journal.getLastGameNumber()).start();
+        } else if (handover) {
+            server.takeOver(journalDirectory);
+        } else {
+            server.start();
+        }
+        Log.info("game server stopped");
+        try {
+            Log.awaitPrinted(1000);
+        } catch (InterruptedException e) {
+            // Exit anyway
+        }
+        System.exit(server.isDraining() ? 0 : 1); // Games still running at the deadline have their own threads
+    }
+
+    /**
+     * @param query "deadline=seconds", or null
+     * @return the deadline in milliseconds, 0 for none
+     */
+    private static long deadlineMillis(String query) {
+        if (query != null && query.startsWith("deadline=")) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(query.substring("deadline=".length())));
+            } catch (NumberFormatException e) {
+                // No deadline
+            }
+        }
+        return 0;
     }
 }
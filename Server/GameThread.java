@@ -1,341 +1,428 @@
 package Server;
 
-// Rules I based my game off:
-// https://www.scholastic.com/content/dam/teachers/blogs/alycia-zimmerman/migrated-files/mancala_rules.pdf
-
 import java.io.*;
-import java.net.*;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single game between two players.  Despite the name this is a task, not a thread: GameServer decides what runs it
+ * (a platform thread, a virtual thread or a pool, see GameServer.createExecutor()).  Either seat can be the computer
+ * (see ComputerPlayer) or a person's Session, the game doesn't know the difference.
+ * <p>
+ * The task ends as soon as the result is sent, and a game played to the end goes in the GameArchive.  The
+ * GameRegistry's scheduler closes the players 10 seconds later, or closes them early if the game sits idle for too
+ * long.
+ * <p>
+ * Each player is on a GameClock.  A player who runs out of time loses the game, whatever the board says.
+ * <p>
+ * Instead of a move, the player to move can ask for a hint: the HintService's values for each of their moves, sent
+ * with the board again.  The game waits for it (up to 400ms, at worst) and their clock keeps running meanwhile.
+ */
+public class GameThread implements Runnable {
 
-public class GameThread extends Thread {
+    private static final int PLAYING = 0;
+    private static final int FINISHED = 1; // Showing the result until the registry closes it
+    private static final int CLOSED = 2;
 
-    private Socket player1Socket;
-    private Socket player2Socket;
+    private Player player1;
+    private Player player2;
     private int gameNumber;
-    private int[] board; // Mancala board representation
+    private Board board; // Mancala board representation
+    private final GameRegistry registry;
+    private final Journal journal; // null if not journaling
+    private final HintService hints; // null if players can't ask for hints
+    private final GameArchive archive; // null if not archiving
+    private byte[] pits = new byte[64]; // Every move, for the archive
+    private final long startedAt = System.currentTimeMillis();
+    private final AtomicInteger state = new AtomicInteger(PLAYING);
+    private final Spectators spectators;
+    private final GameClock clock;
+    private boolean recovered = false; // Carrying on a game from the journal, which already has its START
+    private boolean player1Starts = true;
 
-    public GameThread(Socket player1Socket, Socket player2Socket, int gameNumber) {
-        this.player1Socket = player1Socket;
-        this.player2Socket = player2Socket;
+    // Read by GameRegistry's thread for reaping and snapshots
+    private volatile long lastActivity = System.nanoTime(); // When the game last heard from a player
+    private volatile int moves;
+    private volatile int toMove = 1;
+    private volatile boolean ended; // The journal has the game's END
+    private volatile Position position; // The board the player to move is looking at
+
+    /**
+     * @param player1
+     * @param player2
+     * @param gameNumber
+     * @param registry the registry the game has been added to, it removes itself when it closes
+     * @param journal records every move, or null
+     * @param hints analyses positions for players who ask for a hint, or null
+     * @param archive keeps the game once it's finished, or null
+     */
+    public GameThread(Player player1, Player player2, int gameNumber, GameRegistry registry, Journal journal,
+                      HintService hints, GameArchive archive) {
+        this.player1 = player1;
+        this.player2 = player2;
         this.gameNumber = gameNumber;
-        this.board = new int[]{4, 4, 4, 4, 4, 4, 0, 4, 4, 4, 4, 4, 4, 0}; // Initial board state
+        this.board = new Board(); // Initial board state
+        this.registry = registry;
+        this.journal = journal;
+        this.hints = hints;
+        this.archive = archive;
+        this.spectators = new Spectators(gameNumber);
+        this.clock = new GameClock(registry.getTimers(), this::timeUp);
     }
-    
+
+    /**
+     * A game carrying on from where the journal left it when the server last stopped.
+     *
+     * @param player1
+     * @param player2
+     * @param game
+     * @param registry the registry the game has been added to, it removes itself when it closes
+     * @param journal the journal the game was recovered from
+     * @param hints analyses positions for players who ask for a hint, or null
+     * @param archive keeps the game once it's finished, or null
+     */
+    public GameThread(Player player1, Player player2, Journal.RecoveredGame game, GameRegistry registry,
+                      Journal journal, HintService hints, GameArchive archive) {
+        this(player1, player2, game.getGameNumber(), registry, journal, hints, archive);
+        this.board = new Board(game.getBoard().getLo(), game.getBoard().getHi());
+        this.moves = game.getMoves();
+        this.pits = Arrays.copyOf(game.getPits(), Math.max(pits.length, game.getMoves() * 2));
+        this.player1Starts = game.isPlayer1Turn();
+        this.recovered = true;
+    }
+
+    public int getGameNumber() {
+        return gameNumber;
+    }
+
+    /**
+     * @return System.nanoTime() when a player last sent a move (or the game started)
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * @return everyone watching the game
+     */
+    public Spectators getSpectators() {
+        return spectators;
+    }
+
+    public boolean isPlaying() {
+        return state.get() == PLAYING;
+    }
+
     /**
      * Run the game after initializing values
      */
     public void run() {
+        long gameStart = System.nanoTime();
+        long moveReceived = 0; // When the move being answered arrived, 0 if none
+        Metrics.GAMES_STARTED.increment();
+        Metrics.ACTIVE_GAMES.increment();
+        if (journal != null && !recovered) {
+            journal.gameStarted(gameNumber, player2 instanceof ComputerPlayer, token(player1), token(player2));
+        }
         try {
-            // Get input/output streams for both players
-            BufferedReader player1In = new BufferedReader(new InputStreamReader(player1Socket.getInputStream()));
-            PrintWriter player1Out = new PrintWriter(player1Socket.getOutputStream(), true);
-            BufferedReader player2In = new BufferedReader(new InputStreamReader(player2Socket.getInputStream()));
-            PrintWriter player2Out = new PrintWriter(player2Socket.getOutputStream(), true);
+            player1.sendGameStarted();
+            player2.sendGameStarted();
 
-            player1Out.println("Game Started.");
-            player2Out.println("Game Started.");
-
-            boolean player1Turn = true;
+            boolean player1Turn = player1Starts;
+            int outOfTime = 0; // The player who ran out of time, if one did
 
             // Main game loop
+            game:
             while (true) {
                 // Handle Player Turns
-                if (player1Turn) {
-                    player2Out.println("\n" + boardToString(2, false) + "\nOpponents turn!  Waiting for Player 1.");
-                    while (true) {
-                        player1Out.println("\n" + boardToString(1, true) + "\nYour turn! Type a number.");
-                        player1Out.println("Possible Moves: " + getPossibleMoves(1) + ".");
-                        String moveStr = player1In.readLine().trim();
-                        int move = 0;
-                        // Wrap the parseInt in a try-catch to ensure the user input is actually a number
-                        try {
-                            move = Integer.parseInt(moveStr);
-                        } catch (Exception e) {
-                            player1Out.println("\nError: Invalid move!  Please try again.");
-                            continue;
+                int player = player1Turn ? 1 : 2;
+                Player mover = player1Turn ? player1 : player2;
+                Player opponent = player1Turn ? player2 : player1;
+                toMove = player;
+                position = new Position(board.getLo(), board.getHi(), player);
+                clock.start(player);
+                spectators.publish(board, player);
+                opponent.sendClock(clock.getRemainingMillis(1), clock.getRemainingMillis(2));
+                opponent.sendOpponentsTurn(board, player);
+                opponent.flush();
+                while (true) {
+                    mover.sendClock(clock.getRemainingMillis(1), clock.getRemainingMillis(2));
+                    mover.sendYourTurn(board);
+                    mover.flush(); // With "Game Started." or an invalid move before it, still one write
+                    long asked = System.nanoTime();
+                    if (moveReceived != 0) {
+                        Metrics.MOVE_NANOS.record(asked - moveReceived);
+                    }
+                    Integer move;
+                    try {
+                        move = mover.readMove(); // null if they didn't send a number
+                    } catch (IOException e) {
+                        if (clock.getFlagged() != player) {
+                            throw e;
                         }
-
-                        if (isValidMove(move, 1)) {
-                            player1Turn = makeMove(move, 1); // Make move & see if player gets another turn
-                            break;
-                        } else {
-                            player1Out.println("\nError: Invalid move!  Please try again.");
+                        outOfTime = player; // The clock stopped the read
+                        break game;
+                    }
+                    moveReceived = System.nanoTime();
+                    lastActivity = moveReceived;
+                    Metrics.INPUT_WAIT_NANOS.record(moveReceived - asked);
+                    if (move != null && move == Player.HINT && hints != null) {
+                        // Answered on this thread, which owns the mover's connection, so the turn stalls for up to
+                        // HintService.WAIT_MILLIS.  The mover asked, so the wait is on their clock, and never longer
+                        // than they have left.
+                        mover.sendHint(hints.await(board.getLo(), board.getHi(), player,
+                                clock.getRemainingMillis(player)));
+                        if (clock.getFlagged() == player) {
+                            outOfTime = player; // Their time ran out waiting
+                            break game;
                         }
+                        moveReceived = 0; // Not a move, and the hint has its own metric
+                        continue;
+                    }
+                    if (move != null && player == 2) {
+                        move = move + 7; // Player 2's pits start at 7
                     }
-                } else {
-                    player1Out.println("\n" + boardToString(1, false) + "\nOpponents turn!  Waiting for Player 2.");
-                    while (true) {
-                        player2Out.println("\n" + boardToString(2, true) + "\nYour turn! Type a number.");
-                        player2Out.println("Possible Moves: " + getPossibleMoves(2) + ".");
-                        String moveStr = player2In.readLine().trim();
-                        int move = 0;
-                        // Wrap the parseInt in a try-catch to ensure the user input is actually a number
-                        try {
-                            move = Integer.parseInt(moveStr) + 7;
-                        } catch (Exception e) {
-                            player2Out.println("\nError: Invalid move!  Please try again.");
-                            continue;
+
+                    if (move != null && board.isValidMove(move, player)) {
+                        if (!clock.stop(player)) {
+                            outOfTime = player; // Just too late
+                            break game;
+                        }
+                        player1Turn = board.makeMove(move, player); // Make move & see if player gets another turn
+                        if (moves == pits.length) {
+                            pits = Arrays.copyOf(pits, moves * 2);
                         }
-                        if (isValidMove(move, 2)) {
-                            player1Turn = makeMove(move, 2); // Make move & see if player gets another turn
-                            break;
-                        } else {
-                            player2Out.println("\nError: Invalid move!  Please try again.");
+                        pits[moves++] = move.byteValue();
+                        Metrics.MOVES.increment();
+                        if (journal != null) {
+                            journal.moveMade(gameNumber, player, move, board.getLo(), board.getHi(), moves);
                         }
+                        break;
+                    } else {
+                        Metrics.INVALID_MOVES.increment();
+                        mover.sendInvalidMove();
                     }
                 }
 
                 // Check for win conditions
-                // Player 1
-                boolean gameOver = true;
-                for (int i = 0; i < 6; i++) {
-                    if (board[i] > 0) {
-                        gameOver = false;
-                        break;
-                    }
-                }
-                if (gameOver) {
-                    handleGameOver(2);
-                    break;
-                }
-                // Player 2
-                gameOver = true;
-                for (int i = 7; i < 13; i++) {
-                    if (board[i] > 0) {
-                        gameOver = false;
-                        break;
-                    }
-                }
-                if (gameOver) {
-                    handleGameOver(1);
+                if (board.checkGameOver()) {
                     break;
                 }
             }
-
-            // Show both players the final outcome before announcing the winner
-            player1Out.println(boardToString(1, true));
-            player2Out.println(boardToString(2, false));
-
-            // Determine the winner, then alert both players who won.
-            int winner = determineWinner();
-            if (winner == 0) {
-                player1Out.println("\nTie!\nPlayer 1: " + board[6] + "\nPlayer 2: " + board[13]);
-                player2Out.println("\nTie!\nPlayer 1: " + board[6] + "\nPlayer 2: " + board[13]);
-            } else if (winner == 1) {
-                player1Out.println("\nPlayer 1 Wins!\nPlayer 1: " + board[6] + "\nPlayer 2: " + board[13]);
-                player2Out.println("\nPlayer 1 Wins!\nPlayer 1: " + board[6] + "\nPlayer 2: " + board[13]);
-            } else {
-                player1Out.println("\nPlayer 2 Wins!\nPlayer 1: " + board[6] + "\nPlayer 2: " + board[13]);
-                player2Out.println("\nPlayer 2 Wins!\nPlayer 1: " + board[6] + "\nPlayer 2: " + board[13]);
+            clock.cancel();
+            if (outOfTime != 0) {
+                Metrics.GAMES_TIMED_OUT.increment();
+                Log.info("player ran out of time", "game", gameNumber, "player", outOfTime);
             }
-            
-            // Announce that the thread is stopping, wait 10 seconds, then stop.
-            player1Out.println("Stopping thread in 10 seconds.");
-            player2Out.println("Stopping thread in 10 seconds.");
-            Thread.sleep(10000);
-            player1Out.println("Stopping thread now.");
-            player2Out.println("Stopping thread now.");
-
-        } catch (IOException | InterruptedException e) {
-            System.err.println("Error in game " + gameNumber + ": " + e);
-        } finally {
-            // Close player1Socket
-            try {
-                if (player1Socket != null && !player1Socket.isClosed()) {
-                    player1Socket.shutdownInput();
-                    player1Socket.shutdownOutput();
-                    player1Socket.close();
-                    System.out.println("Game " + gameNumber + ": Player 1 disconnected.");
-                }
-            } catch (IOException e) {
-                System.err.println("Game " + gameNumber + ": Error closing player 1 socket: " + e);
+            int winner = outOfTime != 0 ? 3 - outOfTime : board.determineWinner();
+            if (journal != null) {
+                journal.gameEnded(gameNumber, winner, board.getLo(), board.getHi(), false);
+            }
+            ended = true;
+            if (archive != null) {
+                archive.add(pits, moves, winner, (player2 instanceof ComputerPlayer ? GameArchive.COMPUTER : 0)
+                        | (outOfTime != 0 ? GameArchive.TIMED_OUT : 0), startedAt / 1000);
+            }
+            if (outOfTime != 0) {
+                spectators.publishTimeUp(board, outOfTime);
+            } else {
+                spectators.publish(board, 0);
             }
 
-            // Close player2Socket
-            try {
-                if (player2Socket != null && !player2Socket.isClosed()) {
-                    player2Socket.shutdownInput();
-                    player2Socket.shutdownOutput();
-                    player2Socket.close();
-                    System.out.println("Game " + gameNumber + ": Player 2 disconnected.");
-                }
-            } catch (IOException e) {
-                System.err.println("Game " + gameNumber + ": Error closing player 2 socket: " + e);
+            // Show both players the final outcome, then alert both players who won.
+            player1.sendGameOver(board, outOfTime);
+            player2.sendGameOver(board, outOfTime);
+            if (outOfTime == 0 && moveReceived != 0) { // A timed out turn had no move to answer
+                Metrics.MOVE_NANOS.record(System.nanoTime() - moveReceived);
             }
+            Metrics.GAME_NANOS.record(System.nanoTime() - gameStart);
+            Metrics.GAMES_FINISHED.increment();
 
-            System.out.println("Game " + gameNumber + ": closed.");
+            // Announce that the game is stopping, and have the registry close it in 10 seconds
+            player1.sendStopping(false);
+            player2.sendStopping(false);
+            player1.flush();
+            player2.flush();
+            if (state.compareAndSet(PLAYING, FINISHED)) {
+                registry.closeLater(this);
+            }
+        } catch (IOException e) {
+            if (state.get() != CLOSED) { // Otherwise the registry reaped it, and has said so
+                Log.error("error in game", "game", gameNumber, "error", e);
+            }
+        } finally {
+            if (state.get() == PLAYING) {
+                close();
+            }
         }
     }
-    
+
     /**
-     * Function that converts the `board` array to a visual version
+     * Function that stops a player's turn when their clock runs out.  Called on the TimerWheel's thread.
      *
      * @param player
-     * @param showInputs
-     * @return String containing a nice visual of the board (eg.
-     * ╔══╦══╦══╦══╦══╦══╦══╦══╗
-     * ║ 0║ 4║ 4║ 4║ 4║ 4║ 4║←┐║
-     * ║  ╠══╬══╬══╬══╬══╬══╣  ║
-     * ║└→║ 4║ 4║ 4║ 4║ 4║ 4║ 0║
-     * ╚══╩══╩══╩══╩══╩══╩══╩══╝
-     * )
      */
-    private String boardToString(int player, boolean showInputs) {
-        // Convert board state to a string for sending
-        String result = "";
-        if (player == 1) {
-            result = result + "╔══╦══╦══╦══╦══╦══╦══╦══╗";
-            result = result + String.format("\n║%2d║%2d║%2d║%2d║%2d║%2d║%2d║←┐║", board[13], board[12], board[11], board[10], board[9], board[8], board[7]);
-            result = result + "\n║  ╠══╬══╬══╬══╬══╬══╣  ║";
-            result = result + String.format("\n║└→║%2d║%2d║%2d║%2d║%2d║%2d║%2d║", board[0], board[1], board[2], board[3], board[4], board[5], board[6]);
-            result = result + "\n╚══╩══╩══╩══╩══╩══╩══╩══╝";
-            if (showInputs) {
-                result = result + "\n   [ 0| 1| 2| 3| 4| 5]";
-            }
-        } else if (player == 2) { // Flip the board so that it's from the perspective of player 2
-            result = result + "╔══╦══╦══╦══╦══╦══╦══╦══╗";
-            result = result + String.format("\n║%2d║%2d║%2d║%2d║%2d║%2d║%2d║←┐║", board[6], board[5], board[4], board[3], board[2], board[1], board[0]);
-            result = result + "\n║  ╠══╬══╬══╬══╬══╬══╣  ║";
-            result = result + String.format("\n║└→║%2d║%2d║%2d║%2d║%2d║%2d║%2d║", board[7], board[8], board[9], board[10], board[11], board[12], board[13]);
-            result = result + "\n╚══╩══╩══╩══╩══╩══╩══╩══╝";
-            if (showInputs) {
-                result = result + "\n   [ 0| 1| 2| 3| 4| 5]";
-            }
+    private void timeUp(int player) {
+        if (state.get() == PLAYING) {
+            (player == 1 ? player1 : player2).interruptRead(); // The game sees the flag, and forfeits them
         }
-        return result;
     }
-    
+
+    private static long token(Player player) {
+        return player instanceof Session ? ((Session) player).getToken() : 0;
+    }
+
     /**
-     * Function that returns a string containing all the possible inputs
-     *
-     * @param player
-     * @return String containing all possible options (eg. "0, 2, 3, 5")
+     * Function that ends the game and closes both players.  Safe to call from any thread, any number of times: by the
+     * game when it fails, or by the registry when the result has been up long enough or the game is idle.
      */
-    private String getPossibleMoves(int player) {
-        String result = "";
+    public void close() {
+        int previous = state.getAndSet(CLOSED);
+        if (previous == CLOSED) {
+            return;
+        }
+        clock.cancel();
+        if (previous == PLAYING) {
+            Metrics.GAMES_ABANDONED.increment();
+            if (journal != null && !ended) {
+                journal.gameEnded(gameNumber, 0, board.getLo(), board.getHi(), true);
+            }
+        } else {
+            player1.sendStopping(true);
+            player2.sendStopping(true);
+        }
 
-        if (player == 1) {
-            for (int i = 0; i < 6; i++) {
-                if (board[i] > 0) {
-                    result = result + i + ", ";
-                }
+        // Close player1's connection
+        try {
+            if (player1.close()) {
+                Log.info("player disconnected", "game", gameNumber, "player", 1);
             }
-            result = result.substring(0, result.length() - 2);
-        } else if (player == 2) {
-            for (int i = 7; i < 13; i++) {
-                if (board[i] > 0) {
-                    result = result + (i - 7) + ", ";
-                }
+        } catch (IOException e) {
+            Log.error("error closing player socket", "game", gameNumber, "player", 1, "error", e);
+        }
+
+        // Close player2's connection
+        try {
+            if (player2.close()) {
+                Log.info("player disconnected", "game", gameNumber, "player", 2);
             }
-            result = result.substring(0, result.length() - 2);
+        } catch (IOException e) {
+            Log.error("error closing player socket", "game", gameNumber, "player", 2, "error", e);
         }
 
-        return result;
+        spectators.close();
+        Metrics.ACTIVE_GAMES.decrement();
+        registry.remove(this);
+        Log.info("game closed", "game", gameNumber);
     }
-    
+
     /**
-     * Function that returns if a function is a valid move
-     *
-     * @param pitIndex
-     * @param player
-     * @return true/false
+     * @return the board the player to move is looking at, and who that is, null before the first turn
      */
-    private boolean isValidMove(int pitIndex, int player) {
-        // Check if the move is valid according to Mancala rules
-        // Basic
-        System.out.println(pitIndex);
-        System.out.println("before oob");
-        if (pitIndex < 0 || pitIndex > 13) return false; // Out of bounds
-        System.out.println("before empty");
-        if (board[pitIndex] == 0) return false; // Empty pit
-        // Player-Specific Validation
-        System.out.println("before 1 on 2");
-        if (player == 1 && (pitIndex >= 7 && pitIndex <= 12)) return false; // Player 1 cannot play on Player 2's side
-        System.out.println("before 2 on 1");
-        return player != 2 || (pitIndex < 1 || pitIndex > 5); // Player 2 cannot play on Player 1's side
+    public Position getPosition() {
+        return position;
     }
-    
+
     /**
-     * Function that will make the given move and return if the player gets another turn (after that move was made).
-     *
-     * @param pitIndex
-     * @param player
-     * @return true/false
+     * @return a copy of what the game is doing right now
      */
-    private boolean makeMove(int pitIndex, int player) {
-        // Update the board state based on the move
-        int index = pitIndex;
-
-        for (int i = 0; i < board[pitIndex]; i++) {
-            index++;
-            // Handle wrap around (add to stores)
-            if (index == 6 && player == 2) {
-                index++; // Skip store
-            } else if (index == 13 && player == 1) {
-                index = 0; // Skip store
-            }
-            if (index == 14) {
-                index = 0;
-            }
-            board[index] = board[index] + 1;
+    public Info getInfo() {
+        int current = state.get();
+        return new Info(gameNumber, current == PLAYING ? "playing" : (current == FINISHED ? "finished" : "closed"),
+                moves, current == PLAYING ? toMove : 0, player2 instanceof ComputerPlayer, spectators.size(), startedAt,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivity));
+    }
+
+    /**
+     * A board and the player to move on it, as other threads see it.
+     */
+    public static class Position {
+        private final long lo;
+        private final long hi;
+        private final int toMove;
+
+        Position(long lo, long hi, int toMove) {
+            this.lo = lo;
+            this.hi = hi;
+            this.toMove = toMove;
         }
-        board[pitIndex] = 0;
-
-        // Logic to handle landing on an empty space (capture opposing seeds)
-        int[] corresponding = new int[]{12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0}; // Corresponding opposite index
-        if (player == 1 && index <= 5 && board[index] == 1 && board[corresponding[index]] > 0) {
-            board[6] = board[6] + board[index] + board[corresponding[index]];
-            board[index] = 0;
-            board[corresponding[index]] = 0;
-        } else if (player == 2 && index >= 7 && index <= 12 && board[index] == 1 && board[corresponding[index]] > 0) {
-            board[13] = board[13] + board[index] + board[corresponding[index]];
-            board[index] = 0;
-            board[corresponding[index]] = 0;
+
+        public long getLo() {
+            return lo;
         }
 
-        // Logic to get another turn
-        if (player == 1 && index == 6) {
-            return true;
-        } else if (player == 2 && index == 13) {
-            return false;
-        } else {
-            return player != 1;
+        public long getHi() {
+            return hi;
         }
-    }
-    
-    /**
-     * Function that will add all remaining seeds to a given seed.
-     * Called when there are no remaining seeds on 1 side.
-     *
-     * @param player
-     */
-    private void handleGameOver(int player) {
-        if (player == 1) {
-            for (int i = 0; i < 6; i++) {
-                board[6] = board[6] + board[i];
-                board[i] = 0;
-            }
-        } else if (player == 2) {
-            for (int i = 7; i < 13; i++) {
-                board[13] = board[13] + board[i];
-                board[i] = 0;
-            }
+
+        public int getToMove() {
+            return toMove;
         }
     }
-    
+
     /**
-     * Function that determines who wins the game.
-     *
-     * @return 0(tie)/1/2
+     * A snapshot of one game, for GameRegistry.snapshot().
      */
-    private int determineWinner() {
-        int playerOneCount = board[6];
-        int playerTwoCount = board[13];
-        if (playerOneCount > playerTwoCount) {
-            return 1;
-        } else if (playerOneCount < playerTwoCount) {
-            return 2;
-        } else {
-            return 0;
+    public static class Info {
+        private final int gameNumber;
+        private final String state;
+        private final int moves;
+        private final int toMove; // 0 once the game is over
+        private final boolean computer; // Player 2 is the computer
+        private final int spectators;
+        private final long startedAt; // System.currentTimeMillis()
+        private final long idleMillis;
+
+        Info(int gameNumber, String state, int moves, int toMove, boolean computer, int spectators, long startedAt,
+             long idleMillis) {
+            this.gameNumber = gameNumber;
+            this.state = state;
+            this.moves = moves;
+            this.toMove = toMove;
+            this.computer = computer;
+            this.spectators = spectators;
+            this.startedAt = startedAt;
+            this.idleMillis = idleMillis;
+        }
+
+        public int getGameNumber() {
+            return gameNumber;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public int getMoves() {
+            return moves;
+        }
+
+        public int getToMove() {
+            return toMove;
+        }
+
+        public boolean isComputer() {
+            return computer;
+        }
+
+        public int getSpectators() {
+            return spectators;
+        }
+
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        public long getIdleMillis() {
+            return idleMillis;
+        }
+
+        public String toString() {
+            return "game=" + gameNumber + " state=" + state + " moves=" + moves + " toMove=" + toMove
+                    + " computer=" + computer + " spectators=" + spectators
+                    + " ageSeconds=" + (System.currentTimeMillis() - startedAt) / 1000
+                    + " idleSeconds=" + idleMillis / 1000;
         }
     }
 }
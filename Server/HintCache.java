@@ -0,0 +1,118 @@
+package Server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The hint analyses HintService has made, by position, holding at most a fixed number: the least recently used goes
+ * when a new one needs room.
+ * <p>
+ * Positions are keyed from the point of view of the player to move (their side first, stores included), so player 1
+ * and player 2 share an analysis of the same position, and an opening everyone plays is analysed once.
+ * <p>
+ * The cache is split into STRIPES independent LRU maps, each with its own lock and an equal share of the size, picked
+ * by the key's hash.  A lookup only locks one stripe, so lookups from lots of games at once hardly ever wait for each
+ * other; the price is that the least recently used entry of a stripe goes, not of the whole cache.
+ */
+public class HintCache {
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * @param size most analyses to keep
+     */
+    public HintCache(int size) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(1, size / STRIPES));
+        }
+    }
+
+    /**
+     * @param key
+     * @return the analysis of the position, or null if it isn't cached
+     */
+    public HintService.Analysis get(Key key) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.get(key); // Moves it to the most recently used end
+        }
+    }
+
+    /**
+     * @param key
+     * @param analysis
+     */
+    public void put(Key key, HintService.Analysis analysis) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, analysis);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripe(Key key) {
+        return stripes[key.hashCode() & (STRIPES - 1)];
+    }
+
+    /**
+     * A position from the point of view of the player to move.
+     */
+    public static final class Key {
+        private final long mine; // The player to move's pits and store, packed like MancalaEngine's lo
+        private final long theirs;
+        private final int hash;
+
+        /**
+         * @param lo
+         * @param hi
+         * @param player the player to move
+         */
+        public Key(long lo, long hi, int player) {
+            this.mine = player == 1 ? lo : hi;
+            this.theirs = player == 1 ? hi : lo;
+            long mixed = (mine * 0x9E3779B97F4A7C15L) ^ theirs;
+            mixed *= 0xC2B2AE3D27D4EB4FL;
+            this.hash = (int) (mixed ^ (mixed >>> 32));
+        }
+
+        public long getMine() {
+            return mine;
+        }
+
+        public long getTheirs() {
+            return theirs;
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).mine == mine && ((Key) other).theirs == theirs;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Stripe extends LinkedHashMap<Key, HintService.Analysis> {
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true); // Access order, so the eldest entry is the least recently used
+            this.capacity = capacity;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<Key, HintService.Analysis> eldest) {
+            return size() > capacity;
+        }
+    }
+}
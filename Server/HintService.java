@@ -0,0 +1,277 @@
+package Server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * Works out what every legal move in a position is worth, for players asking for a hint (see GameThread) and for
+ * the /analysis page.
+ * <p>
+ * An analysis searches the position after each legal move on its own task, so the moves are searched in parallel on
+ * a small pool of its own (never the computer players' SearchPool), with a bounded queue.  Each search goes up to
+ * HINT_DEPTH, but stops at the analysis's deadline, HINT_MILLIS after it was asked for.  If the queue is full the
+ * analysis fails straight away: nobody's game waits for hints.
+ * <p>
+ * Finished analyses go in a HintCache, so a position asked about again (every game starts from the same few) is
+ * answered without searching.  A position already being analysed isn't analysed twice, everyone asking gets the same
+ * result.
+ */
+public class HintService {
+
+    public static final long HINT_MILLIS = 200;
+    public static final int HINT_DEPTH = 12;
+    public static final int CACHE_SIZE = 1 << 16;
+    private static final int TABLE_BITS = 16; // 1MB of transposition table per worker
+    private static final long WAIT_MILLIS = 2 * HINT_MILLIS; // Longest await() waits, in case of a slow start
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadLocal<Search> searches;
+    private final HintCache cache = new HintCache(CACHE_SIZE);
+    private final ConcurrentHashMap<HintCache.Key, CompletableFuture<Analysis>> running = new ConcurrentHashMap<>();
+
+    /**
+     * @param threads number of search threads
+     * @param queueSize most moves that can wait for a thread
+     * @param tablebase shared by every search, or null
+     */
+    public HintService(int threads, int queueSize, Tablebase tablebase) {
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), Thread.ofPlatform().name("hint-", 1).daemon().factory());
+        searches = ThreadLocal.withInitial(() -> new Search(TABLE_BITS, tablebase));
+    }
+
+    /**
+     * Function that analyses a position, from the cache if it can.
+     *
+     * @param lo
+     * @param hi
+     * @param player 1 or 2, the player to move, who must have a legal move
+     * @return the analysis, fails with RejectedExecutionException if the pool is too busy
+     */
+    public CompletableFuture<Analysis> analyse(long lo, long hi, int player) {
+        Metrics.HINTS.increment();
+        HintCache.Key key = new HintCache.Key(lo, hi, player);
+        Analysis cached = cache.get(key);
+        if (cached != null) {
+            Metrics.HINT_CACHE_HITS.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<Analysis> analysis = new CompletableFuture<>();
+        CompletableFuture<Analysis> already = running.putIfAbsent(key, analysis);
+        if (already != null) {
+            return already;
+        }
+        start(key, analysis);
+        return analysis;
+    }
+
+    /**
+     * Function that analyses a position, waiting for the answer.
+     *
+     * @param lo
+     * @param hi
+     * @param player 1 or 2, the player to move, who must have a legal move
+     * @return the analysis, or null if the pool is too busy
+     */
+    public Analysis await(long lo, long hi, int player) {
+        return await(lo, hi, player, WAIT_MILLIS);
+    }
+
+    /**
+     * Function that analyses a position, waiting for the answer, but no longer than the caller can spare.
+     *
+     * @param lo
+     * @param hi
+     * @param player 1 or 2, the player to move, who must have a legal move
+     * @param maxMillis longest to wait, never more than WAIT_MILLIS
+     * @return the analysis, or null if the pool is too busy or it took too long
+     */
+    public Analysis await(long lo, long hi, int player, long maxMillis) {
+        long start = System.nanoTime();
+        try {
+            return analyse(lo, hi, player).get(Math.min(maxMillis, WAIT_MILLIS), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            Metrics.HINTS_REJECTED.increment();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            Metrics.HINT_NANOS.record(System.nanoTime() - start);
+        }
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Function that searches every legal move of a position on the pool, and completes the analysis when they have
+     * all been searched.
+     *
+     * @param key the position
+     * @param analysis to complete
+     */
+    private void start(HintCache.Key key, CompletableFuture<Analysis> analysis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HINT_MILLIS);
+        long mine = key.getMine();
+        long theirs = key.getTheirs();
+        int legal = MancalaEngine.legalMoves(mine, theirs, 1);
+        int[] scores = new int[6];
+        int[] depths = new int[6];
+        Arrays.fill(scores, Analysis.ILLEGAL);
+        CompletableFuture<?>[] moves = new CompletableFuture<?>[Integer.bitCount(legal)];
+        try {
+            int count = 0;
+            for (int pit = 0; pit < 6; pit++) {
+                if ((legal & (1 << pit)) != 0) {
+                    int move = pit;
+                    moves[count++] = CompletableFuture.runAsync(
+                            () -> scores[move] = score(mine, theirs, move, deadline, depths), executor);
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            running.remove(key, analysis);
+            analysis.completeExceptionally(e); // Moves already queued still run, nobody is waiting for them
+            return;
+        }
+        CompletableFuture.allOf(moves).whenComplete((done, failure) -> {
+            if (failure != null) {
+                running.remove(key, analysis);
+                analysis.completeExceptionally(failure);
+                return;
+            }
+            Analysis result = new Analysis(scores, depths);
+            cache.put(key, result); // Before it stops running, so there's no moment it is neither
+            running.remove(key, analysis);
+            analysis.complete(result);
+        });
+    }
+
+    /**
+     * Function that works out what one move is worth.  Runs on the pool.
+     *
+     * @param mine the player to move's side, they are player 1 here
+     * @param theirs
+     * @param pit 0-5
+     * @param deadline System.nanoTime() to stop at
+     * @param depths receives the depth searched, by pit
+     * @return the score of the move for the player making it, as Search scores positions
+     */
+    private int score(long mine, long theirs, int pit, long deadline, int[] depths) {
+        Search search = searches.get();
+        long[] next = new long[2];
+        int result = MancalaEngine.move(mine, theirs, 1, pit, next);
+        int score;
+        if ((result & MancalaEngine.EXTRA_TURN) != 0) {
+            score = search.evaluate(next[0], next[1], 1, deadline, HINT_DEPTH - 1);
+        } else {
+            score = -search.evaluate(next[0], next[1], 2, deadline, HINT_DEPTH - 1);
+        }
+        depths[pit] = search.getDepth() + 1;
+        return score;
+    }
+
+    /**
+     * What each move in a position is worth to the player to move.  Immutable, so one cached analysis is shared by
+     * everyone who asks.
+     */
+    public static class Analysis {
+        public static final int ILLEGAL = Integer.MIN_VALUE;
+
+        private final int[] scores; // By pit 0-5 of the player to move, ILLEGAL if the pit is empty
+        private final int depth; // Shallowest any move was searched
+        private final int best;
+        private final byte[] line; // "Move values: ...", rendered once for everyone
+
+        Analysis(int[] scores, int[] depths) {
+            this.scores = scores.clone();
+            int shallowest = Integer.MAX_VALUE;
+            int bestPit = -1;
+            for (int pit = 0; pit < 6; pit++) {
+                if (scores[pit] != ILLEGAL) {
+                    shallowest = Math.min(shallowest, depths[pit]);
+                    if (bestPit < 0 || scores[pit] > scores[bestPit]) {
+                        bestPit = pit;
+                    }
+                }
+            }
+            this.depth = shallowest;
+            this.best = bestPit;
+            this.line = (describe() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @param pit 0-5, from the player to move's point of view
+         * @return the move's score, as Search scores positions: store difference the player making it can expect,
+         * or WIN plus the final difference if the result is certain.  ILLEGAL if the pit is empty.
+         */
+        public int getScore(int pit) {
+            return scores[pit];
+        }
+
+        /**
+         * @param pit 0-5
+         * @return true if the move's result is certain (with best play after it), not just a search's estimate
+         */
+        public boolean isCertain(int pit) {
+            return scores[pit] != ILLEGAL && Math.abs(scores[pit]) >= Search.WIN;
+        }
+
+        /**
+         * @param pit 0-5
+         * @return the store difference the player making the move can expect, or will end with if it is certain
+         */
+        public int getDifference(int pit) {
+            int score = scores[pit];
+            return score >= Search.WIN ? score - Search.WIN : (score <= -Search.WIN ? score + Search.WIN : score);
+        }
+
+        /**
+         * @return the best move, 0-5
+         */
+        public int getBest() {
+            return best;
+        }
+
+        /**
+         * @return how many moves deep every move was searched, at least
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return describe() and a line end, as UTF-8
+         */
+        public byte[] getLine() {
+            return line;
+        }
+
+        /**
+         * @return e.g. "Move values: 0 +2, 1 -1, 3 wins by 4, 5 +0.  Best: 3."
+         */
+        public String describe() {
+            StringBuilder text = new StringBuilder("Move values: ");
+            for (int pit = 0; pit < 6; pit++) {
+                if (scores[pit] == ILLEGAL) {
+                    continue;
+                }
+                if (text.length() > "Move values: ".length()) {
+                    text.append(", ");
+                }
+                text.append(pit).append(' ');
+                int difference = getDifference(pit);
+                if (scores[pit] >= Search.WIN) {
+                    text.append("wins by ").append(difference);
+                } else if (scores[pit] <= -Search.WIN) {
+                    text.append("loses by ").append(-difference);
+                } else {
+                    text.append(difference >= 0 ? "+" : "").append(difference);
+                }
+            }
+            return text.append(".  Best: ").append(best).append('.').toString();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package Server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of longs (usually nanoseconds) that any number of threads can record into at once without locking.
+ * <p>
+ * Buckets are log-linear like HdrHistogram: values below 128 get a bucket each, above that every power of two is split
+ * into 64 buckets, so any value is off by at most 1/64 (about 1.6%) and the whole range of a long fits in 4096
+ * buckets (32KB).  Recording is one atomic increment.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param value must not be negative
+     */
+    public void record(long value) {
+        counts.incrementAndGet(index(value));
+        total.increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * @return the sum of every value recorded (exact, not rounded to buckets)
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Function that finds the value a fraction of the recorded values are at or below.
+     *
+     * @param fraction 0.5 for the median, 0.999 for p99.9, ...
+     * @return the value (rounded down to its bucket), 0 if nothing has been recorded
+     */
+    public long getPercentile(double fraction) {
+        long needed = Math.max(1, (long) Math.ceil(fraction * total.sum()));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= needed) {
+                return valueAt(i);
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return the largest value recorded (rounded down to its bucket)
+     */
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return valueAt(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Function that adds everything recorded in another histogram to this one.
+     *
+     * @param other
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+    }
+
+    /**
+     * Function that forgets everything recorded.  Values recorded while this runs may be half forgotten, which only
+     * matters for exact counts.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+    }
+
+    private static int index(long value) {
+        // The top 7 significant bits pick the bucket: values under 128 exactly, bigger ones by their 6 bits after the
+        // leading 1 plus how far they had to be shifted to get there
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    private static long valueAt(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+}
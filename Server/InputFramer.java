@@ -0,0 +1,190 @@
+package Server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+
+/**
+ * Reads a text player's moves a line at a time, straight from the bytes.  Replaces BufferedReader.readLine() and
+ * Integer.parseInt(), which would buffer a line of any length and create a String (and an exception for anything
+ * that isn't a number) for every line.
+ * <p>
+ * Lines go into one fixed buffer and are parsed in place, so reading a move allocates nothing.  A line longer than
+ * MAX_LINE_LENGTH is never buffered: the player is disconnected instead.  Binary protocol moves are read through the
+ * same buffer with readByte().
+ * <p>
+ * Rejected moves and hints are rate limited by a token bucket, since each one costs a re-rendered board (and a hint
+ * maybe an analysis): a player gets BURST of them, refilled at REJECTS_PER_SECOND, and one who runs out is flooding
+ * and gets disconnected.  Valid moves need no limit, the game only reads one per turn.
+ */
+public class InputFramer {
+
+    public static final int MAX_LINE_LENGTH = 64; // A move is a digit, "resume <token>" is 23 characters
+    public static final double REJECTS_PER_SECOND = 5;
+    public static final int BURST = 20;
+    public static final int NOT_A_NUMBER = Integer.MIN_VALUE;
+    public static final int HINT = Integer.MIN_VALUE + 1; // The line was "hint" (or "h")
+    private static final int MAX_VALUE = 1_000_000; // Bigger numbers are just as invalid, and can't overflow
+    private static final byte[] HINT_WORD = {'h', 'i', 'n', 't'};
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[4 * MAX_LINE_LENGTH];
+    private int position = 0; // Start of the next line
+    private int limit = 0; // End of what has been read
+    private boolean ended = false; // The player has closed their side
+
+    // Token bucket for rejected moves
+    private double tokens = BURST;
+    private long refilled = System.nanoTime();
+
+    public InputFramer(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Function that reads the next line and parses it as a number, ignoring spaces around it (like
+     * Integer.parseInt(line.trim())).
+     *
+     * @return the number, HINT if the player asked for a hint, or NOT_A_NUMBER if the line was anything else
+     * @throws EOFException if the player disconnected
+     * @throws ProtocolException if the line is longer than MAX_LINE_LENGTH
+     */
+    public int readNumber() throws IOException {
+        int end = findLineEnd();
+        int number = parse(position, end);
+        position = Math.min(end + 1, limit);
+        return number;
+    }
+
+    /**
+     * Function that reads one byte, for the binary protocol.
+     *
+     * @return the byte, 0-255
+     * @throws EOFException if the player disconnected
+     */
+    public int readByte() throws IOException {
+        while (position == limit) {
+            int read = in.read(buffer, 0, buffer.length);
+            if (read < 0) {
+                throw new EOFException("Player disconnected");
+            }
+            position = 0;
+            limit = read;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Function that throws away the rest of the current line.
+     *
+     * @throws EOFException if the player disconnected
+     * @throws ProtocolException if the line is longer than MAX_LINE_LENGTH
+     */
+    public void skipLine() throws IOException {
+        position = Math.min(findLineEnd() + 1, limit);
+    }
+
+    /**
+     * Function that takes a token for a rejected move.
+     *
+     * @return false if the player has run out, and is flooding
+     */
+    public boolean reject() {
+        long now = System.nanoTime();
+        tokens = Math.min(BURST, tokens + (now - refilled) * REJECTS_PER_SECOND / 1e9);
+        refilled = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Function that reads until there is a whole line in the buffer.
+     *
+     * @return index of the line's '\n', or limit for a last line the player ended without one
+     */
+    private int findLineEnd() throws IOException {
+        int scanned = position;
+        while (true) {
+            for (; scanned < limit; scanned++) {
+                if (buffer[scanned] == '\n') {
+                    return scanned;
+                }
+            }
+            if (scanned - position > MAX_LINE_LENGTH) {
+                Metrics.LONG_LINES.increment();
+                throw new ProtocolException("Line longer than " + MAX_LINE_LENGTH + " bytes");
+            }
+            if (ended) {
+                if (position == limit) {
+                    throw new EOFException("Player disconnected");
+                }
+                return limit; // The last line, BufferedReader.readLine() would return it too
+            }
+            if (limit == buffer.length) { // Move the partial line to the front
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                scanned -= position;
+                limit -= position;
+                position = 0;
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                ended = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    /**
+     * @return the number between start and end, with optional spaces around it and an optional sign, HINT, or
+     * NOT_A_NUMBER
+     */
+    private int parse(int start, int end) {
+        while (start < end && (buffer[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer[end - 1] & 0xFF) <= ' ') { // Including the '\r' of "\r\n"
+            end--;
+        }
+        if (isHint(start, end)) {
+            return HINT;
+        }
+        boolean negative = false;
+        if (start < end && (buffer[start] == '-' || buffer[start] == '+')) {
+            negative = buffer[start] == '-';
+            start++;
+        }
+        if (start == end) {
+            return NOT_A_NUMBER;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_A_NUMBER;
+            }
+            value = Math.min(MAX_VALUE, value * 10 + digit);
+        }
+        return negative ? -value : value; // Negative numbers are never valid moves, but they are numbers
+    }
+
+    /**
+     * @return true if the bytes between start and end are "h" or "hint", in any case
+     */
+    private boolean isHint(int start, int end) {
+        int length = end - start;
+        if (length != 1 && length != HINT_WORD.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if ((buffer[start + i] | 0x20) != HINT_WORD[i]) { // Lower case
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,529 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of every game GameServer plays, so games in progress survive the server restarting.
+ * <p>
+ * The journal is a directory of segments, each a memory-mapped file of SEGMENT_SIZE bytes holding fixed-size 32 byte
+ * records (little endian):
+ * <pre>
+ *  0 int  game number
+ *  4 byte type: START, MOVE or END
+ *  5 byte seat that moved (MOVE), winner (END, 0 for a tie)
+ *  6 byte pit played, 0-13 (MOVE)
+ *  7 byte flags: COMPUTER (START, player 2 is the computer), ABANDONED (END, a player left)
+ *  8 long board after the move (MancalaEngine lo), or at the end; player 1's session token (START)
+ * 16 long                        (MancalaEngine hi)               player 2's session token (START, 0 for the computer)
+ * 24 int  move number (MOVE), start time in epoch seconds (START)
+ * 28 int  CRC32C of bytes 0-27, so a record torn by a crash reads as the end of the segment
+ * </pre>
+ * Appending copies 32 bytes into the mapping under a lock, which takes well under a microsecond.  A flush thread then
+ * forces everything appended since the last flush to disk every FLUSH_MILLIS, one fsync for however many moves all
+ * the games made in that time (group commit).  Nothing waits for the fsync: a crashed server loses nothing (the pages
+ * are already in the OS), a crashed machine loses at most the last FLUSH_MILLIS of moves.
+ * <p>
+ * When a segment is full the journal rolls over to a new one.  Once every game with a record in an old segment has
+ * ended, the segment is compacted away: renamed from .log to .done, so recovery skips it, and kept for the replay tool
+ * until there are more than RETAINED_SEGMENTS of them.
+ * <p>
+ * open() replays the .log segments through Board.makeMove(), checking every move against the board it recorded, and
+ * keeps the games that hadn't ended (getRecovered()).  New segments always start after the old ones.
+ * <p>
+ * Only one server can have a journal open: open() locks the directory until the process exits, so a new server taking
+ * over from a draining one (see GameServer.takeOver()) only gets the journal once the old one is gone.
+ */
+public class Journal {
+
+    public static final int RECORD_SIZE = 32;
+    public static final int SEGMENT_SIZE = 8 << 20; // 262,144 records
+    private static final long FLUSH_MILLIS = 5;
+    private static final long COMPACT_MILLIS = 1000;
+    private static final int RETAINED_SEGMENTS = 16;
+
+    public static final int START = 1;
+    public static final int MOVE = 2;
+    public static final int END = 3;
+    public static final int COMPUTER = 1;
+    public static final int ABANDONED = 1;
+
+    private final Path directory;
+    private final FileLock lock; // Held for as long as the process runs
+    private final List<RecoveredGame> recovered;
+    private final int lastGameNumber;
+    private final ConcurrentHashMap<Integer, Long> liveGames = new ConcurrentHashMap<>(); // First segment by game
+    private final Object flushLock = new Object();
+    private volatile boolean failed = false; // Stop journaling rather than fail games
+
+    // Guarded by `this`
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32C crc = new CRC32C();
+    private Segment head;
+    private final List<Segment> unflushed = new ArrayList<>(); // Rolled over, not forced yet
+    private final TreeMap<Long, Path> retired = new TreeMap<>(); // Old .log segments, by sequence
+
+    private final ArrayDeque<Path> done = new ArrayDeque<>(); // .done segments, oldest first.  Flush thread only.
+
+    private Journal(Path directory, FileLock lock, TreeMap<Long, Path> logs, List<Path> doneSegments,
+                    List<RecoveredGame> recovered, int lastGameNumber) throws IOException {
+        this.directory = directory;
+        this.lock = lock;
+        this.recovered = recovered;
+        this.lastGameNumber = lastGameNumber;
+        retired.putAll(logs);
+        done.addAll(doneSegments);
+        head = openSegment(logs.isEmpty() ? 1 : logs.lastKey() + 1);
+        for (RecoveredGame game : recovered) {
+            liveGames.put(game.getGameNumber(), game.firstSegment);
+        }
+
+        Thread flusher = new Thread(this::flushLoop, "journal-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Function that opens the journal in a directory (creating it if needed) and recovers the games that were in
+     * progress when it was last used.
+     *
+     * @param directory
+     * @return the journal, ready to append to
+     * @throws IOException if it can't be read, or another server has it open
+     */
+    public static Journal open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        FileLock lock = lock(directory);
+        try {
+            TreeMap<Long, Path> logs = new TreeMap<>();
+            TreeMap<Long, Path> doneSegments = new TreeMap<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*")) {
+                for (Path file : files) {
+                    long sequence = sequence(file);
+                    if (file.toString().endsWith(".log")) {
+                        logs.put(sequence, file);
+                    } else if (file.toString().endsWith(".done")) {
+                        doneSegments.put(sequence, file);
+                    }
+                }
+            }
+
+            int lastGameNumber = 0;
+            for (Path file : doneSegments.values()) {
+                for (Record record : readSegment(file)) {
+                    lastGameNumber = Math.max(lastGameNumber, record.game);
+                }
+            }
+
+            // Replay the segments that may still have games in progress
+            Map<Integer, RecoveredGame> games = new LinkedHashMap<>();
+            List<RecoveredGame> finishedAtCrash = new ArrayList<>(); // Game over, but the END record never got written
+            for (Map.Entry<Long, Path> segment : logs.entrySet()) {
+                for (Record record : readSegment(segment.getValue())) {
+                    lastGameNumber = Math.max(lastGameNumber, record.game);
+                    RecoveredGame game = games.get(record.game);
+                    if (record.type == START) {
+                        games.put(record.game, new RecoveredGame(record.game, (record.flags & COMPUTER) != 0,
+                                record.lo, record.hi, segment.getKey()));
+                    } else if (game == null) {
+                        continue; // Ended, or its START was lost
+                    } else if (record.type == END) {
+                        games.remove(record.game);
+                    } else if (record.type == MOVE) {
+                        String problem = game.replay(record);
+                        if (problem != null) {
+                            Log.error("journal replay failed", "game", record.game, "move", record.number, "error",
+                                    problem);
+                            games.remove(record.game);
+                            finishedAtCrash.add(game);
+                        } else if (game.board.checkGameOver()) {
+                            games.remove(record.game);
+                            finishedAtCrash.add(game);
+                        }
+                    }
+                }
+            }
+
+            Journal journal = new Journal(directory, lock, logs, new ArrayList<>(doneSegments.values()),
+                    Collections.unmodifiableList(new ArrayList<>(games.values())), lastGameNumber);
+            for (RecoveredGame game : finishedAtCrash) { // So their segments can be compacted
+                journal.gameEnded(game.getGameNumber(), game.board.determineWinner(), game.board.getLo(),
+                        game.board.getHi(), !MancalaEngine.isGameOver(game.board.getLo(), game.board.getHi()));
+            }
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            lock.channel().close(); // So it can be opened again
+            throw e;
+        }
+    }
+
+    /**
+     * @return the games that were in progress when the journal was last used, in the order they started
+     */
+    public List<RecoveredGame> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * @return the highest game number in the journal, 0 if it was empty.  New games should be numbered after it.
+     */
+    public int getLastGameNumber() {
+        return lastGameNumber;
+    }
+
+    /**
+     * @param game
+     * @param computer whether player 2 is the computer
+     * @param token1 player 1's session token, so they can resume the game after a restart (see Session)
+     * @param token2 player 2's, 0 for the computer
+     */
+    public synchronized void gameStarted(int game, boolean computer, long token1, long token2) {
+        liveGames.put(game, head.sequence);
+        append(game, START, 0, 0, computer ? COMPUTER : 0, token1, token2, (int) (System.currentTimeMillis() / 1000));
+    }
+
+    /**
+     * @param game
+     * @param seat the player who moved
+     * @param pit 0-13
+     * @param lo the board after the move
+     * @param hi
+     * @param moveNumber 1 for the first move of the game
+     */
+    public void moveMade(int game, int seat, int pit, long lo, long hi, int moveNumber) {
+        append(game, MOVE, seat, pit, 0, lo, hi, moveNumber);
+    }
+
+    /**
+     * @param game
+     * @param winner 1, 2 or 0 for a tie
+     * @param lo the final board
+     * @param hi
+     * @param abandoned whether the game ended because a player left
+     */
+    public void gameEnded(int game, int winner, long lo, long hi, boolean abandoned) {
+        append(game, END, winner, 0, abandoned ? ABANDONED : 0, lo, hi, 0);
+        liveGames.remove(game);
+    }
+
+    private synchronized void append(int game, int type, int seat, int pit, int flags, long lo, long hi, int number) {
+        if (failed) {
+            return;
+        }
+        if (head.written == SEGMENT_SIZE) {
+            try {
+                unflushed.add(head);
+                retired.put(head.sequence, head.path);
+                head = openSegment(head.sequence + 1);
+            } catch (IOException e) {
+                failed = true;
+                Log.error("journal rollover failed, journaling stopped", "error", e);
+                return;
+            }
+        }
+        record.putInt(0, game).put(4, (byte) type).put(5, (byte) seat).put(6, (byte) pit).put(7, (byte) flags)
+                .putLong(8, lo).putLong(16, hi).putInt(24, number);
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.putInt(RECORD_SIZE - 4, (int) crc.getValue());
+        head.buffer.put(head.written, record.array(), 0, RECORD_SIZE);
+        head.written += RECORD_SIZE;
+        Metrics.JOURNAL_RECORDS.increment();
+    }
+
+    /**
+     * Function that forces everything appended so far to disk.  The flush thread does this every FLUSH_MILLIS.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            List<Segment> segments;
+            int headWritten;
+            Segment current;
+            synchronized (this) {
+                segments = new ArrayList<>(unflushed);
+                unflushed.clear();
+                current = head;
+                headWritten = head.written;
+            }
+            for (Segment segment : segments) {
+                force(segment, segment.written); // Full, nobody writes to it any more
+            }
+            force(current, headWritten);
+        }
+    }
+
+    private static void force(Segment segment, int upTo) {
+        if (upTo > segment.flushed) {
+            long start = System.nanoTime();
+            segment.buffer.force(segment.flushed, upTo - segment.flushed);
+            segment.flushed = upTo;
+            Metrics.JOURNAL_FLUSH_NANOS.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Main loop of the flush thread: flush, and now and then compact.
+     */
+    private void flushLoop() {
+        long lastCompaction = System.nanoTime();
+        while (true) {
+            try {
+                Thread.sleep(FLUSH_MILLIS);
+                flush();
+                if (System.nanoTime() - lastCompaction > TimeUnit.MILLISECONDS.toNanos(COMPACT_MILLIS)) {
+                    lastCompaction = System.nanoTime();
+                    compact();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                Log.error("error flushing journal", "error", e);
+            }
+        }
+    }
+
+    /**
+     * Function that marks old segments done once every game in them has ended.  A game that hasn't ended keeps the
+     * segment it started in and every later one.
+     */
+    private void compact() throws IOException {
+        long oldestNeeded = Long.MAX_VALUE;
+        for (long segment : liveGames.values()) {
+            oldestNeeded = Math.min(oldestNeeded, segment);
+        }
+        List<Path> finished = new ArrayList<>();
+        synchronized (this) {
+            // Games that start from now on go in the head segment or later, so can't need these
+            Map<Long, Path> old = retired.headMap(oldestNeeded);
+            finished.addAll(old.values());
+            old.clear();
+        }
+
+        for (Path segment : finished) {
+            Path target = segment.resolveSibling(segment.getFileName().toString().replace(".log", ".done"));
+            Files.move(segment, target, StandardCopyOption.ATOMIC_MOVE);
+            done.add(target);
+        }
+        while (done.size() > RETAINED_SEGMENTS) {
+            Files.deleteIfExists(done.removeFirst());
+        }
+    }
+
+    private Segment openSegment(long sequence) throws IOException {
+        Path path = directory.resolve(String.format("segment-%06d.log", sequence));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return new Segment(sequence, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE));
+        }
+    }
+
+    /**
+     * @return the lock on the directory, for as long as the process runs
+     * @throws IOException if another server has the journal open
+     */
+    private static FileLock lock(Path directory) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock lock = null;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Open in this process already
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException(directory + " is in use by another server");
+        }
+        return lock;
+    }
+
+    private static long sequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring("segment-".length(), name.indexOf('.')));
+    }
+
+    /**
+     * Function that reads every intact record in a segment, stopping at the first one that isn't (the end of what was
+     * written, or a record torn by a crash).
+     *
+     * @param file a .log or .done segment
+     * @return the records in the order they were written
+     */
+    public static List<Record> readSegment(Path file) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            byte[] bytes = new byte[RECORD_SIZE];
+            CRC32C crc = new CRC32C();
+            for (int offset = 0; offset + RECORD_SIZE <= buffer.limit(); offset += RECORD_SIZE) {
+                buffer.get(offset, bytes);
+                crc.reset();
+                crc.update(bytes, 0, RECORD_SIZE - 4);
+                if (buffer.getInt(offset + RECORD_SIZE - 4) != (int) crc.getValue()) {
+                    break;
+                }
+                records.add(new Record(buffer.getInt(offset), buffer.get(offset + 4), buffer.get(offset + 5),
+                        buffer.get(offset + 6), buffer.get(offset + 7), buffer.getLong(offset + 8),
+                        buffer.getLong(offset + 16), buffer.getInt(offset + 24)));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Function that lists every segment in a journal directory, .log and .done, oldest first.
+     *
+     * @param directory
+     * @return the segment files
+     */
+    public static List<Path> segments(Path directory) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.{log,done}")) {
+            for (Path file : files) {
+                segments.put(sequence(file), file);
+            }
+        }
+        return new ArrayList<>(segments.values());
+    }
+
+    private static class Segment {
+        final long sequence;
+        final Path path;
+        final MappedByteBuffer buffer;
+        int written; // Bytes appended, guarded by the Journal
+        int flushed; // Bytes forced to disk, guarded by flushLock
+
+        Segment(long sequence, Path path, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * One record, as read back by readSegment().
+     */
+    public static class Record {
+        public final int game;
+        public final int type;
+        public final int seat;
+        public final int pit;
+        public final int flags;
+        public final long lo;
+        public final long hi;
+        public final int number;
+
+        Record(int game, int type, int seat, int pit, int flags, long lo, long hi, int number) {
+            this.game = game;
+            this.type = type;
+            this.seat = seat;
+            this.pit = pit;
+            this.flags = flags;
+            this.lo = lo;
+            this.hi = hi;
+            this.number = number;
+        }
+    }
+
+    /**
+     * A game that was in progress when the journal was last used, replayed up to its last recorded move.
+     */
+    public static class RecoveredGame {
+        private final int gameNumber;
+        private final boolean computer;
+        private final long token1;
+        private final long token2;
+        private final long firstSegment;
+        private final Board board = new Board(); // Initial board state
+        private boolean player1Turn = true;
+        private int moves;
+        private byte[] pits = new byte[64]; // Every move so far
+
+        RecoveredGame(int gameNumber, boolean computer, long token1, long token2, long firstSegment) {
+            this.gameNumber = gameNumber;
+            this.computer = computer;
+            this.token1 = token1;
+            this.token2 = token2;
+            this.firstSegment = firstSegment;
+        }
+
+        /**
+         * Function that makes a recorded move, and checks it gets the board the journal says it did.
+         *
+         * @return what was wrong, or null if nothing
+         */
+        String replay(Record move) {
+            int player = player1Turn ? 1 : 2;
+            if (move.seat != player) {
+                return "player " + move.seat + " moved on player " + player + "'s turn";
+            }
+            if (move.number != moves + 1) {
+                return "move " + move.number + " follows move " + moves;
+            }
+            if (!board.isValidMove(move.pit, player)) {
+                return "pit " + move.pit + " is not a valid move";
+            }
+            player1Turn = board.makeMove(move.pit, player); // Make move & see if player gets another turn
+            if (moves == pits.length) {
+                pits = Arrays.copyOf(pits, moves * 2);
+            }
+            pits[moves++] = (byte) move.pit;
+            if (board.getLo() != move.lo || board.getHi() != move.hi) {
+                return "board after the move differs from the journal";
+            }
+            return null;
+        }
+
+        public int getGameNumber() {
+            return gameNumber;
+        }
+
+        /**
+         * @return whether player 2 is the computer
+         */
+        public boolean isComputer() {
+            return computer;
+        }
+
+        /**
+         * @param seat 1 or 2
+         * @return that player's session token, 0 if there isn't one
+         */
+        public long getToken(int seat) {
+            return seat == 1 ? token1 : token2;
+        }
+
+        /**
+         * @return the board after the last recorded move
+         */
+        public Board getBoard() {
+            return board;
+        }
+
+        public boolean isPlayer1Turn() {
+            return player1Turn;
+        }
+
+        public int getMoves() {
+            return moves;
+        }
+
+        /**
+         * @return every move so far, pits 0-13 (getMoves() of them, the array may be longer)
+         */
+        public byte[] getPits() {
+            return pits;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads a game journal (see Journal), including the compacted .done segments that are still around.
+ * <p>
+ * With no game number it lists every game: moves, how it ended and when it started.  With a game number it replays that
+ * game move by move through Board, printing the board after every move and checking it matches what the journal
+ * recorded.  Exits with status 1 if a game doesn't replay.
+ * <p>
+ * Usage: java Server.JournalReplay [journal directory] [game]
+ */
+public class JournalReplay {
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : GameServer.JOURNAL_DIRECTORY);
+        Map<Integer, List<Journal.Record>> games = new TreeMap<>();
+        List<Path> segments = Journal.segments(directory);
+        for (Path segment : segments) {
+            for (Journal.Record record : Journal.readSegment(segment)) {
+                if (record.type == Journal.START) { // A game number used again by a journal started afresh
+                    games.put(record.game, new ArrayList<>());
+                }
+                games.computeIfAbsent(record.game, game -> new ArrayList<>()).add(record);
+            }
+        }
+
+        if (args.length > 1) {
+            List<Journal.Record> records = games.get(Integer.parseInt(args[1]));
+            if (records == null) {
+                System.out.println("Game " + args[1] + " is not in the journal.");
+                System.exit(1);
+            }
+            if (!replay(records)) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        System.out.printf("%d games in %d segments%n", games.size(), segments.size());
+        System.out.printf("%8s %6s %-24s %s%n", "game", "moves", "result", "started");
+        for (Map.Entry<Integer, List<Journal.Record>> game : games.entrySet()) {
+            List<Journal.Record> records = game.getValue();
+            Journal.Record first = records.get(0);
+            Journal.Record last = records.get(records.size() - 1);
+            long moves = records.stream().filter(record -> record.type == Journal.MOVE).count();
+            String result;
+            if (last.type != Journal.END) {
+                result = "in progress";
+            } else if ((last.flags & Journal.ABANDONED) != 0) {
+                result = "abandoned";
+            } else {
+                result = last.seat == 0 ? "tie" : "player " + last.seat + " won";
+                result += " " + MancalaEngine.store(last.lo, last.hi, 1) + "-"
+                        + MancalaEngine.store(last.lo, last.hi, 2);
+            }
+            if (first.type == Journal.START && (first.flags & Journal.COMPUTER) != 0) {
+                result += " (computer)";
+            }
+            String started = first.type == Journal.START ? Instant.ofEpochSecond(first.number).toString() : "?";
+            System.out.printf("%8d %6d %-24s %s%n", game.getKey(), moves, result, started);
+        }
+    }
+
+    /**
+     * Function that plays a game's moves on a new Board, printing each one.
+     *
+     * @return false if a move didn't replay as recorded
+     */
+    private static boolean replay(List<Journal.Record> records) {
+        Board board = new Board(); // Initial board state
+        boolean player1Turn = true;
+        for (Journal.Record record : records) {
+            if (record.type == Journal.START) {
+                System.out.println("Game " + record.game + " started " + Instant.ofEpochSecond(record.number)
+                        + ((record.flags & Journal.COMPUTER) != 0 ? ", player 2 is the computer" : ""));
+                System.out.println(board.boardToString(1, false));
+            } else if (record.type == Journal.MOVE) {
+                int player = player1Turn ? 1 : 2;
+                System.out.println("\nMove " + record.number + ": Player " + record.seat + " plays pit "
+                        + (record.pit - (record.seat == 2 ? 7 : 0)));
+                if (record.seat != player || !board.isValidMove(record.pit, player)) {
+                    System.out.println("PROBLEM: not a valid move for player " + player);
+                    return false;
+                }
+                player1Turn = board.makeMove(record.pit, player); // Make move & see if player gets another turn
+                System.out.println(board.boardToString(1, false));
+                if (board.getLo() != record.lo || board.getHi() != record.hi) {
+                    System.out.println("PROBLEM: the journal recorded a different board after this move");
+                    return false;
+                }
+                board.checkGameOver();
+            } else if (record.type == Journal.END) {
+                if ((record.flags & Journal.ABANDONED) != 0) {
+                    System.out.println("\nAbandoned, a player left.");
+                } else {
+                    System.out.println(board.resultMessage());
+                }
+            }
+        }
+        return true;
+    }
+}
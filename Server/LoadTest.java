@@ -0,0 +1,218 @@
+package Server;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test: a crowd of scripted players, each on its own virtual thread, that connect to a running server over
+ * loopback, play games with the text protocol (picking a random move from the "Possible Moves:" line), hang up as soon
+ * as the game is over and connect again.  It only speaks the text protocol, so it works against every server mode.
+ * <p>
+ * Prints connections, games and moves per second every second, then a summary with move round trip latency (from
+ * sending a move until the server has answered it) and what went wrong.
+ * <p>
+ * Usage: java Server.LoadTest [players] [seconds] [port] [think millis]
+ */
+public class LoadTest {
+
+    private static final int RAMP_PER_SECOND = 2000; // How fast players start, so the accept backlog doesn't overflow
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 60000;
+
+    private final InetSocketAddress address;
+    private final long thinkMillis;
+    private volatile boolean running = true;
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder games = new LongAdder(); // Counted by player 1 only
+    private final LongAdder moves = new LongAdder();
+    private final Histogram latency = new Histogram(); // Whole run
+    private final Histogram recentLatency = new Histogram(); // Since the last progress line
+
+    // What went wrong
+    private final LongAdder connectErrors = new LongAdder();
+    private final LongAdder disconnects = new LongAdder(); // Server closed or reset the connection mid-game
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder invalidMoves = new LongAdder();
+
+    public LoadTest(InetSocketAddress address, long thinkMillis) {
+        this.address = address;
+        this.thinkMillis = thinkMillis;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : GameServer.PORT;
+        long thinkMillis = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+        LoadTest test = new LoadTest(new InetSocketAddress("localhost", port), thinkMillis);
+        System.out.printf("%d players against port %d for %d s, %d ms thinking time%n", players, port, seconds,
+                thinkMillis);
+        test.run(players, seconds);
+    }
+
+    /**
+     * Function that runs the test and prints the results.
+     *
+     * @param players how many players to keep connected
+     * @param seconds how long to run, counting the ramp up
+     */
+    public void run(int players, int seconds) throws InterruptedException {
+        long start = System.nanoTime();
+        for (int i = 0; i < players; i++) {
+            long delayNanos = TimeUnit.SECONDS.toNanos(i) / RAMP_PER_SECOND;
+            long seed = i;
+            Thread.ofVirtual().name("player-" + i).start(() -> {
+                try {
+                    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                play(new SplittableRandom(seed));
+            });
+        }
+
+        System.out.printf("%5s %10s %10s %10s %10s %10s %8s%n", "time", "conns/s", "games/s", "moves/s", "p50 ms",
+                "p99 ms", "errors");
+        long[] last = new long[4];
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(start + TimeUnit.SECONDS.toNanos(second)
+                    - System.nanoTime())));
+            long[] now = {connections.sum(), games.sum(), moves.sum(), errors()};
+            System.out.printf("%4ds %10d %10d %10d %10.2f %10.2f %8d%n", second, now[0] - last[0], now[1] - last[1],
+                    now[2] - last[2], recentLatency.getPercentile(0.5) / 1e6, recentLatency.getPercentile(0.99) / 1e6,
+                    now[3] - last[3]);
+            recentLatency.reset();
+            last = now;
+        }
+        running = false;
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.println();
+        System.out.printf("Connections: %,d (%,.0f/s)%n", connections.sum(), connections.sum() / elapsed);
+        System.out.printf("Games completed: %,d (%,.1f/s)%n", games.sum(), games.sum() / elapsed);
+        System.out.printf("Moves: %,d (%,.0f/s)%n", moves.sum(), moves.sum() / elapsed);
+        System.out.printf("Move round trip: mean %.3f ms, p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                latency.getMean() / 1e6, latency.getPercentile(0.5) / 1e6, latency.getPercentile(0.99) / 1e6,
+                latency.getPercentile(0.999) / 1e6, latency.getMax() / 1e6);
+        System.out.printf("Errors: %d connect failures, %d disconnects, %d timeouts, %d invalid moves%n",
+                connectErrors.sum(), disconnects.sum(), timeouts.sum(), invalidMoves.sum());
+    }
+
+    private long errors() {
+        return connectErrors.sum() + disconnects.sum() + timeouts.sum() + invalidMoves.sum();
+    }
+
+    /**
+     * Main loop of a player: play games one after another until the test ends.
+     */
+    private void play(SplittableRandom random) {
+        while (running) {
+            Socket socket = new Socket();
+            try {
+                try {
+                    socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                } catch (IOException e) {
+                    if (running) {
+                        connectErrors.increment();
+                        Thread.sleep(100); // Don't spin if the server is down
+                    }
+                    continue;
+                }
+                connections.increment();
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                playGame(socket, random);
+            } catch (SocketTimeoutException e) {
+                if (running) {
+                    timeouts.increment();
+                }
+            } catch (IOException e) {
+                if (running) {
+                    disconnects.increment();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already gone
+                }
+            }
+        }
+    }
+
+    /**
+     * Function that plays one game on a connected socket, returning once the result is in.
+     */
+    private void playGame(Socket socket, SplittableRandom random) throws IOException, InterruptedException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream out = socket.getOutputStream();
+        byte[] move = {0, '\n'};
+        int seat = 0;
+        long sentAt = 0; // When the move we are waiting on an answer to was sent, 0 if none
+        while (true) {
+            String line = in.readLine();
+            if (line == null) {
+                throw new EOFException("Server closed the connection");
+            }
+            if (line.startsWith("Welcome Player ")) {
+                seat = line.charAt(15) - '0';
+            } else if (line.startsWith("Error: Invalid move!")) {
+                invalidMoves.increment();
+            } else if (line.startsWith("Possible Moves: ") || line.startsWith("Opponents turn!")
+                    || line.endsWith("Wins!") || line.equals("Tie!")) {
+                // Every answer to a move ends with one of these
+                if (sentAt != 0) {
+                    latency.record(System.nanoTime() - sentAt);
+                    recentLatency.record(System.nanoTime() - sentAt);
+                    moves.increment();
+                    sentAt = 0;
+                }
+                if (line.endsWith("Wins!") || line.equals("Tie!")) {
+                    if (seat == 1) {
+                        games.increment();
+                    }
+                    return; // Leave without waiting out the 10 seconds, like most people would
+                }
+                if (line.startsWith("Possible Moves: ")) {
+                    if (thinkMillis > 0) {
+                        Thread.sleep(thinkMillis);
+                    }
+                    move[0] = (byte) pickMove(line, random);
+                    sentAt = System.nanoTime();
+                    out.write(move);
+                }
+            }
+        }
+    }
+
+    /**
+     * Function that picks one of the moves listed in a "Possible Moves: 0, 2, 5." line.
+     *
+     * @return the move as the digit to send
+     */
+    private static int pickMove(String line, SplittableRandom random) {
+        int count = 0;
+        for (int i = 16; i < line.length(); i++) {
+            if (Character.isDigit(line.charAt(i))) {
+                count++;
+            }
+        }
+        int pick = random.nextInt(Math.max(1, count));
+        for (int i = 16; i < line.length(); i++) {
+            if (Character.isDigit(line.charAt(i)) && pick-- == 0) {
+                return line.charAt(i);
+            }
+        }
+        return '0';
+    }
+}
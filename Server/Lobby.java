@@ -0,0 +1,434 @@
+package Server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matchmaking.  The accept loop drops every new player in here and goes straight back to accepting; pairing workers
+ * then match players up, drop anyone who disconnected while waiting, and start the games.
+ * <p>
+ * A player is only seated once we know which protocol they speak.  Binary clients send their handshake as soon as
+ * they connect, so players who haven't sent anything are given HANDSHAKE_MILLIS (without holding up anyone else)
+ * before they are treated as text players.
+ * <p>
+ * A player who would rather not wait can ask to play the computer (see PlayerConnection.wantsComputer()), either
+ * before they are seated or while they are the waiting player 1.  In the same way, a player who lost their
+ * connection mid-game can send their session token (see PlayerConnection.wantsResume()) and go straight back to
+ * their game, instead of being matched up again, and someone can ask to watch a game (see
+ * PlayerConnection.wantsToWatch()) instead of playing.
+ * <p>
+ * Once the server is draining (see drain()) nobody new is seated: they are told to connect again, to whichever server
+ * is taking over.  Resuming and watching still work.
+ */
+public class Lobby {
+
+    /**
+     * Starts a game once two players have been paired.
+     */
+    public interface GameStarter {
+        void startGame(PlayerConnection player1, PlayerConnection player2, int gameNumber);
+
+        /**
+         * Start a game between a player and the computer, which takes player 2's seat.
+         */
+        void startComputerGame(PlayerConnection player1, int gameNumber);
+
+        /**
+         * Put a player who reconnected back in the game they left (see Session).
+         *
+         * @return false if the token isn't a game they can go back to
+         */
+        boolean resume(PlayerConnection player, long token);
+
+        /**
+         * Add a spectator to a game (see Spectators).
+         *
+         * @return false if there is no such game, or it can't take any more spectators
+         */
+        boolean watch(PlayerConnection spectator, int gameNumber);
+    }
+
+    private static final int BATCH_SIZE = 64; // Most players a worker pairs before starting their games
+    private static final long WAITING_CHECK_MILLIS = 100; // How often an idle worker checks on the waiting player
+    private static final long HANDSHAKE_MILLIS = 100; // How long a silent player has to send the binary handshake
+    private static final long HANDSHAKE_POLL_MILLIS = 5;
+
+    private final BlockingQueue<PlayerConnection> arrivals = new LinkedBlockingQueue<>();
+    private final GameStarter starter;
+
+    // The player 1 waiting for an opponent.  Guarded by `this`.
+    private PlayerConnection waitingPlayer;
+    private int waitingGameNumber;
+    private int gameCounter;
+    private boolean draining = false;
+
+    public Lobby(GameStarter starter) {
+        this(starter, 1);
+    }
+
+    /**
+     * @param starter
+     * @param firstGameNumber number of the first game, so numbers carry on from a previous run (see Journal)
+     */
+    public Lobby(GameStarter starter, int firstGameNumber) {
+        this.starter = starter;
+        this.gameCounter = firstGameNumber;
+    }
+
+    /**
+     * Start the pairing workers.
+     *
+     * @param workers number of pairing threads
+     */
+    public void start(int workers) {
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::pairPlayers, "lobby-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Add a newly connected player to the lobby.  Never blocks.
+     *
+     * @param player
+     */
+    public void offer(PlayerConnection player) {
+        Metrics.WAITING_PLAYERS.increment();
+        arrivals.add(player);
+    }
+
+    /**
+     * Function that makes sure games are numbered from a number on, e.g. after the last game of a server this one is
+     * taking over from.
+     *
+     * @param gameNumber
+     */
+    public synchronized void skipTo(int gameNumber) {
+        gameCounter = Math.max(gameCounter, gameNumber);
+    }
+
+    /**
+     * Function that stops new games starting, for a restart.  The waiting player is told to connect again, and so is
+     * everyone who arrives from now on.
+     *
+     * @return the number the next game would have had
+     */
+    public synchronized int drain() {
+        draining = true;
+        if (waitingPlayer != null) {
+            refuse(waitingPlayer);
+            waitingPlayer = null;
+        }
+        return gameCounter;
+    }
+
+    /**
+     * Main loop of a pairing worker.
+     */
+    private void pairPlayers() {
+        List<PlayerConnection> batch = new ArrayList<>(BATCH_SIZE);
+        List<Match> games = new ArrayList<>(BATCH_SIZE);
+        List<PlayerConnection> handshaking = new ArrayList<>(); // Players we don't know the protocol of yet
+        while (true) {
+            try {
+                long wait = handshaking.isEmpty() ? WAITING_CHECK_MILLIS : HANDSHAKE_POLL_MILLIS;
+                PlayerConnection first = arrivals.poll(wait, TimeUnit.MILLISECONDS);
+                if (first == null && handshaking.isEmpty()) { // Quiet, so check on the waiting player
+                    Match game = checkWaitingPlayer();
+                    if (game != null) {
+                        games.add(game);
+                        startGames(games);
+                    }
+                    continue;
+                }
+                batch.addAll(handshaking);
+                handshaking.clear();
+                if (first != null) {
+                    batch.add(first);
+                    arrivals.drainTo(batch, BATCH_SIZE - 1);
+                }
+
+                for (PlayerConnection player : batch) {
+                    try {
+                        Match game = admit(player, handshaking);
+                        if (game != null) {
+                            games.add(game);
+                        }
+                    } catch (RuntimeException e) { // Only this player, the rest of the batch carries on
+                        Log.error("error in lobby", "error", e);
+                        abandon(player);
+                        Metrics.WAITING_PLAYERS.decrement();
+                    }
+                }
+
+                startGames(games);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                Log.error("error in lobby", "error", e);
+            } finally { // Every player and game has been dealt with, one way or another
+                batch.clear();
+                games.clear();
+            }
+        }
+    }
+
+    /**
+     * Function that decides what happens to a player who has just arrived, or is still handshaking.
+     *
+     * @param player
+     * @param handshaking where to put them if they need another look next time round
+     * @return the game to start, if they completed one
+     */
+    private Match admit(PlayerConnection player, List<PlayerConnection> handshaking) {
+        if (!player.isAlive()) { // Left while in the queue
+            drop(player);
+            return null;
+        }
+        if (!player.isProtocolKnown() || player.isCommandPending()) {
+            if (player.getAge() < TimeUnit.MILLISECONDS.toNanos(HANDSHAKE_MILLIS)) {
+                handshaking.add(player); // Check again next time round
+                return null;
+            }
+            player.useTextProtocol();
+        }
+        if (player.wantsResume() && resume(player)) {
+            return null;
+        }
+        if (player.wantsToWatch()) {
+            watch(player);
+            return null;
+        }
+        return pair(player);
+    }
+
+    /**
+     * Function that starts paired games.  Called outside the lock.  A game that fails to start (e.g. the server is
+     * shutting down) has its players closed, the others still start.
+     *
+     * @param games
+     */
+    private void startGames(List<Match> games) {
+        for (Match game : games) {
+            try {
+                startGame(game);
+            } catch (RuntimeException e) {
+                Log.error("error starting game", "game", game.gameNumber, "error", e);
+                abandon(game.player1);
+                if (game.player2 != null) {
+                    abandon(game.player2);
+                }
+            }
+        }
+    }
+
+    private void startGame(Match game) {
+        if (game.player2 == null) {
+            Metrics.WAITING_PLAYERS.decrement();
+            Log.info("computer joined", "game", game.gameNumber);
+            try {
+                game.player1.sendComputerJoined();
+            } catch (IOException e) {
+                Log.error("error welcoming player", "game", game.gameNumber, "error", e);
+            }
+            starter.startComputerGame(game.player1, game.gameNumber);
+            return;
+        }
+        Metrics.WAITING_PLAYERS.add(-2);
+        Log.info("player connected", "game", game.gameNumber, "player", 2);
+        try {
+            game.player1.sendOpponentJoined();
+            game.player2.sendWelcome(2);
+        } catch (IOException e) {
+            // The game will notice as soon as it starts, and close both players
+            Log.error("error welcoming players", "game", game.gameNumber, "error", e);
+        }
+        starter.startGame(game.player1, game.player2, game.gameNumber);
+    }
+
+    /**
+     * Function that pairs a player with the waiting player, or makes them the waiting player if there isn't one.
+     *
+     * @param player
+     * @return the match if a game can start, otherwise null
+     */
+    private synchronized Match pair(PlayerConnection player) {
+        if (draining) {
+            refuse(player);
+            return null;
+        }
+        Match computerGame = checkWaitingPlayer();
+        if (computerGame == null && player.wantsComputer()) {
+            // Asked before they were even seated: a game of their own, and whoever is waiting carries on waiting
+            int gameNumber = welcome(player);
+            return gameNumber < 0 ? null : new Match(player, null, gameNumber);
+        }
+        if (waitingPlayer == null) {
+            seat(player);
+            return computerGame; // May have just taken the waiting player's place
+        }
+        Match game = new Match(waitingPlayer, player, waitingGameNumber);
+        waitingPlayer = null;
+        return game;
+    }
+
+    /**
+     * Function that makes a player the waiting player 1.
+     *
+     * @param player
+     * @return false if they couldn't be welcomed
+     */
+    private boolean seat(PlayerConnection player) {
+        int gameNumber = welcome(player);
+        if (gameNumber < 0) {
+            return false;
+        }
+        waitingPlayer = player;
+        waitingGameNumber = gameNumber;
+        return true;
+    }
+
+    /**
+     * Function that welcomes a player as player 1 of a new game.
+     *
+     * @param player
+     * @return the game's number, or -1 if they couldn't be welcomed
+     */
+    private int welcome(PlayerConnection player) {
+        // Sent while holding the lock so nobody can tell them "Player 2 joined." first
+        try {
+            player.sendWelcome(1);
+        } catch (IOException e) {
+            drop(player);
+            return -1;
+        }
+        int gameNumber = gameCounter++;
+        Log.info("player connected", "game", gameNumber, "player", 1);
+        return gameNumber;
+    }
+
+    /**
+     * Function that drops the waiting player if they have left, or gives them the computer if they asked for it.
+     *
+     * @return the game against the computer if one should start, otherwise null
+     */
+    private synchronized Match checkWaitingPlayer() {
+        if (waitingPlayer != null && !waitingPlayer.isAlive()) {
+            drop(waitingPlayer);
+            waitingPlayer = null;
+        }
+        if (waitingPlayer != null && waitingPlayer.wantsResume() && resume(waitingPlayer)) {
+            waitingPlayer = null; // Their seat in the new game is never taken
+        }
+        if (waitingPlayer != null && waitingPlayer.wantsToWatch()) {
+            watch(waitingPlayer);
+            waitingPlayer = null;
+        }
+        if (waitingPlayer != null && waitingPlayer.wantsComputer()) {
+            return computerGame(waitingPlayer);
+        }
+        return null;
+    }
+
+    /**
+     * Function that sends a player who asked to resume back to their game, or tells them it's gone.
+     *
+     * @param player
+     * @return true if they are back in their game
+     */
+    private boolean resume(PlayerConnection player) {
+        if (starter.resume(player, player.takeResumeToken())) {
+            Metrics.WAITING_PLAYERS.decrement();
+            return true;
+        }
+        player.sendUnknownSession();
+        return false;
+    }
+
+    /**
+     * @return a game between the waiting player and the computer, the waiting player's seat is free again
+     */
+    private Match computerGame(PlayerConnection player) {
+        Match game = new Match(player, null, waitingGameNumber);
+        waitingPlayer = null;
+        return game;
+    }
+
+    /**
+     * Function that hands someone who asked to watch a game to that game, or disconnects them if they can't watch it.
+     *
+     * @param spectator
+     */
+    private void watch(PlayerConnection spectator) {
+        Metrics.WAITING_PLAYERS.decrement();
+        int gameNumber = spectator.takeWatchedGame();
+        if (starter.watch(spectator, gameNumber)) {
+            return;
+        }
+        spectator.sendNoSuchGame(gameNumber);
+        try {
+            spectator.close();
+        } catch (IOException e) {
+            Log.error("error closing spectator", "error", e);
+        }
+    }
+
+    /**
+     * Function that sends a player away while the server drains.
+     *
+     * @param player
+     */
+    private void refuse(PlayerConnection player) {
+        player.sendRestarting();
+        try {
+            player.close();
+        } catch (IOException e) {
+            Log.error("error closing refused player", "error", e);
+        }
+        Metrics.WAITING_PLAYERS.decrement();
+    }
+
+    /**
+     * Function that closes a player the lobby couldn't deal with, so their connection isn't left open.
+     *
+     * @param player
+     */
+    private synchronized void abandon(PlayerConnection player) {
+        if (waitingPlayer == player) {
+            waitingPlayer = null;
+        }
+        try {
+            player.close();
+        } catch (IOException e) {
+            Log.error("error closing player", "error", e);
+        }
+    }
+
+    private void drop(PlayerConnection player) {
+        try {
+            player.close();
+        } catch (IOException e) {
+            Log.error("error closing disconnected player", "error", e);
+        }
+        Metrics.WAITING_PLAYERS.decrement();
+        Metrics.LOBBY_DROPS.increment();
+        Log.info("lobby dropped a player who disconnected while waiting");
+    }
+
+    private static class Match {
+        final PlayerConnection player1;
+        final PlayerConnection player2; // null for the computer
+        final int gameNumber;
+
+        Match(PlayerConnection player1, PlayerConnection player2, int gameNumber) {
+            this.player1 = player1;
+            this.player2 = player2;
+            this.gameNumber = gameNumber;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package Server;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The server's logging.  Logging a line only puts it on a queue, a single background thread formats and prints it, so
+ * game threads and event loops never wait on stdout (or on each other for it).
+ * <p>
+ * Lines are an event plus key=value fields, e.g. Log.info("game started", "game", 12) prints
+ * <pre>2026-10-18 09:15:02.114 INFO game started game=12</pre>
+ * Errors go to stderr, everything else to stdout.
+ * <p>
+ * Logging never blocks: if the queue is full the line is dropped, and at most LINES_PER_SECOND lines a second are
+ * printed.  How many lines were dropped is logged once a second while it is happening, and counted in Metrics.
+ */
+public final class Log {
+
+    private static final int QUEUE_SIZE = 16384;
+    private static final int LINES_PER_SECOND = 1000;
+    private static final int BATCH_SIZE = 256; // Most lines printed with one write
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final LongAdder queueFull = new LongAdder(); // Dropped since the last report
+    private static final LongAdder dropped = new LongAdder(); // Dropped ever, for Metrics
+    private static final LongAdder queued = new LongAdder(); // Lines ever put on the queue
+    private static volatile long handled = 0; // Lines ever taken off it, printed or dropped, by the writer
+
+    static {
+        Thread writer = new Thread(Log::write, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private Log() {
+    }
+
+    /**
+     * @param event what happened, e.g. "game started"
+     * @param fields alternating names and values
+     */
+    public static void info(String event, Object... fields) {
+        log(false, event, fields);
+    }
+
+    /**
+     * @param event what went wrong, e.g. "error accepting player"
+     * @param fields alternating names and values
+     */
+    public static void error(String event, Object... fields) {
+        log(true, event, fields);
+    }
+
+    /**
+     * @return lines dropped because the queue was full or over the rate limit, since the server started
+     */
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Function that waits for the lines logged so far to be printed, before the server exits.
+     *
+     * @param timeoutMillis longest to wait
+     */
+    public static void awaitPrinted(long timeoutMillis) throws InterruptedException {
+        long lines = queued.sum();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (handled < lines && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void log(boolean error, String event, Object[] fields) {
+        if (queue.offer(new Entry(System.currentTimeMillis(), error, event, fields))) {
+            queued.increment();
+        } else {
+            queueFull.increment();
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Main loop of the writer thread.
+     */
+    private static void write() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        long second = 0;
+        int written = 0; // Lines printed this second
+        long overLimit = 0; // Lines dropped this second
+        while (true) {
+            try {
+                // Wakes up at least once a second, so drops get reported even if nothing else is logged
+                Entry first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                }
+
+                long now = System.currentTimeMillis();
+                if (now / 1000 != second) {
+                    long full = queueFull.sumThenReset();
+                    if (overLimit > 0 || full > 0) {
+                        format(new Entry(now, true, "log lines dropped", new Object[]{"rateLimit", overLimit,
+                                "queueFull", full}), err);
+                    }
+                    second = now / 1000;
+                    written = 0;
+                    overLimit = 0;
+                }
+                for (Entry entry : batch) {
+                    if (written == LINES_PER_SECOND) {
+                        overLimit++;
+                        dropped.increment();
+                        continue;
+                    }
+                    written++;
+                    format(entry, entry.error ? err : out);
+                }
+
+                if (out.length() > 0) {
+                    System.out.print(out);
+                    System.out.flush();
+                    out.setLength(0);
+                }
+                if (err.length() > 0) {
+                    System.err.print(err);
+                    System.err.flush();
+                    err.setLength(0);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                // A field's toString() threw, lose that batch rather than the logger
+                out.setLength(0);
+                err.setLength(0);
+            } finally {
+                handled += batch.size();
+                batch.clear();
+            }
+        }
+    }
+
+    private static void format(Entry entry, StringBuilder line) {
+        TIME.formatTo(Instant.ofEpochMilli(entry.millis), line);
+        line.append(entry.error ? " ERROR " : " INFO ").append(entry.event);
+        for (int i = 0; i + 1 < entry.fields.length; i += 2) {
+            line.append(' ').append(entry.fields[i]).append('=').append(entry.fields[i + 1]);
+        }
+        line.append('\n');
+    }
+
+    private static class Entry {
+        final long millis;
+        final boolean error;
+        final String event;
+        final Object[] fields;
+
+        Entry(long millis, boolean error, String event, Object[] fields) {
+            this.millis = millis;
+            this.error = error;
+            this.event = event;
+            this.fields = fields;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package Server;
+
+// Rules I based my game off:
+// https://www.scholastic.com/content/dam/teachers/blogs/alycia-zimmerman/migrated-files/mancala_rules.pdf
+
+/**
+ * The Mancala rules on a packed position, for anything that needs to play a lot of moves (the game server, search
+ * and simulators).
+ * <p>
+ * A position is two longs: `lo` holds pits 0-6 (player 1's pits and store) and `hi` holds pits 7-13 (player 2's pits
+ * and store), 6 bits per pit.  There are only 48 seeds, so a pit can never overflow its 6 bits, which means sowing is
+ * just adding a precomputed packed delta.  Nothing here allocates: a move writes the new position into an `out` array
+ * the caller owns and leaves the old one untouched.
+ * <p>
+ * The rules are exactly those of the original GameThread.makeMove(): sowing skips the opponent's store, a pit sown
+ * all the way round (13+ seeds) is skipped too, the last seed landing in an empty pit on your side captures it and the
+ * opposite pit (if that isn't empty), and landing in your store gives you another turn.
+ */
+public final class MancalaEngine {
+
+    public static final int PITS = 14;
+    public static final int TOTAL_SEEDS = 48;
+    public static final int BITS = 6;
+    public static final long FIELD = (1L << BITS) - 1;
+
+    /** The start position: 4 seeds in every pit, empty stores. */
+    public static final long START_LO = pack(new int[]{4, 4, 4, 4, 4, 4, 0});
+    public static final long START_HI = pack(new int[]{4, 4, 4, 4, 4, 4, 0});
+
+    /** Flag in the value move() returns when the player gets another turn. */
+    public static final int EXTRA_TURN = 1;
+    /** The number of seeds captured by a move is (result >>> CAPTURE_SHIFT). */
+    public static final int CAPTURE_SHIFT = 8;
+
+    private static final long SIDE_MASK = (1L << (6 * BITS)) - 1; // Pits 0-5 (or 7-12), without the store
+    private static final long SIDE_SUM = 0x041041041L; // Multiplying by this adds up the 6 pits of a side
+
+    // Indexed by [player - 1][pit][seeds in pit]
+    private static final long[][][] SOW_LO = new long[2][PITS][TOTAL_SEEDS + 1];
+    private static final long[][][] SOW_HI = new long[2][PITS][TOTAL_SEEDS + 1];
+    private static final byte[][][] LAST = new byte[2][PITS][TOTAL_SEEDS + 1];
+
+    static {
+        // Build the tables by sowing on an empty board exactly the way GameThread.makeMove() did.  Where the seeds
+        // go only depends on the player, the pit and how many seeds were in it.
+        for (int player = 1; player <= 2; player++) {
+            for (int pit = 0; pit < PITS; pit++) {
+                if (!isOwnPit(pit, player)) {
+                    continue;
+                }
+                for (int seeds = 0; seeds <= TOTAL_SEEDS; seeds++) {
+                    int[] board = new int[PITS];
+                    board[pit] = seeds;
+                    int index = pit;
+                    for (int i = 0; i < board[pit]; i++) {
+                        index++;
+                        if (index == 6 && player == 2) {
+                            index++; // Skip store
+                        } else if (index == 13 && player == 1) {
+                            index = 0; // Skip store
+                        }
+                        if (index == 14) {
+                            index = 0;
+                        }
+                        board[index] = board[index] + 1;
+                    }
+                    board[pit] = 0;
+                    long[] packed = {0, 0};
+                    for (int i = 0; i < PITS; i++) {
+                        packed[i / 7] |= (long) board[i] << (BITS * (i % 7));
+                    }
+                    SOW_LO[player - 1][pit][seeds] = packed[0];
+                    SOW_HI[player - 1][pit][seeds] = packed[1];
+                    LAST[player - 1][pit][seeds] = (byte) index;
+                }
+            }
+        }
+    }
+
+    private MancalaEngine() {
+    }
+
+    /**
+     * Function that packs 7 pits into one half of a position.
+     *
+     * @param pits 7 seed counts
+     * @return packed half
+     */
+    public static long pack(int[] pits) {
+        long packed = 0;
+        for (int i = 0; i < 7; i++) {
+            packed |= (long) pits[i] << (BITS * i);
+        }
+        return packed;
+    }
+
+    /**
+     * @return the number of seeds in a pit (or store)
+     */
+    public static int seeds(long lo, long hi, int pit) {
+        return pit < 7 ? (int) ((lo >>> (BITS * pit)) & FIELD) : (int) ((hi >>> (BITS * (pit - 7))) & FIELD);
+    }
+
+    /**
+     * @return seeds in the player's store
+     */
+    public static int store(long lo, long hi, int player) {
+        return player == 1 ? (int) (lo >>> (6 * BITS)) & (int) FIELD : (int) (hi >>> (6 * BITS)) & (int) FIELD;
+    }
+
+    /**
+     * @return seeds left in the player's 6 pits (not counting their store)
+     */
+    public static int sideSeeds(long lo, long hi, int player) {
+        long side = (player == 1 ? lo : hi) & SIDE_MASK;
+        return (int) (((side * SIDE_SUM) >>> (5 * BITS)) & FIELD);
+    }
+
+    /**
+     * @return true if the pit is one of the player's 6 pits
+     */
+    public static boolean isOwnPit(int pit, int player) {
+        return player == 1 ? (pit >= 0 && pit <= 5) : (pit >= 7 && pit <= 12);
+    }
+
+    /**
+     * @return true if the player may play the pit
+     */
+    public static boolean isLegal(long lo, long hi, int player, int pit) {
+        return isOwnPit(pit, player) && seeds(lo, hi, pit) > 0;
+    }
+
+    /**
+     * @return bit i set if the player may play their i-th pit (pit i for player 1, pit 7 + i for player 2)
+     */
+    public static int legalMoves(long lo, long hi, int player) {
+        long side = player == 1 ? lo : hi;
+        int moves = 0;
+        for (int i = 0; i < 6; i++) {
+            if (((side >>> (BITS * i)) & FIELD) != 0) {
+                moves |= 1 << i;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Function that makes a move.  The pit must be legal (see isLegal()).
+     *
+     * @param lo
+     * @param hi
+     * @param player 1 or 2
+     * @param pit the pit to sow, numbered 0-13
+     * @param out receives the new position, {lo, hi}
+     * @return EXTRA_TURN if the player moves again, plus the number of seeds captured shifted by CAPTURE_SHIFT
+     */
+    public static int move(long lo, long hi, int player, int pit, long[] out) {
+        int p = player - 1;
+        int count = seeds(lo, hi, pit);
+        // Empty the pit, then add where its seeds went
+        if (pit < 7) {
+            lo &= ~(FIELD << (BITS * pit));
+        } else {
+            hi &= ~(FIELD << (BITS * (pit - 7)));
+        }
+        lo += SOW_LO[p][pit][count];
+        hi += SOW_HI[p][pit][count];
+        int last = LAST[p][pit][count];
+
+        int result = 0;
+        int ownStore = player == 1 ? 6 : 13;
+        if (last == ownStore) {
+            result = EXTRA_TURN;
+        } else if (isOwnPit(last, player) && seeds(lo, hi, last) == 1) {
+            // Landed in an empty pit on our side, capture it and the opposite pit
+            int opposite = 12 - last;
+            int captured = seeds(lo, hi, opposite);
+            if (captured > 0) {
+                captured++;
+                long clearLast = ~(FIELD << (BITS * (last % 7)));
+                long clearOpposite = ~(FIELD << (BITS * (opposite % 7)));
+                if (player == 1) {
+                    lo = (lo & clearLast) + ((long) captured << (6 * BITS));
+                    hi &= clearOpposite;
+                } else {
+                    hi = (hi & clearLast) + ((long) captured << (6 * BITS));
+                    lo &= clearOpposite;
+                }
+                result = captured << CAPTURE_SHIFT;
+            }
+        }
+        out[0] = lo;
+        out[1] = hi;
+        return result;
+    }
+
+    /**
+     * @return true if either player has no seeds left in their pits
+     */
+    public static boolean isGameOver(long lo, long hi) {
+        return (lo & SIDE_MASK) == 0 || (hi & SIDE_MASK) == 0;
+    }
+
+    /**
+     * Function that ends the game: whoever still has seeds in their pits moves them into their store (the same as
+     * GameThread's win condition check).  Only call once isGameOver() is true.
+     *
+     * @param lo
+     * @param hi
+     * @param out receives the final position, {lo, hi}
+     */
+    public static void finish(long lo, long hi, long[] out) {
+        if ((lo & SIDE_MASK) == 0) { // Player 1 is out of seeds, player 2 keeps theirs
+            hi = ((long) (store(lo, hi, 2) + sideSeeds(lo, hi, 2))) << (6 * BITS);
+        } else {
+            lo = ((long) (store(lo, hi, 1) + sideSeeds(lo, hi, 1))) << (6 * BITS);
+        }
+        out[0] = lo;
+        out[1] = hi;
+    }
+
+    /**
+     * @return 0 for a tie, otherwise the player with more seeds in their store
+     */
+    public static int winner(long lo, long hi) {
+        int player1 = store(lo, hi, 1);
+        int player2 = store(lo, hi, 2);
+        return player1 > player2 ? 1 : (player1 < player2 ? 2 : 0);
+    }
+}
@@ -0,0 +1,394 @@
+package Server;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * What the server is doing: counters, gauges and latency histograms, all cheap enough to update on every move (a
+ * LongAdder increment or a Histogram.record(), no locks).
+ * <p>
+ * expose() publishes them two ways, both local only:
+ * <ul>
+ *     <li>JMX, as the MBean "Server:type=Metrics" (jconsole, VisualVM...)</li>
+ *     <li>HTTP, as Prometheus text at http://localhost:PORT/metrics (curl works too)</li>
+ * </ul>
+ * Histograms record nanoseconds and are shown in seconds, as p50/p99/p99.9/max plus a count and sum.
+ * <p>
+ * Other parts of the server can serve admin text pages next to /metrics with page(), and admin actions (which only
+ * answer POST, so nothing that merely fetches pages can trigger one) with action().
+ * <p>
+ * If the HTTP port is taken, by a server this one is taking over from (see GameServer.takeOver()), expose() keeps
+ * trying every BIND_RETRY_MILLIS in the background until it is free.
+ */
+public final class Metrics {
+
+    public static final int PORT = 9124;
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final long BIND_RETRY_MILLIS = 1000;
+
+    private static final List<Metric> metrics = new CopyOnWriteArrayList<>();
+    private static final Map<String, Function<String, String>> pages = new ConcurrentHashMap<>(); // Other text pages
+    private static final Map<String, Function<String, String>> actions = new ConcurrentHashMap<>(); // By path
+    private static HttpServer http; // Guarded by Metrics.class
+
+    // Counters
+    public static final LongAdder CONNECTIONS = counter("mancala_connections_total", "Players accepted");
+    public static final LongAdder GAMES_STARTED = counter("mancala_games_started_total", "Games started");
+    public static final LongAdder GAMES_FINISHED = counter("mancala_games_finished_total", "Games played to the end");
+    public static final LongAdder GAMES_ABANDONED = counter("mancala_games_abandoned_total",
+            "Games that ended early because a player left");
+    public static final LongAdder COMPUTER_GAMES = counter("mancala_computer_games_total",
+            "Games started against the computer");
+    public static final LongAdder MOVES = counter("mancala_moves_total", "Moves played");
+    public static final LongAdder INVALID_MOVES = counter("mancala_invalid_moves_total", "Invalid moves rejected");
+    public static final LongAdder GAMES_TIMED_OUT = counter("mancala_games_timed_out_total",
+            "Games lost by a player running out of time");
+    public static final LongAdder GAMES_REAPED = counter("mancala_games_reaped_total",
+            "Games closed because the player to move went idle");
+    public static final LongAdder LOBBY_DROPS = counter("mancala_lobby_dropped_total",
+            "Players who left before their game started");
+    public static final LongAdder SESSIONS_PARKED = counter("mancala_sessions_parked_total",
+            "Players who lost their connection mid-game, their seat kept for them");
+    public static final LongAdder SESSIONS_RESUMED = counter("mancala_sessions_resumed_total",
+            "Players who reconnected to the game they left");
+    public static final LongAdder SESSIONS_EXPIRED = counter("mancala_sessions_expired_total",
+            "Players who didn't reconnect in time, ending their game");
+    public static final LongAdder SPECTATORS_DROPPED = counter("mancala_spectators_dropped_total",
+            "Spectators disconnected for not keeping up");
+    public static final LongAdder SPECTATOR_FRAMES_SKIPPED = counter("mancala_spectator_frames_skipped_total",
+            "Boards a slow spectator skipped to catch up with the game");
+    public static final LongAdder SLOW_CLIENTS_DISCONNECTED = counter("mancala_slow_clients_disconnected_total",
+            "Connections closed for not reading what the server sent them");
+    public static final LongAdder LONG_LINES = counter("mancala_long_lines_total",
+            "Players disconnected for sending a line longer than InputFramer.MAX_LINE_LENGTH");
+    public static final LongAdder INPUT_FLOODS = counter("mancala_input_floods_total",
+            "Players disconnected for sending invalid moves faster than InputFramer allows");
+    public static final LongAdder SOCKET_WRITES = counter("mancala_socket_writes_total",
+            "Writes to player and spectator sockets, one per flush");
+
+    public static final LongAdder ROUTED_GAMES = counter("mancala_routed_games_total",
+            "Games the router handed to a shard");
+    public static final LongAdder SHARD_FAILURES = counter("mancala_shard_failures_total",
+            "Times the router couldn't reach a shard");
+    public static final LongAdder SHARD_REJECTED = counter("mancala_shard_rejected_total",
+            "Connections to a shard without the router's secret");
+    public static final LongAdder HINTS = counter("mancala_hints_total", "Hints asked for");
+    public static final LongAdder HINT_CACHE_HITS = counter("mancala_hint_cache_hits_total",
+            "Hints answered from the analysis cache");
+    public static final LongAdder HINTS_REJECTED = counter("mancala_hints_rejected_total",
+            "Hints not given because the analysis pool was too busy");
+    public static final LongAdder JOURNAL_RECORDS = counter("mancala_journal_records_total",
+            "Records appended to the game journal");
+    public static final LongAdder GAMES_ARCHIVED = counter("mancala_games_archived_total",
+            "Finished games written to the game archive");
+
+    // Gauges, going up and down
+    public static final LongAdder ACTIVE_GAMES = gauge("mancala_active_games",
+            "Games in progress, or showing the result before closing");
+    public static final LongAdder WAITING_PLAYERS = gauge("mancala_waiting_players",
+            "Players connected but not in a game yet");
+    public static final LongAdder SPECTATORS = gauge("mancala_spectators", "Spectators watching a game");
+
+    // Latency
+    public static final Histogram MOVE_NANOS = histogram("mancala_move_processing_seconds",
+            "Time from a move arriving until the answer to it is sent");
+    public static final Histogram INPUT_WAIT_NANOS = histogram("mancala_input_wait_seconds",
+            "Time from asking a player (or the computer) for a move until it arrives");
+    public static final Histogram GAME_NANOS = histogram("mancala_game_duration_seconds",
+            "Time from the start of a game until the result");
+    public static final Histogram HINT_NANOS = histogram("mancala_hint_seconds",
+            "Time from asking for a hint until the analysis is ready");
+    public static final Histogram JOURNAL_FLUSH_NANOS = histogram("mancala_journal_flush_seconds",
+            "Time to force a batch of journal records to disk");
+
+    static {
+        gauge("mancala_log_dropped_total", "Log lines dropped by the rate limit or a full queue", "counter",
+                Log::getDropped);
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Function that adds a gauge that is read when the metrics are, e.g. a queue's size.
+     *
+     * @param name
+     * @param help one line description
+     * @param type "gauge" or "counter"
+     * @param value
+     */
+    public static void gauge(String name, String help, String type, LongSupplier value) {
+        metrics.add(new Metric(name, help, type, value, null));
+    }
+
+    /**
+     * Function that serves a text page on the metrics endpoint, e.g. "/games".
+     *
+     * @param path
+     * @param text called on every request
+     */
+    public static void page(String path, Supplier<String> text) {
+        queryPage(path, query -> text.get());
+    }
+
+    /**
+     * Function that serves a text page that depends on the request's query string, e.g. "/analysis?game=12".
+     *
+     * @param path
+     * @param text called on every request with the query string (null if it has none)
+     */
+    public static synchronized void queryPage(String path, Function<String, String> text) {
+        pages.put(path, text);
+        if (http != null) {
+            servePage(http, path, text);
+        }
+    }
+
+    /**
+     * Function that serves an admin action on the metrics endpoint, e.g. "/drain".  Only POST requests run it.
+     *
+     * @param path
+     * @param action called with the request's query string (null if it has none), returns the text to answer with
+     */
+    public static synchronized void action(String path, Function<String, String> action) {
+        actions.put(path, action);
+        if (http != null) {
+            serveAction(http, path, action);
+        }
+    }
+
+    private static LongAdder counter(String name, String help) {
+        LongAdder adder = new LongAdder();
+        gauge(name, help, "counter", adder::sum);
+        return adder;
+    }
+
+    private static LongAdder gauge(String name, String help) {
+        LongAdder adder = new LongAdder();
+        gauge(name, help, "gauge", adder::sum);
+        return adder;
+    }
+
+    private static Histogram histogram(String name, String help) {
+        Histogram histogram = new Histogram();
+        metrics.add(new Metric(name, help, "summary", null, histogram));
+        return histogram;
+    }
+
+    /**
+     * Function that registers the JMX MBean and starts the HTTP endpoint on the loopback address.  Failing to do
+     * either is logged, the server runs fine without them.  A port in use is retried in the background.
+     *
+     * @param port for HTTP
+     */
+    public static synchronized void expose(int port) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(),
+                    new ObjectName("Server:type=Metrics"));
+        } catch (JMException e) {
+            Log.error("error registering metrics mbean", "error", e);
+        }
+
+        if (!listen(port)) {
+            Log.info("metrics port in use, will keep trying", "port", port);
+            Thread retry = new Thread(() -> {
+                try {
+                    do {
+                        Thread.sleep(BIND_RETRY_MILLIS);
+                    } while (!listen(port));
+                } catch (InterruptedException e) {
+                    // Give up
+                }
+            }, "metrics-bind");
+            retry.setDaemon(true);
+            retry.start();
+        }
+    }
+
+    /**
+     * Function that starts the HTTP endpoint.
+     *
+     * @return false if the port is in use, true if it started or failed for good (which is logged)
+     */
+    private static synchronized boolean listen(int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            servePage(server, "/metrics", query -> scrape());
+            pages.forEach((path, text) -> servePage(server, path, text));
+            actions.forEach((path, action) -> serveAction(server, path, action));
+            server.start();
+            http = server;
+            Log.info("metrics available", "url", "http://localhost:" + port + "/metrics");
+        } catch (BindException e) {
+            return false;
+        } catch (IOException e) {
+            Log.error("error starting metrics endpoint", "port", port, "error", e);
+        }
+        return true;
+    }
+
+    private static void servePage(HttpServer http, String path, Function<String, String> text) {
+        http.createContext(path, exchange -> {
+            byte[] body = text.apply(exchange.getRequestURI().getQuery()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    private static void serveAction(HttpServer http, String path, Function<String, String> action) {
+        http.createContext(path, exchange -> {
+            int status = 200;
+            String text;
+            if (exchange.getRequestMethod().equals("POST")) {
+                text = action.apply(exchange.getRequestURI().getQuery());
+            } else {
+                status = 405;
+                text = "POST to " + path + "\n";
+                exchange.getResponseHeaders().set("Allow", "POST");
+            }
+            byte[] body = text.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    /**
+     * @return every metric in the Prometheus text format
+     */
+    public static String scrape() {
+        StringBuilder text = new StringBuilder(4096);
+        for (Metric metric : metrics) {
+            text.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            text.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+            if (metric.histogram == null) {
+                text.append(metric.name).append(' ').append(metric.value.getAsLong()).append('\n');
+                continue;
+            }
+            for (double quantile : QUANTILES) {
+                text.append(metric.name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(metric.histogram.getPercentile(quantile))).append('\n');
+            }
+            text.append(metric.name).append("{quantile=\"1.0\"} ").append(seconds(metric.histogram.getMax()))
+                    .append('\n');
+            text.append(metric.name).append("_sum ").append(seconds(metric.histogram.getSum())).append('\n');
+            text.append(metric.name).append("_count ").append(metric.histogram.getCount()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static class Metric {
+        final String name;
+        final String help;
+        final String type;
+        final LongSupplier value; // null for histograms
+        final Histogram histogram;
+
+        Metric(String name, String help, String type, LongSupplier value, Histogram histogram) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.value = value;
+            this.histogram = histogram;
+        }
+    }
+
+    /**
+     * The JMX view: a read only attribute per counter and gauge, and NAME_p50, NAME_p99, NAME_p999, NAME_max (seconds)
+     * and NAME_count per histogram.  Dynamic so gauges added later show up without another interface to keep in step.
+     */
+    private static class MetricsBean implements DynamicMBean {
+
+        private static final String[] SUFFIXES = {"_p50", "_p99", "_p999", "_max", "_count"};
+
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            for (Metric metric : metrics) {
+                if (metric.histogram == null && metric.name.equals(attribute)) {
+                    return metric.value.getAsLong();
+                }
+                if (metric.histogram != null && attribute.startsWith(metric.name)) {
+                    switch (attribute.substring(metric.name.length())) {
+                        case "_p50":
+                            return seconds(metric.histogram.getPercentile(0.5));
+                        case "_p99":
+                            return seconds(metric.histogram.getPercentile(0.99));
+                        case "_p999":
+                            return seconds(metric.histogram.getPercentile(0.999));
+                        case "_max":
+                            return seconds(metric.histogram.getMax());
+                        case "_count":
+                            return metric.histogram.getCount();
+                    }
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // Left out, as the interface allows
+                }
+            }
+            return list;
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Metric metric : metrics) {
+                if (metric.histogram == null) {
+                    attributes.add(new MBeanAttributeInfo(metric.name, "long", metric.help, true, false, false));
+                    continue;
+                }
+                for (String suffix : SUFFIXES) {
+                    String type = suffix.equals("_count") ? "long" : "double";
+                    attributes.add(new MBeanAttributeInfo(metric.name + suffix, type, metric.help, true, false,
+                            false));
+                }
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Mancala server metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read only");
+        }
+
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package Server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * One player's non-blocking connection.  Splits incoming bytes into lines (the same lines BufferedReader.readLine()
+ * would give the threaded server) and queues outgoing text until the socket can take it.
+ * <p>
+ * Input is bounded like the threaded server's InputFramer: a line longer than InputFramer.MAX_LINE_LENGTH, or more
+ * than MAX_QUEUED_LINES typed ahead of the game, disconnects the player, and reject() is the same token bucket for
+ * rejected moves.
+ * <p>
+ * Only used from the EventLoop that owns it.
+ */
+public class NioConnection {
+
+    public static final int MAX_QUEUED_LINES = InputFramer.BURST; // Typed ahead, waiting for the player's turn
+
+    /**
+     * Called back by a connection when something happens to it.
+     */
+    public interface Handler {
+        /**
+         * New lines are available from pollLine().
+         */
+        void onLines(NioConnection connection);
+
+        /**
+         * The connection was closed (by either side).
+         */
+        void onClose(NioConnection connection);
+    }
+
+    private final SocketChannel channel;
+    private final EventLoop loop;
+    private SelectionKey key;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+    private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+    private final ArrayDeque<String> lines = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private final BoardRenderer renderer = new BoardRenderer();
+    private ByteBuffer rendered = ByteBuffer.wrap(renderer.getBuffer()); // View of the renderer's buffer
+    private Handler handler;
+    private boolean closeWhenFlushed = false;
+
+    // Token bucket for rejected moves, see InputFramer.reject()
+    private double tokens = InputFramer.BURST;
+    private long refilled = System.nanoTime();
+    private volatile boolean closed = false;
+
+    public NioConnection(SocketChannel channel, EventLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    /**
+     * Start listening for input.  Must be called on the loop thread before anything else.
+     */
+    public void register() {
+        try {
+            key = loop.register(channel, this);
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    public EventLoop getLoop() {
+        return loop;
+    }
+
+    /**
+     * Set who gets told about new lines.  Any lines that arrived before there was a handler are kept for it.
+     *
+     * @param handler
+     */
+    public void setHandler(Handler handler) {
+        this.handler = handler;
+        if (!lines.isEmpty()) {
+            handler.onLines(this);
+        }
+    }
+
+    /**
+     * @return the next complete line sent by the player, or null if there isn't one yet
+     */
+    public String pollLine() {
+        return lines.poll();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Function that takes a token for a rejected move.
+     *
+     * @return false if the player has run out, and is flooding
+     */
+    public boolean reject() {
+        long now = System.nanoTime();
+        tokens = Math.min(InputFramer.BURST, tokens + (now - refilled) * InputFramer.REJECTS_PER_SECOND / 1e9);
+        refilled = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Queue a line of text to be sent (a newline is added, like PrintWriter.println()).
+     *
+     * @param line
+     */
+    public void println(String line) {
+        if (closed) {
+            return;
+        }
+        writeQueue.add(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+        flush();
+    }
+
+    /**
+     * @return this connection's renderer, to render a message into before calling sendRendered()
+     */
+    public BoardRenderer getRenderer() {
+        return renderer;
+    }
+
+    /**
+     * Send the message last rendered with getRenderer().  Written straight from the renderer's buffer when the socket
+     * can take it, and only copied if it has to wait.
+     */
+    public void sendRendered() {
+        if (closed) {
+            return;
+        }
+        if (rendered.array() != renderer.getBuffer()) { // The renderer grew its buffer
+            rendered = ByteBuffer.wrap(renderer.getBuffer());
+        }
+        rendered.clear().limit(renderer.getLength());
+        if (writeQueue.isEmpty()) {
+            try {
+                channel.write(rendered);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (!rendered.hasRemaining()) {
+                return;
+            }
+        }
+        ByteBuffer copy = ByteBuffer.allocate(rendered.remaining());
+        copy.put(rendered).flip();
+        writeQueue.add(copy);
+        flush();
+    }
+
+    /**
+     * Close the connection once everything queued so far has been written.
+     */
+    public void closeWhenFlushed() {
+        closeWhenFlushed = true;
+        if (writeQueue.isEmpty()) {
+            close();
+        }
+    }
+
+    void onReadable() {
+        readBuffer.clear();
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) { // End of stream, the player left
+            close();
+            return;
+        }
+
+        boolean newLines = false;
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+            if (b == '\n') {
+                String line = partialLine.toString(StandardCharsets.UTF_8);
+                if (line.endsWith("\r")) {
+                    line = line.substring(0, line.length() - 1);
+                }
+                lines.add(line);
+                partialLine.reset();
+                newLines = true;
+            } else if (partialLine.size() > InputFramer.MAX_LINE_LENGTH) { // Not a move, just something to fill memory
+                Metrics.LONG_LINES.increment();
+                Log.info("player sent too long a line, disconnected", "limit", InputFramer.MAX_LINE_LENGTH);
+                close();
+                return;
+            } else {
+                partialLine.write(b);
+            }
+        }
+        if (newLines && handler != null) {
+            handler.onLines(this);
+        }
+        // Checked once the game has taken what it wants, so the mover's lines go to reject() instead.  Until then
+        // one read's worth (readBuffer) is the most that can pile up.
+        if (lines.size() > MAX_QUEUED_LINES && !closed) {
+            Metrics.INPUT_FLOODS.increment();
+            Log.info("player typed too far ahead, disconnected", "lines", lines.size());
+            close();
+        }
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    private void flush() {
+        try {
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer buffer = writeQueue.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    // Socket is full, wait until the selector says we can write again
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writeQueue.poll();
+            }
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+            if (closeWhenFlushed) {
+                close();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Close the connection straight away, dropping anything not yet written.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.error("error closing connection", "error", e);
+        }
+        writeQueue.clear();
+        if (handler != null) {
+            handler.onClose(this);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package Server;
+
+/**
+ * A game played on the NIO server.  This is GameThread's main loop turned inside out: instead of a thread blocking in
+ * readLine(), the game is a small state machine that is fed lines by the EventLoop both players live on.  It sends
+ * exactly the same text as GameThread, so netcat and Client.Client can't tell the difference.
+ */
+public class NioGame implements NioConnection.Handler {
+
+    private static final int PLAYING = 0;
+    private static final int FINISHED = 1;
+    private static final int CLOSED = 2;
+
+    private final NioConnection player1;
+    private final NioConnection player2;
+    private final int gameNumber;
+    private final Board board;
+    private boolean player1Turn = true;
+    private int state = PLAYING;
+    private long startedAt;
+    private long askedAt; // When the mover was asked for their move
+
+    public NioGame(NioConnection player1, NioConnection player2, int gameNumber) {
+        this.player1 = player1;
+        this.player2 = player2;
+        this.gameNumber = gameNumber;
+        this.board = new Board(); // Initial board state
+    }
+
+    /**
+     * Start the game.  Must be called on the EventLoop both players are registered with.
+     */
+    public void start() {
+        startedAt = System.nanoTime();
+        Metrics.GAMES_STARTED.increment();
+        Metrics.ACTIVE_GAMES.increment();
+        player1.setHandler(this);
+        player2.setHandler(this);
+        if (player1.isClosed() || player2.isClosed()) { // Someone left before the game could start
+            onClose(player1.isClosed() ? player1 : player2);
+            return;
+        }
+
+        player1.println("Game Started.");
+        player2.println("Game Started.");
+        startTurn();
+        Log.info("game started", "game", gameNumber);
+    }
+
+    /**
+     * Tell the waiting player whose turn it is, then prompt the player to move.
+     */
+    private void startTurn() {
+        if (player1Turn) {
+            player2.getRenderer().opponentsTurn(board, 2, 1);
+            player2.sendRendered();
+        } else {
+            player1.getRenderer().opponentsTurn(board, 1, 2);
+            player1.sendRendered();
+        }
+        promptMove();
+    }
+
+    private void promptMove() {
+        int player = player1Turn ? 1 : 2;
+        NioConnection out = player1Turn ? player1 : player2;
+        out.getRenderer().yourTurn(board, player);
+        out.sendRendered();
+        askedAt = System.nanoTime();
+    }
+
+    public void onLines(NioConnection connection) {
+        // Lines from the player who isn't moving stay queued until it is their turn, just like they would sit in the
+        // socket buffer for the threaded server.
+        while (state == PLAYING) {
+            NioConnection mover = player1Turn ? player1 : player2;
+            String moveStr = mover.pollLine();
+            if (moveStr == null) {
+                return;
+            }
+            long received = System.nanoTime();
+            Metrics.INPUT_WAIT_NANOS.record(received - askedAt);
+            handleMove(mover, moveStr.trim());
+            Metrics.MOVE_NANOS.record(System.nanoTime() - received);
+        }
+    }
+
+    private void handleMove(NioConnection mover, String moveStr) {
+        int player = player1Turn ? 1 : 2;
+        int move;
+        // Wrap the parseInt in a try-catch to ensure the user input is actually a number
+        try {
+            move = Integer.parseInt(moveStr) + (player == 2 ? 7 : 0);
+        } catch (Exception e) {
+            rejectMove(mover, player);
+            return;
+        }
+        if (!board.isValidMove(move, player)) {
+            rejectMove(mover, player);
+            return;
+        }
+
+        player1Turn = board.makeMove(move, player); // Make move & see if player gets another turn
+        Metrics.MOVES.increment();
+
+        // Check for win conditions
+        if (board.checkGameOver()) {
+            finish();
+        } else {
+            startTurn();
+        }
+    }
+
+    private void rejectMove(NioConnection mover, int player) {
+        Metrics.INVALID_MOVES.increment();
+        if (!mover.reject()) {
+            Metrics.INPUT_FLOODS.increment();
+            Log.info("player sent too many invalid moves, disconnected", "player", player);
+            mover.close(); // Ends the game, see onClose()
+            return;
+        }
+        mover.getRenderer().invalidMove();
+        mover.sendRendered();
+        promptMove();
+    }
+
+    private void finish() {
+        state = FINISHED;
+        Metrics.GAME_NANOS.record(System.nanoTime() - startedAt);
+        Metrics.GAMES_FINISHED.increment();
+
+        // Show both players the final outcome, then alert both players who won.
+        player1.getRenderer().gameOver(board, 1, true);
+        player1.sendRendered();
+        player2.getRenderer().gameOver(board, 2, false);
+        player2.sendRendered();
+
+        // Announce that the game is stopping, wait 10 seconds (without holding a thread), then stop.
+        player1.println("Stopping thread in 10 seconds.");
+        player2.println("Stopping thread in 10 seconds.");
+        player1.getLoop().schedule(10000, () -> {
+            player1.println("Stopping thread now.");
+            player2.println("Stopping thread now.");
+            player1.closeWhenFlushed();
+            player2.closeWhenFlushed();
+        });
+    }
+
+    public void onClose(NioConnection connection) {
+        Log.info("player disconnected", "game", gameNumber, "player", connection == player1 ? 1 : 2);
+        if (state == CLOSED) {
+            return;
+        }
+        if (state == PLAYING) {
+            Log.error("error in game", "game", gameNumber, "error",
+                    "player " + (connection == player1 ? 1 : 2) + " left");
+            Metrics.GAMES_ABANDONED.increment();
+        }
+        state = CLOSED;
+        Metrics.ACTIVE_GAMES.decrement();
+        // The game can't go on with one player, so close the other one too
+        player1.closeWhenFlushed();
+        player2.closeWhenFlushed();
+        Log.info("game closed", "game", gameNumber);
+    }
+}
@@ -0,0 +1,95 @@
+package Server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking version of GameServer.  Instead of a thread per game, a small pool of EventLoops multiplexes every
+ * player socket, and each game is a NioGame state machine.  Speaks the same text protocol as GameServer.
+ */
+public class NioGameServer {
+
+    private final int port;
+    private final EventLoop[] loops;
+    private int gameCounter = 1;
+
+    // The player 1 waiting for an opponent, and the loop their game will run on
+    private NioConnection waitingPlayer;
+    private EventLoop waitingLoop;
+
+    /**
+     * @param port port to listen on
+     * @param loopCount number of event loop threads to share all games between
+     */
+    public NioGameServer(int port, int loopCount) throws IOException {
+        this.port = port;
+        loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop("event-loop-" + i);
+        }
+    }
+
+    public void start() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            for (EventLoop loop : loops) {
+                loop.start();
+            }
+            Log.info("nio game server started", "port", port, "loops", loops.length);
+
+            // Accepting stays blocking on this thread, everything after that happens on the event loops
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                Metrics.CONNECTIONS.increment();
+                Metrics.WAITING_PLAYERS.increment();
+                if (waitingPlayer != null && waitingPlayer.isClosed()) { // Left while waiting, replace them
+                    Metrics.WAITING_PLAYERS.decrement();
+                    Metrics.LOBBY_DROPS.increment();
+                    waitingPlayer = null;
+                }
+                if (waitingPlayer == null) {
+                    acceptPlayer1(channel);
+                } else {
+                    acceptPlayer2(channel);
+                }
+            }
+        } catch (IOException e) {
+            Log.error("nio game server stopped", "error", e);
+        }
+    }
+
+    private void acceptPlayer1(SocketChannel channel) {
+        // Both players of a game live on the same loop, so a game never has to cross threads
+        EventLoop loop = loops[gameCounter % loops.length];
+        int gameNumber = gameCounter;
+        NioConnection player1 = new NioConnection(channel, loop);
+        waitingPlayer = player1;
+        waitingLoop = loop;
+        loop.execute(() -> {
+            player1.register();
+            Log.info("player connected", "game", gameNumber, "player", 1);
+            player1.println("Welcome Player 1.");
+            player1.println("Waiting for Player 2...");
+        });
+    }
+
+    private void acceptPlayer2(SocketChannel channel) {
+        NioConnection player1 = waitingPlayer;
+        NioConnection player2 = new NioConnection(channel, waitingLoop);
+        int gameNumber = gameCounter;
+        waitingLoop.execute(() -> {
+            player2.register();
+            Log.info("player connected", "game", gameNumber, "player", 2);
+            player1.println("Player 2 joined."); // Alert player 1 when player 2 joins
+            player2.println("Welcome Player 2.");
+            new NioGame(player1, player2, gameNumber).start();
+        });
+        waitingPlayer = null;
+        waitingLoop = null;
+        gameCounter++;
+        Metrics.WAITING_PLAYERS.add(-2);
+    }
+}
@@ -0,0 +1,101 @@
+package Server;
+
+import java.io.IOException;
+
+/**
+ * One of the two seats in a GameThread: a person on the other end of a socket (PlayerConnection) or the computer
+ * (ComputerPlayer).
+ */
+public interface Player {
+
+    /** What readMove() returns when the player asks for a hint instead of moving. */
+    int HINT = InputFramer.HINT;
+
+    void sendGameStarted() throws IOException;
+
+    /**
+     * Show the player the board while their opponent is moving.
+     *
+     * @param board
+     * @param mover the player whose turn it is
+     */
+    void sendOpponentsTurn(Board board, int mover) throws IOException;
+
+    /**
+     * Show the player the board and ask them for a move.
+     *
+     * @param board
+     */
+    void sendYourTurn(Board board) throws IOException;
+
+    void sendInvalidMove() throws IOException;
+
+    /**
+     * Show the player what each of their moves is worth, with their next board.
+     *
+     * @param analysis of the position they are to move in, or null if the server is too busy to analyse it
+     */
+    void sendHint(HintService.Analysis analysis) throws IOException;
+
+    /**
+     * Tell the player how much time each player has left (see GameClock), shown with the next board.
+     *
+     * @param player1Millis
+     * @param player2Millis
+     */
+    void sendClock(long player1Millis, long player2Millis) throws IOException;
+
+    /**
+     * Show the player the final board and who won.
+     *
+     * @param board
+     * @param outOfTime the player who ran out of time and lost, 0 if the game was played to the end
+     */
+    void sendGameOver(Board board, int outOfTime) throws IOException;
+
+    /**
+     * Tell the player their opponent lost their connection, and is being given a while to come back (see Session).
+     *
+     * @param seconds how long the opponent has
+     */
+    void sendOpponentLeft(int seconds) throws IOException;
+
+    /**
+     * Tell the player their opponent reconnected.
+     */
+    void sendOpponentBack() throws IOException;
+
+    /**
+     * Warn the player that the game is about to close.
+     *
+     * @param now false for the 10 second warning, true when it is closing
+     */
+    void sendStopping(boolean now);
+
+    /**
+     * Function that sends everything since the last flush.  Messages are only queued until then, so the game flushes
+     * once at the end of each turn.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Function that waits for the player to pick a move.
+     *
+     * @return the number the player sent (0-5 for a sensible move), HINT, or null if it wasn't a number
+     * @throws java.io.EOFException if the player disconnected
+     */
+    Integer readMove() throws IOException;
+
+    /**
+     * Function that makes a readMove() in progress, or the next one, fail because the player ran out of time.  Called
+     * from the TimerWheel's thread, so it must not block.
+     */
+    void interruptRead();
+
+    /**
+     * Function that closes the connection to the player.
+     *
+     * @return true if there was an open connection
+     */
+    boolean close() throws IOException;
+}
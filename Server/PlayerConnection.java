@@ -0,0 +1,774 @@
+package Server;
+
+import java.io.*;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A connected player, from the moment they are accepted until their game ends.
+ * <p>
+ * Wraps the socket so the lobby can check a player is still there without blocking and without losing anything
+ * they have already typed, and speaks whichever protocol the player picked (text, or BinaryProtocol if the first byte
+ * they sent was its handshake).
+ * <p>
+ * The same check notices a player asking to play the computer instead of waiting (a line starting with c, or
+ * BinaryProtocol.PLAY_COMPUTER), a player who lost their connection asking for their old seat back ("resume" and
+ * the session token from their welcome, or BinaryProtocol.RESUME), and someone who only wants to watch a game ("watch"
+ * and the game number, or BinaryProtocol.WATCH).
+ * <p>
+ * Everything sent to the player goes through a WriteQueue: sending never blocks on the socket, and nothing is written
+ * until flush(), so a whole turn goes out in one write.
+ */
+public class PlayerConnection implements Player {
+
+    private static final int UNKNOWN = 0;
+    private static final int TEXT = 1;
+    private static final int BINARY = 2;
+    private static final int NOTHING = -2; // readNow() found nothing to read
+    private static final int HELD_SIZE = InputFramer.MAX_LINE_LENGTH; // Most a waiting player can send for the game
+    private static final String LINE_END = System.lineSeparator(); // As PrintWriter.println() wrote
+    private static final byte[] NO_HINT = ("No hint right now, the server is busy." + LINE_END)
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final SocketChannel channel;
+    private final Socket socket;
+    private final PushbackInputStream in;
+    private final WriteQueue writes;
+    private final ByteBuffer peekBuffer = ByteBuffer.allocate(1);
+    private final long connectedAt = System.nanoTime();
+    private volatile int protocol = UNKNOWN;
+    private boolean closed = false; // Guarded by this
+    private int held = 0; // Bytes pushed back into in for the game, guarded by this
+    private final InputFramer input; // Moves, once the game starts reading
+    private final BoardRenderer renderer = new BoardRenderer(); // Text protocol boards
+    private int seat; // 1 or 2 once the lobby has seated them
+    private long token; // Session token, sent with the welcome
+    private boolean computerRequested = false;
+    private boolean skipLine = false; // Still dropping the rest of the line that asked for the computer (or resume)
+    private int command; // BinaryProtocol.RESUME or WATCH once the player has asked for one, 0 if not
+    private StringBuilder commandLine; // The "resume <token>" or "watch <game>" line so far, null if not reading one
+    private int commandBytes; // Binary command argument bytes still to come
+    private long argument; // The session token or game number
+    private boolean commandReady = false; // The whole command is here
+
+    // Binary protocol state
+    private final byte[] frame = new byte[BinaryProtocol.MAX_FRAME_SIZE];
+    private final int[] pits = new int[BinaryProtocol.PITS];
+    private final int[] lastSentPits = new int[BinaryProtocol.PITS];
+    private boolean boardSent = false;
+
+    // Clocks for the text protocol's next board, -1 if the game has none
+    private long player1Millis = -1;
+    private long player2Millis = -1;
+    private byte[] hintLine; // For the text protocol's next "Possible Moves:", null if none
+
+    public PlayerConnection(SocketChannel channel) throws IOException {
+        this(channel, WriteQueue.WRITE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param channel
+     * @param writeTimeoutMillis longest a write to the player can take before they are disconnected
+     */
+    public PlayerConnection(SocketChannel channel, long writeTimeoutMillis) throws IOException {
+        this.channel = channel;
+        this.socket = channel.socket();
+        // Everything for a turn goes out in one write, so there is nothing to gain by holding back small writes, and
+        // with Nagle the second of two back to back writes waited ~40 ms for the client's delayed ACK
+        socket.setTcpNoDelay(true);
+        this.in = new HeldInputStream(socket.getInputStream(), HELD_SIZE);
+        this.input = new InputFramer(in);
+        this.writes = new WriteQueue(socket, writeTimeoutMillis);
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public int getSeat() {
+        return seat;
+    }
+
+    /**
+     * @return the session token sent with the welcome, 0 before then
+     */
+    public long getToken() {
+        return token;
+    }
+
+    /**
+     * @return true once we know which protocol the player speaks
+     */
+    public boolean isProtocolKnown() {
+        return protocol != UNKNOWN;
+    }
+
+    /**
+     * @return nanoseconds since the player connected
+     */
+    public long getAge() {
+        return System.nanoTime() - connectedAt;
+    }
+
+    /**
+     * Function that sets up a player the Router has already handed over, on a shard (see Shard): nothing is sent or
+     * peeked at, the router has done that.
+     *
+     * @param binary the player speaks BinaryProtocol
+     * @param seat 1 or 2, or 0 if they haven't been seated (resuming or watching)
+     * @param token the session token the router sent them, 0 if none
+     */
+    public void routed(boolean binary, int seat, long token) {
+        this.protocol = binary ? BINARY : TEXT;
+        this.seat = seat;
+        this.token = token;
+    }
+
+    /**
+     * Function that settles on the text protocol for a player who hasn't sent anything yet.
+     */
+    public void useTextProtocol() {
+        if (protocol == UNKNOWN) {
+            protocol = TEXT;
+        }
+    }
+
+    /**
+     * Function that checks if the player is still connected, without blocking.  Only call this before the game has
+     * started reading from the player.  The first byte the player sends also decides the protocol.
+     * <p>
+     * Once they have sent something for the game (a move, typed early) it is held for the game, and so is everything
+     * after it, up to HELD_SIZE bytes: they still have to be read to see if the player has gone.
+     *
+     * @return false if the player has disconnected, or sent more than HELD_SIZE for a game that hasn't started
+     */
+    public synchronized boolean isAlive() {
+        if (!channel.isOpen()) {
+            return false;
+        }
+        try {
+            // Look at what the player has sent so far.  The binary handshake, asking for the computer and resuming
+            // are only for us, the first byte of anything else is pushed back for the game.
+            while (true) {
+                int b = readNow();
+                if (b == -1) {
+                    return false;
+                }
+                if (b == NOTHING) {
+                    break;
+                }
+                if (held > 0) { // Not ours to look at
+                    if (held == HELD_SIZE) {
+                        Metrics.INPUT_FLOODS.increment();
+                        return false;
+                    }
+                    hold(b);
+                    continue;
+                }
+                if (commandBytes > 0) {
+                    argument = (argument << 8) | b;
+                    commandReady = --commandBytes == 0;
+                    continue;
+                }
+                if (skipLine) { // The rest of "c", "computer", "resume <token>" ...
+                    skipLine = b != '\n';
+                    if (commandLine != null && skipLine) {
+                        if (commandLine.length() >= InputFramer.MAX_LINE_LENGTH) {
+                            Metrics.LONG_LINES.increment();
+                            return false; // Not a token or game number, just something to fill our memory
+                        }
+                        commandLine.append((char) b);
+                    } else if (commandLine != null) {
+                        argument = parseArgument(commandLine, command == BinaryProtocol.RESUME ? 16 : 10);
+                        commandLine = null;
+                        commandReady = true;
+                    }
+                    continue;
+                }
+                if (protocol == UNKNOWN && b == BinaryProtocol.HANDSHAKE) {
+                    protocol = BINARY;
+                    continue;
+                }
+                protocol = (protocol == UNKNOWN) ? TEXT : protocol;
+                if (protocol == BINARY ? b == BinaryProtocol.PLAY_COMPUTER : (b == 'c' || b == 'C')) {
+                    computerRequested = true;
+                    skipLine = protocol == TEXT;
+                    continue;
+                }
+                boolean resume = protocol == BINARY ? b == BinaryProtocol.RESUME : (b == 'r' || b == 'R');
+                boolean watch = protocol == BINARY ? b == BinaryProtocol.WATCH : (b == 'w' || b == 'W');
+                if (resume || watch) {
+                    command = resume ? BinaryProtocol.RESUME : BinaryProtocol.WATCH;
+                    argument = 0;
+                    if (protocol == BINARY) {
+                        commandBytes = resume ? BinaryProtocol.TOKEN_SIZE : 4;
+                    } else {
+                        commandLine = new StringBuilder();
+                        skipLine = true;
+                    }
+                    continue;
+                }
+                hold(b);
+            }
+            return !writes.hasFailed();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Function that reads a byte the player has already sent, without blocking.  Never one that is held for the game.
+     *
+     * @return the byte, NOTHING if there isn't one yet, or -1 if the player has disconnected
+     */
+    private int readNow() throws IOException {
+        if (in.available() > held) { // Already here, after what is held
+            if (held == 0) {
+                return in.read();
+            }
+            byte[] kept = in.readNBytes(held);
+            int b = in.read();
+            in.unread(kept);
+            return b;
+        }
+        // A non-blocking read also tells us if the other end has closed.  Not while a write is going out, which needs
+        // the channel blocking: then try again next time.
+        if (!writes.tryHoldSocket()) {
+            return NOTHING;
+        }
+        int read;
+        try {
+            channel.configureBlocking(false);
+            try {
+                peekBuffer.clear();
+                read = channel.read(peekBuffer);
+            } finally {
+                channel.configureBlocking(true);
+            }
+        } finally {
+            writes.releaseSocket();
+        }
+        if (read < 0) {
+            return -1;
+        }
+        return read == 0 ? NOTHING : peekBuffer.get(0) & 0xFF;
+    }
+
+    /**
+     * Function that keeps a byte for the game to read, after anything already kept.
+     *
+     * @param b
+     */
+    private void hold(int b) throws IOException {
+        byte[] kept = in.readNBytes(held);
+        in.unread(b);
+        in.unread(kept);
+        held++;
+    }
+
+    /**
+     * @return the number at the end of a "resume" or "watch" line, 0 if there isn't one
+     */
+    private static long parseArgument(StringBuilder line, int radix) {
+        String text = line.toString().trim();
+        try {
+            return Long.parseUnsignedLong(text.substring(text.lastIndexOf(' ') + 1), radix);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return true if the player asked to play the computer (only noticed by isAlive())
+     */
+    public synchronized boolean wantsComputer() {
+        return computerRequested;
+    }
+
+    /**
+     * @return true if the player asked to resume a session, and sent the whole token (only noticed by isAlive())
+     */
+    public synchronized boolean wantsResume() {
+        return commandReady && command == BinaryProtocol.RESUME;
+    }
+
+    /**
+     * @return true if the player asked to watch a game, and sent the whole game number (only noticed by isAlive())
+     */
+    public synchronized boolean wantsToWatch() {
+        return commandReady && command == BinaryProtocol.WATCH;
+    }
+
+    /**
+     * @return true if the player has started asking to resume or watch, but the rest of it isn't here yet
+     */
+    public synchronized boolean isCommandPending() {
+        return commandBytes > 0 || commandLine != null;
+    }
+
+    /**
+     * Function that hands over the token the player asked to resume, so the request is only dealt with once.
+     *
+     * @return the token, 0 if it wasn't one
+     */
+    public synchronized long takeResumeToken() {
+        commandReady = false;
+        return argument;
+    }
+
+    /**
+     * Function that hands over the game the player asked to watch, so the request is only dealt with once.
+     *
+     * @return the game number, 0 if it wasn't one
+     */
+    public synchronized int takeWatchedGame() {
+        commandReady = false;
+        return (int) argument;
+    }
+
+    /**
+     * @return true if the player speaks BinaryProtocol
+     */
+    public boolean isBinary() {
+        return protocol == BINARY;
+    }
+
+    /**
+     * Tell the player which seat they have.
+     *
+     * @param seat 1 or 2
+     */
+    public void sendWelcome(int seat) throws IOException {
+        this.seat = seat;
+        this.token = Session.newToken();
+        if (protocol == BINARY) {
+            sendFrame(BinaryProtocol.WELCOME, seat);
+            sendToken();
+        } else {
+            println("Welcome Player " + seat + ".");
+            println(String.format("Session %016x. If you get disconnected, connect again and type: resume %016x",
+                    token, token));
+            if (seat == 1) {
+                println("Waiting for Player 2...");
+                println("Type c to play the computer instead.");
+            }
+        }
+        writes.flush();
+    }
+
+    /**
+     * Tell a player who resumed their session which seat they are back in.  The game's board follows.
+     *
+     * @param seat 1 or 2
+     * @param token their session's token, which stays the same
+     * @param gameNumber
+     */
+    public void sendWelcomeBack(int seat, long token, int gameNumber) throws IOException {
+        this.seat = seat;
+        this.token = token;
+        if (protocol == BINARY) {
+            sendFrame(BinaryProtocol.WELCOME, seat);
+            sendToken();
+        } else {
+            println("Welcome back Player " + seat + ".");
+            println("Resuming game " + gameNumber + ".");
+        }
+    }
+
+    /**
+     * Tell a spectator which game they are watching.  Frames from Spectators follow.
+     *
+     * @param gameNumber
+     */
+    public void sendSpectating(int gameNumber) throws IOException {
+        if (protocol == BINARY) {
+            sendFrame(BinaryProtocol.SPECTATING, -1);
+        } else {
+            println("Watching game " + gameNumber + ", Player 1 is at the bottom.");
+        }
+        writes.flush();
+    }
+
+    /**
+     * Tell someone who asked to watch a game that there is no such game.
+     *
+     * @param gameNumber
+     */
+    public void sendNoSuchGame(int gameNumber) {
+        if (protocol != BINARY) {
+            println("Game " + gameNumber + " isn't being played.");
+            writes.flush();
+        }
+    }
+
+    /**
+     * Tell a player the server is draining for a restart, so won't start their game (see GameServer.drain()).
+     * Binary clients just get the connection closed, and connect again.
+     */
+    public void sendRestarting() {
+        if (protocol != BINARY) {
+            println("Server is restarting, please connect again.");
+            writes.flush();
+        }
+    }
+
+    /**
+     * Function that writes a frame shared with other connections (see Spectators), blocking until it is all sent.
+     *
+     * @param shared a view of the frame of its own, the frame's bytes are never changed
+     */
+    public void write(ByteBuffer shared) throws IOException {
+        writes.send(shared);
+        writes.flushAndWait();
+    }
+
+    /**
+     * Tell a player their resume token didn't match a game they can go back to, so they will be matched up as usual.
+     */
+    public void sendUnknownSession() {
+        if (protocol != BINARY) {
+            println("Unknown session, finding you a new game.");
+            writes.flush();
+        }
+    }
+
+    private void sendToken() throws IOException {
+        frame[0] = (byte) BinaryProtocol.SESSION;
+        for (int i = 0; i < BinaryProtocol.TOKEN_SIZE; i++) {
+            frame[1 + i] = (byte) (token >>> (56 - 8 * i));
+        }
+        writes.send(frame, 0, 1 + BinaryProtocol.TOKEN_SIZE);
+    }
+
+    public void sendOpponentJoined() throws IOException {
+        if (protocol == BINARY) {
+            sendFrame(BinaryProtocol.OPPONENT_JOINED, -1);
+        } else {
+            println("Player 2 joined."); // Alert player 1 when player 2 joins
+        }
+        writes.flush();
+    }
+
+    /**
+     * Tell player 1 their opponent will be the computer.
+     */
+    public void sendComputerJoined() throws IOException {
+        if (protocol == BINARY) {
+            sendFrame(BinaryProtocol.OPPONENT_JOINED, -1);
+        } else {
+            println("The computer is Player 2.");
+        }
+        writes.flush();
+    }
+
+    public void sendGameStarted() throws IOException {
+        if (protocol == BINARY) {
+            sendFrame(BinaryProtocol.GAME_STARTED, -1);
+        } else {
+            println("Game Started.");
+        }
+    }
+
+    /**
+     * Show the player the board while their opponent is moving.
+     *
+     * @param board
+     * @param mover the player whose turn it is
+     */
+    public void sendOpponentsTurn(Board board, int mover) throws IOException {
+        if (protocol == BINARY) {
+            sendBoard(board, mover, board.getLegalMoves(mover));
+        } else {
+            write(withClock(renderer.opponentsTurn(board, seat, mover)));
+        }
+    }
+
+    /**
+     * Show the player the board and ask them for a move.
+     *
+     * @param board
+     */
+    public void sendYourTurn(Board board) throws IOException {
+        if (protocol == BINARY) {
+            sendBoard(board, seat, board.getLegalMoves(seat));
+        } else {
+            renderer.yourTurn(board, seat);
+            if (hintLine != null) {
+                renderer.appendLine(hintLine);
+                hintLine = null;
+            }
+            write(withClock(renderer));
+        }
+    }
+
+    /**
+     * Show the player what each of their moves is worth: a HINT_VALUES frame, or a line under the next "Possible
+     * Moves:".  Takes a token from the same limit as invalid moves.
+     *
+     * @param analysis of the position they are to move in, or null if the server is too busy to analyse it
+     * @throws ProtocolException if the player is asking too often, and has been disconnected
+     */
+    public void sendHint(HintService.Analysis analysis) throws IOException {
+        if (!input.reject()) {
+            Metrics.INPUT_FLOODS.increment();
+            Log.info("player asked for too many hints, disconnected", "player", seat);
+            close();
+            throw new ProtocolException("Player " + seat + " asked for too many hints");
+        }
+        if (protocol != BINARY) {
+            hintLine = analysis != null ? analysis.getLine() : NO_HINT;
+        } else if (analysis != null) {
+            frame[0] = (byte) BinaryProtocol.HINT_VALUES;
+            frame[1] = (byte) analysis.getBest();
+            int certain = 0;
+            for (int pit = 0; pit < 6; pit++) {
+                if (analysis.getScore(pit) == HintService.Analysis.ILLEGAL) {
+                    frame[3 + pit] = (byte) BinaryProtocol.HINT_ILLEGAL;
+                    continue;
+                }
+                frame[3 + pit] = (byte) Math.max(-127, Math.min(127, analysis.getDifference(pit)));
+                certain |= analysis.isCertain(pit) ? 1 << pit : 0;
+            }
+            frame[2] = (byte) certain;
+            writes.send(frame, 0, 9);
+        }
+    }
+
+    /**
+     * Tell the player how much time each player has left: a CLOCK frame, or a line under the next board.
+     *
+     * @param player1Millis
+     * @param player2Millis
+     */
+    public void sendClock(long player1Millis, long player2Millis) throws IOException {
+        if (protocol == BINARY) {
+            int player1Seconds = (int) Math.min((player1Millis + 999) / 1000, 0xFFFF); // Rounded up, as for text
+            int player2Seconds = (int) Math.min((player2Millis + 999) / 1000, 0xFFFF);
+            frame[0] = (byte) BinaryProtocol.CLOCK;
+            frame[1] = (byte) (player1Seconds >>> 8);
+            frame[2] = (byte) player1Seconds;
+            frame[3] = (byte) (player2Seconds >>> 8);
+            frame[4] = (byte) player2Seconds;
+            writes.send(frame, 0, 5);
+        } else {
+            this.player1Millis = player1Millis;
+            this.player2Millis = player2Millis;
+        }
+    }
+
+    /**
+     * Tell the player their opponent lost their connection, and is being given a while to come back.
+     *
+     * @param seconds how long the opponent has
+     */
+    public void sendOpponentLeft(int seconds) throws IOException {
+        if (protocol == BINARY) {
+            sendFrame(BinaryProtocol.OPPONENT_LEFT, Math.min(seconds, 255));
+        } else {
+            println("Player " + (3 - seat) + " disconnected, waiting up to " + seconds
+                    + " seconds for them to come back.");
+        }
+    }
+
+    public void sendOpponentBack() throws IOException {
+        if (protocol == BINARY) {
+            sendFrame(BinaryProtocol.OPPONENT_BACK, -1);
+        } else {
+            println("Player " + (3 - seat) + " is back.");
+        }
+    }
+
+    public void sendInvalidMove() throws IOException {
+        if (!input.reject()) {
+            Metrics.INPUT_FLOODS.increment();
+            Log.info("player sent too many invalid moves, disconnected", "player", seat);
+            close();
+            throw new ProtocolException("Player " + seat + " sent too many invalid moves");
+        }
+        if (protocol == BINARY) {
+            sendFrame(BinaryProtocol.INVALID_MOVE, -1);
+        } else {
+            write(renderer.invalidMove());
+        }
+    }
+
+    /**
+     * Show the player the final board and who won.
+     *
+     * @param board
+     * @param outOfTime the player who ran out of time and lost, 0 if the game was played to the end
+     */
+    public void sendGameOver(Board board, int outOfTime) throws IOException {
+        if (protocol == BINARY) {
+            if (outOfTime != 0) {
+                sendFrame(BinaryProtocol.TIME_UP, outOfTime);
+            }
+            sendBoard(board, 0, 0);
+            frame[0] = (byte) BinaryProtocol.GAME_OVER;
+            frame[1] = (byte) (outOfTime != 0 ? 3 - outOfTime : board.determineWinner());
+            frame[2] = (byte) board.get(6);
+            frame[3] = (byte) board.get(13);
+            writes.send(frame, 0, 4);
+        } else {
+            write(renderer.gameOver(board, seat, seat == 1, outOfTime));
+        }
+    }
+
+    /**
+     * Warn a text player that the connection is about to close.
+     *
+     * @param now false for the 10 second warning, true when it is closing
+     */
+    public void sendStopping(boolean now) {
+        if (protocol != BINARY) {
+            println(now ? "Stopping thread now." : "Stopping thread in 10 seconds.");
+        }
+    }
+
+    /**
+     * Function that stops the player's input, so a readMove() in progress fails straight away.  Nothing more is read
+     * from a player who ran out of time, their game is over.
+     */
+    public void interruptRead() {
+        try {
+            socket.shutdownInput();
+        } catch (IOException e) {
+            // Closed already, which does the same
+        }
+    }
+
+    /**
+     * Function that waits for the player to send a move.
+     *
+     * @return the number the player sent (0-5 for a sensible move), HINT, or null if it wasn't a number
+     * @throws EOFException if the player disconnected
+     */
+    public Integer readMove() throws IOException {
+        // Moves 0-5 box to Integer's cached instances, so a valid move allocates nothing
+        if (protocol == BINARY) {
+            int move = input.readByte();
+            return move == BinaryProtocol.HINT ? HINT : move;
+        }
+
+        if (skipLine) { // The rest of "c", "computer", "resume <token>" ...
+            skipLine = false;
+            input.skipLine();
+        }
+        int move = input.readNumber(); // InputFramer.HINT is HINT
+        return move == InputFramer.NOT_A_NUMBER ? null : move;
+    }
+
+    /**
+     * Function that sends everything since the last flush to the player, in one write.  The game calls it at the end
+     * of each turn; the lobby's messages flush themselves.
+     *
+     * @throws IOException if the connection has already failed
+     */
+    public void flush() throws IOException {
+        if (writes.hasFailed()) {
+            throw new IOException("Player " + seat + " disconnected");
+        }
+        writes.flush();
+    }
+
+    private BoardRenderer withClock(BoardRenderer rendered) {
+        return player1Millis < 0 ? rendered : rendered.appendClock(player1Millis, player2Millis);
+    }
+
+    private void write(BoardRenderer rendered) throws IOException {
+        writes.send(rendered.getBuffer(), 0, rendered.getLength());
+    }
+
+    /**
+     * Function that queues a line of text.  Like the PrintWriter it replaces it doesn't throw: a failed connection
+     * shows up in isAlive(), flush() and the player's next read.
+     *
+     * @param line
+     */
+    private void println(String line) {
+        byte[] bytes = (line + LINE_END).getBytes(StandardCharsets.UTF_8);
+        try {
+            writes.send(bytes, 0, bytes.length);
+        } catch (IOException e) {
+            // Failed, see above
+        }
+    }
+
+    private void sendBoard(Board board, int toMove, int legalMoves) throws IOException {
+        board.copyTo(pits);
+        int length = BinaryProtocol.encodeBoard(frame, pits, lastSentPits, !boardSent, toMove, legalMoves);
+        boardSent = true;
+        writes.send(frame, 0, length);
+    }
+
+    private void sendFrame(int type, int value) throws IOException {
+        frame[0] = (byte) type;
+        if (value < 0) {
+            writes.send(frame, 0, 1);
+        } else {
+            frame[1] = (byte) value;
+            writes.send(frame, 0, 2);
+        }
+    }
+
+    /**
+     * Function that stops speaking the game's protocol on the connection, so the Router can pass its bytes on as they
+     * are.  Everything queued is written first.  Don't use the connection after this, apart from getChannel().
+     *
+     * @return what the player has sent that hasn't been read yet, to pass on first
+     * @throws IOException if the connection has failed
+     */
+    public byte[] detach() throws IOException {
+        writes.detach(); // Not holding the connection's monitor, waiting on it would pin a virtual thread's carrier
+        synchronized (this) {
+            closed = true;
+            return in.readNBytes(in.available());
+        }
+    }
+
+    /**
+     * Function that closes the connection.
+     *
+     * @return true if the connection was open
+     */
+    public synchronized boolean close() throws IOException {
+        if (closed) {
+            return false;
+        }
+        closed = true;
+        boolean open = !socket.isClosed();
+        if (open) {
+            try {
+                socket.shutdownInput(); // A blocked read returns now
+            } catch (IOException e) {
+                // Closed meanwhile by the writer, which does the same
+            }
+        }
+        writes.close(); // What is queued still goes out, then the writer closes the socket
+        return open;
+    }
+
+    /**
+     * A PushbackInputStream whose reads return what was pushed back by itself.  PushbackInputStream's own go on to
+     * wait for more from the socket, so a whole line held for the game wouldn't be read until the player sent another.
+     */
+    private static final class HeldInputStream extends PushbackInputStream {
+
+        HeldInputStream(InputStream in, int size) {
+            super(in, size);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int pushedBack = buf.length - pos;
+            return super.read(b, off, pushedBack > 0 ? Math.min(len, pushedBack) : len);
+        }
+    }
+}
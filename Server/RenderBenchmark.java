@@ -0,0 +1,135 @@
+package Server;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks BoardRenderer sends exactly the same bytes as the old String based rendering, then measures how much each
+ * way allocates and how long it takes per "your turn" message (board, prompt and possible moves).
+ * <p>
+ * Usage: java Server.RenderBenchmark [renders]
+ */
+public class RenderBenchmark {
+
+    private static final int POSITIONS = 1000;
+
+    public static void main(String[] args) throws IOException {
+        int renders = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Board[] boards = randomPositions(new Random(42));
+
+        check(boards);
+        System.out.println("Output is byte-identical for " + POSITIONS + " positions.");
+
+        // Both ways write to a stream, like they do to a socket
+        PrintWriter printWriter = new PrintWriter(new OutputStreamWriter(OutputStream.nullOutputStream(),
+                StandardCharsets.UTF_8), true);
+        OutputStream rawOut = OutputStream.nullOutputStream();
+        BoardRenderer renderer = new BoardRenderer();
+
+        for (int round = 0; round < 2; round++) { // First round is warm up
+            long[] before = measure();
+            for (int i = 0; i < renders; i++) {
+                Board board = boards[i % POSITIONS];
+                int seat = 1 + (i & 1);
+                printWriter.println("\n" + board.boardToString(seat, true) + "\nYour turn! Type a number.");
+                printWriter.println("Possible Moves: " + board.getPossibleMoves(seat) + ".");
+            }
+            long[] strings = difference(before, measure());
+
+            before = measure();
+            for (int i = 0; i < renders; i++) {
+                Board board = boards[i % POSITIONS];
+                int seat = 1 + (i & 1);
+                renderer.yourTurn(board, seat);
+                rawOut.write(renderer.getBuffer(), 0, renderer.getLength());
+            }
+            long[] rendered = difference(before, measure());
+
+            if (round == 1) {
+                System.out.printf("%-14s %16s %14s%n", "", "bytes allocated", "ns");
+                System.out.printf("%-14s %16.1f %14.1f%n", "String/format", (double) strings[0] / renders,
+                        (double) strings[1] / renders);
+                System.out.printf("%-14s %16.1f %14.1f%n", "BoardRenderer", (double) rendered[0] / renders,
+                        (double) rendered[1] / renders);
+            }
+        }
+    }
+
+    /**
+     * Function that compares the renderer with the old rendering for every message it can render.
+     */
+    private static void check(Board[] boards) {
+        BoardRenderer renderer = new BoardRenderer();
+        String end = System.lineSeparator();
+        for (Board board : boards) {
+            for (int seat = 1; seat <= 2; seat++) {
+                compare("\n" + board.boardToString(seat, true) + "\nYour turn! Type a number." + end
+                        + "Possible Moves: " + board.getPossibleMoves(seat) + "." + end, renderer.yourTurn(board, seat));
+                compare("\n" + board.boardToString(seat, false) + "\nOpponents turn!  Waiting for Player " + (3 - seat)
+                        + "." + end, renderer.opponentsTurn(board, seat, 3 - seat));
+                compare(board.boardToString(seat, seat == 1) + end + board.resultMessage() + end,
+                        renderer.gameOver(board, seat, seat == 1));
+            }
+        }
+        compare("\nError: Invalid move!  Please try again." + end, renderer.invalidMove());
+    }
+
+    private static void compare(String expected, BoardRenderer actual) {
+        byte[] expectedBytes = expected.getBytes(StandardCharsets.UTF_8);
+        byte[] actualBytes = Arrays.copyOf(actual.getBuffer(), actual.getLength());
+        if (!Arrays.equals(expectedBytes, actualBytes)) {
+            throw new AssertionError("Expected:\n" + expected + "\nbut rendered:\n"
+                    + new String(actualBytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Function that makes positions from random games that still have moves left for both players.
+     */
+    private static Board[] randomPositions(Random random) {
+        Board[] boards = new Board[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            Board board;
+            do {
+                board = randomPosition(random);
+            } while (board.getLegalMoves(1) == 0 || board.getLegalMoves(2) == 0);
+            boards[i] = board;
+        }
+        return boards;
+    }
+
+
+    private static Board randomPosition(Random random) {
+        Board board = new Board();
+        boolean player1Turn = true;
+        int moves = random.nextInt(40);
+        for (int m = 0; m < moves; m++) {
+            int player = player1Turn ? 1 : 2;
+            int legal = board.getLegalMoves(player);
+            if (board.getLegalMoves(1) == 0 || board.getLegalMoves(2) == 0) {
+                break;
+            }
+            int pit;
+            do {
+                pit = random.nextInt(6);
+            } while ((legal & (1 << pit)) == 0);
+            player1Turn = board.makeMove(pit + (player == 2 ? 7 : 0), player);
+        }
+        return board;
+    }
+
+    /**
+     * @return {bytes allocated by this thread, nanoTime}
+     */
+    private static long[] measure() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return new long[]{threads.getCurrentThreadAllocatedBytes(), System.nanoTime()};
+    }
+
+    private static long[] difference(long[] before, long[] after) {
+        return new long[]{after[0] - before[0], after[1] - before[1]};
+    }
+}
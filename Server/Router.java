@@ -0,0 +1,444 @@
+package Server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The front door of a sharded deployment: players connect to the router, which matches them up in its Lobby (exactly
+ * as a GameServer would, welcome and session token included) and then hands each game to the least loaded of its
+ * shards, GameServer processes run with "shard" (see Shard), on this host or others.
+ * <p>
+ * A player is handed over by proxying: the router opens a connection to the shard for them, sends a ShardProtocol
+ * header saying who they are, and from then on copies bytes both ways on two virtual threads, so players never know.
+ * Players who come back to resume, or to watch a game, are handed to whichever shard says it has their session or
+ * game.  The router keeps no state about games, so it can be restarted without ending any.
+ * <p>
+ * Every LOAD_POLL_MILLIS the router asks each shard for its load: active games and CPU.  A game goes to the shard
+ * with the fewest games (counting the ones placed there since it last reported), and the least CPU of those.  A shard
+ * that doesn't answer gets no games until it does again.
+ */
+public class Router implements Lobby.GameStarter {
+
+    private static final long LOAD_POLL_MILLIS = 1000;
+    private static final int CONNECT_MILLIS = 1000;
+    private static final int PIPE_BUFFER_SIZE = 4096;
+    private static final long WATCHDOG_MILLIS = 1000;
+
+    private final int port;
+    private final byte[] secret = ShardProtocol.secret(); // Sent before every header, see ShardProtocol
+    private final List<ShardInfo> shards = new ArrayList<>();
+    private final Lobby lobby = new Lobby(this);
+    private final Set<Pipe> pipes = ConcurrentHashMap.newKeySet(); // Every player handed over, until they leave
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param port to listen on for players
+     * @param shards where the shards listen for the router
+     */
+    public Router(int port, List<InetSocketAddress> shards) {
+        this.port = port;
+        for (InetSocketAddress address : shards) {
+            this.shards.add(new ShardInfo(address));
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "router-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::pollShards, 0, LOAD_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::closeStuckPipes, WATCHDOG_MILLIS, WATCHDOG_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void start() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            Log.info("router started", "port", port, "shards", shards.size());
+            lobby.start(Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                Metrics.CONNECTIONS.increment();
+                try {
+                    lobby.offer(new PlayerConnection(channel));
+                } catch (IOException e) {
+                    Log.error("error accepting player", "error", e);
+                    channel.close();
+                }
+            }
+        } catch (IOException e) {
+            Log.error("router stopped", "error", e);
+        }
+    }
+
+    public void startGame(PlayerConnection player1, PlayerConnection player2, int gameNumber) {
+        Thread.ofVirtual().name("router-place").start(() -> place(gameNumber, player1, player2));
+    }
+
+    public void startComputerGame(PlayerConnection player1, int gameNumber) {
+        Thread.ofVirtual().name("router-place").start(() -> place(gameNumber, player1, null));
+    }
+
+    public boolean resume(PlayerConnection player, long token) {
+        ShardInfo shard = token == 0 ? null : find(ShardProtocol.FIND_SESSION, 0, token);
+        if (shard == null) {
+            return false;
+        }
+        Thread.ofVirtual().name("router-place").start(() -> handOver(shard, player,
+                ShardProtocol.header(ShardProtocol.RESUME, player.isBinary(), 0, 0, 0, token)));
+        return true;
+    }
+
+    public boolean watch(PlayerConnection spectator, int gameNumber) {
+        ShardInfo shard = find(ShardProtocol.FIND_GAME, gameNumber, 0);
+        if (shard == null) {
+            return false;
+        }
+        Thread.ofVirtual().name("router-place").start(() -> handOver(shard, spectator,
+                ShardProtocol.header(ShardProtocol.WATCH, spectator.isBinary(), 0, 0, gameNumber, 0)));
+        return true;
+    }
+
+    /**
+     * Function that hands a newly matched game to the least loaded shard that will take it.
+     *
+     * @param gameNumber
+     * @param player1
+     * @param player2 null for the computer
+     */
+    private void place(int gameNumber, PlayerConnection player1, PlayerConnection player2) {
+        List<ShardInfo> untried = new ArrayList<>(shards);
+        while (!untried.isEmpty()) {
+            ShardInfo shard = leastLoaded(untried);
+            untried.remove(shard);
+            SocketChannel link1 = null;
+            SocketChannel link2 = null;
+            try {
+                link1 = connect(shard, ShardProtocol.header(ShardProtocol.PLAY, player1.isBinary(), 1,
+                        player2 == null ? ShardProtocol.COMPUTER : 0, gameNumber, player1.getToken()));
+                if (player2 != null) {
+                    link2 = connect(shard, ShardProtocol.header(ShardProtocol.PLAY, player2.isBinary(), 2, 0,
+                            gameNumber, player2.getToken()));
+                }
+            } catch (IOException e) {
+                shardFailed(shard, e);
+                closeQuietly(link1);
+                continue;
+            }
+            shard.placed.incrementAndGet();
+            Metrics.ROUTED_GAMES.increment();
+            Log.info("game routed", "game", gameNumber, "shard", shard.address);
+            splice(player1, link1);
+            if (player2 != null) {
+                splice(player2, link2);
+            }
+            return;
+        }
+        Log.error("no shard for game", "game", gameNumber);
+        refuse(player1);
+        if (player2 != null) {
+            refuse(player2);
+        }
+    }
+
+    /**
+     * @return the shard to try first: one that is up if there is one (a shard that is down may be back), with the
+     * fewest games, then the least CPU
+     */
+    private static ShardInfo leastLoaded(List<ShardInfo> shards) {
+        ShardInfo best = null;
+        for (ShardInfo shard : shards) {
+            if (best == null || (shard.up && !best.up) || (shard.up == best.up && (shard.getLoad() < best.getLoad()
+                    || (shard.getLoad() == best.getLoad() && shard.cpuPermille < best.cpuPermille)))) {
+                best = shard;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Function that hands a resuming player or a spectator to the shard that has their game.
+     *
+     * @param shard
+     * @param player
+     * @param header
+     */
+    private void handOver(ShardInfo shard, PlayerConnection player, ByteBuffer header) {
+        try {
+            splice(player, connect(shard, header));
+        } catch (IOException e) {
+            shardFailed(shard, e);
+            refuse(player);
+        }
+    }
+
+    /**
+     * Function that asks every shard that is up whether it has a session or game.
+     *
+     * @param command ShardProtocol.FIND_SESSION or FIND_GAME
+     * @param gameNumber
+     * @param token
+     * @return the shard that has it, or null if none does
+     */
+    private ShardInfo find(int command, int gameNumber, long token) {
+        for (ShardInfo shard : shards) {
+            if (!shard.up) {
+                continue;
+            }
+            try (SocketChannel link = connect(shard, ShardProtocol.header(command, false, 0, 0, gameNumber, token))) {
+                if (new DataInputStream(link.socket().getInputStream()).readByte() == 1) {
+                    return shard;
+                }
+            } catch (IOException e) {
+                shardFailed(shard, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a connection to the shard, with the secret and header sent
+     */
+    private SocketChannel connect(ShardInfo shard, ByteBuffer header) throws IOException {
+        SocketChannel link = SocketChannel.open();
+        try {
+            Socket socket = link.socket();
+            socket.connect(shard.address, CONNECT_MILLIS);
+            socket.setTcpNoDelay(true); // Moves and boards are passed on as they come, like the shard sends them
+            socket.setSoTimeout(CONNECT_MILLIS); // Only for answers to FIND and LOAD, pipes use the channel
+            ByteBuffer[] start = {ByteBuffer.wrap(secret), header};
+            while (header.hasRemaining()) {
+                link.write(start);
+            }
+            return link;
+        } catch (IOException e) {
+            link.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Function that starts passing bytes between a player and their shard, for as long as both stay connected.
+     *
+     * @param player
+     * @param link the connection to the shard, header sent
+     */
+    private void splice(PlayerConnection player, SocketChannel link) {
+        byte[] early;
+        try {
+            early = player.detach();
+        } catch (IOException e) {
+            closeQuietly(player.getChannel()); // Gone, the shard sees the link close like any disconnect
+            closeQuietly(link);
+            return;
+        }
+        Pipe pipe = new Pipe(player.getChannel(), link);
+        pipes.add(pipe);
+        Thread.ofVirtual().name("pipe-in").start(() -> pipe.copy(pipe.client, pipe.shard, early));
+        Thread.ofVirtual().name("pipe-out").start(() -> pipe.copy(pipe.shard, pipe.client, null));
+    }
+
+    private static void refuse(PlayerConnection player) {
+        player.sendRestarting();
+        try {
+            player.close();
+        } catch (IOException e) {
+            Log.error("error closing player", "error", e);
+        }
+    }
+
+    private void shardFailed(ShardInfo shard, IOException e) {
+        Metrics.SHARD_FAILURES.increment();
+        if (shard.up) {
+            shard.up = false;
+            Log.error("shard down", "shard", shard.address, "error", e);
+        }
+    }
+
+    /**
+     * Function that asks every shard for its load.  Runs on the scheduler.
+     */
+    private void pollShards() {
+        int lastGame = 0;
+        for (ShardInfo shard : shards) {
+            try (SocketChannel link = connect(shard, ShardProtocol.header(ShardProtocol.LOAD, false, 0, 0, 0, 0))) {
+                DataInputStream in = new DataInputStream(link.socket().getInputStream());
+                shard.games = in.readInt();
+                lastGame = Math.max(lastGame, in.readInt());
+                shard.cpuPermille = in.readInt();
+                shard.placed.set(0);
+                if (!shard.up) {
+                    shard.up = true;
+                    Log.info("shard up", "shard", shard.address, "games", shard.games);
+                }
+            } catch (IOException e) {
+                shardFailed(shard, e);
+            }
+        }
+        lobby.skipTo(lastGame + 1); // A restarted router carries on after the shards' games
+    }
+
+    /**
+     * Function that disconnects players who have stopped reading, like WriteQueue's watchdog.  Runs on the scheduler.
+     */
+    private void closeStuckPipes() {
+        long now = System.nanoTime();
+        for (Pipe pipe : pipes) {
+            long since = pipe.writingSince;
+            if (since != 0 && now - since > TimeUnit.MILLISECONDS.toNanos(WriteQueue.WRITE_TIMEOUT_MILLIS)) {
+                Metrics.SLOW_CLIENTS_DISCONNECTED.increment();
+                Log.info("routed write timed out, client disconnected", "seconds",
+                        TimeUnit.NANOSECONDS.toSeconds(now - since));
+                pipe.close();
+            }
+        }
+    }
+
+    /**
+     * @return every shard and its load, one per line
+     */
+    public String describeShards() {
+        StringBuilder text = new StringBuilder();
+        for (ShardInfo shard : shards) {
+            text.append("shard=").append(shard.address.getHostString()).append(':').append(shard.address.getPort())
+                    .append(" up=").append(shard.up).append(" games=").append(shard.games)
+                    .append(" placed=").append(shard.placed.get()).append(" cpu=").append(shard.cpuPermille / 10.0)
+                    .append("%\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return players (and spectators) handed over to a shard and still connected
+     */
+    public int getPipes() {
+        return pipes.size();
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    /**
+     * A shard, and its load as it last reported it.
+     */
+    private static class ShardInfo {
+        final InetSocketAddress address;
+        final AtomicInteger placed = new AtomicInteger(); // Games placed here since the last report
+        volatile int games;
+        volatile int cpuPermille;
+        volatile boolean up = true; // Until it fails to answer
+
+        ShardInfo(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        int getLoad() {
+            return games + placed.get();
+        }
+    }
+
+    /**
+     * A player's connection and the connection to their shard, with one virtual thread copying each way.  When either
+     * side closes, both are closed.
+     */
+    private final class Pipe {
+        final SocketChannel client;
+        final SocketChannel shard;
+        volatile long writingSince = 0; // System.nanoTime() a write to the client started, 0 if not writing
+
+        Pipe(SocketChannel client, SocketChannel shard) {
+            this.client = client;
+            this.shard = shard;
+        }
+
+        /**
+         * @param from
+         * @param to
+         * @param early bytes to pass on before anything read from `from`, or null
+         */
+        void copy(SocketChannel from, SocketChannel to, byte[] early) {
+            ByteBuffer buffer = ByteBuffer.allocate(PIPE_BUFFER_SIZE);
+            try {
+                if (early != null) {
+                    write(to, ByteBuffer.wrap(early)); // Can be more than the buffer holds
+                }
+                while (from.read(buffer) >= 0) {
+                    buffer.flip();
+                    write(to, buffer);
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                // One side has gone, or the other thread closed both
+            } finally {
+                close();
+            }
+        }
+
+        private void write(SocketChannel to, ByteBuffer buffer) throws IOException {
+            boolean toClient = to == client;
+            if (toClient) {
+                writingSince = System.nanoTime();
+            }
+            while (buffer.hasRemaining()) {
+                to.write(buffer);
+            }
+            if (toClient) {
+                writingSince = 0;
+            }
+        }
+
+        void close() {
+            if (pipes.remove(this)) {
+                closeQuietly(client);
+                closeQuietly(shard);
+            }
+        }
+    }
+
+    /**
+     * Start the router.  Usage: java Server.Router host:port [host:port ...]
+     * <p>
+     * Each host:port is a shard, started with java Server.GameServer shard port [mode] ...  Players connect to the
+     * router on port 1024, and its metrics (and the shards' loads, at http://localhost:9124/shards) are served like a
+     * GameServer's.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java Server.Router host:port [host:port ...]");
+            System.exit(1);
+        }
+        List<InetSocketAddress> shards = new ArrayList<>();
+        for (String arg : args) {
+            int colon = arg.lastIndexOf(':');
+            shards.add(new InetSocketAddress(arg.substring(0, colon), Integer.parseInt(arg.substring(colon + 1))));
+        }
+        Metrics.expose(Metrics.PORT);
+        Router router = new Router(GameServer.PORT, shards);
+        Metrics.page("/shards", router::describeShards);
+        Metrics.gauge("mancala_routed_connections", "Players and spectators handed over to a shard", "gauge",
+                router::getPipes);
+        router.start();
+    }
+}
@@ -0,0 +1,374 @@
+package Server;
+
+import java.util.SplittableRandom;
+
+/**
+ * The computer player's brain: iterative deepening alpha-beta (negamax) over MancalaEngine positions.
+ * <p>
+ * Scores are always from the point of view of the player to move, so a move that ends on the other side negates the
+ * child's score, and a move that earns another turn doesn't.  Positions are scored by store difference, and finished
+ * games by WIN plus the final difference so any win beats any unfinished position.
+ * <p>
+ * Positions seen before are looked up in a transposition table keyed by Zobrist hash.  The table has a fixed number
+ * of entries (so a fixed amount of memory), and when two positions want the same slot the deeper search wins, unless
+ * the old entry is left over from an earlier move, which is always replaced.
+ * <p>
+ * Moves are tried best first: the table's best move, then moves that earn another turn, then captures (biggest
+ * first), then the rest, closest to the store first.
+ * <p>
+ * With a Tablebase, positions with few enough seeds left aren't searched at all: the tablebase has their exact
+ * result, scored like a finished game.
+ * <p>
+ * Not thread safe, SearchPool gives every worker its own.
+ */
+public class Search {
+
+    public static final int WIN = 1000;
+    public static final int MAX_DEPTH = 64;
+    private static final int INFINITY = 10000;
+    private static final int CHECK_NODES = 4096; // How often (in nodes) to look at the clock
+
+    // Zobrist keys: one random number per (pit, seeds) and one for player 2 to move
+    private static final long[][] ZOBRIST = new long[MancalaEngine.PITS][MancalaEngine.TOTAL_SEEDS + 1];
+    private static final long PLAYER_2_KEY;
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x6d616e63616c61L);
+        for (long[] pit : ZOBRIST) {
+            for (int seeds = 0; seeds < pit.length; seeds++) {
+                pit[seeds] = random.nextLong();
+            }
+        }
+        PLAYER_2_KEY = random.nextLong();
+    }
+
+    // Transposition table entry, packed into a long next to its key
+    private static final int EXACT = 0;
+    private static final int LOWER = 1; // Score is at least this (it caused a cutoff)
+    private static final int UPPER = 2; // Score is at most this (no move raised alpha)
+    private static final int NO_MOVE = 7;
+
+    private final Tablebase tablebase; // Or null
+    private final long[] keys;
+    private final long[] entries;
+    private final int mask;
+    private int generation; // Which bestMove() call wrote an entry, so old entries can be replaced first
+
+    // Per ply scratch space, so searching doesn't allocate
+    private final long[][] childLo = new long[MAX_DEPTH + 1][6];
+    private final long[][] childHi = new long[MAX_DEPTH + 1][6];
+    private final int[][] childResult = new int[MAX_DEPTH + 1][6];
+    private final int[][] order = new int[MAX_DEPTH + 1][6];
+    private final long[] next = new long[2];
+
+    private long deadline;
+    private int rootDepth;
+    private int rootMove;
+    private int best; // What the last depth that finished found
+    private int score;
+    private int depth;
+    private long nodes;
+    private boolean stopped;
+
+    /**
+     * @param tableBits the transposition table has 2^tableBits entries of 16 bytes
+     */
+    public Search(int tableBits) {
+        this(tableBits, null);
+    }
+
+    /**
+     * @param tableBits the transposition table has 2^tableBits entries of 16 bytes
+     * @param tablebase exact results of endgames, or null
+     */
+    public Search(int tableBits, Tablebase tablebase) {
+        this.tablebase = tablebase;
+        keys = new long[1 << tableBits];
+        entries = new long[1 << tableBits];
+        mask = (1 << tableBits) - 1;
+    }
+
+    /**
+     * Function that finds the best move it can before the deadline.  Depth 1 is always searched to the end, so there
+     * is always a legal answer even if the deadline has already passed.
+     *
+     * @param lo
+     * @param hi
+     * @param player 1 or 2, must have a legal move
+     * @param deadline System.nanoTime() to stop at
+     * @return the pit to play, 0-5 from the player's point of view
+     */
+    public int bestMove(long lo, long hi, int player, long deadline) {
+        return bestMove(lo, hi, player, deadline, MAX_DEPTH);
+    }
+
+    /**
+     * Function that finds the best move it can before the deadline, searching no deeper than maxDepth.
+     *
+     * @param lo
+     * @param hi
+     * @param player 1 or 2, must have a legal move
+     * @param deadline System.nanoTime() to stop at
+     * @param maxDepth deepest search, at most 64
+     * @return the pit to play, 0-5 from the player's point of view
+     */
+    public int bestMove(long lo, long hi, int player, long deadline, int maxDepth) {
+        int legal = MancalaEngine.legalMoves(lo, hi, player);
+        if (Integer.bitCount(legal) == 1) {
+            nodes = 0;
+            return Integer.numberOfTrailingZeros(legal);
+        }
+        deepen(lo, hi, player, deadline, maxDepth);
+        return best;
+    }
+
+    /**
+     * Function that scores a position as well as it can before the deadline, the way bestMove() would.
+     *
+     * @param lo
+     * @param hi
+     * @param player 1 or 2, the player to move
+     * @param deadline System.nanoTime() to stop at
+     * @param maxDepth deepest search, at most 64
+     * @return the score for the player to move: store difference, or WIN plus the final difference once the result
+     * is certain
+     */
+    public int evaluate(long lo, long hi, int player, long deadline, int maxDepth) {
+        deepen(lo, hi, player, deadline, maxDepth);
+        return score;
+    }
+
+    /**
+     * Function that searches one depth deeper at a time until the deadline, the result is certain, or maxDepth.
+     * Leaves the last depth that finished in best, score and depth.
+     */
+    private void deepen(long lo, long hi, int player, long deadline, int maxDepth) {
+        this.deadline = deadline;
+        this.stopped = false;
+        this.nodes = 0;
+        generation = (generation + 1) & 0xFF;
+
+        best = Integer.numberOfTrailingZeros(MancalaEngine.legalMoves(lo, hi, player));
+        for (int depth = 1; depth <= Math.min(maxDepth, MAX_DEPTH); depth++) {
+            rootDepth = depth;
+            int result = search(lo, hi, player, depth, -INFINITY, INFINITY, 0);
+            if (stopped) {
+                break; // Unfinished, keep the last depth's answer
+            }
+            best = rootMove;
+            score = result;
+            this.depth = depth;
+            if (Math.abs(result) >= WIN) {
+                break; // Solved
+            }
+        }
+    }
+
+    /**
+     * @return nodes searched by the last bestMove() or evaluate()
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return depth the last bestMove() or evaluate() finished searching
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Function that picks a move without searching, for when there's no time to search at all: the first move the
+     * search would try.
+     *
+     * @return the pit to play, 0-5 from the player's point of view
+     */
+    public static int quickMove(long lo, long hi, int player) {
+        long[] next = new long[2];
+        int legal = MancalaEngine.legalMoves(lo, hi, player);
+        int best = Integer.numberOfTrailingZeros(legal);
+        int bestPriority = -1;
+        for (int i = 0; i < 6; i++) {
+            if ((legal & (1 << i)) != 0) {
+                int priority = priority(MancalaEngine.move(lo, hi, player, i + (player == 2 ? 7 : 0), next), i, NO_MOVE);
+                if (priority > bestPriority) {
+                    best = i;
+                    bestPriority = priority;
+                }
+            }
+        }
+        return best;
+    }
+
+    private int search(long lo, long hi, int player, int depth, int alpha, int beta, int ply) {
+        if ((++nodes & (CHECK_NODES - 1)) == 0 && rootDepth > 1 && System.nanoTime() > deadline) {
+            stopped = true;
+        }
+        if (stopped) {
+            return 0;
+        }
+
+        if (MancalaEngine.isGameOver(lo, hi)) {
+            MancalaEngine.finish(lo, hi, next);
+            return finalScore(difference(next[0], next[1], player));
+        }
+        if (tablebase != null && ply > 0) { // Not at the root, it has to pick a move
+            int value = tablebase.probe(lo, hi, player);
+            if (value != Tablebase.UNKNOWN) {
+                return finalScore(difference(lo, hi, player) + value);
+            }
+        }
+        if (depth == 0 || ply == MAX_DEPTH) {
+            return difference(lo, hi, player);
+        }
+
+        // Transposition table
+        long key = hash(lo, hi, player);
+        int slot = (int) key & mask;
+        int tableMove = NO_MOVE;
+        if (keys[slot] == key && entries[slot] != 0) {
+            long entry = entries[slot];
+            tableMove = entryMove(entry);
+            if (ply > 0 && entryDepth(entry) >= depth) { // The root always searches, it has to pick a move
+                int score = entryScore(entry);
+                int flag = entryFlag(entry);
+                if (flag == EXACT || (flag == LOWER && score >= beta) || (flag == UPPER && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        // Make every move once, then try them best first
+        int offset = player == 2 ? 7 : 0;
+        int legal = MancalaEngine.legalMoves(lo, hi, player);
+        long[] los = childLo[ply];
+        long[] his = childHi[ply];
+        int[] results = childResult[ply];
+        int[] moves = order[ply];
+        int count = 0;
+        for (int i = 0; i < 6; i++) {
+            if ((legal & (1 << i)) != 0) {
+                results[i] = MancalaEngine.move(lo, hi, player, i + offset, next);
+                los[i] = next[0];
+                his[i] = next[1];
+                moves[count++] = i;
+            }
+        }
+        for (int i = 1; i < count; i++) { // Insertion sort, highest priority first
+            int move = moves[i];
+            int priority = priority(results[move], move, tableMove);
+            int j = i - 1;
+            while (j >= 0 && priority(results[moves[j]], moves[j], tableMove) < priority) {
+                moves[j + 1] = moves[j];
+                j--;
+            }
+            moves[j + 1] = move;
+        }
+
+        int originalAlpha = alpha;
+        int bestScore = -INFINITY;
+        int bestMove = moves[0];
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int score;
+            if ((results[move] & MancalaEngine.EXTRA_TURN) != 0) {
+                score = search(los[move], his[move], player, depth - 1, alpha, beta, ply + 1);
+            } else {
+                score = -search(los[move], his[move], 3 - player, depth - 1, -beta, -alpha, ply + 1);
+            }
+            if (stopped) {
+                return 0;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = move;
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+
+        if (ply == 0) {
+            rootMove = bestMove;
+        }
+        int flag = bestScore <= originalAlpha ? UPPER : (bestScore >= beta ? LOWER : EXACT);
+        store(slot, key, depth, flag, bestScore, bestMove);
+        return bestScore;
+    }
+
+    /**
+     * @return how early to try a move: the table's move, then extra turns, then captures, then closest to the store
+     */
+    private static int priority(int result, int move, int tableMove) {
+        if (move == tableMove) {
+            return 1000;
+        }
+        if ((result & MancalaEngine.EXTRA_TURN) != 0) {
+            return 500 + move;
+        }
+        int captured = result >>> MancalaEngine.CAPTURE_SHIFT;
+        if (captured > 0) {
+            return 100 + captured;
+        }
+        return move;
+    }
+
+    /**
+     * @return the score of a game that ends with this store difference for the player to move
+     */
+    private static int finalScore(int difference) {
+        return difference > 0 ? WIN + difference : (difference < 0 ? -WIN + difference : 0);
+    }
+
+    private static int difference(long lo, long hi, int player) {
+        int difference = MancalaEngine.store(lo, hi, 1) - MancalaEngine.store(lo, hi, 2);
+        return player == 1 ? difference : -difference;
+    }
+
+    /**
+     * @return the Zobrist hash of a position and the player to move
+     */
+    static long hash(long lo, long hi, int player) {
+        long hash = player == 2 ? PLAYER_2_KEY : 0;
+        for (int pit = 0; pit < 7; pit++) {
+            hash ^= ZOBRIST[pit][(int) ((lo >>> (MancalaEngine.BITS * pit)) & MancalaEngine.FIELD)];
+            hash ^= ZOBRIST[pit + 7][(int) ((hi >>> (MancalaEngine.BITS * pit)) & MancalaEngine.FIELD)];
+        }
+        return hash;
+    }
+
+    private void store(int slot, long key, int depth, int flag, int score, int move) {
+        long old = entries[slot];
+        if (old != 0 && keys[slot] != key && entryGeneration(old) == generation && entryDepth(old) > depth) {
+            return; // Keep the deeper result from this search
+        }
+        keys[slot] = key;
+        // [generation 8 | depth 8 | flag 2 | move 3 | score 16], never 0 because depth is at least 1
+        entries[slot] = ((long) generation << 29) | ((long) depth << 21) | ((long) flag << 19) | ((long) move << 16)
+                | (score & 0xFFFF);
+    }
+
+    private static int entryScore(long entry) {
+        return (short) entry;
+    }
+
+    private static int entryMove(long entry) {
+        return (int) (entry >>> 16) & 7;
+    }
+
+    private static int entryFlag(long entry) {
+        return (int) (entry >>> 19) & 3;
+    }
+
+    private static int entryDepth(long entry) {
+        return (int) (entry >>> 21) & 0xFF;
+    }
+
+    private static int entryGeneration(long entry) {
+        return (int) (entry >>> 29) & 0xFF;
+    }
+}
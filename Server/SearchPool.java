@@ -0,0 +1,60 @@
+package Server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.*;
+
+/**
+ * The threads every computer player's searches run on.
+ * <p>
+ * There are only a few of them (and a bounded queue in front), whatever the number of computer games, so computer
+ * games can't take the CPU away from human games; with too many computer games they just play worse.  A move's time
+ * budget starts when it is asked for, not when a worker gets to it, so a search that waited in the queue gets less
+ * time, and if the queue is full the computer plays Search.quickMove() straight away.
+ */
+public class SearchPool {
+
+    private static final int TABLE_BITS = 18; // 2^18 entries of 16 bytes, 4MB of transposition table per worker
+
+    private final ThreadPoolExecutor executor;
+    private final ThreadLocal<Search> searches;
+
+    /**
+     * @param threads number of search threads
+     * @param queueSize most searches that can wait for a thread
+     * @param tablebase shared by every search, or null
+     */
+    public SearchPool(int threads, int queueSize, Tablebase tablebase) {
+        searches = ThreadLocal.withInitial(() -> new Search(TABLE_BITS, tablebase));
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), Thread.ofPlatform().name("search-", 1).daemon().factory());
+    }
+
+    /**
+     * Function that finds a move for the player, waiting for the search to finish.
+     *
+     * @param board
+     * @param player 1 or 2, must have a legal move
+     * @param millis time budget for the move
+     * @return the pit to play, 0-5 from the player's point of view
+     */
+    public int bestMove(Board board, int player, long millis) throws IOException {
+        long lo = board.getLo();
+        long hi = board.getHi();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        Future<Integer> move;
+        try {
+            move = executor.submit(() -> searches.get().bestMove(lo, hi, player, deadline));
+        } catch (RejectedExecutionException e) {
+            return Search.quickMove(lo, hi, player); // Every worker is busy and the queue is full
+        }
+        try {
+            return move.get();
+        } catch (InterruptedException e) {
+            move.cancel(false);
+            throw new InterruptedIOException("Interrupted while the computer was thinking");
+        } catch (ExecutionException e) {
+            throw new IOException("Search failed", e.getCause());
+        }
+    }
+}
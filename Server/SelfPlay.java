@@ -0,0 +1,374 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless self-play: plays lots of games from the start position on every core (fork-join, no sockets) and prints
+ * win rates by seat, how long games last, and how often moves capture or earn another turn.
+ * <p>
+ * Games go through Board, exactly like GameThread plays them, and every move is checked against a separate, plain
+ * implementation of the rules as written (sow one seed per pit, skipping the opponent's store and, on a lap of 13 or
+ * more seeds, the pit sown from; last seed in your store plays again; last seed in an empty pit of yours captures it
+ * and the opposite pit if that isn't empty).  It also checks no seeds appear or disappear, and that finished games
+ * really are finished.  The first problem found is printed and the exit status is 1.
+ * <p>
+ * Policies: random, greedy (Search.quickMove(), extra turns then captures), search:depth (alpha-beta to that depth,
+ * with exact results for the endgames in the Tablebase, if there is one) or time:millis (alpha-beta as deep as it gets
+ * in that long, like ComputerPlayer).  Tournament plays them against each other.
+ * <p>
+ * Given an archive directory, every game played goes in a GameArchive there too, e.g. to try ArchiveQuery on more
+ * games than the server has played.
+ * <p>
+ * Usage: java Server.SelfPlay [games] [player 1 policy] [player 2 policy] [seed] [archive directory]
+ */
+public class SelfPlay {
+
+    private static final int BATCH = 4096; // Games a fork-join task plays itself instead of splitting
+    private static final int MAX_MOVES = 1000; // A game longer than this is a bug
+    private static final int TABLE_BITS = 16;
+
+    /**
+     * Picks a move for the player to move.
+     */
+    interface Policy {
+        /**
+         * @return the pit to play, 0-5 from the player's point of view
+         */
+        int move(Board board, int player, SplittableRandom random);
+
+        /**
+         * @return nodes searched by this thread's last move(), 0 for policies that don't search
+         */
+        default long getNodes() {
+            return 0;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] names = {args.length > 1 ? args[1] : "random", args.length > 2 ? args[2] : "random"};
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+        Policy[] policies = {policy(names[0]), policy(names[1])};
+        GameArchive archive = args.length > 4 ? GameArchive.open(Path.of(args[4])) : null;
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        Stats stats = pool.invoke(new Games(policies, seed, 0, games, archive));
+        if (archive != null) {
+            archive.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        System.out.printf("Played %,d games (%s vs %s, seed %d) in %.1f s on %d threads: %,.0f games/min%n",
+                stats.games, names[0], names[1], seed, seconds, threads, stats.games / seconds * 60);
+        stats.print();
+        if (stats.problem != null) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param name random, greedy, search:depth or time:millis
+     * @return the policy, safe to use from any number of threads
+     */
+    static Policy policy(String name) {
+        if (name.equals("random")) {
+            return SelfPlay::randomMove;
+        } else if (name.equals("greedy")) {
+            return (board, player, random) -> Search.quickMove(board.getLo(), board.getHi(), player);
+        } else if (name.startsWith("search:") || name.startsWith("time:")) {
+            boolean timed = name.startsWith("time:");
+            int limit = Integer.parseInt(name.substring(name.indexOf(':') + 1));
+            Tablebase tablebase = Tablebase.open(Path.of(Tablebase.FILE));
+            ThreadLocal<Search> searches = ThreadLocal.withInitial(() -> new Search(TABLE_BITS, tablebase));
+            return new Policy() {
+                public int move(Board board, int player, SplittableRandom random) {
+                    long deadline = timed ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(limit) : Long.MAX_VALUE;
+                    return searches.get().bestMove(board.getLo(), board.getHi(), player, deadline,
+                            timed ? Search.MAX_DEPTH : limit);
+                }
+
+                public long getNodes() {
+                    return searches.get().getNodes();
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown policy: " + name
+                + " (random, greedy, search:depth or time:millis)");
+    }
+
+    /**
+     * Function that picks one of the player's legal moves at random.
+     *
+     * @param board
+     * @param player must have a legal move
+     * @param random
+     * @return the pit to play, 0-5 from the player's point of view
+     */
+    static int randomMove(Board board, int player, SplittableRandom random) {
+        int legal = board.getLegalMoves(player);
+        for (int pick = random.nextInt(Integer.bitCount(legal)); pick > 0; pick--) {
+            legal &= legal - 1; // Drop the lowest move
+        }
+        return Integer.numberOfTrailingZeros(legal);
+    }
+
+    /**
+     * Plays games [from, to), splitting in half until there are few enough to just play.
+     */
+    private static class Games extends RecursiveTask<Stats> {
+        private final Policy[] policies;
+        private final long seed;
+        private final int from;
+        private final int to;
+        private final GameArchive archive; // null if not archiving
+
+        Games(Policy[] policies, long seed, int from, int to, GameArchive archive) {
+            this.policies = policies;
+            this.seed = seed;
+            this.from = from;
+            this.to = to;
+            this.archive = archive;
+        }
+
+        protected Stats compute() {
+            if (to - from > BATCH) {
+                int middle = (from + to) >>> 1;
+                Games left = new Games(policies, seed, from, middle, archive);
+                left.fork();
+                Stats stats = new Games(policies, seed, middle, to, archive).compute();
+                stats.add(left.join());
+                return stats;
+            }
+            // Seeded by position, so the same seed plays the same games whatever the number of threads
+            SplittableRandom random = new SplittableRandom(seed ^ (from * 0x9E3779B97F4A7C15L));
+            Stats stats = new Stats();
+            int[] before = new int[MancalaEngine.PITS];
+            int[] after = new int[MancalaEngine.PITS];
+            byte[] pits = new byte[MAX_MOVES];
+            for (int game = from; game < to && stats.problem == null; game++) {
+                play(stats, random, before, after, pits);
+            }
+            return stats;
+        }
+
+        private void play(Stats stats, SplittableRandom random, int[] before, int[] after, byte[] pits) {
+            Board board = new Board(); // Initial board state
+            boolean player1Turn = true;
+            int moves = 0;
+            while (true) {
+                int player = player1Turn ? 1 : 2;
+                int pit = policies[player - 1].move(board, player, random) + (player == 2 ? 7 : 0);
+                if (!MancalaEngine.isLegal(board.getLo(), board.getHi(), player, pit)) {
+                    stats.fail("Player " + player + "'s policy picked illegal pit " + pit, board);
+                    return;
+                }
+
+                board.copyTo(before);
+                player1Turn = board.makeMove(pit, player); // Make move & see if player gets another turn
+                board.copyTo(after);
+                pits[moves++] = (byte) pit;
+
+                boolean extraTurn = player1Turn == (player == 1);
+                int captured = board.getLastCaptured();
+                String problem = checkMove(before, after, player, pit, extraTurn, captured);
+                if (problem != null) {
+                    stats.fail(problem + " (player " + player + " played pit " + pit + " on "
+                            + Arrays.toString(before) + ")", board);
+                    return;
+                }
+                stats.extraTurns += extraTurn ? 1 : 0;
+                stats.captures += captured > 0 ? 1 : 0;
+                stats.capturedSeeds += captured;
+
+                // Check for win conditions
+                if (board.checkGameOver()) {
+                    break;
+                }
+                if (moves == MAX_MOVES) {
+                    stats.fail("Game still going after " + MAX_MOVES + " moves", board);
+                    return;
+                }
+            }
+
+            board.copyTo(after);
+            for (int i = 0; i < MancalaEngine.PITS; i++) {
+                if (i != 6 && i != 13 && after[i] != 0) {
+                    stats.fail("Seeds left in pit " + i + " after the game ended", board);
+                    return;
+                }
+            }
+            if (after[6] + after[13] != MancalaEngine.TOTAL_SEEDS) {
+                stats.fail("Stores hold " + (after[6] + after[13]) + " seeds at the end", board);
+                return;
+            }
+            int winner = board.determineWinner();
+            if (winner != (after[6] > after[13] ? 1 : (after[6] < after[13] ? 2 : 0))) {
+                stats.fail("Wrong winner " + winner, board);
+                return;
+            }
+            stats.record(winner, moves, after[6] - after[13]);
+            if (archive != null) {
+                archive.add(pits, moves, winner, 0, System.currentTimeMillis() / 1000);
+            }
+        }
+    }
+
+    /**
+     * Function that plays a move with the rules as written, and compares that with what Board did.
+     *
+     * @param before the board before the move
+     * @param after the board after Board.makeMove()
+     * @param player
+     * @param pit 0-13
+     * @param extraTurn whether Board gave the player another turn
+     * @param captured what Board said was captured
+     * @return what was wrong, or null if nothing
+     */
+    static String checkMove(int[] before, int[] after, int player, int pit, boolean extraTurn, int captured) {
+        int ownStore = player == 1 ? 6 : 13;
+        int theirStore = player == 1 ? 13 : 6;
+        int[] expected = before.clone();
+        int seeds = expected[pit];
+        expected[pit] = 0;
+        int index = pit;
+        while (seeds > 0) {
+            index = (index + 1) % MancalaEngine.PITS;
+            if (index == theirStore || index == pit) {
+                continue;
+            }
+            expected[index]++;
+            seeds--;
+        }
+
+        int expectedCaptured = 0;
+        boolean ownPit = player == 1 ? index <= 5 : (index >= 7 && index <= 12);
+        if (ownPit && expected[index] == 1 && expected[12 - index] > 0) {
+            expectedCaptured = 1 + expected[12 - index];
+            expected[ownStore] += expectedCaptured;
+            expected[index] = 0;
+            expected[12 - index] = 0;
+        }
+
+        int total = 0;
+        for (int i = 0; i < MancalaEngine.PITS; i++) {
+            total += after[i];
+        }
+        if (total != MancalaEngine.TOTAL_SEEDS) {
+            return "Seeds not conserved, " + total + " on the board";
+        }
+        if (!Arrays.equals(expected, after)) {
+            return "Board is " + Arrays.toString(after) + ", expected " + Arrays.toString(expected);
+        }
+        if (extraTurn != (index == ownStore)) {
+            return "Extra turn was " + extraTurn + " but the last seed landed in pit " + index;
+        }
+        if (captured != expectedCaptured) {
+            return "Captured " + captured + ", expected " + expectedCaptured;
+        }
+        return null;
+    }
+
+    /**
+     * What a batch of games added up to.  Batches are added together as the fork-join tasks finish.
+     */
+    private static class Stats {
+        long games;
+        final long[] wins = new long[3]; // [ties, player 1, player 2]
+        long moves;
+        final long[] lengths = new long[MAX_MOVES + 1]; // Games that lasted this many moves
+        long extraTurns;
+        long captures;
+        long capturedSeeds;
+        long margin; // Sum of player 1's store minus player 2's
+        String problem; // First thing that went wrong
+
+        void record(int winner, int length, int storeDifference) {
+            games++;
+            wins[winner]++;
+            moves += length;
+            lengths[length]++;
+            margin += storeDifference;
+        }
+
+        void fail(String message, Board board) {
+            if (problem == null) {
+                problem = message + "\n" + board.boardToString(1, false);
+            }
+        }
+
+        void add(Stats other) {
+            games += other.games;
+            for (int i = 0; i < wins.length; i++) {
+                wins[i] += other.wins[i];
+            }
+            moves += other.moves;
+            for (int i = 0; i < lengths.length; i++) {
+                lengths[i] += other.lengths[i];
+            }
+            extraTurns += other.extraTurns;
+            captures += other.captures;
+            capturedSeeds += other.capturedSeeds;
+            margin += other.margin;
+            if (problem == null) {
+                problem = other.problem;
+            }
+        }
+
+        /**
+         * @return the shortest game length that at least `fraction` of games were no longer than
+         */
+        int percentile(double fraction) {
+            long needed = (long) Math.ceil(fraction * games);
+            long seen = 0;
+            for (int length = 0; length < lengths.length; length++) {
+                seen += lengths[length];
+                if (seen >= Math.max(1, needed)) {
+                    return length;
+                }
+            }
+            return MAX_MOVES;
+        }
+
+        void print() {
+            if (games == 0) {
+                System.out.println("No games finished.");
+            } else {
+                System.out.printf("Player 1 wins %.2f%%, Player 2 wins %.2f%%, ties %.2f%%, average score %+.2f for "
+                                + "Player 1%n", 100.0 * wins[1] / games, 100.0 * wins[2] / games,
+                        100.0 * wins[0] / games, (double) margin / games);
+                System.out.printf("Game length (moves): mean %.1f, min %d, p50 %d, p90 %d, p99 %d, max %d%n",
+                        (double) moves / games, percentile(0), percentile(0.5), percentile(0.9), percentile(0.99),
+                        percentile(1));
+                StringBuilder histogram = new StringBuilder("Lengths:");
+                for (int bucket = 0; bucket * 10 <= percentile(1); bucket++) {
+                    long count = 0;
+                    for (int length = bucket * 10; length < bucket * 10 + 10 && length < lengths.length; length++) {
+                        count += lengths[length];
+                    }
+                    if (count > 0) {
+                        histogram.append(String.format(" %d-%d: %.1f%%", bucket * 10, bucket * 10 + 9,
+                                100.0 * count / games));
+                    }
+                }
+                System.out.println(histogram);
+                System.out.printf("Moves: %.2f%% earned another turn, %.2f%% captured (%.1f seeds on average)%n",
+                        100.0 * extraTurns / moves, 100.0 * captures / moves,
+                        captures == 0 ? 0.0 : (double) capturedSeeds / captures);
+            }
+            if (problem == null) {
+                System.out.printf("Rules and seed conservation: OK for all %,d moves%n", moves);
+            } else {
+                System.out.println("PROBLEM: " + problem);
+            }
+        }
+    }
+}
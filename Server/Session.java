@@ -0,0 +1,449 @@
+package Server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A person's seat in a game, which outlives their connection.  GameThread talks to the Session, the Session talks to
+ * whichever PlayerConnection the player is on right now.
+ * <p>
+ * When a connection fails the seat is parked instead of ending the game: the opponent is told, and the player has
+ * GRACE_MILLIS to connect again and send the token from their welcome (see Lobby, SessionCache).  Sends to a parked
+ * seat are dropped, but the Session remembers what the player was last shown, so resume() can show it to them again
+ * on the new connection.  Only readMove() waits for the player to come back; if they don't, it fails like a disconnect
+ * always has and the game ends.
+ * <p>
+ * A player disconnected for flooding (a ProtocolException, see InputFramer) isn't parked: the seat closes and their
+ * token can't be resumed, so they can't come back with a fresh limit.  The game ends as if they had left for good.
+ * <p>
+ * Every send happens under one lock, so a resume on a lobby thread never interleaves with the game thread writing.
+ * The lock is a ReentrantLock rather than synchronized so a virtual thread waiting on it doesn't pin its carrier.
+ */
+public class Session implements Player {
+
+    public static final long GRACE_MILLIS = 60000; // How long a player has to come back
+
+    // What the player was last shown
+    private static final int NOTHING = 0;
+    private static final int OPPONENTS_TURN = 1;
+    private static final int YOUR_TURN = 2;
+    private static final int GAME_OVER = 3;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final long token;
+    private final int seat;
+    private final int gameNumber;
+    private final SessionCache cache;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition reconnected = lock.newCondition();
+    private volatile Player opponent; // Set once both seats exist
+
+    // Guarded by lock
+    private PlayerConnection connection; // null while parked or closed
+    private long deadline; // System.nanoTime() the seat expires if it is parked
+    private boolean closed = false;
+    private boolean timeUp = false; // Ran out of time, nothing more will be read
+    private int view = NOTHING;
+    private int viewMover; // Or who ran out of time, for GAME_OVER
+    private long viewLo;
+    private long viewHi;
+    private long player1Millis = -1; // Clocks last shown, -1 if the game has none
+    private long player2Millis = -1;
+
+    /**
+     * A seat with a player connected.
+     *
+     * @param connection
+     * @param gameNumber
+     * @param cache where the player can find the session again, it is added there
+     */
+    public Session(PlayerConnection connection, int gameNumber, SessionCache cache) {
+        this(connection.getToken(), connection.getSeat(), gameNumber, cache);
+        this.connection = connection;
+    }
+
+    /**
+     * A parked seat, for a recovered game nobody has come back to yet (see Journal).
+     *
+     * @param token
+     * @param seat
+     * @param gameNumber
+     * @param cache where the player can find the session again, it is added there
+     */
+    public Session(long token, int seat, int gameNumber, SessionCache cache) {
+        this.token = token;
+        this.seat = seat;
+        this.gameNumber = gameNumber;
+        this.cache = cache;
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GRACE_MILLIS);
+        cache.add(this);
+    }
+
+    /**
+     * @return a new session token, never 0
+     */
+    public static long newToken() {
+        long token;
+        do {
+            token = random.nextLong();
+        } while (token == 0);
+        return token;
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    public int getSeat() {
+        return seat;
+    }
+
+    public int getGameNumber() {
+        return gameNumber;
+    }
+
+    public void setOpponent(Player opponent) {
+        this.opponent = opponent;
+    }
+
+    /**
+     * @return true if a player could resume the session right now: it isn't closed or expired
+     */
+    public boolean isResumable() {
+        lock.lock();
+        try {
+            return !closed && (connection != null || System.nanoTime() - deadline < 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Function that moves the session to a new connection, closing the old one if it is still open, and shows the
+     * player what they were last shown.  Called by the lobby when a player sends this session's token.
+     *
+     * @param replacement
+     * @return false if the session closed or expired first
+     */
+    public boolean resume(PlayerConnection replacement) {
+        PlayerConnection old;
+        lock.lock();
+        try {
+            if (closed || (connection == null && System.nanoTime() - deadline >= 0)) {
+                return false;
+            }
+            old = connection;
+            connection = replacement;
+            try {
+                replacement.sendWelcomeBack(seat, token, gameNumber);
+                showView(replacement);
+                replacement.flush();
+            } catch (IOException e) {
+                park(replacement); // Gone again already
+            }
+            reconnected.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        Metrics.SESSIONS_RESUMED.increment();
+        Log.info("player resumed", "game", gameNumber, "player", seat);
+        if (old != null) {
+            closeQuietly(old); // A game thread reading from it moves on to the new one
+        } else {
+            tellOpponent(true);
+        }
+        return true;
+    }
+
+    public void sendGameStarted() {
+        send(NOTHING, null, 0, PlayerConnection::sendGameStarted);
+    }
+
+    public void sendOpponentsTurn(Board board, int mover) {
+        send(OPPONENTS_TURN, board, mover, connection -> connection.sendOpponentsTurn(board, mover));
+    }
+
+    public void sendYourTurn(Board board) {
+        send(YOUR_TURN, board, seat, connection -> connection.sendYourTurn(board));
+    }
+
+    public void sendInvalidMove() {
+        send(NOTHING, null, 0, PlayerConnection::sendInvalidMove);
+    }
+
+    public void sendHint(HintService.Analysis analysis) {
+        send(NOTHING, null, 0, connection -> connection.sendHint(analysis));
+    }
+
+    public void sendClock(long player1Millis, long player2Millis) {
+        lock.lock();
+        try {
+            this.player1Millis = player1Millis;
+            this.player2Millis = player2Millis;
+        } finally {
+            lock.unlock();
+        }
+        send(NOTHING, null, 0, connection -> connection.sendClock(player1Millis, player2Millis));
+    }
+
+    public void sendGameOver(Board board, int outOfTime) {
+        send(GAME_OVER, board, outOfTime, connection -> connection.sendGameOver(board, outOfTime));
+    }
+
+    public void sendOpponentLeft(int seconds) {
+        send(NOTHING, null, 0, connection -> connection.sendOpponentLeft(seconds));
+    }
+
+    public void sendOpponentBack() {
+        send(NOTHING, null, 0, PlayerConnection::sendOpponentBack);
+    }
+
+    public void sendStopping(boolean now) {
+        send(NOTHING, null, 0, connection -> connection.sendStopping(now));
+    }
+
+    public void flush() {
+        send(NOTHING, null, 0, PlayerConnection::flush);
+    }
+
+    /**
+     * Function that waits for the player to send a move, waiting for them to reconnect if they have to.
+     *
+     * @return the number the player sent (0-5 for a sensible move), or null if it wasn't a number
+     * @throws EOFException if the player didn't come back in time, or the game closed
+     */
+    public Integer readMove() throws IOException {
+        while (true) {
+            PlayerConnection reading = awaitConnection();
+            try {
+                return reading.readMove();
+            } catch (ProtocolException e) {
+                expel(reading);
+                throw e;
+            } catch (IOException e) {
+                if (hasTimedOut()) {
+                    throw new EOFException("Player " + seat + " ran out of time");
+                }
+                if (lost(reading)) {
+                    tellOpponent(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Function that stops a readMove() in progress, or waiting for the player to come back, because they ran out of
+     * time.
+     */
+    public void interruptRead() {
+        PlayerConnection current;
+        lock.lock();
+        try {
+            timeUp = true;
+            current = connection;
+            reconnected.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (current != null) {
+            current.interruptRead();
+        }
+    }
+
+    private boolean hasTimedOut() {
+        lock.lock();
+        try {
+            return timeUp;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Function that closes the session and its connection.  Called when the game closes.
+     *
+     * @return true if there was an open connection
+     */
+    public boolean close() throws IOException {
+        PlayerConnection current;
+        lock.lock();
+        try {
+            closed = true;
+            current = connection;
+            connection = null;
+            reconnected.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        cache.remove(this);
+        return current != null && current.close();
+    }
+
+    /**
+     * @return the connection to read from, once there is one
+     * @throws EOFException if the player didn't come back in time, or the session closed
+     */
+    private PlayerConnection awaitConnection() throws EOFException {
+        lock.lock();
+        try {
+            while (connection == null || timeUp) {
+                long remaining = deadline - System.nanoTime();
+                if (timeUp) {
+                    throw new EOFException("Player " + seat + " ran out of time");
+                }
+                if (closed) {
+                    throw new EOFException("Player " + seat + " disconnected");
+                }
+                if (remaining <= 0) {
+                    closed = true;
+                    Metrics.SESSIONS_EXPIRED.increment();
+                    Log.info("session expired", "game", gameNumber, "player", seat);
+                    throw new EOFException("Player " + seat + " didn't come back");
+                }
+                try {
+                    reconnected.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EOFException("Interrupted waiting for player " + seat);
+                }
+            }
+            return connection;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private interface Message {
+        void sendTo(PlayerConnection connection) throws IOException;
+    }
+
+    /**
+     * Function that remembers what the player is being shown, and sends it if they are connected.
+     *
+     * @param view what to show again on resume, NOTHING to leave it as it is
+     * @param board
+     * @param mover
+     * @param message
+     */
+    private void send(int view, Board board, int mover, Message message) {
+        boolean lost = false;
+        lock.lock();
+        try {
+            if (view != NOTHING) {
+                this.view = view;
+                viewMover = mover;
+                viewLo = board.getLo();
+                viewHi = board.getHi();
+            }
+            if (connection != null) {
+                try {
+                    message.sendTo(connection);
+                } catch (ProtocolException e) {
+                    expel(connection); // readMove() finds the seat closed
+                } catch (IOException e) {
+                    lost = park(connection);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (lost) {
+            tellOpponent(false); // Outside the lock, the opponent's session has its own
+        }
+    }
+
+    /**
+     * @return true if the connection was the current one and the seat is now parked
+     */
+    private boolean lost(PlayerConnection failed) {
+        lock.lock();
+        try {
+            return connection == failed && park(failed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Function that closes the seat for good, instead of parking it, because the player was disconnected for flooding.
+     *
+     * @param flooder the connection that flooded
+     */
+    private void expel(PlayerConnection flooder) {
+        lock.lock();
+        try {
+            if (connection != flooder) {
+                return; // Already replaced or parked
+            }
+            closed = true;
+            connection = null;
+            reconnected.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(flooder);
+        cache.remove(this);
+        Log.info("player expelled for flooding", "game", gameNumber, "player", seat);
+    }
+
+    /**
+     * Function that parks the seat after its connection failed.  Called with the lock held.
+     *
+     * @return true if it was parked
+     */
+    private boolean park(PlayerConnection failed) {
+        if (closed) {
+            return false;
+        }
+        connection = null;
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GRACE_MILLIS);
+        closeQuietly(failed);
+        Metrics.SESSIONS_PARKED.increment();
+        Log.info("player parked", "game", gameNumber, "player", seat, "graceSeconds", GRACE_MILLIS / 1000);
+        return true;
+    }
+
+    private void showView(PlayerConnection to) throws IOException {
+        Board board = new Board(viewLo, viewHi);
+        if (player1Millis >= 0 && view != GAME_OVER) {
+            to.sendClock(player1Millis, player2Millis);
+        }
+        if (view == OPPONENTS_TURN) {
+            to.sendOpponentsTurn(board, viewMover);
+        } else if (view == YOUR_TURN) {
+            to.sendYourTurn(board);
+        } else if (view == GAME_OVER) {
+            to.sendGameOver(board, viewMover);
+        }
+    }
+
+    private void tellOpponent(boolean back) {
+        if (opponent == null) {
+            return;
+        }
+        try {
+            if (back) {
+                opponent.sendOpponentBack();
+            } else {
+                opponent.sendOpponentLeft((int) (GRACE_MILLIS / 1000));
+            }
+            opponent.flush();
+        } catch (IOException e) {
+            // Their own session parks them
+        }
+    }
+
+    private void closeQuietly(PlayerConnection old) {
+        try {
+            old.close();
+        } catch (IOException e) {
+            Log.error("error closing old connection", "game", gameNumber, "player", seat, "error", e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package Server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every Session a player could resume, by token.  A session is added when its game starts and removed when the game
+ * closes, and one that has been parked for longer than Session.GRACE_MILLIS is treated as gone: find() won't return
+ * it, and it is evicted the next time the cache fills up.
+ * <p>
+ * The cache holds at most MAX_SESSIONS.  If it is full of live sessions a new one is simply not added, so that player
+ * can't resume, but their game is no worse off than before sessions existed.
+ */
+public class SessionCache {
+
+    public static final int MAX_SESSIONS = 200000; // Two per game
+
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Function that adds a session, if there is room.
+     *
+     * @param session
+     * @return false if the cache is full
+     */
+    public boolean add(Session session) {
+        if (sessions.size() >= MAX_SESSIONS) {
+            evictExpired();
+            if (sessions.size() >= MAX_SESSIONS) {
+                Log.error("session cache full, player can't resume", "game", session.getGameNumber(), "player",
+                        session.getSeat());
+                return false;
+            }
+        }
+        sessions.put(session.getToken(), session);
+        return true;
+    }
+
+    /**
+     * @param token
+     * @return the session with that token if it can still be resumed, otherwise null
+     */
+    public Session find(long token) {
+        Session session = sessions.get(token);
+        if (session != null && !session.isResumable()) {
+            sessions.remove(token, session);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Function that removes a session whose game has closed.
+     *
+     * @param session
+     */
+    public void remove(Session session) {
+        sessions.remove(session.getToken(), session);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void evictExpired() {
+        sessions.values().removeIf(session -> !session.isResumable());
+    }
+}
@@ -0,0 +1,219 @@
+package Server;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A GameServer run as one shard behind a Router.  Instead of players, the shard accepts the router's connections (see
+ * ShardProtocol): players the router has already matched up and welcomed, players resuming or watching one of the
+ * shard's games, and the router's questions about which sessions and games the shard has and how busy it is.
+ * <p>
+ * Each connection's header is read on a virtual thread of its own, so a slow one holds nothing else up.  The two seats
+ * of a game arrive on separate connections in either order: the first waits (for up to PAIRING_MILLIS) until the
+ * second arrives, then the game starts like any other.
+ * <p>
+ * Only the router may connect: a connection that doesn't start with the shared secret (see ShardProtocol) is closed
+ * before its header is read.  By default the shard only listens on loopback, and it won't listen anywhere else
+ * without a secret.
+ */
+public class Shard {
+
+    private static final long HEADER_MILLIS = 5000; // Longest the router can take to send a header
+    private static final long PAIRING_MILLIS = 10000; // Longest one seat waits for the other
+
+    private final GameServer server;
+    private final InetAddress address;
+    private final int port;
+    private final byte[] secret = ShardProtocol.secret();
+    private final ConcurrentHashMap<Integer, PlayerConnection> pairing = new ConcurrentHashMap<>(); // First seat in
+    private final AtomicInteger lastGame; // Highest game number seen, so a restarted router numbers after it
+    private final OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+    /**
+     * @param server runs the shard's games
+     * @param address to listen on for the router, loopback unless ShardProtocol.SECRET_VARIABLE is set
+     * @param port to listen on for the router
+     * @param lastGame highest game number the shard has played before (see Journal.getLastGameNumber())
+     */
+    public Shard(GameServer server, InetAddress address, int port, int lastGame) {
+        if (!address.isLoopbackAddress() && !ShardProtocol.hasSecret()) {
+            throw new IllegalArgumentException("A shard only listens beyond loopback with "
+                    + ShardProtocol.SECRET_VARIABLE + " set, as the router's is");
+        }
+        this.server = server;
+        this.address = address;
+        this.port = port;
+        this.lastGame = new AtomicInteger(lastGame);
+    }
+
+    public void start() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(address, port));
+            Log.info("shard started", "address", address.getHostAddress(), "port", port);
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                Thread.ofVirtual().name("shard-header").start(() -> accept(channel));
+            }
+        } catch (IOException e) {
+            Log.error("shard stopped", "error", e);
+        }
+    }
+
+    /**
+     * Function that reads a connection's header and does what it asks.
+     *
+     * @param channel
+     */
+    private void accept(SocketChannel channel) {
+        try {
+            Socket socket = channel.socket();
+            socket.setSoTimeout((int) HEADER_MILLIS);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] proof = new byte[ShardProtocol.SECRET_SIZE];
+            in.readFully(proof);
+            if (!MessageDigest.isEqual(proof, secret)) {
+                Metrics.SHARD_REJECTED.increment();
+                Log.info("connection without the shard secret closed", "from",
+                        socket.getInetAddress().getHostAddress());
+                channel.close();
+                return;
+            }
+            byte[] bytes = new byte[ShardProtocol.HEADER_SIZE];
+            // Reads exactly the header, whatever follows is the player's
+            in.readFully(bytes);
+            socket.setSoTimeout(0);
+            ByteBuffer header = ByteBuffer.wrap(bytes);
+            int command = header.get();
+            boolean binary = header.get() == ShardProtocol.BINARY;
+            int seat = header.get();
+            int flags = header.get();
+            int gameNumber = header.getInt();
+            long token = header.getLong();
+
+            switch (command) {
+                case ShardProtocol.PLAY:
+                    play(player(channel, binary, seat, token), gameNumber, (flags & ShardProtocol.COMPUTER) != 0);
+                    break;
+                case ShardProtocol.RESUME:
+                    resume(player(channel, binary, 0, 0), token);
+                    break;
+                case ShardProtocol.WATCH:
+                    watch(player(channel, binary, 0, 0), gameNumber);
+                    break;
+                case ShardProtocol.FIND_SESSION:
+                    answer(channel, server.canResume(token));
+                    break;
+                case ShardProtocol.FIND_GAME:
+                    answer(channel, server.getGames().get(gameNumber) != null);
+                    break;
+                case ShardProtocol.LOAD:
+                    sendLoad(channel);
+                    break;
+                default:
+                    Log.error("unknown shard command", "command", command);
+                    channel.close();
+            }
+        } catch (IOException e) {
+            Log.error("error accepting routed connection", "error", e);
+            try {
+                channel.close();
+            } catch (IOException closing) {
+                // Nothing more to do
+            }
+        }
+    }
+
+    private static PlayerConnection player(SocketChannel channel, boolean binary, int seat, long token)
+            throws IOException {
+        Metrics.CONNECTIONS.increment();
+        PlayerConnection player = new PlayerConnection(channel);
+        player.routed(binary, seat, token);
+        return player;
+    }
+
+    /**
+     * Function that starts a game once both its seats are here.
+     *
+     * @param player
+     * @param gameNumber
+     * @param computer player 2 is the computer
+     */
+    private void play(PlayerConnection player, int gameNumber, boolean computer) {
+        lastGame.accumulateAndGet(gameNumber, Math::max);
+        if (computer) {
+            server.startComputerGame(player, gameNumber);
+            return;
+        }
+        PlayerConnection other = pairing.remove(gameNumber);
+        if (other == null) {
+            if (pairing.putIfAbsent(gameNumber, player) == null) {
+                server.getGames().schedule(() -> abandonPairing(gameNumber, player), PAIRING_MILLIS);
+                return;
+            }
+            other = pairing.remove(gameNumber); // The other seat arrived at the same time
+        }
+        if (player.getSeat() == 1) {
+            server.startGame(player, other, gameNumber);
+        } else {
+            server.startGame(other, player, gameNumber);
+        }
+    }
+
+    /**
+     * Function that closes a seat whose opponent never arrived, the router must have failed to hand them over.
+     *
+     * @param gameNumber
+     * @param player
+     */
+    private void abandonPairing(int gameNumber, PlayerConnection player) {
+        if (pairing.remove(gameNumber, player)) {
+            Log.info("opponent never arrived", "game", gameNumber, "player", player.getSeat());
+            try {
+                player.close();
+            } catch (IOException e) {
+                Log.error("error closing player", "error", e);
+            }
+        }
+    }
+
+    private void resume(PlayerConnection player, long token) throws IOException {
+        if (!server.resume(player, token)) {
+            player.sendUnknownSession(); // Gone since the router asked
+            player.close();
+        }
+    }
+
+    private void watch(PlayerConnection spectator, int gameNumber) throws IOException {
+        if (!server.watch(spectator, gameNumber)) {
+            spectator.sendNoSuchGame(gameNumber);
+            spectator.close();
+        }
+    }
+
+    private static void answer(SocketChannel channel, boolean yes) throws IOException {
+        try (channel) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) (yes ? 1 : 0)}));
+        }
+    }
+
+    private void sendLoad(SocketChannel channel) throws IOException {
+        double cpu = Math.max(0, os.getProcessCpuLoad()); // Negative if it isn't known yet
+        ByteBuffer load = ByteBuffer.allocate(ShardProtocol.LOAD_SIZE);
+        load.putInt(server.getGames().size()).putInt(lastGame.get()).putInt((int) (cpu * 1000)).flip();
+        try (channel) {
+            channel.write(load);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package Server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * How the Router talks to its shards (see Shard).  The router opens a connection to a shard for every player it hands
+ * over, and for every question it asks.
+ * <p>
+ * Every connection starts with the router proving it is the router: SECRET_SIZE bytes, the SHA-256 of the secret in
+ * the SECRET_VARIABLE environment variable, which the router and every shard are given.  A shard closes a connection
+ * that doesn't start with its own, before reading anything else.  The secret isn't encrypted on the wire, so shard
+ * ports still belong on a private network, never a public one; a shard without a secret only listens on loopback.
+ * <p>
+ * Then comes a HEADER_SIZE header (big endian):
+ * <pre>
+ *  0 byte  command: PLAY, RESUME, WATCH, FIND_SESSION, FIND_GAME or LOAD
+ *  1 byte  protocol the player speaks: TEXT or BINARY (PLAY, RESUME, WATCH)
+ *  2 byte  seat, 1 or 2 (PLAY)
+ *  3 byte  flags: COMPUTER (PLAY, player 2 is the computer)
+ *  4 int   game number (PLAY, WATCH, FIND_GAME)
+ *  8 long  session token (PLAY, RESUME, FIND_SESSION)
+ * </pre>
+ * After PLAY, RESUME and WATCH the rest of the connection is the player's, both ways, exactly as if they had connected
+ * to the shard themselves.  The router has already welcomed and seated a PLAY player, so the shard starts at "Game
+ * started.": it starts the game once both seats of it have arrived.
+ * <p>
+ * FIND_SESSION and FIND_GAME are answered with one byte, 1 if the shard has that session (or game), 0 if not.  LOAD is
+ * answered with LOAD_SIZE bytes: active games, the highest game number the shard has seen, and the CPU the shard's
+ * process is using in permille of the whole machine, each an int.  Then the shard closes the connection.
+ */
+public final class ShardProtocol {
+
+    public static final String SECRET_VARIABLE = "MANCALA_SHARD_SECRET";
+    public static final int SECRET_SIZE = 32;
+    public static final int HEADER_SIZE = 16;
+    public static final int LOAD_SIZE = 12;
+
+    public static final int PLAY = 1;
+    public static final int RESUME = 2;
+    public static final int WATCH = 3;
+    public static final int FIND_SESSION = 4;
+    public static final int FIND_GAME = 5;
+    public static final int LOAD = 6;
+
+    public static final int TEXT = 0;
+    public static final int BINARY = 1;
+    public static final int COMPUTER = 1;
+
+    private ShardProtocol() {
+    }
+
+    /**
+     * @return true if SECRET_VARIABLE is set
+     */
+    public static boolean hasSecret() {
+        String secret = System.getenv(SECRET_VARIABLE);
+        return secret != null && !secret.isEmpty();
+    }
+
+    /**
+     * @return the SECRET_SIZE bytes every connection starts with, from SECRET_VARIABLE (empty if it isn't set)
+     */
+    public static byte[] secret() {
+        String secret = System.getenv(SECRET_VARIABLE);
+        try {
+            return MessageDigest.getInstance("SHA-256")
+                    .digest((secret == null ? "" : secret).getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has SHA-256", e);
+        }
+    }
+
+    /**
+     * @param command
+     * @param binary the player speaks BinaryProtocol
+     * @param seat
+     * @param flags
+     * @param gameNumber
+     * @param token
+     * @return the header, ready to write
+     */
+    public static ByteBuffer header(int command, boolean binary, int seat, int flags, int gameNumber, long token) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put((byte) command).put((byte) (binary ? BINARY : TEXT)).put((byte) seat).put((byte) flags)
+                .putInt(gameNumber).putLong(token);
+        return header.flip();
+    }
+}
@@ -0,0 +1,250 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Everyone watching one game.
+ * <p>
+ * The game publishes an immutable Frame after every move.  That is all the game thread does: it never renders
+ * anything for spectators or touches their sockets, so however many there are, and however slow, the two players
+ * don't wait for them.  A frame is encoded at most once for each protocol, by whichever spectator needs it first, and
+ * every spectator writes a read-only view of the same bytes.
+ * <p>
+ * Each spectator has a virtual thread that writes the latest frame whenever it has one it hasn't sent.  A spectator
+ * whose socket is slow is still writing an old frame when new ones arrive, so it skips straight to the latest one
+ * (every frame is a whole board).  One whose socket hasn't taken a frame in SLOW_MILLIS is dropped.
+ * <p>
+ * The game wakes one fan-out thread, which wakes the spectators, so publishing costs the same with a thousand
+ * spectators as with none.
+ */
+public class Spectators {
+
+    public static final int MAX_SPECTATORS = 1000; // Per game
+    public static final long SLOW_MILLIS = 5000; // Longest a spectator can take over one frame before being dropped
+    private static final long CHECK_MILLIS = 1000; // How often the fan-out thread looks for slow spectators
+
+    private final int gameNumber;
+    private final Set<Spectator> spectators = ConcurrentHashMap.newKeySet();
+    private volatile Frame latest;
+    private volatile Thread fanOut; // Started with the first spectator
+    private volatile boolean closed = false;
+
+    public Spectators(int gameNumber) {
+        this.gameNumber = gameNumber;
+    }
+
+    public int size() {
+        return spectators.size();
+    }
+
+    /**
+     * Function that adds a spectator, who is sent the latest frame straight away.
+     *
+     * @param connection
+     * @return false if the game has closed or has MAX_SPECTATORS already
+     */
+    public synchronized boolean add(PlayerConnection connection) {
+        if (closed || spectators.size() >= MAX_SPECTATORS) {
+            return false;
+        }
+        if (fanOut == null) {
+            fanOut = Thread.ofVirtual().name("spectators-" + gameNumber).start(this::fanOut);
+        }
+        Spectator spectator = new Spectator(connection);
+        spectators.add(spectator);
+        Metrics.SPECTATORS.increment();
+        spectator.thread = Thread.ofVirtual().name("spectator-" + gameNumber).start(spectator::run);
+        Log.info("spectator joined", "game", gameNumber, "spectators", spectators.size());
+        return true;
+    }
+
+    /**
+     * Function that publishes the board.  Called by the game at the start of every turn, and once more at the end.
+     *
+     * @param board
+     * @param mover the player whose turn it is, 0 once the game is over
+     */
+    public void publish(Board board, int mover) {
+        publish(board, mover, 0);
+    }
+
+    /**
+     * Function that publishes the final board of a game a player lost on time.
+     *
+     * @param board
+     * @param outOfTime the player who ran out of time
+     */
+    public void publishTimeUp(Board board, int outOfTime) {
+        publish(board, 0, outOfTime);
+    }
+
+    private void publish(Board board, int mover, int outOfTime) {
+        Frame previous = latest;
+        latest = new Frame(previous == null ? 1 : previous.sequence + 1, board.getLo(), board.getHi(), mover,
+                outOfTime);
+        Thread thread = fanOut;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Function that disconnects every spectator.  Called when the game closes.
+     */
+    public synchronized void close() {
+        closed = true;
+        Thread thread = fanOut;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        for (Spectator spectator : spectators) {
+            spectator.close();
+        }
+    }
+
+    /**
+     * Main loop of the fan-out thread: wake every spectator when there is a new frame, and drop the slow ones.
+     */
+    private void fanOut() {
+        long woken = 0; // Sequence of the last frame spectators were woken for
+        while (!closed) {
+            Frame frame = latest;
+            if (frame != null && frame.sequence != woken) {
+                woken = frame.sequence;
+                for (Spectator spectator : spectators) {
+                    LockSupport.unpark(spectator.thread);
+                }
+            }
+            long now = System.nanoTime();
+            for (Spectator spectator : spectators) {
+                long since = spectator.writingSince;
+                if (since != 0 && now - since > TimeUnit.MILLISECONDS.toNanos(SLOW_MILLIS)) {
+                    Metrics.SPECTATORS_DROPPED.increment();
+                    Log.info("slow spectator dropped", "game", gameNumber);
+                    spectator.close(); // Its write fails, and it leaves
+                }
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(CHECK_MILLIS)); // Or until the next frame
+        }
+    }
+
+    /**
+     * The board at one point in the game.  Never changes once published; the encoded bytes are only created once.
+     */
+    private static final class Frame {
+        final long sequence;
+        final long lo;
+        final long hi;
+        final int mover; // 0 once the game is over
+        final int outOfTime; // The player who lost on time, 0 if none
+        private ByteBuffer text; // Read-only, created on first use
+        private ByteBuffer binary;
+
+        Frame(long sequence, long lo, long hi, int mover, int outOfTime) {
+            this.sequence = sequence;
+            this.lo = lo;
+            this.hi = hi;
+            this.mover = mover;
+            this.outOfTime = outOfTime;
+        }
+
+        /**
+         * @return a view of the frame's bytes in that protocol, of the caller's own
+         */
+        synchronized ByteBuffer encoded(boolean binaryProtocol) {
+            if (binaryProtocol) {
+                if (binary == null) {
+                    binary = encodeBinary();
+                }
+                return binary.duplicate();
+            }
+            if (text == null) {
+                BoardRenderer renderer = new BoardRenderer();
+                Board board = new Board(lo, hi);
+                if (mover == 0) {
+                    renderer.gameOver(board, 1, false, outOfTime);
+                } else {
+                    renderer.spectating(board, mover);
+                }
+                text = ByteBuffer.wrap(Arrays.copyOf(renderer.getBuffer(), renderer.getLength())).asReadOnlyBuffer();
+            }
+            return text.duplicate();
+        }
+
+        private ByteBuffer encodeBinary() {
+            Board board = new Board(lo, hi);
+            byte[] frame = new byte[2 + BinaryProtocol.BOARD_FRAME_SIZE + 4];
+            int[] pits = new int[BinaryProtocol.PITS];
+            board.copyTo(pits);
+            int start = 0;
+            if (outOfTime != 0) {
+                frame[0] = (byte) BinaryProtocol.TIME_UP;
+                frame[1] = (byte) outOfTime;
+                start = 2;
+            }
+            byte[] boardFrame = new byte[BinaryProtocol.MAX_FRAME_SIZE];
+            int boardLength = BinaryProtocol.encodeBoard(boardFrame, pits, new int[BinaryProtocol.PITS], true, mover,
+                    mover == 0 ? 0 : board.getLegalMoves(mover));
+            System.arraycopy(boardFrame, 0, frame, start, boardLength);
+            int length = start + boardLength;
+            if (mover == 0) {
+                frame[length++] = (byte) BinaryProtocol.GAME_OVER;
+                frame[length++] = (byte) (outOfTime != 0 ? 3 - outOfTime : board.determineWinner());
+                frame[length++] = (byte) board.get(6);
+                frame[length++] = (byte) board.get(13);
+            }
+            return ByteBuffer.wrap(frame, 0, length).slice().asReadOnlyBuffer();
+        }
+    }
+
+    private final class Spectator {
+        final PlayerConnection connection;
+        volatile Thread thread;
+        volatile long writingSince = 0; // System.nanoTime() the frame being written was started, 0 if not writing
+
+        Spectator(PlayerConnection connection) {
+            this.connection = connection;
+        }
+
+        void run() {
+            long sent = 0; // Sequence of the last frame sent
+            try {
+                connection.sendSpectating(gameNumber);
+                while (!closed) {
+                    Frame frame = latest;
+                    if (frame == null || frame.sequence == sent) {
+                        LockSupport.park(this); // Until the fan-out thread has a new frame
+                        continue;
+                    }
+                    if (sent != 0 && frame.sequence > sent + 1) {
+                        Metrics.SPECTATOR_FRAMES_SKIPPED.add(frame.sequence - sent - 1);
+                    }
+                    writingSince = System.nanoTime();
+                    connection.write(frame.encoded(connection.isBinary()));
+                    writingSince = 0;
+                    sent = frame.sequence;
+                }
+            } catch (IOException e) {
+                // Left, or dropped for being slow
+            } finally {
+                spectators.remove(this);
+                Metrics.SPECTATORS.decrement();
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                Log.error("error closing spectator", "game", gameNumber, "error", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Endgame tablebase: the exact result, with best play from both sides, of every position with up to getMaxSeeds()
+ * seeds left in the pits.
+ * <p>
+ * What happens from a position on doesn't depend on the stores, or on which seat is to move (player 2 to move is
+ * player 1 to move with the sides swapped), so a position is just the 12 pits from the point of view of the player to
+ * move: their 6 pits, then their opponent's.  Its value is how many more seeds the player to move will end up with in
+ * their store than their opponent from here on, -48 to 48, so one byte each.
+ * <p>
+ * Positions are numbered by a perfect hash with no gaps, in the combinatorial number system: all the positions with
+ * fewer seeds come first, there are C(n + 11, 12) with fewer than n seeds, and a position with n seeds is its bars
+ * among n stars and 11 bars (see index()).  The file is a HEADER_SIZE header (magic, max seeds, positions, little
+ * endian), then one byte per position, in index order.
+ * <p>
+ * Building goes up from 0 seeds.  A move either puts a seed in a store, leaving fewer seeds in the pits (already
+ * solved), or only moves the mover's seeds along their own side towards their store, which can't go round in circles,
+ * so the few positions it needs at the same number of seeds are solved first, recursively.  Each number of seeds is
+ * solved in parallel on every core, written straight into the mapped file.
+ * <p>
+ * open() doesn't touch the file, it's mapped (read only) the first time it's probed, and the OS only reads the pages
+ * that probes touch.  Probing reads one byte from the mapping, nothing is copied or allocated.
+ * <p>
+ * Usage: java Server.Tablebase [max seeds] [file]
+ */
+public class Tablebase {
+
+    public static final String FILE = "tablebase";
+    public static final int DEFAULT_MAX_SEEDS = 16; // 30,421,755 positions
+    public static final int MAX_SEEDS = 24; // 1,251,677,700 positions, as many as one mapping can hold
+    public static final int HEADER_SIZE = 16;
+    /** What probe() returns for a position the tablebase doesn't have. */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private static final int MAGIC = 0x4d544231; // "MTB1"
+    private static final int PITS = 12;
+    private static final long SIDE_MASK = (1L << (6 * MancalaEngine.BITS)) - 1;
+    private static final byte UNSOLVED = Byte.MIN_VALUE; // Only while building, no position is worth that much
+
+    // BINOMIAL[n][k] = C(n, k), as far as the index of MAX_SEEDS seeds needs
+    private static final int[][] BINOMIAL = new int[MAX_SEEDS + PITS + 1][PITS + 1];
+
+    static {
+        for (int n = 0; n < BINOMIAL.length; n++) {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k <= Math.min(n, PITS); k++) {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + (k < n ? BINOMIAL[n - 1][k] : 0);
+            }
+        }
+    }
+
+    private final Path file;
+    private volatile Mapping mapping; // Null until the first probe
+
+    private Tablebase(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Function that gets a tablebase ready to probe, without reading the file yet.  If the file turns out to be
+     * missing, or isn't a tablebase, every probe is UNKNOWN.
+     *
+     * @param file
+     * @return the tablebase
+     */
+    public static Tablebase open(Path file) {
+        return new Tablebase(file);
+    }
+
+    /**
+     * Function that looks up the exact result of a position.
+     *
+     * @param lo
+     * @param hi
+     * @param player the player to move, 1 or 2
+     * @return how many more seeds the player to move ends up with from here on than their opponent (not counting
+     * what's in the stores already), with best play, or UNKNOWN if there are too many seeds left
+     */
+    public int probe(long lo, long hi, int player) {
+        Mapping mapping = mapping();
+        long mine = (player == 1 ? lo : hi) & SIDE_MASK;
+        long theirs = (player == 1 ? hi : lo) & SIDE_MASK;
+        if (MancalaEngine.sideSeeds(mine, theirs, 1) + MancalaEngine.sideSeeds(mine, theirs, 2)
+                > mapping.maxSeeds) {
+            return UNKNOWN;
+        }
+        return mapping.values.get(HEADER_SIZE + index(mine, theirs));
+    }
+
+    /**
+     * @return the most seeds a position can have left in its pits for the tablebase to have it, -1 if there is no
+     * tablebase.  Maps the file if it isn't yet.
+     */
+    public int getMaxSeeds() {
+        return mapping().maxSeeds;
+    }
+
+    private Mapping mapping() {
+        Mapping mapping = this.mapping;
+        if (mapping == null) {
+            synchronized (this) {
+                mapping = this.mapping;
+                if (mapping == null) {
+                    mapping = map(file);
+                    this.mapping = mapping;
+                }
+            }
+        }
+        return mapping;
+    }
+
+    private static Mapping map(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            values.order(ByteOrder.LITTLE_ENDIAN);
+            int maxSeeds = values.capacity() >= HEADER_SIZE ? values.getInt(4) : -1;
+            if (maxSeeds < 0 || maxSeeds > MAX_SEEDS || values.getInt(0) != MAGIC
+                    || values.getLong(8) != positions(maxSeeds)
+                    || values.capacity() != HEADER_SIZE + positions(maxSeeds)) {
+                Log.error("not a tablebase, not using it", "file", file);
+                return new Mapping(null, -1);
+            }
+            Log.info("tablebase mapped", "file", file, "maxSeeds", maxSeeds, "positions", positions(maxSeeds));
+            return new Mapping(values, maxSeeds);
+        } catch (NoSuchFileException e) {
+            Log.info("no tablebase", "file", file);
+        } catch (IOException e) {
+            Log.error("error mapping tablebase", "file", file, "error", e);
+        }
+        return new Mapping(null, -1);
+    }
+
+    /**
+     * Function that numbers a position: its place among the positions with the same number of seeds, after all the
+     * positions with fewer.  The pits' seed counts c0..c11 add up to n, and s_i = c0 + ... + c_i + i (i < 11) are
+     * where the bars go among n stars and 11 bars, which the combinatorial number system numbers as the sum of
+     * C(s_i, i + 1).
+     *
+     * @param mine the player to move's pits, as MancalaEngine packs them, store empty
+     * @param theirs their opponent's pits, store empty
+     * @return 0 to positions(maxSeeds) - 1
+     */
+    static int index(long mine, long theirs) {
+        int seeds = 0;
+        int bar = -1;
+        int index = 0;
+        for (int pit = 0; pit < PITS; pit++) {
+            long side = pit < 6 ? mine : theirs;
+            int count = (int) ((side >>> (MancalaEngine.BITS * (pit % 6))) & MancalaEngine.FIELD);
+            seeds += count;
+            bar += count + 1;
+            if (pit < PITS - 1) {
+                index += BINOMIAL[bar][pit + 1];
+            }
+        }
+        return BINOMIAL[seeds + PITS - 1][PITS] + index;
+    }
+
+    /**
+     * @return the number of positions with up to maxSeeds seeds in the pits
+     */
+    static long positions(int maxSeeds) {
+        return BINOMIAL[maxSeeds + PITS][PITS];
+    }
+
+    /**
+     * Function that solves every position with up to maxSeeds seeds and writes the tablebase.  Writes to a temporary
+     * file next to it first, so nothing ever maps half a tablebase.
+     *
+     * @param maxSeeds at most MAX_SEEDS
+     * @param file
+     * @param pool solves the positions with each number of seeds in parallel
+     */
+    public static void build(int maxSeeds, Path file, ForkJoinPool pool) throws IOException {
+        long positions = positions(maxSeeds);
+        Path building = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(building, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer values = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + positions);
+            values.order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = HEADER_SIZE; i < HEADER_SIZE + positions; i++) {
+                values.put(i, UNSOLVED);
+            }
+            for (int seeds = 0; seeds <= maxSeeds; seeds++) {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (int first = 0; first <= seeds; first++) {
+                    for (int second = 0; second <= seeds - first; second++) {
+                        tasks.add(new Level(values, seeds, first, second));
+                    }
+                }
+                tasks.forEach(pool::execute);
+                tasks.forEach(ForkJoinTask::join); // Every position with more seeds needs these
+            }
+            values.putInt(0, MAGIC).putInt(4, maxSeeds).putLong(8, positions);
+            values.force();
+        }
+        Files.move(building, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Function that solves a position, and the positions with the same number of seeds it needs first.  Two threads
+     * can solve the same position at once, they both write the same value.
+     *
+     * @param values the tablebase being built
+     * @param mine
+     * @param theirs
+     * @param next scratch space for the position after a move, one {lo, hi} per level of recursion
+     * @param depth level of recursion
+     * @return the position's value
+     */
+    private static int solve(ByteBuffer values, long mine, long theirs, long[][] next, int depth) {
+        int index = HEADER_SIZE + index(mine, theirs);
+        int value = values.get(index);
+        if (value != UNSOLVED) {
+            return value;
+        }
+        if (MancalaEngine.isGameOver(mine, theirs)) {
+            value = MancalaEngine.sideSeeds(mine, theirs, 1) - MancalaEngine.sideSeeds(mine, theirs, 2);
+        } else {
+            long[] after = next[depth];
+            value = -MancalaEngine.TOTAL_SEEDS;
+            int legal = MancalaEngine.legalMoves(mine, theirs, 1);
+            for (int pit = 0; pit < 6; pit++) {
+                if ((legal & (1 << pit)) == 0) {
+                    continue;
+                }
+                int result = MancalaEngine.move(mine, theirs, 1, pit, after);
+                int gained = MancalaEngine.store(after[0], after[1], 1);
+                long nextMine = after[0] & SIDE_MASK;
+                long nextTheirs = after[1] & SIDE_MASK;
+                int score;
+                if (MancalaEngine.isGameOver(nextMine, nextTheirs)) {
+                    score = gained + MancalaEngine.sideSeeds(nextMine, nextTheirs, 1)
+                            - MancalaEngine.sideSeeds(nextMine, nextTheirs, 2);
+                } else if ((result & MancalaEngine.EXTRA_TURN) != 0) {
+                    score = gained + solve(values, nextMine, nextTheirs, next, depth + 1);
+                } else {
+                    score = gained - solve(values, nextTheirs, nextMine, next, depth + 1);
+                }
+                value = Math.max(value, score);
+            }
+        }
+        values.put(index, (byte) value);
+        return value;
+    }
+
+    /**
+     * Solves the positions with `seeds` seeds that start with `first` seeds in pit 0 and `second` in pit 1.
+     */
+    private static class Level extends RecursiveAction {
+        private final ByteBuffer values;
+        private final int seeds;
+        private final int first;
+        private final int second;
+        private final int[] pits = new int[PITS];
+        // Moves that stay at the same number of seeds walk seeds towards the store, at most 6 pits each, so a
+        // chain of them is at most 6 per seed long
+        private final long[][] next = new long[6 * MAX_SEEDS + 2][2];
+
+        Level(ByteBuffer values, int seeds, int first, int second) {
+            this.values = values;
+            this.seeds = seeds;
+            this.first = first;
+            this.second = second;
+        }
+
+        protected void compute() {
+            pits[0] = first;
+            pits[1] = second;
+            fill(2, seeds - first - second);
+        }
+
+        private void fill(int pit, int left) {
+            if (pit == PITS - 1) {
+                pits[pit] = left;
+                long mine = 0;
+                long theirs = 0;
+                for (int i = 0; i < 6; i++) {
+                    mine |= (long) pits[i] << (MancalaEngine.BITS * i);
+                    theirs |= (long) pits[i + 6] << (MancalaEngine.BITS * i);
+                }
+                solve(values, mine, theirs, next, 0);
+                return;
+            }
+            for (int count = 0; count <= left; count++) {
+                pits[pit] = count;
+                fill(pit + 1, left - count);
+            }
+        }
+    }
+
+    private static class Mapping {
+        private final ByteBuffer values;
+        private final int maxSeeds;
+
+        Mapping(ByteBuffer values, int maxSeeds) {
+            this.values = values;
+            this.maxSeeds = maxSeeds;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int maxSeeds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAX_SEEDS;
+        Path file = Path.of(args.length > 1 ? args[1] : FILE);
+        if (maxSeeds < 0 || maxSeeds > MAX_SEEDS) {
+            System.err.println("Max seeds must be 0 to " + MAX_SEEDS);
+            System.exit(1);
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        build(maxSeeds, file, pool);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        long positions = positions(maxSeeds);
+        System.out.printf("Solved %,d positions (up to %d seeds) in %.1f s on %d threads: %,.0f positions/s%n",
+                positions, maxSeeds, seconds, threads, positions / seconds);
+        System.out.printf("Wrote %s, %,d bytes%n", file, Files.size(file));
+    }
+}
@@ -0,0 +1,185 @@
+package Server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel: one thread and one array of buckets holding every timeout, however many there are.
+ * <p>
+ * Time is cut into ticks of TICK_MILLIS, and a timeout goes in the bucket for the tick it is due in (modulo the
+ * wheel's size, with a count of whole turns of the wheel still to go).  Each tick the thread only looks at one bucket,
+ * so a tick costs the same with 100 timeouts or 100k.  Scheduling is a queue offer, cancelling is a flag; neither
+ * takes a lock or touches the buckets, which only the wheel's thread does.  Timeouts fire up to one tick late, and
+ * cancelled ones are unlinked the next time the thread passes their bucket.
+ * <p>
+ * Tasks run on the wheel's thread, so they must be quick: flag something and wake whoever has to act on it.
+ */
+public class TimerWheel {
+
+    public static final long TICK_MILLIS = 50;
+    private static final int BUCKETS = 512; // A power of two, ~25 seconds per turn of the wheel
+
+    private final long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+    private final Bucket[] wheel = new Bucket[BUCKETS];
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final LongAdder pending = new LongAdder();
+    private final long startTime = System.nanoTime();
+    private long tick = 0; // Ticks done, only touched by the wheel's thread
+
+    /**
+     * @param name of the wheel's thread
+     */
+    public TimerWheel(String name) {
+        for (int i = 0; i < BUCKETS; i++) {
+            wheel[i] = new Bucket();
+        }
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Function that runs a task on the wheel's thread after a delay, unless it is cancelled first.
+     *
+     * @param task must be quick, every timeout shares the thread
+     * @param delayMillis
+     * @return the timeout, to cancel it
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        pending.increment();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return timeouts that haven't fired or been cancelled yet
+     */
+    public long size() {
+        return pending.sum();
+    }
+
+    private void run() {
+        while (true) {
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long now = System.nanoTime();
+            while (deadline - now > 0) {
+                LockSupport.parkNanos(deadline - now);
+                now = System.nanoTime();
+            }
+            try {
+                transferAdded();
+                expire(wheel[(int) (tick & (BUCKETS - 1))], now);
+            } catch (Exception e) {
+                Log.error("error in timer wheel", "error", e); // One bad task mustn't stop every other timeout
+            }
+            tick++;
+        }
+    }
+
+    /**
+     * Function that puts the newly scheduled timeouts in their buckets.
+     */
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state.get() != Timeout.WAITING) {
+                continue; // Cancelled already
+            }
+            long due = (timeout.deadline - startTime + tickNanos - 1) / tickNanos; // Tick it is due in, rounded up
+            due = Math.max(due, tick); // Already due: this tick
+            timeout.rounds = (due - tick) / BUCKETS;
+            wheel[(int) (due & (BUCKETS - 1))].add(timeout);
+        }
+    }
+
+    private void expire(Bucket bucket, long now) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.state.get() != Timeout.WAITING) {
+                bucket.remove(timeout);
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else if (timeout.deadline - now <= 0) {
+                bucket.remove(timeout);
+                if (timeout.state.compareAndSet(Timeout.WAITING, Timeout.FIRED)) {
+                    pending.decrement();
+                    timeout.task.run();
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * A scheduled task.
+     */
+    public final class Timeout {
+        static final int WAITING = 0;
+        static final int FIRED = 1;
+        static final int CANCELLED = 2;
+
+        private final Runnable task;
+        private final long deadline; // System.nanoTime()
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private long rounds; // Whole turns of the wheel to go, only touched by the wheel's thread
+        private Timeout previous;
+        private Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Function that stops the task running, if it hasn't yet.
+         *
+         * @return false if it has already run (or is running)
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(WAITING, CANCELLED)) {
+                pending.decrement();
+                return true;
+            }
+            return state.get() == CANCELLED;
+        }
+    }
+
+    /**
+     * The timeouts due in one slot of the wheel, a doubly linked list through the timeouts themselves.
+     */
+    private static final class Bucket {
+        Timeout head;
+        Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.previous = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package Server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless round robin between SelfPlay's policies (random, greedy, search:depth, time:millis), to see how much
+ * stronger a setting is and what it costs.  Every game runs on a fork-join pool of every core, through Board like
+ * GameThread plays it.
+ * <p>
+ * The tournament goes in rounds.  In a round every pair of policies plays OPENINGS random openings (OPENING_PLIES
+ * random moves from the start position), each once from either seat, so the searches, which always play the same
+ * move in the same position, don't play one game over and over, and neither gets the better seat more often.  After
+ * each round the ratings are worked out again, and the tournament stops as soon as every policy is significantly
+ * better than the next one down (likelihood of superiority, from their games against each other, of at least LOS),
+ * or when every pair has played the most games asked for.
+ * <p>
+ * Ratings are Elo, fitted to every game at once (Bradley-Terry, a draw counts as half a win each) with one extra
+ * draw between every pair, so a policy that wins or loses everything still gets a finite rating.  They average 0.
+ * The +/- is a 95% confidence interval, from how much each policy's games could tell about its rating with everyone
+ * else's held where they are.
+ * <p>
+ * Usage: java Server.Tournament [max games per pair] [seed] [policy policy ...]
+ */
+public class Tournament {
+
+    private static final int OPENINGS = 16; // Per pair per round, each played from both seats
+    private static final int OPENING_PLIES = 4;
+    private static final int MAX_MOVES = 1000;
+    private static final double LOS = 0.99;
+    private static final double Z95 = 1.96;
+    private static final double ELO_PER_NATURAL_LOG = 400 / Math.log(10);
+
+    private final String[] names;
+    private final SelfPlay.Policy[] policies;
+    private final int[][] wins; // [i][j]: games i won against j
+    private final int[][] draws;
+    private final LongAdder[] moves; // By policy, moves it made, how long they took and how many nodes they searched
+    private final LongAdder[] nanos;
+    private final LongAdder[] nodes;
+    private final long seed;
+
+    /**
+     * @param names the policies, see SelfPlay
+     * @param seed for the openings
+     */
+    public Tournament(String[] names, long seed) {
+        this.names = names;
+        this.seed = seed;
+        int count = names.length;
+        policies = new SelfPlay.Policy[count];
+        wins = new int[count][count];
+        draws = new int[count][count];
+        moves = new LongAdder[count];
+        nanos = new LongAdder[count];
+        nodes = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            policies[i] = SelfPlay.policy(names[i]);
+            moves[i] = new LongAdder();
+            nanos[i] = new LongAdder();
+            nodes[i] = new LongAdder();
+        }
+    }
+
+    public static void main(String[] args) {
+        int next = 0;
+        int maxGames = 2000;
+        long seed = System.nanoTime();
+        if (next < args.length && args[next].matches("\\d+")) {
+            maxGames = Integer.parseInt(args[next++]);
+        }
+        if (next < args.length && args[next].matches("-?\\d+")) {
+            seed = Long.parseLong(args[next++]);
+        }
+        String[] names = next < args.length ? Arrays.copyOfRange(args, next, args.length)
+                : new String[]{"random", "greedy", "search:4", "search:8"};
+        if (names.length < 2) {
+            System.out.println("Usage: java Server.Tournament [max games per pair] [seed] policy policy ...");
+            return;
+        }
+
+        Tournament tournament = new Tournament(names, seed);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        int games = 0;
+        boolean significant = false;
+        for (int round = 0; games / tournament.pairs() < maxGames && !significant; round++) {
+            games += tournament.playRound(pool, round);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            significant = tournament.isSignificant(tournament.ratings());
+            System.out.printf("Round %d: %,d games, %.1f games/s%n", round + 1, games, games / seconds);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        System.out.printf("Played %,d games (seed %d) in %.1f s on %d threads: %.1f games/s.  %s%n", games, seed,
+                seconds, threads, games / seconds, significant ? "Every ranking is significant."
+                        : "Stopped at " + maxGames + " games a pair, not every ranking is significant.");
+        tournament.print();
+    }
+
+    private int pairs() {
+        return names.length * (names.length - 1) / 2;
+    }
+
+    /**
+     * Function that plays a round, every pair from every opening, from both seats, in parallel.
+     *
+     * @param pool
+     * @param round numbers the openings
+     * @return games played
+     */
+    public int playRound(ForkJoinPool pool, int round) {
+        List<int[]> games = new ArrayList<>(); // {policy in seat 1, policy in seat 2, opening}
+        for (int i = 0; i < names.length; i++) {
+            for (int j = i + 1; j < names.length; j++) {
+                for (int opening = 0; opening < OPENINGS; opening++) {
+                    games.add(new int[]{i, j, round * OPENINGS + opening});
+                    games.add(new int[]{j, i, round * OPENINGS + opening});
+                }
+            }
+        }
+        int[] winners = new int[games.size()];
+        pool.invoke(new Games(games, winners, 0, games.size()));
+        for (int game = 0; game < winners.length; game++) {
+            int seat1 = games.get(game)[0];
+            int seat2 = games.get(game)[1];
+            if (winners[game] == 1) {
+                wins[seat1][seat2]++;
+            } else if (winners[game] == 2) {
+                wins[seat2][seat1]++;
+            } else {
+                draws[seat1][seat2]++;
+                draws[seat2][seat1]++;
+            }
+        }
+        return games.size();
+    }
+
+    /**
+     * Plays games [from, to) of a round, splitting in half down to single games, which take long enough on their own.
+     */
+    private class Games extends RecursiveAction {
+        private final List<int[]> games;
+        private final int[] winners;
+        private final int from;
+        private final int to;
+
+        Games(List<int[]> games, int[] winners, int from, int to) {
+            this.games = games;
+            this.winners = winners;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Games(games, winners, from, middle), new Games(games, winners, middle, to));
+                return;
+            }
+            int[] game = games.get(from);
+            winners[from] = play(game[0], game[1], game[2]);
+        }
+    }
+
+    /**
+     * Function that plays one game from an opening.
+     *
+     * @param seat1 the policy playing player 1
+     * @param seat2
+     * @param opening picks the opening, the same one whoever plays it
+     * @return the winner, 1 or 2, or 0 for a tie
+     */
+    private int play(int seat1, int seat2, int opening) {
+        SplittableRandom random = new SplittableRandom(seed ^ (opening * 0x9E3779B97F4A7C15L));
+        Board board = new Board();
+        boolean player1Turn = true;
+        for (int ply = 0; ply < OPENING_PLIES && !board.checkGameOver(); ply++) {
+            int player = player1Turn ? 1 : 2;
+            int pit = SelfPlay.randomMove(board, player, random);
+            player1Turn = board.makeMove(pit + (player == 2 ? 7 : 0), player);
+        }
+        for (int move = 0; !board.checkGameOver(); move++) {
+            if (move == MAX_MOVES) {
+                throw new IllegalStateException("Game still going after " + MAX_MOVES + " moves");
+            }
+            int player = player1Turn ? 1 : 2;
+            int policy = player == 1 ? seat1 : seat2;
+            long start = System.nanoTime();
+            int pit = policies[policy].move(board, player, random) + (player == 2 ? 7 : 0);
+            nanos[policy].add(System.nanoTime() - start);
+            nodes[policy].add(policies[policy].getNodes());
+            moves[policy].increment();
+            if (!board.isValidMove(pit, player)) {
+                throw new IllegalStateException(names[policy] + " picked illegal pit " + pit);
+            }
+            player1Turn = board.makeMove(pit, player); // Make move & see if player gets another turn
+        }
+        return board.determineWinner();
+    }
+
+    /**
+     * Function that fits everyone's rating to every game so far (Hunter's MM algorithm for Bradley-Terry).
+     *
+     * @return Elo by policy, averaging 0
+     */
+    public double[] ratings() {
+        int count = names.length;
+        double[] strength = new double[count];
+        Arrays.fill(strength, 1);
+        for (int iteration = 0; iteration < 10_000; iteration++) {
+            double change = 0;
+            double logSum = 0;
+            for (int i = 0; i < count; i++) {
+                double score = 0;
+                double expected = 0;
+                for (int j = 0; j < count; j++) {
+                    if (j != i) {
+                        score += wins[i][j] + 0.5 * draws[i][j] + 0.5; // The extra draw
+                        expected += games(i, j) / (strength[i] + strength[j]);
+                    }
+                }
+                double updated = score / expected;
+                change = Math.max(change, Math.abs(Math.log(updated / strength[i])));
+                strength[i] = updated;
+                logSum += Math.log(updated);
+            }
+            double mean = Math.exp(logSum / count);
+            for (int i = 0; i < count; i++) {
+                strength[i] /= mean;
+            }
+            if (change < 1e-9) {
+                break;
+            }
+        }
+        double[] elo = new double[count];
+        for (int i = 0; i < count; i++) {
+            elo[i] = ELO_PER_NATURAL_LOG * Math.log(strength[i]);
+        }
+        return elo;
+    }
+
+    /**
+     * @return games between i and j, counting the extra draw
+     */
+    private double games(int i, int j) {
+        return wins[i][j] + wins[j][i] + draws[i][j] + 1;
+    }
+
+    /**
+     * @param elo ratings()
+     * @param i
+     * @return half the width of the 95% confidence interval of i's rating
+     */
+    private double interval(double[] elo, int i) {
+        double information = 0;
+        for (int j = 0; j < names.length; j++) {
+            if (j != i) {
+                double p = expectedScore(elo[i] - elo[j]);
+                information += games(i, j) * p * (1 - p);
+            }
+        }
+        return Z95 * ELO_PER_NATURAL_LOG / Math.sqrt(information);
+    }
+
+    private static double expectedScore(double eloDifference) {
+        return 1 / (1 + Math.pow(10, -eloDifference / 400));
+    }
+
+    /**
+     * @return policies, best first
+     */
+    private Integer[] ranking(double[] elo) {
+        Integer[] ranking = new Integer[names.length];
+        for (int i = 0; i < ranking.length; i++) {
+            ranking[i] = i;
+        }
+        Arrays.sort(ranking, (a, b) -> Double.compare(elo[b], elo[a]));
+        return ranking;
+    }
+
+    /**
+     * @return the likelihood that i is stronger than j, from their games against each other (draws tell nothing)
+     */
+    private double superiority(int i, int j) {
+        int decisive = wins[i][j] + wins[j][i];
+        return decisive == 0 ? 0.5 : normal((wins[i][j] - wins[j][i]) / Math.sqrt(decisive));
+    }
+
+    /**
+     * @param elo ratings()
+     * @return true if every policy is significantly better than the next one down
+     */
+    public boolean isSignificant(double[] elo) {
+        Integer[] ranking = ranking(elo);
+        for (int rank = 0; rank + 1 < ranking.length; rank++) {
+            if (superiority(ranking[rank], ranking[rank + 1]) < LOS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Function that works out the standard normal distribution's CDF, from erf's Abramowitz and Stegun 7.1.26 (good to
+     * about 1e-7).
+     */
+    private static double normal(double z) {
+        double x = Math.abs(z) / Math.sqrt(2);
+        double t = 1 / (1 + 0.3275911 * x);
+        double erf = 1 - t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027
+                + t * 1.061405429)))) * Math.exp(-x * x);
+        return z >= 0 ? 0.5 * (1 + erf) : 0.5 * (1 - erf);
+    }
+
+    private void print() {
+        double[] elo = ratings();
+        Integer[] ranking = ranking(elo);
+        System.out.printf("%-4s %-12s %6s %6s %7s %7s %17s %9s %12s%n", "Rank", "Policy", "Elo", "+/-", "Score",
+                "Games", "Won/drawn/lost", "ms/move", "nodes/s");
+        for (int rank = 0; rank < ranking.length; rank++) {
+            int i = ranking[rank];
+            int won = 0;
+            int drawn = 0;
+            int lost = 0;
+            for (int j = 0; j < names.length; j++) {
+                won += wins[i][j];
+                drawn += draws[i][j];
+                lost += wins[j][i];
+            }
+            int played = won + drawn + lost;
+            long policyNanos = nanos[i].sum();
+            long policyNodes = nodes[i].sum();
+            System.out.printf("%-4d %-12s %+6.0f %6.0f %6.1f%% %7d %17s %9.3f %12s%n", rank + 1, names[i], elo[i],
+                    interval(elo, i), 100.0 * (won + 0.5 * drawn) / Math.max(1, played), played,
+                    won + "/" + drawn + "/" + lost, policyNanos / 1e6 / Math.max(1, moves[i].sum()),
+                    policyNodes == 0 ? "-" : String.format("%,.0f", policyNodes / (policyNanos / 1e9)));
+        }
+        for (int rank = 0; rank + 1 < ranking.length; rank++) {
+            int i = ranking[rank];
+            int j = ranking[rank + 1];
+            System.out.printf("%s vs %s: %d-%d-%d, likelihood of superiority %.1f%%%n", names[i], names[j],
+                    wins[i][j], draws[i][j], wins[j][i], 100 * superiority(i, j));
+        }
+    }
+}
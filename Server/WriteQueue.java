@@ -0,0 +1,345 @@
+package Server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A connection's outgoing bytes, written by a virtual thread of its own so whoever sends them never waits for the
+ * socket.
+ * <p>
+ * Sending copies the bytes into a buffer and returns.  Nothing goes out until flush(), and then everything sent since
+ * the last flush goes out in one write: the game flushes at the end of each turn, so a turn's board, prompt and
+ * possible moves (and an error before them) cost one syscall.  Two buffers are swapped back and forth, so the writer
+ * writes one while the other fills, and neither is reallocated once big enough.
+ * <p>
+ * A client that stops reading is disconnected rather than allowed to hold anything up:
+ * <ul>
+ *     <li>if more than MAX_QUEUED_BYTES are waiting, send() closes the socket and fails</li>
+ *     <li>if one write has been stuck for longer than the write timeout, the watchdog thread closes the socket</li>
+ * </ul>
+ * Either way the next send(), and the player's read, fail like any disconnect.
+ */
+public class WriteQueue {
+
+    public static final int MAX_QUEUED_BYTES = 64 * 1024; // A turn is well under 1 KB
+    public static final long WRITE_TIMEOUT_MILLIS = 10000;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final long WATCHDOG_MILLIS = 1000;
+
+    private static final Set<WriteQueue> queues = ConcurrentHashMap.newKeySet(); // Every open queue, for the watchdog
+
+    static {
+        startWatchdog();
+    }
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final long timeoutNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    private final ReentrantLock socketLock = new ReentrantLock(); // Held by the writer while it writes
+    private volatile long writingSince = 0; // System.nanoTime() the current write started, 0 if not writing
+    private volatile boolean failed = false; // Too slow, or the socket failed
+
+    // Guarded by lock
+    private byte[] filling = new byte[INITIAL_BUFFER_SIZE];
+    private int filled = 0;
+    private byte[] spare = new byte[INITIAL_BUFFER_SIZE];
+    private boolean flushRequested = false;
+    private boolean writing = false;
+    private boolean closing = false;
+    private boolean detached = false; // Leave the socket open when the writer stops
+    private boolean stopped = false; // The writer has stopped
+
+    /**
+     * @param socket
+     * @param timeoutMillis longest one write can take before the client is disconnected
+     */
+    public WriteQueue(Socket socket, long timeoutMillis) throws IOException {
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        queues.add(this);
+        Thread.ofVirtual().name("writer").start(this::writeLoop);
+    }
+
+    /**
+     * Function that queues bytes to be written on the next flush().  Never blocks on the socket.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @throws IOException if the connection has failed, or is too far behind and has now been disconnected
+     */
+    public void send(byte[] bytes, int offset, int length) throws IOException {
+        lock.lock();
+        try {
+            reserve(length);
+            System.arraycopy(bytes, offset, filling, filled, length);
+            filled += length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Function that makes room in the filling buffer for more bytes, or gives up on a client that is too far behind.
+     * Called with the lock held.
+     *
+     * @param length
+     */
+    private void reserve(int length) throws IOException {
+        if (failed || closing) {
+            throw new IOException("Connection closed");
+        }
+        if (filled + length > MAX_QUEUED_BYTES) {
+            Metrics.SLOW_CLIENTS_DISCONNECTED.increment();
+            Log.info("slow client disconnected", "queuedBytes", filled, "remote", socket.getRemoteSocketAddress());
+            fail();
+            throw new IOException("Client is not reading, " + filled + " bytes queued");
+        }
+        if (filled + length > filling.length) {
+            byte[] bigger = new byte[Math.min(MAX_QUEUED_BYTES, Math.max(filling.length * 2, filled + length))];
+            System.arraycopy(filling, 0, bigger, 0, filled);
+            filling = bigger;
+        }
+    }
+
+    /**
+     * Function that queues a buffer's remaining bytes, like send(byte[], int, int).  The buffer's position is moved to
+     * its limit.
+     *
+     * @param buffer
+     * @throws IOException if the connection has failed, or is too far behind and has now been disconnected
+     */
+    public void send(ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        lock.lock();
+        try {
+            reserve(length);
+            buffer.get(filling, filled, length);
+            filled += length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Function that has the writer write everything queued so far, in one write.  Doesn't wait for it.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            if (filled > 0) {
+                flushRequested = true;
+                flushed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Function that flushes and waits until everything queued has been written.  For a thread that writes nothing
+     * else, like a spectator's, so it knows when the socket has caught up.
+     *
+     * @throws IOException if the connection fails first
+     */
+    public void flushAndWait() throws IOException {
+        lock.lock();
+        try {
+            if (filled > 0) {
+                flushRequested = true;
+                flushed.signal();
+            }
+            while ((filled > 0 || writing) && !failed) {
+                written.awaitUninterruptibly();
+            }
+            if (failed) {
+                throw new IOException("Connection closed");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Function that stops the writer starting another write until releaseSocket(), e.g. while the socket is briefly
+     * switched to non-blocking to peek at its input (a write would fail then).
+     *
+     * @return false if the writer is writing right now, in which case it isn't held
+     */
+    public boolean tryHoldSocket() {
+        return socketLock.tryLock();
+    }
+
+    public void releaseSocket() {
+        socketLock.unlock();
+    }
+
+    /**
+     * @return true if the connection has failed, or been disconnected for being slow
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /**
+     * Function that writes whatever is still queued and then closes the socket, without waiting for either.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closing = true;
+            flushRequested = filled > 0;
+            flushed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Function that writes whatever is still queued and stops the writer, leaving the socket open for someone else to
+     * write to (see PlayerConnection.detach()).  Waits for the writer to stop.
+     *
+     * @throws IOException if the connection fails first
+     */
+    public void detach() throws IOException {
+        lock.lock();
+        try {
+            detached = true;
+            closing = true;
+            flushRequested = filled > 0;
+            flushed.signal();
+            while (!stopped) {
+                written.awaitUninterruptibly();
+            }
+            if (failed) {
+                throw new IOException("Connection closed");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                byte[] buffer;
+                int length;
+                lock.lock();
+                try {
+                    while (!flushRequested && !closing) {
+                        flushed.await();
+                    }
+                    if (!flushRequested || failed) { // Closing and nothing left to write, or given up on
+                        return;
+                    }
+                    buffer = filling;
+                    length = filled;
+                    filling = spare; // Sends carry on into the other buffer while this one is written
+                    filled = 0;
+                    flushRequested = false;
+                    writing = true;
+                } finally {
+                    lock.unlock();
+                }
+
+                socketLock.lock();
+                try {
+                    writingSince = System.nanoTime();
+                    out.write(buffer, 0, length);
+                    writingSince = 0;
+                } finally {
+                    socketLock.unlock();
+                }
+                Metrics.SOCKET_WRITES.increment();
+
+                lock.lock();
+                try {
+                    spare = buffer;
+                    writing = false;
+                    written.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            failed = true; // The client is gone, or the watchdog closed it
+        } finally {
+            boolean keepOpen;
+            lock.lock();
+            try {
+                failed |= filled > 0; // Closed before it was all written
+                stopped = true;
+                keepOpen = detached && !failed;
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            queues.remove(this);
+            if (!keepOpen) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.error("error closing socket", "error", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Function that gives up on the connection: closes the socket so the writer and any reader fail straight away.
+     */
+    private void fail() {
+        lock.lock();
+        try {
+            failed = true;
+            closing = true;
+            flushed.signal(); // In case the writer is waiting for something to write
+            written.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.error("error closing socket", "error", e);
+        }
+    }
+
+    private static void startWatchdog() {
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(WATCHDOG_MILLIS);
+                    long now = System.nanoTime();
+                    for (WriteQueue queue : queues) {
+                        long since = queue.writingSince;
+                        if (since != 0 && now - since > queue.timeoutNanos) {
+                            Metrics.SLOW_CLIENTS_DISCONNECTED.increment();
+                            Log.info("write timed out, client disconnected", "seconds",
+                                    TimeUnit.NANOSECONDS.toSeconds(now - since), "remote",
+                                    queue.socket.getRemoteSocketAddress());
+                            queue.fail(); // Its writer fails, and it leaves
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    Log.error("error in write watchdog", "error", e);
+                }
+            }
+        }, "write-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
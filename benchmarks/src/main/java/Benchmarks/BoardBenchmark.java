@@ -0,0 +1,112 @@
+package Benchmarks;
+
+import Server.Board;
+import Server.BoardRenderer;
+import Server.MancalaEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Board methods GameThread calls for every move, on 1024 positions taken from random games (so the branch
+ * predictor can't learn a single board).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBenchmark {
+
+    private static final int POSITIONS = 1024; // Power of 2, see next()
+
+    private Board[] boards;
+    private int[] players;
+    private int[] pits; // A legal move in each position, 0-13
+    private long[] position;
+    private BoardRenderer renderer;
+    private int index;
+
+    // makeMove() plays one long random game instead, since it changes the board
+    private Board game;
+    private boolean player1Turn;
+    private SplittableRandom random;
+
+    @Setup
+    public void setup() {
+        Positions.silenceStdout();
+        boards = Positions.midGame(POSITIONS, 42);
+        players = new int[POSITIONS];
+        pits = new int[POSITIONS];
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < POSITIONS; i++) {
+            players[i] = 1 + random.nextInt(2);
+            pits[i] = Positions.randomMove(random, boards[i].getLegalMoves(players[i])) + (players[i] == 2 ? 7 : 0);
+        }
+        position = new long[2];
+        renderer = new BoardRenderer();
+
+        game = new Board();
+        player1Turn = true;
+        this.random = new SplittableRandom(13);
+    }
+
+    private int next() {
+        return index++ & (POSITIONS - 1);
+    }
+
+    @Benchmark
+    public boolean isValidMove() {
+        int i = next();
+        return boards[i].isValidMove(pits[i], players[i]);
+    }
+
+    @Benchmark
+    public String getPossibleMoves() {
+        int i = next();
+        return boards[i].getPossibleMoves(players[i]);
+    }
+
+    @Benchmark
+    public String boardToString() {
+        int i = next();
+        return boards[i].boardToString(players[i], true);
+    }
+
+    /**
+     * What the server sends instead of boardToString() + getPossibleMoves() since BoardRenderer.
+     */
+    @Benchmark
+    public int renderYourTurn() {
+        int i = next();
+        return renderer.yourTurn(boards[i], players[i]).getLength();
+    }
+
+    /**
+     * Board.makeMove() in a random game that starts over when it ends (about once every 40 moves).
+     */
+    @Benchmark
+    public boolean makeMove() {
+        int player = player1Turn ? 1 : 2;
+        int pit = Positions.randomMove(random, game.getLegalMoves(player)) + (player == 2 ? 7 : 0);
+        player1Turn = game.makeMove(pit, player);
+        if (game.checkGameOver()) {
+            game = new Board();
+            player1Turn = true;
+        }
+        return player1Turn;
+    }
+
+    /**
+     * The engine underneath makeMove(), on its own.
+     */
+    @Benchmark
+    public long engineMove() {
+        int i = next();
+        Board board = boards[i];
+        MancalaEngine.move(board.getLo(), board.getHi(), players[i], pits[i], position);
+        return position[0] ^ position[1];
+    }
+}
@@ -0,0 +1,75 @@
+package Benchmarks;
+
+import Client.BoardSnapshot;
+import Client.BoardView;
+import Server.Board;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+/**
+ * The Swing client's BoardView, headless, on boards from random games.  `render` is one frame on the Event Dispatch
+ * Thread: a snapshot put on the view, laid out and painted into an image, so its score is how many updates a second
+ * the client can show.  `publish` is what the reader thread pays to hand one update over while the Event Dispatch
+ * Thread shows them, coalesced, on a view of its own.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class ClientRenderBenchmark {
+
+    private static final int COUNT = 1024;
+
+    private BoardSnapshot[] snapshots;
+    private BoardView view; // Never shown, so this thread can stand in for the Event Dispatch Thread
+    private BoardView publishView;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        Board[] boards = Positions.midGame(COUNT, 1);
+        snapshots = new BoardSnapshot[COUNT];
+        int[] pits = new int[14];
+        for (int i = 0; i < COUNT; i++) {
+            boards[i].copyTo(pits);
+            int toMove = (i & 1) + 1;
+            snapshots[i] = BoardSnapshot.WAITING.withSeat(1, false).withBoard(pits, toMove,
+                    toMove == 1 ? "Your turn! Click a pit." : "Opponents turn!  Waiting for Player 2.");
+        }
+        view = new BoardView(pit -> { });
+        view.setSize(800, 300);
+        view.validate();
+        image = new BufferedImage(800, 300, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+        SwingUtilities.invokeAndWait(() -> {
+            publishView = new BoardView(pit -> { });
+            publishView.setSize(800, 300);
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        view.render(snapshots[next++ & (COUNT - 1)]);
+        view.validate();
+        view.paint(graphics);
+        return image;
+    }
+
+    @Benchmark
+    public void publish() {
+        publishView.publish(snapshots[next++ & (COUNT - 1)]);
+    }
+}
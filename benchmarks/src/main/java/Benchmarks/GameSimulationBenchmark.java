@@ -0,0 +1,72 @@
+package Benchmarks;
+
+import Server.Board;
+import Server.MancalaEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole random games from the start position to the end, the work a simulator or a search does over and over.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameSimulationBenchmark {
+
+    private SplittableRandom random;
+    private long[] position;
+
+    @Setup
+    public void setup() {
+        Positions.silenceStdout();
+        random = new SplittableRandom(42);
+        position = new long[2];
+    }
+
+    /**
+     * A random game through Board, the way GameThread plays one (including the isValidMove() check).
+     *
+     * @return the winner
+     */
+    @Benchmark
+    public int randomGame() {
+        Board board = new Board();
+        boolean player1Turn = true;
+        do {
+            int player = player1Turn ? 1 : 2;
+            int pit = Positions.randomMove(random, board.getLegalMoves(player)) + (player == 2 ? 7 : 0);
+            if (board.isValidMove(pit, player)) {
+                player1Turn = board.makeMove(pit, player);
+            }
+        } while (!board.checkGameOver());
+        return board.determineWinner();
+    }
+
+    /**
+     * The same game straight on MancalaEngine's packed position.
+     *
+     * @return the winner
+     */
+    @Benchmark
+    public int randomGameEngine() {
+        long lo = MancalaEngine.START_LO;
+        long hi = MancalaEngine.START_HI;
+        int player = 1;
+        while (!MancalaEngine.isGameOver(lo, hi)) {
+            int pit = Positions.randomMove(random, MancalaEngine.legalMoves(lo, hi, player)) + (player == 2 ? 7 : 0);
+            int result = MancalaEngine.move(lo, hi, player, pit, position);
+            lo = position[0];
+            hi = position[1];
+            if ((result & MancalaEngine.EXTRA_TURN) == 0) {
+                player = 3 - player;
+            }
+        }
+        MancalaEngine.finish(lo, hi, position);
+        return MancalaEngine.winner(position[0], position[1]);
+    }
+}
@@ -0,0 +1,60 @@
+package Benchmarks;
+
+import Server.Board;
+import Server.HintService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One hint from the HintService: a position it has already analysed (`cached`, just the HintCache lookup), and
+ * positions from random games it mostly hasn't (`uncached`, the few early positions every game passes through are
+ * cached after the first time), which search every move in parallel until HINT_DEPTH or the deadline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HintBenchmark {
+
+    private static final int COUNT = 1 << 14; // More than every iteration together analyses
+    private static final int CACHED = 64;
+
+    private long[][] positions; // {lo, hi, player}
+    private HintService hints;
+    private int next;
+    private int nextCached;
+
+    @Setup
+    public void setup() {
+        Positions.silenceStdout();
+        Board[] boards = Positions.midGame(COUNT, 1);
+        positions = new long[COUNT][];
+        for (int i = 0; i < COUNT; i++) {
+            int player = (i & 1) + 1;
+            if (boards[i].getLegalMoves(player) == 0) {
+                player = 3 - player;
+            }
+            positions[i] = new long[]{boards[i].getLo(), boards[i].getHi(), player};
+        }
+        hints = new HintService(Runtime.getRuntime().availableProcessors(), 64, null);
+        next = CACHED;
+        for (int i = 0; i < CACHED; i++) {
+            hints.await(positions[i][0], positions[i][1], (int) positions[i][2]);
+        }
+    }
+
+    @Benchmark
+    public HintService.Analysis cached() {
+        long[] position = positions[nextCached++ & (CACHED - 1)];
+        return hints.await(position[0], position[1], (int) position[2]);
+    }
+
+    @Benchmark
+    public HintService.Analysis uncached() {
+        long[] position = positions[next++ & (COUNT - 1)];
+        return hints.await(position[0], position[1], (int) position[2]);
+    }
+}
@@ -0,0 +1,69 @@
+package Benchmarks;
+
+import Server.InputFramer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading one text protocol move: InputFramer, and the BufferedReader.readLine() and Integer.parseInt() it replaced,
+ * from a stream that never runs out of moves.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InputBenchmark {
+
+    private InputFramer framer;
+    private BufferedReader reader;
+
+    @Setup
+    public void setup() {
+        framer = new InputFramer(new Moves());
+        reader = new BufferedReader(new InputStreamReader(new Moves()));
+    }
+
+    @Benchmark
+    public int framer() throws IOException {
+        return framer.readNumber();
+    }
+
+    @Benchmark
+    public Integer readLine() throws IOException {
+        try {
+            return Integer.parseInt(reader.readLine().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * "0\n" to "5\n" over and over, like a player who is always quick to answer.
+     */
+    private static class Moves extends InputStream {
+        private static final byte[] MOVES = "0\n1\n2\n3\n4\n5\n".getBytes(StandardCharsets.US_ASCII);
+        private int next = 0;
+
+        public int read() {
+            int b = MOVES[next];
+            next = (next + 1) % MOVES.length;
+            return b;
+        }
+
+        public int read(byte[] buffer, int offset, int length) {
+            for (int i = 0; i < length; i++) {
+                buffer[offset + i] = MOVES[next];
+                next = (next + 1) % MOVES.length;
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package Benchmarks;
+
+import Server.Journal;
+import Server.MancalaEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * What journaling adds to every move: Journal.moveMade(), with the flush thread forcing batches to disk in the
+ * background (and rolling over and compacting segments, since a benchmark fills one in well under a second).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+    private Path directory;
+    private Journal journal;
+
+    @State(Scope.Thread)
+    public static class Game {
+        private static int games;
+        int gameNumber;
+        int moveNumber;
+
+        @Setup
+        public void setup() {
+            synchronized (Game.class) {
+                gameNumber = ++games;
+            }
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Positions.silenceStdout();
+        directory = Files.createTempDirectory("journal-benchmark");
+        journal = Journal.open(directory);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.flush();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void moveMade(Game game) {
+        journal.moveMade(game.gameNumber, 1, 2, MancalaEngine.START_LO, MancalaEngine.START_HI, ++game.moveNumber);
+    }
+
+    /**
+     * Four games moving at once, all appending to the same journal.
+     */
+    @Benchmark
+    @Threads(4)
+    public void moveMadeContended(Game game) {
+        journal.moveMade(game.gameNumber, 1, 2, MancalaEngine.START_LO, MancalaEngine.START_HI, ++game.moveNumber);
+    }
+}
@@ -0,0 +1,181 @@
+package Benchmarks;
+
+import Server.BinaryProtocol;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A scripted player for ServerRoundTripBenchmark, speaking either the text protocol (like netcat) or BinaryProtocol
+ * (like Client.Client).
+ * <p>
+ * It sends pit 0 as its first move the moment it connects.  For a text player that is what tells the lobby which
+ * protocol it speaks (instead of the lobby waiting 100ms for a binary handshake), and pit 0 is always a legal first
+ * move: for player 1 on the start position, and for player 2 after player 1 has played pit 0.
+ */
+final class LoopbackPlayer implements Closeable {
+
+    static final int WAITING = -1; // The opponent is moving
+    static final int GAME_OVER = -2;
+
+    private final Socket socket;
+    private final boolean binary;
+    private final DataInputStream in; // Binary
+    private final BufferedReader reader; // Text
+    private final OutputStream out;
+    private final byte[] frame = new byte[BinaryProtocol.MAX_FRAME_SIZE];
+    private int seat;
+    private boolean firstMoveSent = true; // The first prompt we get was already answered
+
+    private LoopbackPlayer(Socket socket, boolean binary) throws IOException {
+        this.socket = socket;
+        this.binary = binary;
+        socket.setTcpNoDelay(true);
+        out = socket.getOutputStream();
+        if (binary) {
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            reader = null;
+            out.write(new byte[]{(byte) BinaryProtocol.HANDSHAKE, 0});
+        } else {
+            in = null;
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out.write("0\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Function that connects to the server, retrying for a while if it isn't listening yet.
+     *
+     * @param port
+     * @param binary true for BinaryProtocol, false for text
+     * @param timeoutMillis how long to keep retrying
+     * @return the connected player
+     */
+    static LoopbackPlayer connect(int port, boolean binary, long timeoutMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            try {
+                return new LoopbackPlayer(new Socket(InetAddress.getLoopbackAddress(), port), binary);
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException interrupted) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Function that waits for the server to say which seat we have.
+     *
+     * @return 1 or 2
+     */
+    int readSeat() throws IOException {
+        while (seat == 0) {
+            if (readMessage() == GAME_OVER) {
+                throw new EOFException("Game over before we were seated");
+            }
+        }
+        return seat;
+    }
+
+    /**
+     * Function that reads until the server tells us whose turn it is.
+     *
+     * @return bitmask of our legal moves if it is our turn, WAITING if it is the opponent's, or GAME_OVER
+     */
+    int readTurn() throws IOException {
+        while (true) {
+            int message = readMessage();
+            if (message == Integer.MIN_VALUE) {
+                continue; // Not about turns
+            }
+            if (message >= 0 && firstMoveSent) {
+                firstMoveSent = false;
+                continue;
+            }
+            return message;
+        }
+    }
+
+    /**
+     * @return legal moves for a prompt, WAITING, GAME_OVER, or Integer.MIN_VALUE for anything else
+     */
+    private int readMessage() throws IOException {
+        if (binary) {
+            int type = in.readUnsignedByte();
+            switch (type) {
+                case BinaryProtocol.WELCOME:
+                    seat = in.readUnsignedByte();
+                    return Integer.MIN_VALUE;
+                case BinaryProtocol.BOARD:
+                case BinaryProtocol.DELTA:
+                    int toMove = in.readUnsignedByte();
+                    int legal = in.readUnsignedByte();
+                    in.readFully(frame, 0, type == BinaryProtocol.BOARD ? BinaryProtocol.PITS : 2 * in.readUnsignedByte());
+                    if (toMove == 0) {
+                        return Integer.MIN_VALUE; // The final board, GAME_OVER follows
+                    }
+                    return toMove == seat ? legal : WAITING;
+                case BinaryProtocol.GAME_OVER:
+                    in.readFully(frame, 0, 3);
+                    return GAME_OVER;
+                case BinaryProtocol.SESSION:
+                    in.readFully(frame, 0, BinaryProtocol.TOKEN_SIZE);
+                    return Integer.MIN_VALUE;
+                case BinaryProtocol.CLOCK:
+                    in.readFully(frame, 0, 4);
+                    return Integer.MIN_VALUE;
+                case BinaryProtocol.TIME_UP:
+                    in.readUnsignedByte();
+                    return Integer.MIN_VALUE;
+                default:
+                    return Integer.MIN_VALUE; // OPPONENT_JOINED, GAME_STARTED, INVALID_MOVE
+            }
+        }
+
+        String line = reader.readLine();
+        if (line == null) {
+            throw new EOFException("Server closed the connection");
+        }
+        if (line.startsWith("Possible Moves: ")) {
+            int legal = 0;
+            for (int i = 16; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c >= '0' && c <= '5') {
+                    legal |= 1 << (c - '0');
+                }
+            }
+            return legal;
+        } else if (line.startsWith("Opponents turn!")) {
+            return WAITING;
+        } else if (line.startsWith("Stopping thread in")) {
+            return GAME_OVER;
+        } else if (line.startsWith("Welcome Player ")) {
+            seat = line.charAt(15) - '0';
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * @param pit 0-5
+     */
+    void sendMove(int pit) throws IOException {
+        if (binary) {
+            out.write(pit);
+        } else {
+            out.write(new byte[]{(byte) ('0' + pit), '\n'});
+        }
+    }
+
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,66 @@
+package Benchmarks;
+
+import Server.Board;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.SplittableRandom;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+final class Positions {
+
+    private Positions() {
+    }
+
+    /**
+     * Function that makes positions from random games that still have moves left for both players.
+     *
+     * @param count how many
+     * @param seed
+     * @return boards, none of them finished
+     */
+    static Board[] midGame(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Board[] boards = new Board[count];
+        for (int i = 0; i < count; i++) {
+            Board board;
+            do {
+                board = new Board();
+                boolean player1Turn = true;
+                int moves = random.nextInt(40);
+                for (int m = 0; m < moves && board.getLegalMoves(1) != 0 && board.getLegalMoves(2) != 0; m++) {
+                    int player = player1Turn ? 1 : 2;
+                    player1Turn = board.makeMove(randomMove(random, board.getLegalMoves(player)) + (player == 2 ? 7 : 0),
+                            player);
+                }
+            } while (board.getLegalMoves(1) == 0 || board.getLegalMoves(2) == 0);
+            boards[i] = board;
+        }
+        return boards;
+    }
+
+    /**
+     * Function that picks one of the moves in a bitmask of legal moves.
+     *
+     * @param random
+     * @param legalMoves bit i set if pit i can be played, must not be 0
+     * @return the pit, 0-5
+     */
+    static int randomMove(SplittableRandom random, int legalMoves) {
+        int pick = random.nextInt(Integer.bitCount(legalMoves));
+        while (pick-- > 0) {
+            legalMoves &= legalMoves - 1; // Drop the lowest move
+        }
+        return Integer.numberOfTrailingZeros(legalMoves);
+    }
+
+    /**
+     * Function that throws away everything printed to System.out.  The server logs every game (on Log's background
+     * thread), which would otherwise flood the JMH output.
+     */
+    static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
@@ -0,0 +1,110 @@
+package Benchmarks;
+
+import Server.GameServer;
+import Server.NioGameServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One move over loopback sockets: the mover sends a random legal move, and both players read what the server sends
+ * back until they know whose turn it is next.  That covers everything a move costs on the server (reading the move,
+ * the rules, rendering or encoding the board twice and writing it to both sockets) plus the client side.
+ * <p>
+ * The server runs in the benchmark JVM, so the gc profiler numbers are client and server together.  When a game ends
+ * the two players hang up and a new pair connects, which happens inside the measurement about once every 40 moves;
+ * the sample mode percentiles separate that from the round trip itself.
+ * <p>
+ * Other server modes can be picked with -p mode=thread|pool|nio (nio only speaks text).
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ServerRoundTripBenchmark {
+
+    private static final int PORT = 10241;
+
+    @Param({"text", "binary"})
+    public String protocol;
+
+    @Param({"virtual"})
+    public String mode;
+
+    private LoopbackPlayer mover;
+    private LoopbackPlayer opponent;
+    private int legalMoves;
+    private SplittableRandom random;
+
+    @Setup
+    public void setup() throws IOException {
+        Positions.silenceStdout();
+        if (mode.equals("nio") && protocol.equals("binary")) {
+            throw new IllegalArgumentException("The NIO server only speaks the text protocol");
+        }
+        Runnable server;
+        if (mode.equals("nio")) {
+            NioGameServer nioServer = new NioGameServer(PORT, 1);
+            server = nioServer::start;
+        } else {
+            GameServer gameServer = new GameServer(new GameServer.Options().port(PORT)
+                    .gameExecutor(GameServer.createExecutor(mode, 4)));
+            server = gameServer::start;
+        }
+        Thread.ofPlatform().daemon().name("server").start(server);
+
+        random = new SplittableRandom(42);
+        newGame(10000);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mover.close();
+        opponent.close();
+    }
+
+    /**
+     * Function that connects a new pair of players and plays their opening moves, so player 1 is left to move.
+     */
+    private void newGame(long connectTimeoutMillis) throws IOException {
+        boolean binary = protocol.equals("binary");
+        LoopbackPlayer first = LoopbackPlayer.connect(PORT, binary, connectTimeoutMillis);
+        LoopbackPlayer second = LoopbackPlayer.connect(PORT, binary, connectTimeoutMillis);
+        LoopbackPlayer player1 = first.readSeat() == 1 ? first : second;
+        LoopbackPlayer player2 = player1 == first ? second : first;
+
+        // Both players sent pit 0 when they connected: player 1's move, then player 2's
+        player1.readTurn(); // WAITING for player 2
+        player2.readTurn(); // WAITING for player 1
+        player2.readTurn(); // WAITING for player 1 again, after player 2's own move
+        legalMoves = player1.readTurn();
+        mover = player1;
+        opponent = player2;
+    }
+
+    @Benchmark
+    public int moveRoundTrip() throws IOException {
+        mover.sendMove(Positions.randomMove(random, legalMoves));
+        int moverTurn = mover.readTurn();
+        int opponentTurn = opponent.readTurn();
+        if (moverTurn == LoopbackPlayer.GAME_OVER) {
+            mover.close();
+            opponent.close();
+            newGame(0);
+            return 0;
+        }
+        if (moverTurn == LoopbackPlayer.WAITING) {
+            LoopbackPlayer next = opponent;
+            opponent = mover;
+            mover = next;
+            legalMoves = opponentTurn;
+        } else {
+            legalMoves = moverTurn;
+        }
+        return legalMoves;
+    }
+}
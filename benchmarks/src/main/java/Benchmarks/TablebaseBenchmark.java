@@ -0,0 +1,93 @@
+package Benchmarks;
+
+import Server.MancalaEngine;
+import Server.Search;
+import Server.Tablebase;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Endgames with the Tablebase: probing one position, and an 8 ply search from a position with a few more seeds than
+ * the tablebase has, with and without it (`tablebase` only changes the search).  Builds a MAX_SEEDS tablebase in a
+ * temporary file first, which takes well under a second.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TablebaseBenchmark {
+
+    private static final int MAX_SEEDS = 10;
+    private static final int SEARCH_SEEDS = 14;
+    private static final int SEARCH_DEPTH = 8;
+    private static final int COUNT = 1024;
+
+    @Param({"false", "true"})
+    private boolean tablebase;
+
+    private Path file;
+    private Tablebase table;
+    private Search search;
+    private long[][] endgames; // MAX_SEEDS seeds in the pits, {lo, hi}
+    private long[][] nearEndgames; // SEARCH_SEEDS
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        Positions.silenceStdout();
+        file = Files.createTempFile("tablebase-benchmark", "");
+        Tablebase.build(MAX_SEEDS, file, ForkJoinPool.commonPool());
+        table = Tablebase.open(file);
+        table.getMaxSeeds(); // Mapped before measuring
+        search = new Search(16, tablebase ? table : null);
+        endgames = positions(MAX_SEEDS, 1);
+        nearEndgames = positions(SEARCH_SEEDS, 2);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Function that scatters seeds over the pits at random, until both players have some.
+     */
+    private static long[][] positions(int seeds, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        long[][] positions = new long[COUNT][];
+        for (int i = 0; i < COUNT; i++) {
+            long lo;
+            long hi;
+            do {
+                int[][] pits = new int[2][7];
+                for (int s = 0; s < seeds; s++) {
+                    pits[random.nextInt(2)][random.nextInt(6)]++;
+                }
+                lo = MancalaEngine.pack(pits[0]);
+                hi = MancalaEngine.pack(pits[1]);
+            } while (MancalaEngine.isGameOver(lo, hi));
+            positions[i] = new long[]{lo, hi};
+        }
+        return positions;
+    }
+
+    @Benchmark
+    public int probe() {
+        long[] position = endgames[next++ & (COUNT - 1)];
+        return table.probe(position[0], position[1], 1);
+    }
+
+    @Benchmark
+    public int search() {
+        long[] position = nearEndgames[next++ & (COUNT - 1)];
+        return search.bestMove(position[0], position[1], 1, Long.MAX_VALUE, SEARCH_DEPTH);
+    }
+}
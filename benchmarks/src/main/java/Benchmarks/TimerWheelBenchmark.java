@@ -0,0 +1,40 @@
+package Benchmarks;
+
+import Server.TimerWheel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a move costs the game clocks: scheduling the next turn's timeout and cancelling it, on a wheel that already
+ * holds a timeout for each of `clocks` other games.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimerWheelBenchmark {
+
+    private static final Runnable NOTHING = () -> {
+    };
+
+    @Param({"0", "100000"})
+    private int clocks;
+
+    private TimerWheel wheel;
+
+    @Setup
+    public void setup() {
+        wheel = new TimerWheel("benchmark-wheel");
+        for (int i = 0; i < clocks; i++) {
+            wheel.schedule(NOTHING, TimeUnit.HOURS.toMillis(1) + i); // Never due during the benchmark
+        }
+    }
+
+    @Benchmark
+    public boolean turn() {
+        return wheel.schedule(NOTHING, 60000).cancel();
+    }
+}